@@ -0,0 +1,395 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-level ALTER TABLE operations for SQLite.
+ * <p>
+ * When the SQLite library is new enough, the native {@code ALTER TABLE ... RENAME COLUMN} (3.25.0) and
+ * {@code ALTER TABLE ... DROP COLUMN} (3.35.0) statements are used, which change the schema without copying rows.
+ * Older libraries get a rebuild that copies the table once inside a transaction: the new table is created from
+ * {@code PRAGMA table_info} with column order, types, NOT NULL, defaults and the primary key intact, the rows
+ * are copied with their rowids, the old table is dropped and the new one renamed into place, and indexes and
+ * triggers are recreated. If any step fails the transaction rolls back and no helper table is left behind.
+ * <p>
+ * {@code PRAGMA table_info} does not describe CHECK, REFERENCES (FOREIGN KEY), COLLATE or AUTOINCREMENT clauses,
+ * so a table defined with any of them is not rebuilt, and neither is a column that a trigger on the table
+ * mentions; both fail with an SQLException and leave the table unchanged.
+ */
+public class AlterTable {
+    private static final int[] RENAME_COLUMN_VERSION = {3, 25, 0};
+    private static final int[] DROP_COLUMN_VERSION = {3, 35, 0};
+    private static final String[] UNSUPPORTED_CLAUSES = {"check", "references", "collate", "autoincrement"};
+
+    /**
+     * Renames a column, natively if supported, otherwise by rebuilding the table.
+     *
+     * @param conn          Connection object representing the database connection.
+     * @param tableName     Name of the table containing the column.
+     * @param oldColumnName Name of the column to be renamed.
+     * @param newColumnName New name for the column.
+     * @throws SQLException If the column cannot be renamed; the table is left unchanged.
+     */
+    public static void renameColumn(Connection conn, String tableName, String oldColumnName, String newColumnName)
+            throws SQLException {
+        if (supports(conn, RENAME_COLUMN_VERSION)) {
+            execute(conn, "ALTER TABLE " + quote(tableName) + " RENAME COLUMN " + quote(oldColumnName)
+                    + " TO " + quote(newColumnName));
+        } else {
+            rebuild(conn, tableName, oldColumnName, newColumnName);
+        }
+    }
+
+    /**
+     * Drops a column, natively if supported, otherwise by rebuilding the table.
+     *
+     * @param conn       Connection object representing the database connection.
+     * @param tableName  Name of the table containing the column.
+     * @param columnName Name of the column to be dropped.
+     * @throws SQLException If the column cannot be dropped; the table is left unchanged.
+     */
+    public static void dropColumn(Connection conn, String tableName, String columnName) throws SQLException {
+        if (supports(conn, DROP_COLUMN_VERSION)) {
+            execute(conn, "ALTER TABLE " + quote(tableName) + " DROP COLUMN " + quote(columnName));
+        } else {
+            rebuild(conn, tableName, columnName, null);
+        }
+    }
+
+    /**
+     * Checks whether the SQLite library behind the connection is at least the given version.
+     */
+    static boolean supports(Connection conn, int[] required) throws SQLException {
+        String version;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT sqlite_version()")) {
+            version = rs.next() ? rs.getString(1) : "0";
+        }
+        String[] parts = version.split("\\.");
+        for (int i = 0; i < required.length; i++) {
+            int part = i < parts.length ? Integer.parseInt(parts[i].replaceAll("\\D.*", "")) : 0;
+            if (part != required[i]) {
+                return part > required[i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds a table with one column renamed ({@code newColumnName} set) or dropped ({@code newColumnName} null),
+     * copying the rows once inside a transaction.
+     */
+    private static void rebuild(Connection conn, String tableName, String columnName, String newColumnName)
+            throws SQLException {
+        // Read the current shape of the table
+        List<String[]> columns = new ArrayList<>();
+        List<String> primaryKey = new ArrayList<>();
+        boolean found = false;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + quote(tableName) + ")")) {
+            while (rs.next()) {
+                // name, type, notnull, dflt_value
+                String name = rs.getString("name");
+                columns.add(new String[]{name, rs.getString("type"), rs.getString("notnull"), rs.getString("dflt_value")});
+                if (rs.getInt("pk") > 0) {
+                    primaryKey.add(name);
+                }
+                found |= name.equalsIgnoreCase(columnName);
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new SQLException("no such table: " + tableName);
+        }
+        if (!found) {
+            throw new SQLException("no such column: " + columnName + " in table " + tableName);
+        }
+        if (newColumnName == null && containsIgnoreCase(primaryKey, columnName)) {
+            throw new SQLException("cannot drop primary key column " + columnName + " from table " + tableName);
+        }
+
+        // Refuse what the new definition would silently lose
+        String definition = withoutQuotes(tableSql(conn, tableName));
+        for (String clause : UNSUPPORTED_CLAUSES) {
+            if (mentions(definition, clause)) {
+                throw new SQLException("cannot rebuild table " + tableName + ": its definition has a "
+                        + clause.toUpperCase() + " clause; recreate the table instead");
+            }
+        }
+
+        // Collect indexes and triggers to recreate once the new table is in place
+        List<String> dependents = new ArrayList<>();
+        collectIndexes(conn, tableName, columnName, newColumnName, dependents);
+        collectTriggers(conn, tableName, columnName, newColumnName, dependents);
+
+        // Build the new table definition, keeping column order
+        String rebuildName = tableName + "_rebuild";
+        StringBuilder create = new StringBuilder("CREATE TABLE " + quote(rebuildName) + " (");
+        StringBuilder targetColumns = new StringBuilder();
+        StringBuilder sourceColumns = new StringBuilder();
+        for (String[] column : columns) {
+            String name = column[0];
+            if (name.equalsIgnoreCase(columnName)) {
+                if (newColumnName == null) {
+                    continue; // Dropped column
+                }
+                name = newColumnName;
+            }
+            create.append(quote(name));
+            if (column[1] != null && !column[1].isEmpty()) {
+                create.append(' ').append(column[1]);
+            }
+            if ("1".equals(column[2])) {
+                create.append(" NOT NULL");
+            }
+            if (column[3] != null) {
+                create.append(" DEFAULT ").append(column[3]);
+            }
+            create.append(", ");
+            targetColumns.append(quote(name)).append(", ");
+            sourceColumns.append(quote(column[0])).append(", ");
+        }
+        if (!primaryKey.isEmpty()) {
+            create.append("PRIMARY KEY (");
+            for (String key : primaryKey) {
+                create.append(quote(key.equalsIgnoreCase(columnName) ? newColumnName : key)).append(", ");
+            }
+            create.setLength(create.length() - 2);
+            create.append("), ");
+        }
+        create.setLength(create.length() - 2);
+        create.append(")");
+        targetColumns.setLength(targetColumns.length() - 2);
+        sourceColumns.setLength(sourceColumns.length() - 2);
+
+        // Keep the rowids, which other tables and the change feed may refer to, unless the primary key already is
+        // the rowid or a column takes its name
+        boolean keepRowid = !mentions(definition, "without");
+        for (String[] column : columns) {
+            boolean alias = primaryKey.size() == 1 && column[0].equalsIgnoreCase(primaryKey.get(0))
+                    && "INTEGER".equalsIgnoreCase(column[1]);
+            keepRowid &= !alias && !column[0].equalsIgnoreCase("rowid");
+        }
+        if (keepRowid) {
+            targetColumns.insert(0, "rowid, ");
+            sourceColumns.insert(0, "rowid, ");
+        }
+
+        // Swap the tables inside one transaction, or a savepoint if the caller already has one open
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) {
+            conn.setAutoCommit(false);
+        } else {
+            execute(conn, "SAVEPOINT alter_table");
+        }
+        try {
+            execute(conn, create.toString());
+            execute(conn, "INSERT INTO " + quote(rebuildName) + " (" + targetColumns + ") SELECT "
+                    + sourceColumns + " FROM " + quote(tableName));
+            execute(conn, "DROP TABLE " + quote(tableName));
+            execute(conn, "ALTER TABLE " + quote(rebuildName) + " RENAME TO " + quote(tableName));
+            for (String sql : dependents) {
+                execute(conn, sql);
+            }
+            if (autoCommit) {
+                conn.commit();
+            } else {
+                execute(conn, "RELEASE alter_table");
+            }
+        } catch (SQLException e) {
+            if (autoCommit) {
+                conn.rollback();
+            } else {
+                execute(conn, "ROLLBACK TO alter_table");
+                execute(conn, "RELEASE alter_table");
+            }
+            throw e;
+        } finally {
+            if (autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Collects CREATE INDEX statements for the table's indexes as they should look after the change.
+     * Indexes on a dropped column are left out; unique constraints become unique indexes.
+     */
+    private static void collectIndexes(Connection conn, String tableName, String columnName, String newColumnName,
+                                       List<String> dependents) throws SQLException {
+        Map<String, Boolean> indexes = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            // The driver returns no result set at all for a table without indexes
+            if (stmt.execute("PRAGMA index_list(" + quote(tableName) + ")")) {
+                try (ResultSet rs = stmt.getResultSet()) {
+                    while (rs.next()) {
+                        indexes.put(rs.getString("name"), rs.getInt("unique") == 1);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Boolean> index : indexes.entrySet()) {
+            String indexName = index.getKey();
+            List<String> indexColumns = new ArrayList<>();
+            try (Statement stmt = conn.createStatement()) {
+                if (stmt.execute("PRAGMA index_info(" + quote(indexName) + ")")) {
+                    try (ResultSet rs = stmt.getResultSet()) {
+                        while (rs.next()) {
+                            indexColumns.add(rs.getString("name"));
+                        }
+                    }
+                }
+            }
+            boolean touchesColumn = containsIgnoreCase(indexColumns, columnName);
+            if (touchesColumn && newColumnName == null) {
+                Log.warn("Index " + indexName + " dropped together with column " + columnName);
+                continue;
+            }
+
+            String originalSql = null;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'index' AND name = '"
+                         + indexName.replace("'", "''") + "'")) {
+                if (rs.next()) {
+                    originalSql = rs.getString(1);
+                }
+            }
+            boolean isPrimaryKey = originalSql == null && isPrimaryKeyIndex(conn, tableName, indexColumns);
+            if (isPrimaryKey) {
+                continue; // Recreated by the PRIMARY KEY clause of the new table
+            }
+            if (originalSql != null && !touchesColumn) {
+                dependents.add(originalSql); // Unchanged index, keep its exact definition
+                continue;
+            }
+
+            // Rebuild the definition from its columns, with the renamed column
+            String name = originalSql != null ? indexName : tableName + "_" + String.join("_", indexColumns) + "_unique";
+            StringBuilder sql = new StringBuilder(index.getValue() ? "CREATE UNIQUE INDEX " : "CREATE INDEX ");
+            sql.append(quote(name)).append(" ON ").append(quote(tableName)).append(" (");
+            for (String col : indexColumns) {
+                sql.append(quote(col.equalsIgnoreCase(columnName) ? newColumnName : col)).append(", ");
+            }
+            sql.setLength(sql.length() - 2);
+            sql.append(")");
+            dependents.add(sql.toString());
+        }
+    }
+
+    /**
+     * Collects CREATE TRIGGER statements for the table. Triggers mentioning the altered column cannot be
+     * rewritten safely, so the rebuild is refused until they are dropped.
+     */
+    private static void collectTriggers(Connection conn, String tableName, String columnName, String newColumnName,
+                                        List<String> dependents) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, sql FROM sqlite_master WHERE type = 'trigger' AND tbl_name = '"
+                     + tableName.replace("'", "''") + "'")) {
+            while (rs.next()) {
+                String sql = rs.getString("sql");
+                if (mentions(sql, columnName)) {
+                    throw new SQLException("cannot rebuild table " + tableName + ": trigger " + rs.getString("name")
+                            + " references column " + columnName + "; drop it first");
+                }
+                dependents.add(sql);
+            }
+        }
+    }
+
+    /**
+     * Checks whether an automatic index backs the primary key rather than a UNIQUE constraint.
+     */
+    private static boolean isPrimaryKeyIndex(Connection conn, String tableName, List<String> indexColumns)
+            throws SQLException {
+        List<String> primaryKey = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + quote(tableName) + ")")) {
+            while (rs.next()) {
+                if (rs.getInt("pk") > 0) {
+                    primaryKey.add(rs.getString("name").toLowerCase());
+                }
+            }
+        }
+        List<String> lowered = new ArrayList<>();
+        for (String col : indexColumns) {
+            lowered.add(col.toLowerCase());
+        }
+        return lowered.containsAll(primaryKey) && primaryKey.containsAll(lowered);
+    }
+
+    /**
+     * Reads the CREATE TABLE statement the table was defined with.
+     */
+    private static String tableSql(Connection conn, String tableName) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = '"
+                     + tableName.replace("'", "''") + "'")) {
+            return rs.next() ? rs.getString(1) : "";
+        }
+    }
+
+    /**
+     * Blanks out string literals and quoted identifiers, so that only the keywords of a definition are left.
+     */
+    private static String withoutQuotes(String sql) {
+        StringBuilder keywords = new StringBuilder(sql.length());
+        char close = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (close != 0) {
+                if (c == close) {
+                    close = 0; // A doubled quote closes and reopens, which blanks out the same
+                }
+                keywords.append(' ');
+            } else if (c == '\'' || c == '"' || c == '`') {
+                close = c;
+                keywords.append(' ');
+            } else if (c == '[') {
+                close = ']';
+                keywords.append(' ');
+            } else {
+                keywords.append(c);
+            }
+        }
+        return keywords.toString();
+    }
+
+    private static boolean mentions(String sql, String identifier) {
+        String lowerSql = sql.toLowerCase();
+        String lowerId = identifier.toLowerCase();
+        int index = lowerSql.indexOf(lowerId);
+        while (index >= 0) {
+            int end = index + lowerId.length();
+            boolean startsWord = index == 0 || !Character.isLetterOrDigit(lowerSql.charAt(index - 1)) && lowerSql.charAt(index - 1) != '_';
+            boolean endsWord = end == lowerSql.length() || !Character.isLetterOrDigit(lowerSql.charAt(end)) && lowerSql.charAt(end) != '_';
+            if (startsWord && endsWord) {
+                return true;
+            }
+            index = lowerSql.indexOf(lowerId, index + 1);
+        }
+        return false;
+    }
+
+    private static boolean containsIgnoreCase(List<String> names, String name) {
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
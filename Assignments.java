@@ -0,0 +1,102 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The SET list of an UPDATE, rendered as SQL with {@code ?} placeholders plus the values to bind to them,
+ * like {@link Condition} does for the WHERE clause.
+ * <pre>
+ *     Assignments.of("status", "done").increment("payment", 500)
+ *     // status = ?, payment = payment + ?, parameters [done, 500]
+ * </pre>
+ */
+public final class Assignments {
+    private final StringBuilder sql = new StringBuilder();
+    private final List<Object> parameters = new ArrayList<>();
+    private final List<String> columns = new ArrayList<>();
+
+    /**
+     * @param column Column name.
+     * @param value  New value of the column; may be null.
+     * @return       Assignments starting with {@code column = value}.
+     */
+    public static Assignments of(String column, Object value) {
+        return new Assignments().set(column, value);
+    }
+
+    /**
+     * Adds {@code column = value}.
+     *
+     * @param column Column name.
+     * @param value  New value of the column; may be null.
+     * @return       These assignments.
+     */
+    public Assignments set(String column, Object value) {
+        String name = Condition.identifier(column);
+        return add(name, name + " = ?", value);
+    }
+
+    /**
+     * Adds {@code column = column + delta}, computed by the database so concurrent updates are not lost.
+     *
+     * @param column Numeric column name.
+     * @param delta  Amount to add; negative to subtract.
+     * @return       These assignments.
+     */
+    public Assignments increment(String column, Number delta) {
+        String name = Condition.identifier(column);
+        return add(name, name + " = " + name + " + ?", delta);
+    }
+
+    /** @return True if nothing has been assigned yet. */
+    public boolean isEmpty() {
+        return parameters.isEmpty();
+    }
+
+    /** @return SQL text of the SET list, without the SET keyword, with a {@code ?} for every parameter. */
+    public String getSql() {
+        return sql.toString();
+    }
+
+    /** @return Values for the placeholders, in order. */
+    public List<Object> getParameters() {
+        return Collections.unmodifiableList(parameters);
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+
+    /** @return Columns assigned, in order. */
+    List<String> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Binds the parameters to a prepared statement.
+     *
+     * @param pstmt Statement whose SQL contains these assignments.
+     * @param first Index of the first placeholder of the assignments in the statement.
+     * @return      Index of the placeholder following their last one.
+     */
+    int bind(PreparedStatement pstmt, int first) throws SQLException {
+        int index = first;
+        for (Object parameter : parameters) {
+            pstmt.setObject(index++, parameter);
+        }
+        return index;
+    }
+
+    private Assignments add(String column, String assignment, Object value) {
+        if (sql.length() > 0) {
+            sql.append(", ");
+        }
+        sql.append(assignment);
+        parameters.add(value);
+        columns.add(column);
+        return this;
+    }
+}
@@ -0,0 +1,362 @@
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking facade over {@link SchemaDB}: every operation runs on its own task and returns a
+ * {@link CompletableFuture}.
+ * <p>
+ * Tasks run on virtual threads when the JVM has them (Java 21 and later), so thousands of callers can
+ * wait on the SQLite file lock without holding a platform thread each. On older JVMs they run on a fixed
+ * pool of daemon threads. A semaphore sized to the connection pool limits how many tasks hold a connection
+ * at once; the rest wait for a permit without borrowing one.
+ * <p>
+ * Each call has a timeout. The future fails with a {@link TimeoutException} once it expires, and the task's
+ * connection waits for other connections' locks no longer than the time left, through
+ * {@link Statement#setQueryTimeout(int)}. Cancelling or timing out a future stops a task that is still
+ * waiting for a permit or a connection. A statement that is already running finishes, because the SQLite
+ * driver cannot interrupt a statement while it executes.
+ */
+public class AsyncSchemaDB implements AutoCloseable {
+    // Default time allowed for one call, from submission to result
+    public static final long DEFAULT_TIMEOUT_MILLIS = Long.getLong("async.timeoutMillis", 30_000L);
+
+    // One facade per database URL
+    private static final Map<String, AsyncSchemaDB> facades = new ConcurrentHashMap<>();
+
+    // Time from submission until a task holds a connection, and calls that timed out, see Metrics
+    private static final Metrics.Operation QUEUE_WAIT = Metrics.operation("async.queueWait");
+    private static final Metrics.Counter TIMEOUTS = Metrics.counter("async.timeouts");
+
+    private final ConnectionPool pool;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * An operation run with a borrowed connection on the facade's executor.
+     *
+     * @param <T> Type of the operation's result.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        /**
+         * @param conn Connection borrowed for this call; it is returned to the pool afterwards, do not close it.
+         * @return     Result handed to the caller's future.
+         * @throws SQLException To fail the caller's future.
+         */
+        T apply(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Creates a facade allowing as many concurrent calls as the pool has connections.
+     *
+     * @param pool          Pool the calls borrow their connections from.
+     * @param timeoutMillis Time allowed for one call, 0 for no limit.
+     */
+    public AsyncSchemaDB(ConnectionPool pool, long timeoutMillis) {
+        this(pool, pool.getMaxSize(), timeoutMillis);
+    }
+
+    /**
+     * Creates a facade.
+     *
+     * @param pool           Pool the calls borrow their connections from.
+     * @param maxConcurrency Number of calls that may hold a connection at the same time.
+     * @param timeoutMillis  Time allowed for one call, 0 for no limit.
+     */
+    public AsyncSchemaDB(ConnectionPool pool, int maxConcurrency, long timeoutMillis) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        this.pool = pool;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.timeoutMillis = timeoutMillis;
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : newPlatformThreadExecutor(maxConcurrency);
+    }
+
+    /**
+     * Returns the shared facade for a database URL, creating it on first use with the URL's shared
+     * pool and the {@code async.timeoutMillis} system property as timeout.
+     *
+     * @param url JDBC URL of the SQLite database.
+     * @return    Async facade for that database.
+     */
+    public static AsyncSchemaDB forUrl(String url) {
+        return facades.computeIfAbsent(url, u -> new AsyncSchemaDB(ConnectionPool.forUrl(u), DEFAULT_TIMEOUT_MILLIS));
+    }
+
+    /** @return True if calls run on virtual threads, false if on platform threads. */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Runs an operation with a borrowed connection, with the facade's timeout.
+     *
+     * @param call Operation to run.
+     * @param <T>  Type of the operation's result.
+     * @return     Future of the operation's result.
+     */
+    public <T> CompletableFuture<T> call(Call<T> call) {
+        return call(call, timeoutMillis);
+    }
+
+    /**
+     * Runs an operation with a borrowed connection.
+     *
+     * @param call          Operation to run.
+     * @param timeoutMillis Time allowed for this call, 0 for no limit.
+     * @param <T>           Type of the operation's result.
+     * @return              Future of the operation's result; cancel it to abandon a call that has not started.
+     */
+    public <T> CompletableFuture<T> call(Call<T> call, long timeoutMillis) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        Future<?> task;
+        try {
+            task = executor.submit(() -> run(call, future, deadline));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (timeoutMillis > 0) {
+            future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        future.whenComplete((result, e) -> {
+            if (e instanceof TimeoutException) {
+                TIMEOUTS.increment();
+            }
+            if (e != null) {
+                // Wakes a task still waiting for a permit or a connection; a finished task ignores it
+                task.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /** @see SchemaDB#tableExists */
+    public CompletableFuture<Boolean> tableExists(String tableName) {
+        return call(conn -> SchemaDB.tableExists(conn, tableName));
+    }
+
+    /** @see SchemaDB#tableFilled */
+    public CompletableFuture<Boolean> tableFilled(String tableName) {
+        return call(conn -> SchemaDB.tableFilled(conn, tableName));
+    }
+
+    /** @see SchemaDB#createTable */
+    public CompletableFuture<Void> createTable(String tableName, Map<String, String> columns) {
+        return call(conn -> {
+            SchemaDB.createTable(conn, tableName, columns);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#deleteTable */
+    public CompletableFuture<Void> deleteTable(String tableName) {
+        return call(conn -> {
+            SchemaDB.deleteTable(conn, tableName);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#selectColumns */
+    public CompletableFuture<Void> selectColumns(String tableName, List<String> columnNames) {
+        return call(conn -> {
+            SchemaDB.selectColumns(conn, tableName, columnNames);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#selectPage */
+    public CompletableFuture<Page> selectPage(String tableName, List<String> columnNames, String sortColumn,
+                                              int pageSize, String cursor) {
+        return call(conn -> SchemaDB.selectPage(conn, tableName, columnNames, sortColumn, pageSize, cursor));
+    }
+
+    /** @see SchemaDB#selectRow */
+    public CompletableFuture<Map<String, Object>> selectRow(String tableName, String keyColumn, Object key) {
+        return call(conn -> SchemaDB.selectRow(conn, tableName, keyColumn, key));
+    }
+
+    /** @see SchemaDB#insertValues */
+    public CompletableFuture<Void> insertValues(String tableName, Hashtable<String, Object> values) {
+        return call(conn -> {
+            SchemaDB.insertValues(conn, tableName, values);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#insertValuesBatch(Connection, String, Iterable, int) */
+    public CompletableFuture<BatchInsertResult> insertValuesBatch(String tableName,
+                                                                  Iterable<? extends Map<String, Object>> rows,
+                                                                  int chunkSize) {
+        return call(conn -> SchemaDB.insertValuesBatch(conn, tableName, rows, chunkSize));
+    }
+
+    /** @see SchemaDB#addColumn */
+    public CompletableFuture<Void> addColumn(String tableName, String columnName, String columnType) {
+        return call(conn -> {
+            SchemaDB.addColumn(conn, tableName, columnName, columnType);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#dropColumn */
+    public CompletableFuture<Void> dropColumn(String tableName, String columnName) {
+        return call(conn -> {
+            SchemaDB.dropColumn(conn, tableName, columnName);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#updateTable */
+    public CompletableFuture<Void> updateTable(String tableName, String columnName, String setValue,
+                                               String whereCondition) {
+        return call(conn -> {
+            SchemaDB.updateTable(conn, tableName, columnName, setValue, whereCondition);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#updateTable(Connection, String, Assignments, Condition) */
+    public CompletableFuture<Integer> updateTable(String tableName, Assignments assignments, Condition where) {
+        return call(conn -> SchemaDB.updateTable(conn, tableName, assignments, where));
+    }
+
+    /** @see SchemaDB#deleteTuple */
+    public CompletableFuture<Void> deleteTuple(String tableName, String whereCondition) {
+        return call(conn -> {
+            SchemaDB.deleteTuple(conn, tableName, whereCondition);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#deleteTuple(Connection, String, Condition) */
+    public CompletableFuture<Integer> deleteTuple(String tableName, Condition where) {
+        return call(conn -> SchemaDB.deleteTuple(conn, tableName, where));
+    }
+
+    /** @see SchemaDB#renameTable */
+    public CompletableFuture<Void> renameTable(String oldTableName, String newTableName) {
+        return call(conn -> {
+            SchemaDB.renameTable(conn, oldTableName, newTableName);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#renameColumn */
+    public CompletableFuture<Void> renameColumn(String tableName, String oldColumnName, String newColumnName) {
+        return call(conn -> {
+            SchemaDB.renameColumn(conn, tableName, oldColumnName, newColumnName);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#updateTableMetadata */
+    public CompletableFuture<Void> updateTableMetadata(String tableName) {
+        return call(conn -> {
+            SchemaDB.updateTableMetadata(conn, tableName);
+            return null;
+        });
+    }
+
+    /** @see SchemaDB#getMaxId */
+    public CompletableFuture<Integer> getMaxId(String tableName, String columnName) {
+        return call(conn -> SchemaDB.getMaxId(conn, tableName, columnName));
+    }
+
+    /** @see SchemaDB#nextId */
+    public CompletableFuture<Long> nextId(String tableName, String columnName) {
+        return call(conn -> SchemaDB.nextId(conn, tableName, columnName));
+    }
+
+    /**
+     * Stops accepting calls. Calls already submitted still run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        facades.remove(pool.getUrl(), this);
+    }
+
+    /**
+     * Task body: wait for a permit and a connection, then run the call unless the future is already done.
+     */
+    private <T> void run(Call<T> call, CompletableFuture<T> future, long deadline) {
+        long start = QUEUE_WAIT.start();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            // Cancelled or timed out while waiting for a permit
+            QUEUE_WAIT.stop(start);
+            future.completeExceptionally(e);
+            return;
+        }
+        try (Connection conn = pool.getConnection()) {
+            QUEUE_WAIT.stop(start);
+            if (future.isDone()) {
+                return;
+            }
+            if (deadline == 0) {
+                future.complete(call.apply(conn));
+                return;
+            }
+            // Wait for other connections' locks no longer than the time left; the driver counts whole seconds
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try (Statement stmt = conn.createStatement()) {
+                stmt.setQueryTimeout((int) Math.max(1, (remainingMillis + 999) / 1000));
+                try {
+                    future.complete(call.apply(conn));
+                } finally {
+                    // The timeout applies to the whole connection, so put back the profile's before it returns to the pool
+                    stmt.setQueryTimeout((pool.getProfile().getBusyTimeoutMillis() + 999) / 1000);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            future.completeExceptionally(e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor, or null if this JVM has no virtual threads.
+     * Looked up reflectively so the code still compiles for Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "schemadb-async-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
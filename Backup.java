@@ -0,0 +1,760 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Online backups of the database while it is in use, kept as snapshots in a directory.
+ * <p>
+ * {@link #copy} copies the database with SQLite's backup API, through the driver's {@code backup to} command, on
+ * a connection of its own. That connection holds one read transaction for the whole copy, so the copy is the
+ * database as of one commit, and in WAL mode writers go on committing meanwhile; the WAL only cannot be
+ * checkpointed past that commit until the copy ends. The copy is checked with {@code PRAGMA integrity_check} and
+ * its page count before it is moved into place.
+ * <p>
+ * {@link #snapshot} keeps a series of such copies. Every {@code fullEvery}-th snapshot is a full copy; the ones
+ * in between store only the pages that differ from the last full copy, which the backup API keeps in place, so
+ * a snapshot of a large database that changed little is small. A snapshot is skipped when the database has not
+ * changed since the last one, and only the newest {@code keep} full copies are kept, with their differences.
+ * {@link #restore} rebuilds any snapshot into a database file.
+ * <p>
+ * The driver copies the pages in one call without pausing between steps, so the copy itself cannot be
+ * throttled. Reading and writing the snapshot files around it can be, with {@code maxBytesPerSecond}.
+ */
+public class Backup {
+    // Start of a difference file
+    private static final byte[] MAGIC = "SDBDIF1\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Snapshot files are named after the time they were taken, so they sort in the order they were taken
+    private static final String PREFIX = "snapshot-";
+    private static final String FULL = ".db";
+    private static final String DIFFERENCE = ".delta";
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS");
+
+    // Copies, snapshots and restores, and bytes written to snapshot and backup files, see Metrics
+    private static final Metrics.Operation COPY = Metrics.operation("backup");
+    private static final Metrics.Operation SNAPSHOT = Metrics.operation("backup.snapshot");
+    private static final Metrics.Operation RESTORE = Metrics.operation("backup.restore");
+    private static final Metrics.Counter BYTES = Metrics.counter("backup.bytes");
+
+    private final String url;
+    private final Path directory;
+    private final int fullEvery;
+    private final int keep;
+    private final long maxBytesPerSecond;
+
+    /**
+     * Creates a backup of a database.
+     *
+     * @param url               JDBC URL of the database.
+     * @param directory         Directory the snapshots are kept in; created when the first one is taken.
+     * @param fullEvery         Number of snapshots from one full copy to the next, 1 for full copies only.
+     * @param keep              Number of full copies kept, each with the differences taken after it.
+     * @param maxBytesPerSecond Rate the snapshot files are read and written at, 0 for no limit.
+     */
+    public Backup(String url, Path directory, int fullEvery, int keep, long maxBytesPerSecond) {
+        if (fullEvery < 1 || keep < 1 || maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("fullEvery and keep must be positive and maxBytesPerSecond not negative");
+        }
+        this.url = url;
+        this.directory = directory;
+        this.fullEvery = fullEvery;
+        this.keep = keep;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Creates a backup configured by {@code -Dbackup.dir} (default {@code backups}), {@code -Dbackup.fullEvery}
+     * (default 7), {@code -Dbackup.keep} (default 4) and {@code -Dbackup.maxBytesPerSecond} (default 0, no limit).
+     *
+     * @param url JDBC URL of the database.
+     * @return    The backup.
+     */
+    public static Backup of(String url) {
+        return new Backup(url, Path.of(System.getProperty("backup.dir", "backups")),
+                Integer.getInteger("backup.fullEvery", 7), Integer.getInteger("backup.keep", 4),
+                Long.getLong("backup.maxBytesPerSecond", 0L));
+    }
+
+    /** @return Directory the snapshots are kept in. */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Copies the database to a file while it stays in use, and checks the copy.
+     *
+     * @param target File to write; replaced if it exists.
+     * @return       Number of pages copied.
+     * @throws IOException  If the file cannot be written.
+     * @throws SQLException If the database cannot be read or the copy fails its check.
+     */
+    public int copy(Path target) throws IOException, SQLException {
+        long start = COPY.start();
+        try {
+            Path absolute = target.toAbsolutePath();
+            if (absolute.toString().contains("'")) {
+                // The driver's backup command takes the file name quoted, without escapes
+                throw new IllegalArgumentException("Backup file name must not contain a quote: " + absolute);
+            }
+            Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+            deleteDatabase(tmp);
+            try {
+                int pages;
+                int pageSize;
+                ConnectionProfile profile = ConnectionPool.forUrl(url).getProfile().asReadOnly();
+                try (Connection conn = DriverManager.getConnection(url, profile.connectionProperties())) {
+                    profile.apply(conn);
+                    // One read transaction for the whole copy: the backup API then copies what it sees instead of
+                    // starting over whenever another connection commits
+                    conn.setAutoCommit(false);
+                    try (Statement stmt = conn.createStatement()) {
+                        try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM sqlite_master")) {
+                            rs.next();
+                        }
+                        pages = pragmaInt(stmt, "page_count");
+                        pageSize = pragmaInt(stmt, "page_size");
+                        stmt.executeUpdate("backup to '" + tmp + "'");
+                    } finally {
+                        conn.rollback();
+                    }
+                }
+                // The driver drops the backup API's result code, so a copy that stopped short shows up here
+                check(tmp, pages, pageSize);
+                Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING);
+                BYTES.add((long) pages * pageSize);
+                return pages;
+            } finally {
+                deleteDatabase(tmp);
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            COPY.failed();
+            throw e;
+        } finally {
+            COPY.stop(start);
+        }
+    }
+
+    /**
+     * Takes a snapshot into the directory: a full copy, or the pages that differ from the last full copy. Older
+     * snapshots beyond {@code keep} full copies are deleted afterwards.
+     *
+     * @return The snapshot taken, or null if the database has not changed since the last snapshot.
+     * @throws IOException  If the snapshot cannot be written.
+     * @throws SQLException If the database cannot be read or the copy fails its check.
+     */
+    public Snapshot snapshot() throws IOException, SQLException {
+        long start = SNAPSHOT.start();
+        Path next = directory.resolve("next" + FULL);
+        try {
+            Files.createDirectories(directory);
+            copy(next);
+
+            List<Snapshot> snapshots = list();
+            Snapshot newest = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+            Snapshot full = null;
+            int chainLength = 0;
+            for (Snapshot snapshot : snapshots) {
+                if (snapshot.isFull()) {
+                    full = snapshot;
+                    chainLength = 0;
+                }
+                chainLength++;
+            }
+
+            Snapshot taken;
+            if (full == null || chainLength >= fullEvery) {
+                if (newest != null && Arrays.equals(digest(next), newest.isFull() ? digest(newest.path) : newest.digest)) {
+                    taken = null;
+                } else {
+                    taken = storeFull(next);
+                }
+            } else {
+                taken = storeDifference(next, full, newest);
+            }
+            if (taken == null) {
+                Log.info("Database unchanged since snapshot " + newest.getName());
+            } else {
+                Log.info("Snapshot " + taken.getName() + " taken, " + taken.getChangedPages() + " of "
+                        + taken.getPages() + " pages stored");
+                retain();
+            }
+            return taken;
+        } catch (IOException | SQLException | RuntimeException e) {
+            SNAPSHOT.failed();
+            throw e;
+        } finally {
+            deleteDatabase(next);
+            SNAPSHOT.stop(start);
+        }
+    }
+
+    /**
+     * @return The snapshots in the directory, oldest first.
+     * @throws IOException If the directory or a snapshot file cannot be read.
+     */
+    public List<Snapshot> list() throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(FULL) || name.endsWith(DIFFERENCE)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        for (Path file : files) {
+            snapshots.add(Snapshot.read(file));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Rebuilds a snapshot into a database file and checks it. Stop every connection to the target first.
+     *
+     * @param name   Name of the snapshot, as listed by {@link #list}.
+     * @param target Database file to write; replaced, together with its WAL, if it exists.
+     * @throws IOException  If a snapshot file is missing or damaged, or the target cannot be written.
+     * @throws SQLException If the rebuilt database fails its check.
+     */
+    public void restore(String name, Path target) throws IOException, SQLException {
+        long start = RESTORE.start();
+        Path absolute = target.toAbsolutePath();
+        Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try {
+            List<Snapshot> snapshots = list();
+            Snapshot snapshot = find(snapshots, name);
+            Snapshot full = snapshot.isFull() ? snapshot : find(snapshots, snapshot.base);
+            deleteDatabase(tmp);
+            Pacer pacer = new Pacer(maxBytesPerSecond);
+            copyFile(full.path, tmp, pacer);
+            if (!snapshot.isFull()) {
+                applyDifference(snapshot, tmp, pacer);
+            }
+            check(tmp, snapshot.getPages(), snapshot.pageSize);
+            // A WAL left beside the target would be replayed into the restored file
+            deleteDatabase(absolute);
+            Files.move(tmp, absolute);
+            BYTES.add(Files.size(absolute));
+        } catch (IOException | SQLException | RuntimeException e) {
+            RESTORE.failed();
+            throw e;
+        } finally {
+            deleteDatabase(tmp);
+            RESTORE.stop(start);
+        }
+    }
+
+    /**
+     * Moves a checked copy into the directory as a full snapshot.
+     */
+    private Snapshot storeFull(Path copy) throws IOException {
+        Path file = newSnapshotFile(FULL);
+        Files.move(copy, file);
+        return Snapshot.read(file);
+    }
+
+    /**
+     * Stores the pages of a checked copy that differ from a full snapshot, or a full snapshot if most of them
+     * do, as after a VACUUM.
+     *
+     * @return The snapshot, or null if the copy is the same as the newest snapshot.
+     */
+    private Snapshot storeDifference(Path copy, Snapshot full, Snapshot newest) throws IOException {
+        int pageSize = pageSize(copy);
+        if (pageSize != full.pageSize) {
+            return storeFull(copy);
+        }
+        long size = Files.size(copy);
+        int pages = (int) (size / pageSize);
+        Path tmp = directory.resolve("next" + DIFFERENCE);
+        Pacer pacer = new Pacer(maxBytesPerSecond);
+        MessageDigest copyDigest = sha256();
+        MessageDigest fullDigest = sha256();
+        CRC32 crc = new CRC32();
+        int changed = 0;
+        try {
+            try (InputStream copyIn = new BufferedInputStream(Files.newInputStream(copy), 1 << 20);
+                 InputStream fullIn = new BufferedInputStream(Files.newInputStream(full.path), 1 << 20);
+                 DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20), crc))) {
+                out.write(MAGIC);
+                out.writeUTF(full.getName());
+                out.writeInt(pageSize);
+                out.writeInt(pages);
+                // Digest of the whole copy, filled in once known; the checksum covers the pages from here on
+                out.write(new byte[32]);
+                crc.reset();
+                byte[] page = new byte[pageSize];
+                byte[] fullPage = new byte[pageSize];
+                for (int pageNo = 1; pageNo <= pages; pageNo++) {
+                    readPage(copyIn, page);
+                    copyDigest.update(page);
+                    boolean inFull = pageNo <= full.getPages();
+                    if (inFull) {
+                        readPage(fullIn, fullPage);
+                        fullDigest.update(fullPage);
+                    }
+                    if (!inFull || !Arrays.equals(page, fullPage)) {
+                        out.writeInt(pageNo);
+                        out.write(page);
+                        changed++;
+                    }
+                    pacer.add(inFull ? 2L * pageSize : pageSize);
+                }
+                // Finish the full snapshot's digest when the database shrank since
+                for (int n = fullIn.readNBytes(fullPage, 0, pageSize); n > 0;
+                     n = fullIn.readNBytes(fullPage, 0, pageSize)) {
+                    fullDigest.update(fullPage, 0, n);
+                }
+                out.writeInt(0);
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+            byte[] digest = copyDigest.digest();
+            byte[] newestDigest = newest == full ? fullDigest.digest() : newest.digest;
+            if (Arrays.equals(digest, newestDigest)) {
+                return null;
+            }
+            if (changed * 2L > pages) {
+                return storeFull(copy);
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(digest), MAGIC.length + 2
+                        + full.getName().getBytes(StandardCharsets.UTF_8).length + 8);
+            }
+            Path file = newSnapshotFile(DIFFERENCE);
+            Files.move(tmp, file);
+            BYTES.add(Files.size(file));
+            Snapshot snapshot = Snapshot.read(file);
+            verify(snapshot, full, pacer);
+            return snapshot;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Checks that a difference rebuilds the copy it was taken from: its pages laid over the full snapshot must
+     * digest to the digest it records, and its checksum must match. A difference that fails is deleted.
+     */
+    private void verify(Snapshot difference, Snapshot full, Pacer pacer) throws IOException {
+        boolean verified = false;
+        try {
+            MessageDigest digest = sha256();
+            byte[] page = new byte[difference.pageSize];
+            byte[] changedPage = new byte[difference.pageSize];
+            try (DifferenceReader reader = new DifferenceReader(difference.path);
+                 InputStream fullIn = new BufferedInputStream(Files.newInputStream(full.path), 1 << 20)) {
+                int changedNo = reader.nextPage(changedPage);
+                for (int pageNo = 1; pageNo <= difference.getPages(); pageNo++) {
+                    if (pageNo <= full.getPages()) {
+                        readPage(fullIn, page);
+                    }
+                    if (changedNo == pageNo) {
+                        digest.update(changedPage);
+                        changedNo = reader.nextPage(changedPage);
+                    } else if (pageNo <= full.getPages()) {
+                        digest.update(page);
+                    } else {
+                        throw new IOException(difference.getName() + " lacks page " + pageNo);
+                    }
+                    pacer.add(2L * difference.pageSize);
+                }
+                if (changedNo != 0) {
+                    throw new IOException(difference.getName() + " holds a page past its end");
+                }
+            }
+            if (!Arrays.equals(digest.digest(), difference.digest)) {
+                throw new IOException(difference.getName() + " does not rebuild the database it was taken from");
+            }
+            verified = true;
+        } finally {
+            if (!verified) {
+                Files.deleteIfExists(difference.path);
+            }
+        }
+    }
+
+    /**
+     * Writes the pages of a difference into a copy of its full snapshot.
+     */
+    private static void applyDifference(Snapshot difference, Path file, Pacer pacer) throws IOException {
+        byte[] page = new byte[difference.pageSize];
+        try (DifferenceReader reader = new DifferenceReader(difference.path);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate((long) difference.getPages() * difference.pageSize);
+            for (int pageNo = reader.nextPage(page); pageNo != 0; pageNo = reader.nextPage(page)) {
+                ByteBuffer buffer = ByteBuffer.wrap(page);
+                long position = (long) (pageNo - 1) * difference.pageSize;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                pacer.add(difference.pageSize);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Deletes all but the newest {@code keep} full snapshots, each with the differences taken after it, and any
+     * difference older than every full snapshot.
+     */
+    private void retain() throws IOException {
+        List<Snapshot> snapshots = list();
+        int fulls = 0;
+        for (Snapshot snapshot : snapshots) {
+            if (snapshot.isFull()) {
+                fulls++;
+            }
+        }
+        // Snapshots are deleted up to the first full one kept
+        int toDelete = fulls - keep;
+        for (Snapshot snapshot : snapshots) {
+            if (snapshot.isFull() && toDelete-- <= 0) {
+                break;
+            }
+            Files.delete(snapshot.path);
+            Log.info("Snapshot " + snapshot.getName() + " deleted");
+        }
+    }
+
+    /**
+     * Checks a database file: its size and page count, and SQLite's integrity check.
+     */
+    private static void check(Path file, int pages, int pageSize) throws SQLException, IOException {
+        long size = Files.size(file);
+        if (size != (long) pages * pageSize) {
+            throw new SQLException("Backup " + file.getFileName() + " holds " + size + " bytes, expected "
+                    + (long) pages * pageSize);
+        }
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement stmt = conn.createStatement()) {
+            List<String> problems = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("PRAGMA integrity_check")) {
+                while (rs.next()) {
+                    problems.add(rs.getString(1));
+                }
+            }
+            if (!problems.equals(List.of("ok"))) {
+                throw new SQLException("Backup " + file.getFileName() + " failed its integrity check: " + problems);
+            }
+            if (pragmaInt(stmt, "page_count") != pages) {
+                throw new SQLException("Backup " + file.getFileName() + " does not hold " + pages + " pages");
+            }
+        }
+    }
+
+    private Path newSnapshotFile(String suffix) throws IOException {
+        // Two snapshots within a millisecond would share a name; the second one waits for the next
+        while (true) {
+            Path file = directory.resolve(PREFIX + TIME.format(LocalDateTime.now()) + suffix);
+            Path other = directory.resolve(file.getFileName().toString().replace(suffix,
+                    suffix.equals(FULL) ? DIFFERENCE : FULL));
+            if (!Files.exists(file) && !Files.exists(other)) {
+                return file;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while naming a snapshot");
+            }
+        }
+    }
+
+    private byte[] digest(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        Pacer pacer = new Pacer(maxBytesPerSecond);
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                digest.update(buffer, 0, n);
+                pacer.add(n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void copyFile(Path source, Path target, Pacer pacer) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(source);
+             BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(target), 1 << 20)) {
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+                pacer.add(2L * n);
+            }
+        }
+    }
+
+    private static Snapshot find(List<Snapshot> snapshots, String name) throws IOException {
+        for (Snapshot snapshot : snapshots) {
+            if (snapshot.getName().equals(name)) {
+                return snapshot;
+            }
+        }
+        throw new IOException("No snapshot " + name);
+    }
+
+    private static void readPage(InputStream in, byte[] page) throws IOException {
+        int read = in.readNBytes(page, 0, page.length);
+        if (read != page.length) {
+            throw new EOFException("Database file ends inside a page");
+        }
+    }
+
+    /**
+     * @return Page size recorded in a database file's header.
+     */
+    private static int pageSize(Path file) throws IOException {
+        byte[] header = new byte[18];
+        try (InputStream in = Files.newInputStream(file)) {
+            readPage(in, header);
+        }
+        int pageSize = ((header[16] & 0xff) << 8) | (header[17] & 0xff);
+        // 65536 does not fit the two bytes and is stored as 1
+        return pageSize == 1 ? 65536 : pageSize;
+    }
+
+    private static int pragmaInt(Statement stmt, String pragma) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void deleteDatabase(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        for (String suffix : new String[]{"-wal", "-shm", "-journal"}) {
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + suffix));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A snapshot in the directory: a full copy of the database, or the pages that differ from one.
+     */
+    public static final class Snapshot {
+        private final Path path;
+        private final boolean full;
+        private final String base;
+        private final int pageSize;
+        private final int pages;
+        private final int changedPages;
+        private final byte[] digest;
+
+        private Snapshot(Path path, boolean full, String base, int pageSize, int pages, int changedPages,
+                         byte[] digest) {
+            this.path = path;
+            this.full = full;
+            this.base = base;
+            this.pageSize = pageSize;
+            this.pages = pages;
+            this.changedPages = changedPages;
+            this.digest = digest;
+        }
+
+        private static Snapshot read(Path file) throws IOException {
+            long size = Files.size(file);
+            if (file.getFileName().toString().endsWith(FULL)) {
+                int pageSize = pageSize(file);
+                int pages = (int) (size / pageSize);
+                return new Snapshot(file, true, null, pageSize, pages, pages, null);
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 512))) {
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException(file + " is not a snapshot difference");
+                }
+                String base = in.readUTF();
+                int pageSize = in.readInt();
+                int pages = in.readInt();
+                byte[] digest = new byte[32];
+                in.readFully(digest);
+                long header = MAGIC.length + 2 + base.getBytes(StandardCharsets.UTF_8).length + 8 + 32;
+                int changed = (int) ((size - header - 4 - 8) / (4 + pageSize));
+                return new Snapshot(file, false, base, pageSize, pages, changed, digest);
+            }
+        }
+
+        /** @return File name of the snapshot. */
+        public String getName() {
+            return path.getFileName().toString();
+        }
+
+        /** @return Path of the snapshot file. */
+        public Path getPath() {
+            return path;
+        }
+
+        /** @return When the snapshot was taken, in local time. */
+        public LocalDateTime getTime() {
+            String name = getName();
+            return LocalDateTime.parse(name.substring(PREFIX.length(), name.lastIndexOf('.')), TIME);
+        }
+
+        /** @return True for a full copy, false for the pages that differ from one. */
+        public boolean isFull() {
+            return full;
+        }
+
+        /** @return Name of the full snapshot a difference applies to, or null for a full snapshot. */
+        public String getBase() {
+            return base;
+        }
+
+        /** @return Number of pages of the database the snapshot was taken of. */
+        public int getPages() {
+            return pages;
+        }
+
+        /** @return Number of pages stored in the snapshot file. */
+        public int getChangedPages() {
+            return changedPages;
+        }
+
+        @Override
+        public String toString() {
+            return getName() + (full ? " full, " + pages + " pages" : " on " + base + ", " + changedPages + " of "
+                    + pages + " pages");
+        }
+    }
+
+    /**
+     * Reads the changed pages of a difference file in order, and the checksum of the pages after the last one.
+     */
+    private static final class DifferenceReader implements AutoCloseable {
+        private final CRC32 crc = new CRC32();
+        private final DataInputStream in;
+
+        DifferenceReader(Path file) throws IOException {
+            in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(Files.newInputStream(file), 1 << 20), crc));
+            in.skipNBytes(MAGIC.length);
+            in.readUTF();
+            in.skipNBytes(8 + 32);
+            crc.reset();
+        }
+
+        /**
+         * Reads the next changed page.
+         *
+         * @param page Buffer of one page to read it into.
+         * @return     Its page number, or 0 after the last one, once the checksum matched.
+         */
+        int nextPage(byte[] page) throws IOException {
+            int pageNo = in.readInt();
+            if (pageNo == 0) {
+                long expected = crc.getValue();
+                if (in.readLong() != expected) {
+                    throw new IOException("Snapshot difference is damaged, its checksum does not match");
+                }
+                return 0;
+            }
+            in.readFully(page);
+            return pageNo;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Sleeps as needed to keep file reads and writes under a rate.
+     */
+    private static final class Pacer {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes = 0;
+
+        Pacer(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void add(long count) throws InterruptedIOException {
+            if (bytesPerSecond == 0) {
+                return;
+            }
+            bytes += count;
+            long ahead = bytes * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - start);
+            if (ahead > 1_000_000L) {
+                try {
+                    Thread.sleep(ahead / 1_000_000L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while pacing a backup");
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot, lists the snapshots, restores one or copies the database from the command line.
+     *
+     * @param args {@code snapshot}, {@code list}, {@code restore <snapshot> <file>} or {@code copy <file>}.
+     */
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "snapshot";
+        Backup backup = SchemaDB.backup;
+        try {
+            if (command.equals("snapshot") && args.length == 1) {
+                Snapshot snapshot = backup.snapshot();
+                System.out.println(snapshot == null ? "Database unchanged, no snapshot taken" : snapshot);
+            } else if (command.equals("list") && args.length == 1) {
+                for (Snapshot snapshot : backup.list()) {
+                    System.out.println(snapshot);
+                }
+            } else if (command.equals("restore") && args.length == 3) {
+                backup.restore(args[1], Path.of(args[2]));
+            } else if (command.equals("copy") && args.length == 2) {
+                System.out.println(backup.copy(Path.of(args[1])) + " pages copied");
+            } else {
+                System.out.println("Usage: java Backup snapshot|list|restore <snapshot> <file>|copy <file>");
+            }
+        } catch (IOException | SQLException e) {
+            Log.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk insert through {@link SchemaDB#insertValuesBatch}.
+ * Each chunk commits or rolls back on its own, so a failed chunk is reported here
+ * while the rest of the load carries on.
+ */
+public class BatchInsertResult {
+    private long rowsInserted = 0;
+    private long rowsFailed = 0;
+    private int chunksCommitted = 0;
+    private final List<Failure> failures = new ArrayList<>();
+
+    /**
+     * A chunk of rows that was rolled back.
+     */
+    public static class Failure {
+        private final int chunkIndex;
+        private final long firstRow;
+        private final int rowCount;
+        private final String message;
+
+        Failure(int chunkIndex, long firstRow, int rowCount, String message) {
+            this.chunkIndex = chunkIndex;
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+            this.message = message;
+        }
+
+        /** @return Zero-based index of the failed chunk. */
+        public int getChunkIndex() {
+            return chunkIndex;
+        }
+
+        /** @return Zero-based position of the chunk's first row in the input. */
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        /** @return Number of rows in the chunk, none of which were inserted. */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /** @return Error reported by the database. */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "chunk " + chunkIndex + " (rows " + firstRow + "-" + (firstRow + rowCount - 1) + "): " + message;
+        }
+    }
+
+    void chunkCommitted(int rowCount) {
+        rowsInserted += rowCount;
+        chunksCommitted++;
+    }
+
+    void chunkFailed(int chunkIndex, long firstRow, int rowCount, String message) {
+        rowsFailed += rowCount;
+        failures.add(new Failure(chunkIndex, firstRow, rowCount, message));
+    }
+
+    /** @return Number of rows committed. */
+    public long getRowsInserted() {
+        return rowsInserted;
+    }
+
+    /** @return Number of rows in chunks that were rolled back. */
+    public long getRowsFailed() {
+        return rowsFailed;
+    }
+
+    /** @return Number of chunks committed. */
+    public int getChunksCommitted() {
+        return chunksCommitted;
+    }
+
+    /** @return Chunks that were rolled back, in input order. */
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /** @return True if every chunk was committed. */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchInsertResult{rowsInserted=" + rowsInserted + ", rowsFailed=" + rowsFailed
+                + ", chunksCommitted=" + chunksCommitted + ", failures=" + failures + "}";
+    }
+}
@@ -0,0 +1,694 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Change data capture: an append-only log of the rows inserted, updated and deleted in captured tables, which
+ * downstream consumers read from an offset instead of re-reading whole tables.
+ * <p>
+ * {@link #capture} puts triggers on a table that append one entry to {@code change_log} per changed row, in the
+ * same transaction as the change: the table, the operation, the row's key, and its values before and after.
+ * Entries are numbered by an increasing sequence. SQLite has a single writer, so entries appear in commit order
+ * and a transaction's entries all appear at once, when it commits. Every write is captured, whichever class made
+ * it. Updates that change nothing are not logged.
+ * <p>
+ * Row images are stored as the SQL literals of the values, {@code quote()}d by SQLite, so integers, text and BLOBs
+ * come back unchanged. SQLite writes a real with 15 significant digits, so a real those do not pin down is followed
+ * by the remainder they miss, which restores it to the last bit for magnitudes from about 1e-8 to 1e18. Outside
+ * that range this SQLite parses the digits inexactly and such a real may come back a unit or two off in its last
+ * place. The column names of an image are recorded once per table shape in {@code change_schema}. Schema changes
+ * made through {@link SchemaDB} recreate the triggers for the new shape.
+ * <p>
+ * {@link #read} pages through the log. {@link #publisher} tails it as a {@link Flow.Publisher}: each subscriber
+ * reads from its own offset and gets no more entries than it requested. {@link #saveOffset} and
+ * {@link #savedOffset} keep a named consumer's position in the database, so it can resume after a restart. The
+ * poll interval is set with {@code -DchangeFeed.pollMillis} (default 200).
+ */
+public class ChangeFeed {
+    public static final String LOG_TABLE = "change_log";
+    public static final String SCHEMA_TABLE = "change_schema";
+    public static final String CAPTURE_TABLE = "change_capture";
+    public static final String OFFSET_TABLE = "change_offset";
+
+    // Time a subscriber that caught up waits before looking for new entries
+    private static final long POLL_MILLIS = Long.getLong("changeFeed.pollMillis", 200L);
+    // Largest number of entries a subscriber reads at once
+    private static final int READ_BATCH = 500;
+
+    // Log reads and entries handed to subscribers, see Metrics
+    private static final Metrics.Operation READ = Metrics.operation("changeFeed.read");
+    private static final Metrics.Counter DELIVERED = Metrics.counter("changeFeed.delivered");
+
+    // Column names of each table shape, by database URL and schema id; shapes never change once committed
+    private final Map<String, Map<Long, List<String>>> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * Kind of row change.
+     */
+    public enum Operation {
+        INSERT("I"),
+        UPDATE("U"),
+        DELETE("D");
+
+        private final String code;
+
+        Operation(String code) {
+            this.code = code;
+        }
+
+        static Operation of(String code) {
+            for (Operation operation : values()) {
+                if (operation.code.equals(code)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown change operation: " + code);
+        }
+    }
+
+    /**
+     * One logged row change.
+     */
+    public static final class Change {
+        private final long offset;
+        private final String tableName;
+        private final Operation operation;
+        private final Object key;
+        private final Map<String, Object> before;
+        private final Map<String, Object> after;
+        private final long changedAt;
+
+        Change(long offset, String tableName, Operation operation, Object key, Map<String, Object> before,
+               Map<String, Object> after, long changedAt) {
+            this.offset = offset;
+            this.tableName = tableName;
+            this.operation = operation;
+            this.key = key;
+            this.before = before;
+            this.after = after;
+            this.changedAt = changedAt;
+        }
+
+        /** @return Sequence number of the entry; pass it to {@link #read} or {@link #publisher} to resume after it. */
+        public long getOffset() {
+            return offset;
+        }
+
+        /** @return Name of the changed table. */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /** @return Kind of change. */
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /** @return Key of the changed row, after an update that changed it. */
+        public Object getKey() {
+            return key;
+        }
+
+        /** @return Unmodifiable column values before the change, or null for an insert. */
+        public Map<String, Object> getBefore() {
+            return before;
+        }
+
+        /** @return Unmodifiable column values after the change, or null for a delete. */
+        public Map<String, Object> getAfter() {
+            return after;
+        }
+
+        /** @return Time of the change, in milliseconds since the epoch. */
+        public long getChangedAt() {
+            return changedAt;
+        }
+
+        @Override
+        public String toString() {
+            return offset + " " + operation + " " + tableName + " " + key
+                    + (before != null ? " before " + before : "") + (after != null ? " after " + after : "");
+        }
+    }
+
+    /**
+     * Starts logging the changes of a table, or recreates its triggers for the table's current columns.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table to capture.
+     * @param keyColumn Column identifying a row, such as {@code work_id}; null for the rowid.
+     * @throws SQLException If the table does not exist or the triggers cannot be created.
+     */
+    public void capture(Connection conn, String tableName, String keyColumn) throws SQLException {
+        Condition.identifier(tableName);
+        String key = keyColumn == null ? "rowid" : Condition.identifier(keyColumn);
+        if (tableName.toLowerCase(Locale.ROOT).startsWith("change_")) {
+            throw new IllegalArgumentException("The change feed's own tables cannot be captured: " + tableName);
+        }
+        createTables(conn);
+        List<String> columns = columns(conn, tableName);
+        if (columns.isEmpty()) {
+            throw new SQLException(tableName + " table does not exist");
+        }
+        columns.forEach(Condition::identifier);
+        if (isCurrent(conn, tableName, key, columns)) {
+            return;
+        }
+
+        try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE);
+             Statement stmt = conn.createStatement()) {
+            dropTriggers(stmt, tableName);
+            long schemaId;
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO " + SCHEMA_TABLE + " (table_name, columns) VALUES (?, ?)")) {
+                pstmt.setString(1, tableName);
+                pstmt.setString(2, String.join(",", columns));
+                pstmt.executeUpdate();
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                rs.next();
+                schemaId = rs.getLong(1);
+            }
+
+            String insert = "INSERT INTO " + LOG_TABLE + " (table_name, operation, row_key, schema_id, before_image, "
+                    + "after_image, changed_at) VALUES ('" + tableName + "', ";
+            String now = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+            stmt.execute("CREATE TRIGGER " + trigger(tableName, "insert") + " AFTER INSERT ON " + tableName
+                    + " BEGIN " + insert + "'I', NEW." + key + ", " + schemaId + ", NULL, " + image("NEW", columns)
+                    + ", " + now + "); END");
+            StringBuilder changed = new StringBuilder();
+            for (String column : columns) {
+                changed.append(changed.length() == 0 ? "" : " OR ").append("OLD.").append(column)
+                        .append(" IS NOT NEW.").append(column);
+            }
+            stmt.execute("CREATE TRIGGER " + trigger(tableName, "update") + " AFTER UPDATE ON " + tableName
+                    + " WHEN " + changed + " BEGIN " + insert + "'U', NEW." + key + ", " + schemaId + ", "
+                    + image("OLD", columns) + ", " + image("NEW", columns) + ", " + now + "); END");
+            stmt.execute("CREATE TRIGGER " + trigger(tableName, "delete") + " AFTER DELETE ON " + tableName
+                    + " BEGIN " + insert + "'D', OLD." + key + ", " + schemaId + ", " + image("OLD", columns)
+                    + ", NULL, " + now + "); END");
+
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO " + CAPTURE_TABLE
+                    + " (table_name, key_column, schema_id) VALUES (?, ?, ?)")) {
+                pstmt.setString(1, tableName.toLowerCase(Locale.ROOT));
+                pstmt.setString(2, key);
+                pstmt.setLong(3, schemaId);
+                pstmt.executeUpdate();
+            }
+            tx.commit();
+        }
+        Log.info("Capturing changes of " + tableName + " by " + key);
+    }
+
+    /**
+     * Stops logging the changes of a table. Its entries stay in the log.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table.
+     * @throws SQLException If the triggers cannot be dropped.
+     */
+    public void release(Connection conn, String tableName) throws SQLException {
+        if (!SchemaDB.tableExists(conn, CAPTURE_TABLE)) {
+            return;
+        }
+        try (Transaction tx = Transaction.begin(conn);
+             Statement stmt = conn.createStatement()) {
+            dropTriggers(stmt, Condition.identifier(tableName));
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "DELETE FROM " + CAPTURE_TABLE + " WHERE table_name = ?")) {
+                pstmt.setString(1, tableName.toLowerCase(Locale.ROOT));
+                pstmt.executeUpdate();
+            }
+            tx.commit();
+        }
+    }
+
+    /**
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table.
+     * @return          Column identifying the table's rows in the log, or null if the table is not captured.
+     * @throws SQLException If the capture settings cannot be read.
+     */
+    public String capturedKey(Connection conn, String tableName) throws SQLException {
+        if (!SchemaDB.tableExists(conn, CAPTURE_TABLE)) {
+            return null;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT key_column FROM " + CAPTURE_TABLE + " WHERE table_name = ?")) {
+            pstmt.setString(1, tableName.toLowerCase(Locale.ROOT));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Drops the triggers of a captured table before its columns change: they name every column, so a rebuild of
+     * the table would otherwise refuse to drop them. {@link #tableAltered} recreates them for the new columns.
+     * Does nothing for tables that are not captured.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table about to be altered.
+     * @throws SQLException If the triggers cannot be dropped.
+     */
+    public void tableAltering(Connection conn, String tableName) throws SQLException {
+        if (capturedKey(conn, tableName) != null) {
+            try (Statement stmt = conn.createStatement()) {
+                dropTriggers(stmt, Condition.identifier(tableName));
+            }
+        }
+    }
+
+    /**
+     * Recreates the triggers of a captured table after its columns changed. Does nothing for other tables.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the altered table.
+     * @throws SQLException If the triggers cannot be recreated.
+     */
+    public void tableAltered(Connection conn, String tableName) throws SQLException {
+        String key = capturedKey(conn, tableName);
+        if (key != null) {
+            capture(conn, tableName, key);
+        }
+    }
+
+    /**
+     * Moves the capture of a renamed table to its new name. Does nothing for tables that are not captured.
+     *
+     * @param conn         Connection object representing the database connection.
+     * @param oldTableName Former name of the table.
+     * @param newTableName New name of the table.
+     * @throws SQLException If the triggers cannot be recreated.
+     */
+    public void tableRenamed(Connection conn, String oldTableName, String newTableName) throws SQLException {
+        String key = capturedKey(conn, oldTableName);
+        if (key != null) {
+            release(conn, oldTableName);
+            capture(conn, newTableName, key);
+        }
+    }
+
+    /**
+     * Reads log entries in order.
+     *
+     * @param conn   Connection object representing the database connection.
+     * @param offset Offset of the last entry already read; 0 to read from the start.
+     * @param limit  Largest number of entries to return.
+     * @return       The entries after the offset, oldest first; empty when there are none yet.
+     * @throws SQLException If the log cannot be read.
+     */
+    public List<Change> read(Connection conn, long offset, int limit) throws SQLException {
+        long start = READ.start();
+        String sql = "SELECT seq, table_name, operation, row_key, schema_id, before_image, after_image, changed_at "
+                + "FROM " + LOG_TABLE + " WHERE seq > ? ORDER BY seq LIMIT ?";
+        try {
+            List<Change> changes = new ArrayList<>();
+            if (!SchemaDB.tableExists(conn, LOG_TABLE)) {
+                return changes;
+            }
+            PreparedStatement pstmt = StatementCache.prepare(conn, sql);
+            try {
+                pstmt.setLong(1, offset);
+                pstmt.setInt(2, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        List<String> columns = schema(conn, rs.getLong(5));
+                        changes.add(new Change(rs.getLong(1), rs.getString(2), Operation.of(rs.getString(3)),
+                                rs.getObject(4), decode(rs.getString(6), columns), decode(rs.getString(7), columns),
+                                rs.getLong(8)));
+                    }
+                }
+            } catch (SQLException e) {
+                StatementCache.discard(conn, sql);
+                throw e;
+            }
+            Metrics.ROWS_READ.add(changes.size());
+            return changes;
+        } catch (SQLException | RuntimeException e) {
+            READ.failed();
+            throw e;
+        } finally {
+            READ.stop(start);
+        }
+    }
+
+    /**
+     * @param conn Connection object representing the database connection.
+     * @return     Offset of the newest entry, or 0 if the log is empty.
+     * @throws SQLException If the log cannot be read.
+     */
+    public long lastOffset(Connection conn) throws SQLException {
+        if (!SchemaDB.tableExists(conn, LOG_TABLE)) {
+            return 0;
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM " + LOG_TABLE)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Deletes log entries every consumer has processed. Offsets are never reused, so consumers further along are
+     * not affected; one resuming from an older offset continues with the oldest entry kept.
+     *
+     * @param conn   Connection object representing the database connection.
+     * @param offset Offset of the last entry to delete.
+     * @return       Number of entries deleted.
+     * @throws SQLException If the entries cannot be deleted.
+     */
+    public int truncate(Connection conn, long offset) throws SQLException {
+        if (!SchemaDB.tableExists(conn, LOG_TABLE)) {
+            return 0;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + LOG_TABLE + " WHERE seq <= ?")) {
+            pstmt.setLong(1, offset);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Records how far a named consumer got, for {@link #savedOffset} after a restart.
+     *
+     * @param conn     Connection object representing the database connection.
+     * @param consumer Name of the consumer.
+     * @param offset   Offset of the last entry it processed.
+     * @throws SQLException If the offset cannot be stored.
+     */
+    public void saveOffset(Connection conn, String consumer, long offset) throws SQLException {
+        createTables(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO " + OFFSET_TABLE + " (consumer, offset) VALUES (?, ?)")) {
+            pstmt.setString(1, consumer);
+            pstmt.setLong(2, offset);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * @param conn     Connection object representing the database connection.
+     * @param consumer Name of the consumer.
+     * @return         Offset last saved for the consumer, or 0 if none was.
+     * @throws SQLException If the offset cannot be read.
+     */
+    public long savedOffset(Connection conn, String consumer) throws SQLException {
+        if (!SchemaDB.tableExists(conn, OFFSET_TABLE)) {
+            return 0;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT offset FROM " + OFFSET_TABLE + " WHERE consumer = ?")) {
+            pstmt.setString(1, consumer);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a publisher tailing the log from an offset. Each subscriber reads on its own daemon thread, with a
+     * connection borrowed from the pool for each read, and is handed at most as many entries as it requested;
+     * it waits while it has no demand, and polls while it has caught up. The feed never completes; cancel the
+     * subscription to stop it.
+     *
+     * @param pool   Pool of the database to read.
+     * @param offset Offset of the last entry already processed; 0 to read from the start.
+     * @return       Publisher of the entries after the offset.
+     */
+    public Flow.Publisher<Change> publisher(ConnectionPool pool, long offset) {
+        return subscriber -> {
+            FeedSubscription subscription = new FeedSubscription(pool, offset, subscriber);
+            subscriber.onSubscribe(subscription);
+            subscription.thread.start();
+        };
+    }
+
+    /**
+     * Delivers log entries to one subscriber as it requests them.
+     */
+    private final class FeedSubscription implements Flow.Subscription {
+        private final ConnectionPool pool;
+        private final Flow.Subscriber<? super Change> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final Thread thread;
+        private volatile boolean cancelled = false;
+        // Offset of the last entry delivered; subscriber thread only
+        private long position;
+
+        FeedSubscription(ConnectionPool pool, long offset, Flow.Subscriber<? super Change> subscriber) {
+            this.pool = pool;
+            this.position = offset;
+            this.subscriber = subscriber;
+            this.thread = new Thread(this::deliver, "change-feed-subscriber");
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " changes, must be positive"));
+            } else {
+                // Demand adds up, and Long.MAX_VALUE stands for unbounded
+                requested.accumulateAndGet(n, (current, more) ->
+                        current + more < 0 ? Long.MAX_VALUE : current + more);
+            }
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(thread);
+        }
+
+        private void deliver() {
+            try {
+                while (!cancelled) {
+                    long demand = requested.get();
+                    if (demand == 0) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    List<Change> changes;
+                    try (Connection conn = pool.getConnection()) {
+                        changes = read(conn, position, (int) Math.min(demand, READ_BATCH));
+                    }
+                    if (changes.isEmpty()) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+                        continue;
+                    }
+                    for (Change change : changes) {
+                        if (cancelled) {
+                            return;
+                        }
+                        subscriber.onNext(change);
+                        position = change.getOffset();
+                        DELIVERED.increment();
+                        requested.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!cancelled) {
+                    cancelled = true;
+                    Log.error("Change feed subscriber stopped at offset " + position + ": " + e.getMessage());
+                    subscriber.onError(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the log, schema, capture and offset tables if they do not exist yet.
+     */
+    private void createTables(Connection conn) throws SQLException {
+        if (SchemaDB.tableExists(conn, LOG_TABLE) && SchemaDB.tableExists(conn, OFFSET_TABLE)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            // AUTOINCREMENT keeps offsets increasing even after the newest entries are truncated
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + LOG_TABLE + " (seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "table_name TEXT NOT NULL, operation TEXT NOT NULL, row_key, schema_id INTEGER NOT NULL, "
+                    + "before_image TEXT, after_image TEXT, changed_at INTEGER NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE + " (schema_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "table_name TEXT NOT NULL, columns TEXT NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + CAPTURE_TABLE + " (table_name TEXT PRIMARY KEY, "
+                    + "key_column TEXT NOT NULL, schema_id INTEGER NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + OFFSET_TABLE + " (consumer TEXT PRIMARY KEY, "
+                    + "offset INTEGER NOT NULL)");
+        }
+        for (String table : new String[]{LOG_TABLE, SCHEMA_TABLE, CAPTURE_TABLE, OFFSET_TABLE}) {
+            SchemaDB.catalog.tableCreated(conn, table);
+        }
+    }
+
+    /**
+     * Tells whether a table's triggers exist and log the given key and columns in the current image format, so
+     * capturing it again would change nothing.
+     */
+    private boolean isCurrent(Connection conn, String tableName, String key, List<String> columns)
+            throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT s.columns, c.key_column, (SELECT count(*) "
+                + "FROM sqlite_master WHERE type = 'trigger' AND name IN (?, ?, ?) AND sql LIKE '%typeof(%') FROM "
+                + CAPTURE_TABLE
+                + " c JOIN " + SCHEMA_TABLE + " s ON s.schema_id = c.schema_id WHERE c.table_name = ?")) {
+            pstmt.setString(1, trigger(tableName, "insert"));
+            pstmt.setString(2, trigger(tableName, "update"));
+            pstmt.setString(3, trigger(tableName, "delete"));
+            pstmt.setString(4, tableName.toLowerCase(Locale.ROOT));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getString(1).equals(String.join(",", columns))
+                        && rs.getString(2).equals(key) && rs.getInt(3) == 3;
+            }
+        }
+    }
+
+    private static void dropTriggers(Statement stmt, String tableName) throws SQLException {
+        for (String operation : new String[]{"insert", "update", "delete"}) {
+            stmt.execute("DROP TRIGGER IF EXISTS " + trigger(tableName, operation));
+        }
+    }
+
+    private static String trigger(String tableName, String operation) {
+        return "change_" + tableName + "_" + operation;
+    }
+
+    /**
+     * Builds the SQL expression rendering a row as its values' SQL literals, separated by commas. A real that its
+     * 15 digit text does not give back is written as that text, a space and the difference, see {@link #decode}.
+     */
+    private static String image(String row, List<String> columns) {
+        StringBuilder sql = new StringBuilder();
+        for (String column : columns) {
+            String value = row + "." + column;
+            String digits = "CAST(CAST(" + value + " AS TEXT) AS REAL)";
+            sql.append(sql.length() == 0 ? "" : " || ',' || ").append("CASE WHEN typeof(").append(value)
+                    .append(") = 'real' AND ").append(value).append(" <> ").append(digits).append(" THEN ")
+                    .append(value).append(" || ' ' || (").append(value).append(" - ").append(digits)
+                    .append(") ELSE quote(").append(value).append(") END");
+        }
+        return sql.toString();
+    }
+
+    private static List<String> columns(Connection conn, String tableName) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            // The driver returns no result set at all for a pragma without rows, here a missing table
+            if (stmt.execute("PRAGMA table_info(" + tableName + ")")) {
+                try (ResultSet rs = stmt.getResultSet()) {
+                    while (rs.next()) {
+                        columns.add(rs.getString("name"));
+                    }
+                }
+            }
+        }
+        return columns;
+    }
+
+    private List<String> schema(Connection conn, long schemaId) throws SQLException {
+        Map<Long, List<String>> byId = schemas.computeIfAbsent(
+                conn.getMetaData().getURL().toLowerCase(Locale.ROOT), u -> new ConcurrentHashMap<>());
+        List<String> columns = byId.get(schemaId);
+        if (columns == null) {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT columns FROM " + SCHEMA_TABLE + " WHERE schema_id = ?")) {
+                pstmt.setLong(1, schemaId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Change log refers to unknown schema " + schemaId);
+                    }
+                    columns = List.of(rs.getString(1).split(","));
+                }
+            }
+            byId.put(schemaId, columns);
+        }
+        return columns;
+    }
+
+    /**
+     * Parses a row image back into column values: NULL, integers, reals, 'text' and X'hex' BLOBs. A real may be
+     * followed by a space and the remainder its digits miss, which is added back.
+     */
+    static Map<String, Object> decode(String image, List<String> columns) {
+        if (image == null) {
+            return null;
+        }
+        Map<String, Object> values = new LinkedHashMap<>();
+        int pos = 0;
+        for (String column : columns) {
+            if (pos > 0) {
+                pos++; // The comma after the previous value
+            }
+            char c = image.charAt(pos);
+            int end;
+            Object value;
+            if (c == '\'') {
+                StringBuilder text = new StringBuilder();
+                int i = pos + 1;
+                while (true) {
+                    char t = image.charAt(i);
+                    if (t == '\'') {
+                        if (i + 1 < image.length() && image.charAt(i + 1) == '\'') {
+                            text.append('\'');
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    text.append(t);
+                    i++;
+                }
+                value = text.toString();
+                end = i + 1;
+            } else if ((c == 'X' || c == 'x') && image.charAt(pos + 1) == '\'') {
+                end = image.indexOf('\'', pos + 2);
+                byte[] bytes = new byte[(end - pos - 2) / 2];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) Integer.parseInt(image.substring(pos + 2 + 2 * i, pos + 4 + 2 * i), 16);
+                }
+                value = bytes;
+                end++;
+            } else {
+                end = image.indexOf(',', pos);
+                if (end < 0) {
+                    end = image.length();
+                }
+                String literal = image.substring(pos, end);
+                int space = literal.indexOf(' ');
+                if (literal.equals("NULL")) {
+                    value = null;
+                } else if (space >= 0) {
+                    value = real(literal.substring(0, space)) + real(literal.substring(space + 1));
+                } else if (literal.endsWith("Inf") || literal.indexOf('.') >= 0 || literal.indexOf('e') >= 0
+                        || literal.indexOf('E') >= 0) {
+                    value = real(literal);
+                } else {
+                    value = Long.parseLong(literal);
+                }
+            }
+            values.put(column, value);
+            pos = end;
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    private static double real(String literal) {
+        if (literal.endsWith("Inf")) {
+            return literal.startsWith("-") ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        return Double.parseDouble(literal);
+    }
+}
@@ -0,0 +1,284 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A WHERE clause built from typed predicates, rendered as SQL with {@code ?} placeholders plus the values
+ * to bind to them.
+ * <p>
+ * Values never become part of the SQL text, so they cannot inject SQL. Conditions that differ only in their
+ * values render to the same SQL, and the statement cache hands back the same prepared statement for them.
+ * Column names cannot be bound, so they are checked to be plain identifiers instead.
+ * <pre>
+ *     Condition.eq("customer_id", 7).and(Condition.between("age", 20, 30))
+ *     // customer_id = ? AND age BETWEEN ? AND ?, parameters [7, 20, 30]
+ * </pre>
+ * Conditions are immutable; combining them returns a new one.
+ */
+public final class Condition {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private static final Condition ALL = new Condition("1 = 1", Collections.emptyList(), false);
+    private static final Condition NONE = new Condition("0 = 1", Collections.emptyList(), false);
+
+    private final String sql;
+    private final List<Object> parameters;
+    // True if the SQL is an AND or OR of several terms and needs parentheses inside another one
+    private final boolean compound;
+    // Columns an index could look up: compared for equality, and compared by range, see IndexAdvisor
+    private final List<String> equalityColumns;
+    private final List<String> rangeColumns;
+
+    private Condition(String sql, List<Object> parameters, boolean compound) {
+        this(sql, parameters, compound, Collections.emptyList(), Collections.emptyList());
+    }
+
+    private Condition(String sql, List<Object> parameters, boolean compound,
+                      List<String> equalityColumns, List<String> rangeColumns) {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.compound = compound;
+        this.equalityColumns = equalityColumns;
+        this.rangeColumns = rangeColumns;
+    }
+
+    /** @return Condition matching every row. */
+    public static Condition all() {
+        return ALL;
+    }
+
+    /**
+     * @param column Column name.
+     * @param value  Value to compare with; null renders as {@code IS NULL}, since {@code = NULL} matches nothing.
+     * @return       Condition {@code column = value}.
+     */
+    public static Condition eq(String column, Object value) {
+        return value == null ? isNull(column) : compare(column, "=", value, true);
+    }
+
+    /**
+     * @param column Column name.
+     * @param value  Value to compare with; null renders as {@code IS NOT NULL}.
+     * @return       Condition {@code column <> value}.
+     */
+    public static Condition ne(String column, Object value) {
+        return value == null ? isNotNull(column) : compare(column, "<>", value, null);
+    }
+
+    /** @return Condition {@code column < value}. */
+    public static Condition lt(String column, Object value) {
+        return compare(column, "<", value, false);
+    }
+
+    /** @return Condition {@code column <= value}. */
+    public static Condition le(String column, Object value) {
+        return compare(column, "<=", value, false);
+    }
+
+    /** @return Condition {@code column > value}. */
+    public static Condition gt(String column, Object value) {
+        return compare(column, ">", value, false);
+    }
+
+    /** @return Condition {@code column >= value}. */
+    public static Condition ge(String column, Object value) {
+        return compare(column, ">=", value, false);
+    }
+
+    /**
+     * @param column Column name.
+     * @param low    Smallest matching value, inclusive.
+     * @param high   Largest matching value, inclusive.
+     * @return       Condition {@code column BETWEEN low AND high}.
+     */
+    public static Condition between(String column, Object low, Object high) {
+        String name = identifier(column);
+        return new Condition(name + " BETWEEN ? AND ?", Arrays.asList(low, high), false,
+                Collections.emptyList(), List.of(name));
+    }
+
+    /**
+     * @param column  Column name.
+     * @param pattern LIKE pattern, with {@code %} and {@code _} wildcards.
+     * @return        Condition {@code column LIKE pattern}.
+     */
+    public static Condition like(String column, String pattern) {
+        return compare(column, "LIKE", pattern, null);
+    }
+
+    /**
+     * Matches rows whose column holds one of the values. The SQL has one placeholder per value, so lists of
+     * the same length share a prepared statement.
+     *
+     * @param column Column name.
+     * @param values Values to match; an empty collection matches no row.
+     * @return       Condition {@code column IN (values)}.
+     */
+    public static Condition in(String column, Collection<?> values) {
+        String name = identifier(column);
+        if (values.isEmpty()) {
+            return NONE;
+        }
+        StringBuilder sql = new StringBuilder(name).append(" IN (");
+        for (int i = 0; i < values.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return new Condition(sql.append(")").toString(), Collections.unmodifiableList(new ArrayList<>(values)), false,
+                List.of(name), Collections.emptyList());
+    }
+
+    /** @see #in(String, Collection) */
+    public static Condition in(String column, Object... values) {
+        return in(column, Arrays.asList(values));
+    }
+
+    /** @return Condition {@code column IS NULL}. */
+    public static Condition isNull(String column) {
+        String name = identifier(column);
+        return new Condition(name + " IS NULL", Collections.emptyList(), false, List.of(name), Collections.emptyList());
+    }
+
+    /** @return Condition {@code column IS NOT NULL}. */
+    public static Condition isNotNull(String column) {
+        return new Condition(identifier(column) + " IS NOT NULL", Collections.emptyList(), false);
+    }
+
+    /**
+     * @param conditions Conditions that must all hold; none matches every row.
+     * @return           Their conjunction.
+     */
+    public static Condition allOf(Condition... conditions) {
+        return join(" AND ", ALL, conditions);
+    }
+
+    /**
+     * @param conditions Conditions of which one must hold; none matches no row.
+     * @return           Their disjunction.
+     */
+    public static Condition anyOf(Condition... conditions) {
+        return join(" OR ", NONE, conditions);
+    }
+
+    /**
+     * @param condition Condition to negate.
+     * @return          Condition {@code NOT (condition)}.
+     */
+    public static Condition not(Condition condition) {
+        return new Condition("NOT (" + condition.sql + ")", condition.parameters, false);
+    }
+
+    /**
+     * @param other Condition that must also hold.
+     * @return      Conjunction of this condition and the other.
+     */
+    public Condition and(Condition other) {
+        return allOf(this, other);
+    }
+
+    /**
+     * @param other Condition that may hold instead.
+     * @return      Disjunction of this condition and the other.
+     */
+    public Condition or(Condition other) {
+        return anyOf(this, other);
+    }
+
+    /** @return SQL text of the condition, with a {@code ?} for every parameter. */
+    public String getSql() {
+        return sql;
+    }
+
+    /** @return Values for the placeholders, in order. */
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /** @return Columns compared for equality, with {@code =}, {@code IN} or {@code IS NULL}, outside any OR or NOT. */
+    List<String> equalityColumns() {
+        return equalityColumns;
+    }
+
+    /** @return Columns compared by range, with {@code <}, {@code >} or {@code BETWEEN}, outside any OR or NOT. */
+    List<String> rangeColumns() {
+        return rangeColumns;
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+
+    /**
+     * Binds the parameters to a prepared statement.
+     *
+     * @param pstmt Statement whose SQL contains this condition.
+     * @param first Index of the condition's first placeholder in the statement.
+     * @return      Index of the placeholder following the condition's last one.
+     */
+    int bind(PreparedStatement pstmt, int first) throws SQLException {
+        int index = first;
+        for (Object parameter : parameters) {
+            pstmt.setObject(index++, parameter);
+        }
+        return index;
+    }
+
+    /**
+     * Checks that a table or column name is a plain identifier, so it can go into SQL text unquoted.
+     *
+     * @param name Name to check.
+     * @return     The name.
+     * @throws IllegalArgumentException If the name is not an identifier.
+     */
+    static String identifier(String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            throw new IllegalArgumentException("Not a valid identifier: " + name);
+        }
+        return name;
+    }
+
+    /**
+     * @param equality True for an equality an index can look up, false for a range it can scan, null for neither.
+     */
+    private static Condition compare(String column, String operator, Object value, Boolean equality) {
+        String name = identifier(column);
+        List<String> columns = List.of(name);
+        return new Condition(name + " " + operator + " ?", Collections.singletonList(value), false,
+                Boolean.TRUE.equals(equality) ? columns : Collections.emptyList(),
+                Boolean.FALSE.equals(equality) ? columns : Collections.emptyList());
+    }
+
+    private static Condition join(String operator, Condition empty, Condition[] conditions) {
+        if (conditions.length == 0) {
+            return empty;
+        }
+        if (conditions.length == 1) {
+            return conditions[0];
+        }
+        StringBuilder sql = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+        List<String> equality = new ArrayList<>();
+        List<String> range = new ArrayList<>();
+        for (Condition condition : conditions) {
+            if (sql.length() > 0) {
+                sql.append(operator);
+            }
+            // Parenthesize compound terms so AND and OR nest as written
+            sql.append(condition.compound ? "(" + condition.sql + ")" : condition.sql);
+            parameters.addAll(condition.parameters);
+            equality.addAll(condition.equalityColumns);
+            range.addAll(condition.rangeColumns);
+        }
+        if (operator.equals(" OR ")) {
+            // No single index serves every branch of an OR
+            return new Condition(sql.toString(), Collections.unmodifiableList(parameters), true);
+        }
+        return new Condition(sql.toString(), Collections.unmodifiableList(parameters), true,
+                Collections.unmodifiableList(equality), Collections.unmodifiableList(range));
+    }
+}
@@ -3,30 +3,23 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Connect {
+    // db parameters
+    private static final String URL = "jdbc:sqlite:SqliteJavaDB.db";
+
     /**
      * Connect to a sample database
      */
     public static void connect() {
         Connection conn = null;
         try {
-            // db parameters
-            Class.forName("org.sqlite.JDBC");
-            String url = "jdbc:sqlite:SqliteJavaDB.db";
-            // create a connection to the database
-            conn = DriverManager.getConnection(url);
+            // borrow a connection to the database from the pool
+            conn = ConnectionPool.forUrl(URL).getConnection();
 
             System.out.println("Connection to SQLite Database has been established.");
 
         } catch (SQLException e) {
             System.out.println(e.getMessage());
-        }
-        catch ( Exception e ) {
-
-            System.err.println( e.getClass().getName() + ": " + e.getMessage() );
-
-            System.exit(0);
-
-        }finally {
+        } finally {
             try {
                 if (conn != null) {
                     conn.close();
@@ -37,8 +30,6 @@ public class Connect {
         }
     }
     public static void createNewTable() {
-        String url = "jdbc:sqlite:SqliteJavaDB.db";
-
         // SQL statement for creating a new table
         String sql = """
                 CREATE TABLE IF NOT EXISTS clothname (
@@ -47,9 +38,8 @@ public class Connect {
                  measure_two text
                 );""";
 
-        try{
-            Connection conn = DriverManager.getConnection(url);
-            Statement stmt = conn.createStatement();
+        try (Connection conn = ConnectionPool.forUrl(URL).getConnection();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
             System.out.println("table created");
         } catch (SQLException e) {
@@ -58,12 +48,10 @@ public class Connect {
     }
     public static void insert(String m1, String m2) {
         String sql = "INSERT INTO clothname (measure_one , measure_two) VALUES(?,?)";
-        String url = "jdbc:sqlite:SqliteJavaDB.db";
-        try{
-            Connection conn = DriverManager.getConnection(url);
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+        try (Connection conn = ConnectionPool.forUrl(URL).getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, m1);
-            pstmt.setDouble(2, m2);
+            pstmt.setString(2, m2);
             pstmt.executeUpdate();
             System.out.println("data added :"+ m1+" "+m2);
         } catch (SQLException e) {
@@ -73,11 +61,9 @@ public class Connect {
     }
     public static void selectAll(){
         String sql = "SELECT * FROM clothname";
-        String url = "jdbc:sqlite:SqliteJavaDB.db";
-        try {
-            Connection conn = DriverManager.getConnection(url);
-            Statement stmt  = conn.createStatement();
-            ResultSet rs    = stmt.executeQuery(sql);
+        try (Connection conn = ConnectionPool.forUrl(URL).getConnection();
+             Statement stmt  = conn.createStatement();
+             ResultSet rs    = stmt.executeQuery(sql)) {
             ResultSetMetaData rsmd = rs.getMetaData();
             List<String> columns = new ArrayList<>();
             for(int i = 1; i <= rsmd.getColumnCount();i++){
@@ -1,20 +1,16 @@
 import java.sql.*;
 
 public class ConnectDB {
+    private static final String URL = "jdbc:sqlite:SqliteJavaDB.db";
+
     private Connection connect() {
         Connection conn = null;
         try {
-            Class.forName("org.sqlite.JDBC");
-            String url = "jdbc:sqlite:SqliteJavaDB.db";
-            conn = DriverManager.getConnection(url);
+            conn = ConnectionPool.forUrl(URL).getConnection();
             System.out.println("Connection to SQLite Database has been established.");
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
-        catch ( Exception e ) {
-            System.err.println( e.getClass().getName() + ": " + e.getMessage() );
-            System.exit(0);
-        }
         return conn;
     }
     public void createNewTable() {
@@ -25,61 +21,49 @@ public class ConnectDB {
                  name  text NOT NULL,
                  capacity real
                 );""";
-        Connection conn;
-        try{
-            conn = this.connect();
-            Statement stmt = conn.createStatement();
+        try (Connection conn = this.connect();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
             System.out.println("table created");
-            conn.close();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
     }
 
     public void deleteTable(String tableName){
-        Connection conn;
         // SQL statement for creating a new table
         String sql = "DROP TABLE "+ tableName;
 
-        try{
-            conn = this.connect();
-            Statement stmt = conn.createStatement();
+        try (Connection conn = this.connect();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
             System.out.println(tableName+" table deleted");
-            conn.close();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
     }
 
     public void addColumn(String tableName, String columnName){
-        Connection conn;
         // SQL statement for creating a new table
         String sql = "ALTER TABLE "+ tableName+ " ADD COLUMN "+ columnName;
 
-        try{
-            conn = this.connect();
-            Statement stmt = conn.createStatement();
+        try (Connection conn = this.connect();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
             System.out.println("Added column "+columnName+" to "+tableName+" table");
-            conn.close();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
     }
 
     public void renameTable(String oldTableName, String newTableName){
-        Connection conn;
         // SQL statement for creating a new table
         String sql = "ALTER TABLE "+ oldTableName + " RENAME TO "+ newTableName;
 
-        try{
-            conn = this.connect();
-            Statement stmt = conn.createStatement();
+        try (Connection conn = this.connect();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
             System.out.println(oldTableName+" table renamed to "+ newTableName);
-            conn.close();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
@@ -87,33 +71,23 @@ public class ConnectDB {
 
     public void insert(String name, double capacity) {
         String sql = "INSERT INTO employees(name, capacity) VALUES(?,?)";
-        Connection conn = null;
-        try{
-            conn = this.connect();
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+
+        try (Connection conn = this.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, name);
             pstmt.setDouble(2, capacity);
             pstmt.executeUpdate();
             System.out.println("data entered");
         } catch (SQLException e) {
             System.out.println(e.getMessage());
-        }finally {
-            try {
-                if (conn != null) {
-                    conn.close();
-                }
-            } catch (SQLException ex) {
-                System.out.println(ex.getMessage());
-            }
         }
     }
     public void selectAll(){
         String sql = "SELECT * FROM employees";
 
-        try {
-            Connection conn = this.connect();
-            Statement stmt  = conn.createStatement();
-            ResultSet rs    = stmt.executeQuery(sql);
+        try (Connection conn = this.connect();
+             Statement stmt  = conn.createStatement();
+             ResultSet rs    = stmt.executeQuery(sql)) {
 
             // loop through the result set
             while (rs.next()) {
@@ -121,39 +95,32 @@ public class ConnectDB {
                         rs.getString("name") + "\t" +
                         rs.getDouble("capacity"));
             }
-            conn.close();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
     }
 
     public void updateTable(String tableName, String columnName, String setValue, String whereCondition){
-        Connection conn;
         // SQL statement for creating a new table
         String sql = "UPDATE "+tableName+" set "+columnName+" = "+setValue+" where "+whereCondition+";";
 
-        try{
-            conn = this.connect();
-            Statement stmt = conn.createStatement();
+        try (Connection conn = this.connect();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
             System.out.println(tableName+" table updated");
-            conn.close();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
     }
 
     public void deleteTuple(String tableName, String whereCondition){
-        Connection conn;
         // SQL statement for creating a new table
         String sql = "DELETE FROM "+ tableName+" WHERE "+whereCondition;
 
-        try{
-            conn = this.connect();
-            Statement stmt = conn.createStatement();
+        try (Connection conn = this.connect();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
             System.out.println("tuple deleted from "+tableName+" table");
-            conn.close();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
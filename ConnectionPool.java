@@ -0,0 +1,431 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of SQLite connections shared by {@link SchemaDB}, {@link ConnectDB} and {@link Connect}.
+ * Borrowed connections are proxies: calling {@code close()} hands the physical connection back to the
+ * pool instead of closing the database file. A background housekeeper evicts idle connections,
+ * keeps at least {@code minSize} connections open and reports connections that were never returned.
+ */
+public class ConnectionPool {
+    // One pool per JDBC URL, created on first use
+    private static final Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final String url;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final long idleTimeoutMillis;
+    private final ConnectionProfile profile;
+
+    // Idle connections, most recently returned first so hot connections stay warm
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // Connections currently handed out to callers
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    // One permit per connection that may exist, bounding the pool at maxSize
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    static {
+        try {
+            // Load the JDBC driver for SQLite once for every pool
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Creates a pool for the given database URL.
+     *
+     * @param url                 JDBC URL of the SQLite database.
+     * @param minSize             Number of connections kept open even when idle.
+     * @param maxSize             Maximum number of connections open at the same time.
+     * @param borrowTimeoutMillis How long {@link #getConnection()} waits for a free connection.
+     * @param leakThresholdMillis Borrow duration after which a connection is reported as leaked, 0 to disable.
+     * @param idleTimeoutMillis   Idle duration after which connections above {@code minSize} are closed.
+     */
+    public ConnectionPool(String url, int minSize, int maxSize, long borrowTimeoutMillis,
+                          long leakThresholdMillis, long idleTimeoutMillis) {
+        this(url, minSize, maxSize, borrowTimeoutMillis, leakThresholdMillis, idleTimeoutMillis,
+                ConnectionProfile.fromSystemProperties());
+    }
+
+    /**
+     * Creates a pool for the given database URL whose connections are configured with a profile when opened.
+     *
+     * @param url                 JDBC URL of the SQLite database.
+     * @param minSize             Number of connections kept open even when idle.
+     * @param maxSize             Maximum number of connections open at the same time.
+     * @param borrowTimeoutMillis How long {@link #getConnection()} waits for a free connection.
+     * @param leakThresholdMillis Borrow duration after which a connection is reported as leaked, 0 to disable.
+     * @param idleTimeoutMillis   Idle duration after which connections above {@code minSize} are closed.
+     * @param profile             SQLite settings applied to every new connection.
+     */
+    public ConnectionPool(String url, int minSize, int maxSize, long borrowTimeoutMillis,
+                          long leakThresholdMillis, long idleTimeoutMillis, ConnectionProfile profile) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.profile = profile;
+        this.permits = new Semaphore(maxSize, true);
+
+        // Run housekeeping on a single daemon thread so it never keeps the JVM alive
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(
+                leakThresholdMillis > 0 ? leakThresholdMillis : Long.MAX_VALUE, idleTimeoutMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the shared pool for a database URL, creating it on first use.
+     * Sizes and timeouts are read from the {@code pool.minSize}, {@code pool.maxSize},
+     * {@code pool.borrowTimeoutMillis}, {@code pool.leakThresholdMillis} and
+     * {@code pool.idleTimeoutMillis} system properties, and the connection profile from
+     * {@code connection.profile} (see {@link ConnectionProfile#fromSystemProperties()}).
+     *
+     * @param url JDBC URL of the SQLite database.
+     * @return    Pool serving connections to that database.
+     */
+    public static ConnectionPool forUrl(String url) {
+        return pools.computeIfAbsent(url, u -> new ConnectionPool(u,
+                Integer.getInteger("pool.minSize", 1),
+                Integer.getInteger("pool.maxSize", 8),
+                Long.getLong("pool.borrowTimeoutMillis", 30_000L),
+                Long.getLong("pool.leakThresholdMillis", 60_000L),
+                Long.getLong("pool.idleTimeoutMillis", 300_000L)));
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none is idle and the pool is not full.
+     * Idle connections are validated before being handed out; broken ones are replaced.
+     *
+     * @return Connection that returns to the pool when closed.
+     * @throws SQLException If the pool is exhausted for longer than the borrow timeout or the database cannot be opened.
+     */
+    public Connection getConnection() throws SQLException {
+        long start = Metrics.POOL_BORROW.start();
+        try {
+            return borrow();
+        } catch (SQLException | RuntimeException e) {
+            Metrics.POOL_BORROW.failed();
+            throw e;
+        } finally {
+            Metrics.POOL_BORROW.stop(start);
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool for " + url + " is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a connection to " + url
+                        + " (" + borrowed.size() + " of " + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + url, e);
+        }
+
+        try {
+            // Reuse an idle connection if a valid one is available
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (pooled.isValid()) {
+                    return checkOut(pooled);
+                }
+                pooled.closePhysical();
+            }
+            // Otherwise open a fresh one
+            return checkOut(new PooledConnection(open()));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a new physical connection to the database and applies the connection profile.
+     */
+    private Connection open() throws SQLException {
+        long start = Metrics.CONNECTION_OPEN.start();
+        try {
+            Connection conn = DriverManager.getConnection(url, profile.connectionProperties());
+            try {
+                profile.apply(conn);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            return conn;
+        } catch (SQLException e) {
+            Metrics.CONNECTION_OPEN.failed();
+            throw e;
+        } finally {
+            Metrics.CONNECTION_OPEN.stop(start);
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops the housekeeper. Borrowed connections are closed when returned.
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closePhysical();
+        }
+        pools.remove(url, this);
+    }
+
+    /** @return Number of connections currently borrowed. */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /** @return Number of open connections waiting in the pool. */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /** @return Maximum number of connections open at the same time. */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return JDBC URL this pool connects to. */
+    public String getUrl() {
+        return url;
+    }
+
+    /** @return SQLite settings applied to the pool's connections. */
+    public ConnectionProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the statement cache of the physical connection behind a pooled connection.
+     *
+     * @param conn Connection borrowed from any pool.
+     * @return     Statement cache shared by every borrow of that physical connection, or null if the connection is not pooled.
+     */
+    static StatementCache statementCache(Connection conn) {
+        if (conn == null || !Proxy.isProxyClass(conn.getClass())) {
+            return null;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(conn);
+        if (!(handler instanceof Lease)) {
+            return null;
+        }
+        PooledConnection pooled = ((Lease) handler).pooled;
+        synchronized (pooled) {
+            if (pooled.statementCache == null) {
+                pooled.statementCache = new StatementCache(pooled.physical, StatementCache.DEFAULT_CAPACITY);
+            }
+            return pooled.statementCache;
+        }
+    }
+
+    private Connection checkOut(PooledConnection pooled) {
+        pooled.borrowedAt = System.currentTimeMillis();
+        // Only pay for a stack trace when leak detection is switched on
+        pooled.borrowSite = leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+        pooled.leakReported = false;
+        pooled.lease = new Lease(pooled);
+        borrowed.add(pooled);
+        return pooled.lease.proxy;
+    }
+
+    private void checkIn(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            return; // Already returned, close() called twice
+        }
+        Connection proxy = pooled.lease.proxy;
+        pooled.lease = null;
+        pooled.lastReturnedAt = System.currentTimeMillis();
+        boolean reusable = !closed && pooled.reset();
+        // A scope the borrower left open was rolled back by the reset, or goes with the connection
+        Transaction.abandon(proxy);
+        if (reusable) {
+            idle.offerFirst(pooled);
+        } else {
+            pooled.closePhysical();
+        }
+        permits.release();
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        // Report connections held longer than the leak threshold, once per borrow
+        if (leakThresholdMillis > 0) {
+            for (PooledConnection pooled : borrowed) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                    pooled.leakReported = true;
+                    Log.warn("Possible connection leak: connection to " + url + " borrowed "
+                            + (now - pooled.borrowedAt) + " ms ago has not been returned");
+                    if (pooled.borrowSite != null) {
+                        Log.error("Leaked connection to " + url, pooled.borrowSite);
+                    }
+                }
+            }
+        }
+
+        // Evict connections idle for too long, keeping at least minSize open
+        for (PooledConnection pooled : idle) {
+            if (idle.size() + borrowed.size() <= minSize) {
+                break;
+            }
+            if (now - pooled.lastReturnedAt > idleTimeoutMillis && idle.remove(pooled)) {
+                pooled.closePhysical();
+            }
+        }
+
+        // Top the pool back up to minSize
+        while (!closed && idle.size() + borrowed.size() < minSize && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = new PooledConnection(open());
+                pooled.lastReturnedAt = now;
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                Log.error(e.getMessage());
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool and the bookkeeping for its current borrower.
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        volatile Lease lease;
+        StatementCache statementCache;
+        volatile long borrowedAt;
+        volatile long lastReturnedAt = System.currentTimeMillis();
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * Validates the connection with a trivial query; the driver does not implement {@code isValid}.
+         */
+        boolean isValid() {
+            try (Statement stmt = physical.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT 1")) {
+                return rs.next();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Rolls back any transaction left open by the borrower so the next user starts clean.
+         */
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException e) {
+                Log.error(e.getMessage());
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            try {
+                synchronized (this) {
+                    if (statementCache != null) {
+                        statementCache.clear();
+                    }
+                }
+                physical.close();
+            } catch (SQLException e) {
+                Log.error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Proxy handler for a single borrow. A fresh lease is created every time a connection is handed out,
+     * so a stale reference kept after {@code close()} can never return or use someone else's connection.
+     */
+    private final class Lease implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection proxy;
+        volatile boolean open = true;
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (open) {
+                        open = false;
+                        checkIn(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return !open || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    break;
+            }
+            if (!open) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
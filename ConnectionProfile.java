@@ -0,0 +1,270 @@
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQLite settings applied to every connection when it is opened.
+ * <p>
+ * A profile sets the journal mode, synchronous level, page cache size, memory-mapped I/O size, temporary
+ * storage, page size and busy timeout with {@code PRAGMA} statements, then reads each one back. Settings
+ * the SQLite library does not support or that did not take effect are logged once per profile and
+ * setting; the connection is still usable with the library's defaults for them.
+ * <p>
+ * Three presets are provided:
+ * <ul>
+ *     <li>{@link #DURABLE}: WAL journal with a full sync on every commit. Readers do not block the writer
+ *     and no committed transaction is lost on power failure.</li>
+ *     <li>{@link #THROUGHPUT}: WAL journal synced at checkpoints only, a large page cache, memory-mapped I/O
+ *     and in-memory temporary tables. A power failure may lose the last commits but never corrupts the database.</li>
+ *     <li>{@link #BULK_LOAD}: like throughput but without syncing at all, for loads that can be rerun from
+ *     their source if the machine crashes.</li>
+ * </ul>
+ * <p>
+ * {@link #asReadOnly()} derives a profile for reader connections, which SQLite opens read-only.
+ */
+public final class ConnectionProfile {
+    public static final ConnectionProfile DURABLE =
+            new ConnectionProfile("durable", "WAL", "FULL", 2_000, 0, "DEFAULT", 4096, 30_000);
+    public static final ConnectionProfile THROUGHPUT =
+            new ConnectionProfile("throughput", "WAL", "NORMAL", 10_000, 256L << 20, "MEMORY", 4096, 30_000);
+    public static final ConnectionProfile BULK_LOAD =
+            new ConnectionProfile("bulk-load", "WAL", "OFF", 50_000, 256L << 20, "MEMORY", 4096, 60_000);
+
+    // Settings already reported as not taking effect, so each is logged once per profile
+    private static final Set<String> reported = ConcurrentHashMap.newKeySet();
+
+    private final String name;
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheSizePages;
+    private final long mmapSizeBytes;
+    private final String tempStore;
+    private final int pageSize;
+    private final int busyTimeoutMillis;
+    private final boolean readOnly;
+
+    /**
+     * Creates a profile. Pass null or a non-positive number to leave a setting at the library default.
+     *
+     * @param name              Name of the profile, used in log messages.
+     * @param journalMode       Journal mode: DELETE, TRUNCATE, PERSIST, MEMORY, WAL or OFF.
+     * @param synchronous       Synchronous level: OFF, NORMAL or FULL.
+     * @param cacheSizePages    Number of database pages kept in the page cache.
+     * @param mmapSizeBytes     Bytes of the database file to memory-map (SQLite 3.7.17 and later).
+     * @param tempStore         Where temporary tables live: DEFAULT, FILE or MEMORY.
+     * @param pageSize          Page size in bytes; only takes effect on a database that has no tables yet.
+     * @param busyTimeoutMillis How long a statement waits for another connection's lock before failing.
+     */
+    public ConnectionProfile(String name, String journalMode, String synchronous, int cacheSizePages,
+                             long mmapSizeBytes, String tempStore, int pageSize, int busyTimeoutMillis) {
+        this(name, journalMode, synchronous, cacheSizePages, mmapSizeBytes, tempStore, pageSize, busyTimeoutMillis,
+                false);
+    }
+
+    private ConnectionProfile(String name, String journalMode, String synchronous, int cacheSizePages,
+                              long mmapSizeBytes, String tempStore, int pageSize, int busyTimeoutMillis,
+                              boolean readOnly) {
+        this.name = name;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSizePages = cacheSizePages;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.tempStore = tempStore;
+        this.pageSize = pageSize;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Returns a preset by name.
+     *
+     * @param name {@code durable}, {@code throughput} or {@code bulk-load}, in any case.
+     * @return     The preset.
+     * @throws IllegalArgumentException If there is no preset with that name.
+     */
+    public static ConnectionProfile named(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "durable":
+                return DURABLE;
+            case "throughput":
+                return THROUGHPUT;
+            case "bulk-load":
+                return BULK_LOAD;
+            default:
+                throw new IllegalArgumentException("Unknown connection profile: " + name);
+        }
+    }
+
+    /**
+     * Returns the preset named by the {@code connection.profile} system property, {@link #DURABLE} if it is not set.
+     *
+     * @return Default profile for new connection pools.
+     */
+    public static ConnectionProfile fromSystemProperties() {
+        return named(System.getProperty("connection.profile", DURABLE.name));
+    }
+
+    /** @return Name of the profile. */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a profile for connections that only read, with this profile's cache, memory-mapping, temp store
+     * and busy timeout. The connections are opened read-only, so SQLite refuses any write through them. The
+     * journal mode and page size belong to the database file and are left to the writer's profile.
+     *
+     * @return Read-only variant of this profile.
+     */
+    public ConnectionProfile asReadOnly() {
+        if (readOnly) {
+            return this;
+        }
+        return new ConnectionProfile(name + "-read-only", null, synchronous, cacheSizePages, mmapSizeBytes, tempStore,
+                0, busyTimeoutMillis, true);
+    }
+
+    /** @return True if connections with this profile are opened read-only. */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @return Driver properties to open a connection with; this is where read-only is set, since SQLite
+     *         fixes it when the file is opened.
+     */
+    Properties connectionProperties() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(readOnly);
+        return config.toProperties();
+    }
+
+    /** @return How long a statement waits for another connection's lock, 0 for the library default. */
+    public int getBusyTimeoutMillis() {
+        return Math.max(0, busyTimeoutMillis);
+    }
+
+    /**
+     * Applies the profile to a freshly opened connection and checks that every setting took effect.
+     *
+     * @param conn Connection to configure, before any other use.
+     * @return     Descriptions of the settings that did not take effect; empty if all did.
+     * @throws SQLException If a PRAGMA statement fails.
+     */
+    public List<String> apply(Connection conn) throws SQLException {
+        List<String> problems = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            // Page size first: it can only change before the file is initialized or switched to WAL
+            if (pageSize > 0) {
+                pragma(stmt, "page_size = " + pageSize);
+                check(problems, "page_size", String.valueOf(pageSize), pragma(stmt, "page_size"),
+                        "only applies to a database without tables");
+            }
+            if (journalMode != null) {
+                String mode = pragma(stmt, "journal_mode = " + journalMode);
+                // In-memory databases always report the "memory" journal
+                if (!"memory".equalsIgnoreCase(mode)) {
+                    check(problems, "journal_mode", journalMode, mode, "another connection may hold the database open");
+                }
+            }
+            if (synchronous != null) {
+                pragma(stmt, "synchronous = " + synchronous);
+                check(problems, "synchronous", synchronousLevel(synchronous), pragma(stmt, "synchronous"), null);
+            }
+            if (cacheSizePages > 0) {
+                pragma(stmt, "cache_size = " + cacheSizePages);
+                check(problems, "cache_size", String.valueOf(cacheSizePages), pragma(stmt, "cache_size"), null);
+            }
+            if (mmapSizeBytes > 0) {
+                String actual = pragma(stmt, "mmap_size = " + mmapSizeBytes);
+                check(problems, "mmap_size", String.valueOf(mmapSizeBytes), actual, "requires SQLite 3.7.17");
+            }
+            if (tempStore != null) {
+                pragma(stmt, "temp_store = " + tempStore);
+                check(problems, "temp_store", tempStoreLevel(tempStore), pragma(stmt, "temp_store"), null);
+            }
+            if (busyTimeoutMillis > 0) {
+                String actual = pragma(stmt, "busy_timeout = " + busyTimeoutMillis);
+                if (actual == null) {
+                    // The pragma needs SQLite 3.7.15; the driver sets the same timeout through the query timeout
+                    stmt.setQueryTimeout((busyTimeoutMillis + 999) / 1000);
+                } else {
+                    check(problems, "busy_timeout", String.valueOf(busyTimeoutMillis), actual, null);
+                }
+            }
+        }
+        for (String problem : problems) {
+            if (reported.add(name + ":" + problem)) {
+                Log.warn("Connection profile " + name + ": " + problem);
+            }
+        }
+        return Collections.unmodifiableList(problems);
+    }
+
+    @Override
+    public String toString() {
+        return name + "{journal_mode=" + journalMode + ", synchronous=" + synchronous + ", cache_size=" + cacheSizePages
+                + ", mmap_size=" + mmapSizeBytes + ", temp_store=" + tempStore + ", page_size=" + pageSize
+                + ", busy_timeout=" + busyTimeoutMillis + (readOnly ? ", read_only" : "") + "}";
+    }
+
+    /**
+     * Runs a PRAGMA and returns the first column of its first row, or null if it returns nothing,
+     * which is how SQLite answers pragmas it does not know.
+     */
+    private static String pragma(Statement stmt, String pragma) throws SQLException {
+        boolean hasResult = stmt.execute("PRAGMA " + pragma);
+        if (!hasResult) {
+            return null;
+        }
+        try (ResultSet rs = stmt.getResultSet()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static void check(List<String> problems, String setting, String expected, String actual, String hint) {
+        if (actual == null) {
+            problems.add(setting + " is not supported by this SQLite library" + (hint != null ? " (" + hint + ")" : ""));
+        } else if (!expected.equalsIgnoreCase(actual)) {
+            problems.add(setting + " is " + actual + " instead of " + expected + (hint != null ? " (" + hint + ")" : ""));
+        }
+    }
+
+    private static String synchronousLevel(String level) {
+        switch (level.toUpperCase(Locale.ROOT)) {
+            case "OFF":
+                return "0";
+            case "NORMAL":
+                return "1";
+            case "FULL":
+                return "2";
+            case "EXTRA":
+                return "3";
+            default:
+                return level;
+        }
+    }
+
+    private static String tempStoreLevel(String level) {
+        switch (level.toUpperCase(Locale.ROOT)) {
+            case "DEFAULT":
+                return "0";
+            case "FILE":
+                return "1";
+            case "MEMORY":
+                return "2";
+            default:
+                return level;
+        }
+    }
+}
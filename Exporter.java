@@ -0,0 +1,578 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes query results to a file as they are read, in constant memory however many rows there are.
+ * <p>
+ * Rows go through a direct {@link ByteBuffer} straight to a {@link FileChannel}. Values are encoded by the type
+ * SQLite reports for each of them, not through {@code getString}: integers are written from the primitive long,
+ * and text, dates and reals are copied as the bytes SQLite holds.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ *     <li>{@link Format#CSV}: a header line and one line per row, quoted as in RFC 4180. NULL is an empty field and
+ *     empty text a quoted one, {@code ""}. BLOBs are written in hex.</li>
+ *     <li>{@link Format#COLUMNAR}: rows in blocks of {@code blockRows}, and within a block one chunk per column,
+ *     optionally Deflate-compressed. Integers are delta-encoded varints, so sorted ids and dates shrink to a
+ *     byte or two. A footer lists where every block starts, like Parquet's. {@link #readColumnar} reads it back.</li>
+ * </ul>
+ * The file is written under a temporary name and moved into place once complete, so a failed export leaves no
+ * partial file behind.
+ */
+public class Exporter {
+    /**
+     * Format of the output file.
+     */
+    public enum Format {
+        CSV,
+        COLUMNAR
+    }
+
+    // Start and end of a columnar file
+    private static final byte[] MAGIC = "SDBCOL1\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Type tags of the values in a columnar column chunk
+    private static final int NULL = 0;
+    private static final int INTEGER = 1;
+    private static final int REAL = 2;
+    private static final int TEXT = 3;
+    private static final int BLOB = 4;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Whole exports, and bytes written, see Metrics
+    private static final Metrics.Operation EXPORT = Metrics.operation("export");
+    private static final Metrics.Counter BYTES = Metrics.counter("export.bytes");
+
+    private final Format format;
+    private final int bufferBytes;
+    private final int blockRows;
+    private final boolean compress;
+
+    /**
+     * Creates an exporter.
+     *
+     * @param format      Format of the output.
+     * @param bufferBytes Size of the direct buffer between the rows and the file.
+     * @param blockRows   Number of rows per block of a columnar file.
+     * @param compress    True to Deflate the column chunks of a columnar file.
+     */
+    public Exporter(Format format, int bufferBytes, int blockRows, boolean compress) {
+        if (bufferBytes < 64 || blockRows < 1) {
+            throw new IllegalArgumentException("bufferBytes must be at least 64 and blockRows positive");
+        }
+        this.format = format;
+        this.bufferBytes = bufferBytes;
+        this.blockRows = blockRows;
+        this.compress = compress;
+    }
+
+    /**
+     * Creates an exporter configured by {@code -Dexporter.bufferBytes} (default 1 MiB), {@code -Dexporter.blockRows}
+     * (default 65536) and {@code -Dexporter.compress} (default true).
+     *
+     * @param format Format of the output.
+     * @return       The exporter.
+     */
+    public static Exporter of(Format format) {
+        return new Exporter(format, Integer.getInteger("exporter.bufferBytes", 1 << 20),
+                Integer.getInteger("exporter.blockRows", 65536),
+                !"false".equalsIgnoreCase(System.getProperty("exporter.compress")));
+    }
+
+    /**
+     * Exports specified columns of a table.
+     *
+     * @param conn        Connection object representing the database connection.
+     * @param tableName   Name of the table to export.
+     * @param columnNames Optional: List of column names to export. If null or empty, exports all columns.
+     * @param file        File to write; replaced if it exists.
+     * @return            Number of rows written.
+     * @throws IOException  If the file cannot be written.
+     * @throws SQLException If the table does not exist or the rows cannot be read.
+     */
+    public long export(Connection conn, String tableName, List<String> columnNames, Path file)
+            throws IOException, SQLException {
+        return export(SchemaDB.openCursor(conn, tableName, columnNames, 0), file);
+    }
+
+    /**
+     * Exports the remaining rows of a cursor, closing it afterwards.
+     *
+     * @param cursor Cursor over the rows to export, such as one from {@link SchemaDB#openCursor}.
+     * @param file   File to write; replaced if it exists.
+     * @return       Number of rows written.
+     * @throws IOException  If the file cannot be written.
+     * @throws SQLException If the rows cannot be read.
+     */
+    public long export(RowCursor cursor, Path file) throws IOException, SQLException {
+        long start = EXPORT.start();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (RowCursor rows = cursor;
+             FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel, bufferBytes);
+            long count = format == Format.CSV ? writeCsv(rows, out) : writeColumnar(rows, out);
+            out.flush();
+            channel.force(false);
+            BYTES.add(out.written);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Log.info("Exported " + count + " rows to " + file + " (" + out.written + " bytes)");
+            return count;
+        } catch (IOException | SQLException | RuntimeException e) {
+            EXPORT.failed();
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            EXPORT.stop(start);
+        }
+    }
+
+    private long writeCsv(RowCursor rows, Output out) throws IOException, SQLException {
+        int columns = rows.getColumnCount();
+        for (int i = 0; i < columns; i++) {
+            if (i > 0) {
+                out.put((byte) ',');
+            }
+            writeCsvText(out, rows.getColumnNames().get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        out.put((byte) '\n');
+        long count = 0;
+        while (rows.next()) {
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    out.put((byte) ',');
+                }
+                switch (rows.getValueType(i)) {
+                    case Types.NULL:
+                        break;
+                    case Types.INTEGER:
+                        out.putDecimal(rows.getLong(i));
+                        break;
+                    case Types.FLOAT:
+                        // SQLite's own text form of the real, without a detour through Double.toString
+                        out.put(rows.getBytes(i));
+                        break;
+                    case Types.BLOB:
+                        for (byte b : rows.getBytes(i)) {
+                            out.put(HEX[(b >> 4) & 0xF]);
+                            out.put(HEX[b & 0xF]);
+                        }
+                        break;
+                    default:
+                        writeCsvText(out, rows.getBytes(i));
+                }
+            }
+            out.put((byte) '\n');
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes UTF-8 text as a CSV field, quoting it only if it contains a comma, quote or line break, or is empty:
+     * an unquoted empty field stands for NULL.
+     */
+    private static void writeCsvText(Output out, byte[] text) throws IOException {
+        boolean quote = text.length == 0;
+        for (byte b : text) {
+            if (b == ',' || b == '"' || b == '\n' || b == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        if (!quote) {
+            out.put(text);
+            return;
+        }
+        out.put((byte) '"');
+        for (byte b : text) {
+            if (b == '"') {
+                out.put((byte) '"');
+            }
+            out.put(b);
+        }
+        out.put((byte) '"');
+    }
+
+    /**
+     * Writes the columnar layout: magic, column names, blocks, then a footer with the block offsets and rows,
+     * the footer's own offset and the magic again.
+     * <pre>
+     * block  := varint rows, per column: varint rawLength, varint storedLength, stored bytes
+     * chunk  := per row: tag, value; integers as zigzag varint deltas, text and BLOBs as varint length + bytes
+     * </pre>
+     */
+    private long writeColumnar(RowCursor rows, Output out) throws IOException, SQLException {
+        int columns = rows.getColumnCount();
+        out.put(MAGIC);
+        out.put((byte) (compress ? 1 : 0));
+        out.putVarint(columns);
+        for (String name : rows.getColumnNames()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.putVarint(bytes.length);
+            out.put(bytes);
+        }
+
+        ColumnChunk[] chunks = new ColumnChunk[columns];
+        for (int i = 0; i < columns; i++) {
+            chunks[i] = new ColumnChunk();
+        }
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        List<long[]> blocks = new ArrayList<>();
+        long count = 0;
+        int inBlock = 0;
+        try {
+            while (rows.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    ColumnChunk chunk = chunks[i - 1];
+                    switch (rows.getValueType(i)) {
+                        case Types.NULL:
+                            chunk.put(NULL);
+                            break;
+                        case Types.INTEGER:
+                            chunk.putInteger(rows.getLong(i));
+                            break;
+                        case Types.FLOAT:
+                            chunk.putReal(rows.getDouble(i));
+                            break;
+                        case Types.BLOB:
+                            chunk.putBytes(BLOB, rows.getBytes(i));
+                            break;
+                        default:
+                            chunk.putBytes(TEXT, rows.getBytes(i));
+                    }
+                }
+                count++;
+                if (++inBlock == blockRows) {
+                    blocks.add(new long[]{out.position(), inBlock});
+                    writeBlock(out, chunks, inBlock, deflater);
+                    inBlock = 0;
+                }
+            }
+            if (inBlock > 0) {
+                blocks.add(new long[]{out.position(), inBlock});
+                writeBlock(out, chunks, inBlock, deflater);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        long footer = out.position();
+        out.putVarint(blocks.size());
+        for (long[] block : blocks) {
+            out.putVarint(block[0]);
+            out.putVarint(block[1]);
+        }
+        out.putLong(footer);
+        out.put(MAGIC);
+        return count;
+    }
+
+    private static void writeBlock(Output out, ColumnChunk[] chunks, int rows, Deflater deflater) throws IOException {
+        out.putVarint(rows);
+        for (ColumnChunk chunk : chunks) {
+            out.putVarint(chunk.length);
+            if (deflater == null) {
+                out.putVarint(chunk.length);
+                out.put(chunk.bytes, 0, chunk.length);
+            } else {
+                deflater.reset();
+                deflater.setInput(chunk.bytes, 0, chunk.length);
+                deflater.finish();
+                byte[] compressed = chunk.scratch(chunk.length + chunk.length / 1000 + 64);
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) {
+                        compressed = chunk.scratch(compressed.length * 2);
+                    }
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                out.putVarint(length);
+                out.put(compressed, 0, length);
+            }
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Reads a file written in {@link Format#COLUMNAR} back, one row at a time. Values come back as Long, Double,
+     * String, byte[] or null, like {@link RowCursor#getObject} returns them.
+     *
+     * @param file     File to read.
+     * @param consumer Receives the column names first, then every row; arrays are reused between calls.
+     * @return         Number of rows read.
+     * @throws IOException If the file is not a columnar export or is damaged.
+     */
+    public static long readColumnar(Path file, Consumer<Object[]> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a columnar export");
+            }
+            boolean compressed = in.get() == 1;
+            int columns = (int) readVarint(in);
+            Object[] names = new Object[columns];
+            for (int i = 0; i < columns; i++) {
+                byte[] name = new byte[(int) readVarint(in)];
+                in.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            consumer.accept(names);
+
+            // Blocks are found through the footer, as a reader skipping to a block would
+            in.position(in.limit() - MAGIC.length - 8);
+            long footer = in.getLong();
+            in.position((int) footer);
+            int blockCount = (int) readVarint(in);
+            long[] offsets = new long[blockCount];
+            for (int b = 0; b < blockCount; b++) {
+                offsets[b] = readVarint(in);
+                readVarint(in); // Rows, repeated in the block itself
+            }
+
+            Inflater inflater = new Inflater();
+            long count = 0;
+            try {
+                Object[] row = new Object[columns];
+                for (long offset : offsets) {
+                    in.position((int) offset);
+                    int rows = (int) readVarint(in);
+                    ByteBuffer[] chunks = new ByteBuffer[columns];
+                    long[] previous = new long[columns];
+                    for (int i = 0; i < columns; i++) {
+                        int rawLength = (int) readVarint(in);
+                        byte[] stored = new byte[(int) readVarint(in)];
+                        in.get(stored);
+                        if (compressed) {
+                            byte[] raw = new byte[rawLength];
+                            inflater.reset();
+                            inflater.setInput(stored);
+                            if (inflater.inflate(raw) != rawLength) {
+                                throw new IOException("Damaged column chunk in " + file);
+                            }
+                            stored = raw;
+                        }
+                        chunks[i] = ByteBuffer.wrap(stored);
+                    }
+                    for (int r = 0; r < rows; r++) {
+                        for (int i = 0; i < columns; i++) {
+                            ByteBuffer chunk = chunks[i];
+                            int tag = chunk.get();
+                            switch (tag) {
+                                case NULL:
+                                    row[i] = null;
+                                    break;
+                                case INTEGER: {
+                                    long zigzag = readVarint(chunk);
+                                    previous[i] += (zigzag >>> 1) ^ -(zigzag & 1);
+                                    row[i] = previous[i];
+                                    break;
+                                }
+                                case REAL:
+                                    row[i] = chunk.getDouble();
+                                    break;
+                                case TEXT:
+                                case BLOB: {
+                                    byte[] bytes = new byte[(int) readVarint(chunk)];
+                                    chunk.get(bytes);
+                                    row[i] = tag == TEXT ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+                                    break;
+                                }
+                                default:
+                                    throw new IOException("Damaged column chunk in " + file);
+                            }
+                        }
+                        consumer.accept(row);
+                        count++;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Damaged column chunk in " + file, e);
+            } finally {
+                inflater.end();
+            }
+            return count;
+        }
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * The values of one column in the current block, encoded; reused from block to block.
+     */
+    private static final class ColumnChunk {
+        byte[] bytes = new byte[4096];
+        int length = 0;
+        // Last integer of the chunk, the base of the next delta
+        long previous = 0;
+        private byte[] scratch = new byte[0];
+
+        void put(int b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) b;
+        }
+
+        void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                put((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((int) value);
+        }
+
+        void putInteger(long value) {
+            put(INTEGER);
+            long delta = value - previous;
+            previous = value;
+            putVarint((delta << 1) ^ (delta >> 63));
+        }
+
+        void putReal(double value) {
+            put(REAL);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                put((int) (bits >>> shift));
+            }
+        }
+
+        void putBytes(int tag, byte[] value) {
+            put(tag);
+            putVarint(value.length);
+            if (length + value.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + value.length));
+            }
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+
+        /** @return A buffer of at least the size for compressed output, keeping what it already holds. */
+        byte[] scratch(int size) {
+            if (scratch.length < size) {
+                scratch = Arrays.copyOf(scratch, size);
+            }
+            return scratch;
+        }
+
+        void clear() {
+            length = 0;
+            previous = 0;
+        }
+    }
+
+    /**
+     * Direct buffer in front of the file channel.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        // Bytes handed to the channel so far
+        long written = 0;
+        private final byte[] digits = new byte[20];
+
+        Output(FileChannel channel, int size) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        /** @return Offset in the file of the next byte. */
+        long position() {
+            return written + buffer.position();
+        }
+
+        void put(byte b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put(b);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            put(bytes, 0, bytes.length);
+        }
+
+        void put(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        void putVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((byte) value);
+        }
+
+        /** Writes a long in decimal without creating a String. */
+        void putDecimal(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            if (value < 0) {
+                put((byte) '-');
+                value = -value;
+            }
+            int pos = digits.length;
+            do {
+                digits[--pos] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            put(digits, pos, digits.length - pos);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
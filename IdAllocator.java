@@ -0,0 +1,249 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out primary key values per table column using hi/lo blocks.
+ * <p>
+ * Each JVM reserves a block of ids at a time by bumping a high-water mark in the {@code id_sequences}
+ * table inside a write transaction, which SQLite serializes across threads and processes sharing the
+ * database file. Ids inside a block come from an in-memory {@link AtomicLong}, so allocation costs no
+ * query until the block runs out. Unused ids of a block are lost when the JVM exits, leaving gaps.
+ * <p>
+ * The first reservation for a column seeds the high-water mark from the largest id already in the table;
+ * that is the only scan the allocator ever runs.
+ * <p>
+ * A caller in a transaction may hold the write lock already, which a reservation on another connection would
+ * wait for in vain. {@link #nextId(Connection, String, String)} reserves on the caller's connection then, in a
+ * block that only that connection uses and that is dropped when its transaction ends.
+ */
+public class IdAllocator {
+    // Table holding one high-water mark per table column
+    public static final String SEQUENCE_TABLE = "id_sequences";
+    // Default number of ids reserved per round trip
+    public static final int DEFAULT_BLOCK_SIZE = Integer.getInteger("idAllocator.blockSize", 100);
+    // Time spent reserving blocks, see Metrics
+    private static final Metrics.Operation RESERVE = Metrics.operation("idAllocator.reserve");
+
+    // One allocator per database URL
+    private static final Map<String, IdAllocator> allocators = new ConcurrentHashMap<>();
+
+    private final ConnectionPool pool;
+    private final int blockSize;
+    private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+    // Blocks reserved inside a caller's transaction, by connection; they roll back with it
+    private final Map<Connection, Map<String, Block>> transactionBlocks = new ConcurrentHashMap<>();
+    private volatile boolean sequenceTableReady = false;
+
+    /**
+     * A reserved range of ids, handed out lock-free until exhausted.
+     */
+    private static final class Block {
+        final AtomicLong next;
+        final long last;
+
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+
+    /**
+     * Creates an allocator that reserves blocks through its own pooled connections, so reservations
+     * commit independently of any transaction the caller has open.
+     *
+     * @param pool      Pool of connections to the database holding the sequences.
+     * @param blockSize Number of ids reserved per round trip.
+     */
+    public IdAllocator(ConnectionPool pool, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.pool = pool;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Returns the shared allocator for a database URL, creating it on first use.
+     *
+     * @param url JDBC URL of the SQLite database.
+     * @return    Allocator for that database.
+     */
+    public static IdAllocator forUrl(String url) {
+        return allocators.computeIfAbsent(url, u -> new IdAllocator(ConnectionPool.forUrl(u), DEFAULT_BLOCK_SIZE));
+    }
+
+    /**
+     * Returns the next unused id for a table column. Ids are unique across threads and processes
+     * sharing the database and increase within a block.
+     *
+     * @param tableName  Name of the table.
+     * @param columnName Name of the id column.
+     * @return           Next id.
+     * @throws SQLException If a new block cannot be reserved.
+     */
+    public long nextId(String tableName, String columnName) throws SQLException {
+        String key = tableName + "." + columnName;
+        while (true) {
+            // Fast path: take an id from the current block without locking
+            Block block = blocks.get(key);
+            if (block != null) {
+                long id = block.next.getAndIncrement();
+                if (id <= block.last) {
+                    return id;
+                }
+            }
+            // Block missing or used up: one thread reserves the next one, the others retry
+            synchronized (this) {
+                if (blocks.get(key) == block) {
+                    long start = RESERVE.start();
+                    try {
+                        blocks.put(key, reserve(key, tableName, columnName));
+                    } catch (SQLException e) {
+                        RESERVE.failed();
+                        throw e;
+                    } finally {
+                        RESERVE.stop(start);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the next unused id for a table column on behalf of a caller's connection. Outside a transaction
+     * this is {@link #nextId(String, String)}. Inside one, ids still come from the shared block while it lasts,
+     * but new blocks are reserved on the caller's connection, since its transaction may hold the write lock.
+     * Such a block is used by that connection alone and rolls back with the transaction, so its ids are only
+     * handed out again if the rows using them were rolled back too.
+     *
+     * @param conn       Connection of the caller.
+     * @param tableName  Name of the table.
+     * @param columnName Name of the id column.
+     * @return           Next id.
+     * @throws SQLException If a new block cannot be reserved.
+     */
+    public long nextId(Connection conn, String tableName, String columnName) throws SQLException {
+        if (conn.getAutoCommit()) {
+            return nextId(tableName, columnName);
+        }
+        String key = tableName + "." + columnName;
+        for (Block block : new Block[]{blocks.get(key), transactionBlocks.getOrDefault(conn, Map.of()).get(key)}) {
+            if (block != null) {
+                long id = block.next.getAndIncrement();
+                if (id <= block.last) {
+                    return id;
+                }
+            }
+        }
+        // A connection is used by one thread at a time, so its blocks need no lock
+        Block block;
+        long start = RESERVE.start();
+        try (Transaction tx = Transaction.begin(conn)) {
+            createSequenceTable(conn);
+            block = reserveIn(conn, key, tableName, columnName);
+            tx.commit();
+        } catch (SQLException e) {
+            RESERVE.failed();
+            throw e;
+        } finally {
+            RESERVE.stop(start);
+        }
+        transactionBlocks.computeIfAbsent(conn, c -> new ConcurrentHashMap<>()).put(key, block);
+        Transaction.afterRollback(conn, () -> transactionBlocks.getOrDefault(conn, Map.of()).remove(key));
+        Transaction.afterCompletion(conn, () -> transactionBlocks.remove(conn));
+        return block.next.getAndIncrement();
+    }
+
+    /**
+     * Reserves the next block for a sequence on a pooled connection, committing it at once.
+     */
+    private Block reserve(String key, String tableName, String columnName) throws SQLException {
+        // The busy timeout of the pool's profile bounds the wait for another process's write lock
+        try (Connection conn = pool.getConnection()) {
+            ensureSequenceTable(conn);
+            conn.setAutoCommit(false);
+            try {
+                Block block = reserveIn(conn, key, tableName, columnName);
+                conn.commit();
+                return block;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Reserves the next block for a sequence by raising its high-water mark in the sequence table, inside the
+     * transaction open on the connection.
+     */
+    private Block reserveIn(Connection conn, String key, String tableName, String columnName) throws SQLException {
+        // The first write takes SQLite's write lock, serializing reservations across processes
+        if (raiseHighWaterMark(conn, key) == 0) {
+            seed(conn, key, tableName, columnName);
+            raiseHighWaterMark(conn, key);
+        }
+        long last;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT next_hi FROM " + SEQUENCE_TABLE + " WHERE name = ?")) {
+            pstmt.setString(1, key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                last = rs.getLong(1);
+            }
+        }
+        return new Block(last - blockSize + 1, last);
+    }
+
+    private int raiseHighWaterMark(Connection conn, String key) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE " + SEQUENCE_TABLE + " SET next_hi = next_hi + ? WHERE name = ?")) {
+            pstmt.setLong(1, blockSize);
+            pstmt.setString(2, key);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Starts a sequence at the largest id already stored in the table.
+     */
+    private void seed(Connection conn, String key, String tableName, String columnName) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT OR IGNORE INTO " + SEQUENCE_TABLE
+                + " (name, next_hi) SELECT ?, COALESCE(MAX(CAST(" + columnName + " AS INTEGER)), 0) FROM " + tableName)) {
+            pstmt.setString(1, key);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private void ensureSequenceTable(Connection conn) throws SQLException {
+        if (sequenceTableReady) {
+            return;
+        }
+        createSequenceTable(conn);
+        sequenceTableReady = true;
+    }
+
+    /**
+     * Creates the sequence table if missing. Created in a caller's transaction it may still roll back, so only
+     * {@link #ensureSequenceTable} remembers it.
+     */
+    private void createSequenceTable(Connection conn) throws SQLException {
+        if (sequenceTableReady) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + SEQUENCE_TABLE
+                    + " (name TEXT PRIMARY KEY, next_hi INTEGER NOT NULL)");
+        }
+        SchemaDB.catalog.tableCreated(conn, SEQUENCE_TABLE);
+        Transaction.afterRollback(conn, SchemaDB.catalog::invalidate);
+    }
+}
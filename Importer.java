@@ -0,0 +1,888 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Loads a CSV or newline-delimited JSON file into a table.
+ * <p>
+ * The file is memory-mapped and cut into chunks of about {@code chunkBytes} at record boundaries. Chunks are
+ * parsed in parallel on a pool of {@code threads} threads, and every value is checked against the column type
+ * in the schema catalog: integers must parse as integers, reals as numbers, dates as ISO dates. The calling
+ * thread is the only writer. It inserts the parsed chunks in file order, each in one transaction of batched
+ * inserts, while the pool parses the next chunks.
+ * <p>
+ * Every chunk's transaction also records how far into the file the import got, in the {@code import_progress}
+ * table. If an import fails part way, running it again on the same unchanged file resumes after the last
+ * committed chunk, with no row loaded twice. Once a file is fully imported, running it again does nothing
+ * until {@link #forget} is called or the file changes.
+ * <p>
+ * Rows that fail to parse or validate are skipped and reported in the result. A chunk the database rejects,
+ * for example because of a constraint, is rolled back and stops the import.
+ */
+public class Importer {
+    /**
+     * Format of the input file.
+     */
+    public enum Format {
+        /** Comma-separated values with a header line naming the columns, quoted as in RFC 4180. */
+        CSV,
+        /** One flat JSON object per line, mapping column names to values. */
+        NDJSON;
+
+        /**
+         * @param file Input file.
+         * @return     NDJSON for {@code .json}, {@code .jsonl} and {@code .ndjson} files, CSV otherwise.
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson") ? NDJSON : CSV;
+        }
+    }
+
+    // Progress of every import, one row per file and table, updated in the transaction of each chunk
+    static final String PROGRESS_TABLE = "import_progress";
+    // Number of error messages kept in a result; the rest are only counted
+    private static final int MAX_ERRORS_KEPT = 100;
+
+    // Whole imports, chunks parsed, and rows rejected, see Metrics
+    private static final Metrics.Operation IMPORT = Metrics.operation("import");
+    private static final Metrics.Operation PARSE = Metrics.operation("import.parseChunk");
+    private static final Metrics.Counter REJECTED = Metrics.counter("import.rejected");
+
+    private final String tableName;
+    private final Format format;
+    private final int chunkBytes;
+    private final int threads;
+    private final int batchSize;
+
+    /**
+     * How far an import has got, passed to the progress listener after every committed chunk.
+     */
+    public static final class Progress {
+        private final long bytesDone;
+        private final long totalBytes;
+        private final long rowsImported;
+        private final long rowsRejected;
+        private final long elapsedNanos;
+
+        Progress(long bytesDone, long totalBytes, long rowsImported, long rowsRejected, long elapsedNanos) {
+            this.bytesDone = bytesDone;
+            this.totalBytes = totalBytes;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** @return Bytes of the file committed, including those of earlier runs. */
+        public long getBytesDone() {
+            return bytesDone;
+        }
+
+        /** @return Size of the file. */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /** @return Rows inserted in this run. */
+        public long getRowsImported() {
+            return rowsImported;
+        }
+
+        /** @return Rows skipped in this run because they did not parse or validate. */
+        public long getRowsRejected() {
+            return rowsRejected;
+        }
+
+        /** @return Rows inserted per second in this run. */
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsImported * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.1f%% (%d rows, %d rejected, %.0f rows/s)",
+                    totalBytes == 0 ? 100.0 : 100.0 * bytesDone / totalBytes, rowsImported, rowsRejected,
+                    getRowsPerSecond());
+        }
+    }
+
+    /**
+     * Outcome of an import run.
+     */
+    public static final class Result {
+        private long rowsImported = 0;
+        private long rowsRejected = 0;
+        private long resumedFrom = 0;
+        private long elapsedMillis = 0;
+        private final List<String> errors = new ArrayList<>();
+
+        /** @return Rows inserted in this run. */
+        public long getRowsImported() {
+            return rowsImported;
+        }
+
+        /** @return Rows skipped because they did not parse or validate. */
+        public long getRowsRejected() {
+            return rowsRejected;
+        }
+
+        /** @return Byte offset where an earlier run stopped and this one started, or 0 if it started afresh. */
+        public long getResumedFrom() {
+            return resumedFrom;
+        }
+
+        /** @return Duration of the run, in milliseconds. */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** @return Why rows were rejected, with their line numbers; only the first few are kept. */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        @Override
+        public String toString() {
+            return rowsImported + " rows imported, " + rowsRejected + " rejected in " + elapsedMillis + " ms"
+                    + (resumedFrom > 0 ? ", resumed at byte " + resumedFrom : "");
+        }
+    }
+
+    /**
+     * A parsed chunk: its rows in column order, and the rows it rejected.
+     */
+    private static final class Chunk {
+        final long end;
+        final List<Object[]> rows = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        int rejected = 0;
+
+        Chunk(long end) {
+            this.end = end;
+        }
+
+        void reject(long line, String message) {
+            rejected++;
+            if (errors.size() < MAX_ERRORS_KEPT) {
+                errors.add("line " + line + ": " + message);
+            }
+        }
+    }
+
+    /**
+     * Creates an importer.
+     *
+     * @param tableName  Name of the table to load; it must exist.
+     * @param format     Format of the input files.
+     * @param chunkBytes Approximate size of the chunks the file is cut into, each parsed by one thread and
+     *                   committed in one transaction.
+     * @param threads    Number of parser threads.
+     * @param batchSize  Number of rows sent to SQLite per JDBC batch.
+     */
+    public Importer(String tableName, Format format, int chunkBytes, int threads, int batchSize) {
+        if (chunkBytes < 1 || threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("chunkBytes, threads and batchSize must be positive");
+        }
+        this.tableName = Condition.identifier(tableName);
+        this.format = format;
+        this.chunkBytes = chunkBytes;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates an importer configured by {@code -Dimporter.chunkBytes} (default 4 MiB), {@code -Dimporter.threads}
+     * (default the number of processors) and {@code -Dimporter.batchSize} (default 1000).
+     *
+     * @param tableName Name of the table to load.
+     * @param format    Format of the input files.
+     * @return          The importer.
+     */
+    public static Importer of(String tableName, Format format) {
+        return new Importer(tableName, format, Integer.getInteger("importer.chunkBytes", 4 << 20),
+                Integer.getInteger("importer.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("importer.batchSize", 1000));
+    }
+
+    /**
+     * Imports a file, resuming after the last committed chunk if an earlier run on the same file stopped part way.
+     *
+     * @param conn     Connection object representing the database connection, not used by anyone else meanwhile.
+     * @param file     File to import.
+     * @param listener Called after every committed chunk; null to log the progress instead.
+     * @return         Rows imported and rejected.
+     * @throws IOException  If the file cannot be read, or a CSV header names a column the table does not have.
+     * @throws SQLException If the table does not exist or a chunk cannot be inserted; the chunks before it stay
+     *                      committed and a later run resumes after them.
+     */
+    public Result run(Connection conn, Path file, Consumer<Progress> listener) throws IOException, SQLException {
+        long start = IMPORT.start();
+        long startNanos = System.nanoTime();
+        Consumer<Progress> progress = listener != null ? listener : p -> Log.info("Importing " + file + ": " + p);
+        ExecutorService parsers = Executors.newFixedThreadPool(threads, daemonThreads());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Map<String, String> types = columnTypes(conn);
+            long size = channel.size();
+            String source = file.toAbsolutePath().normalize().toString();
+            long modified = Files.getLastModifiedTime(file).toMillis();
+
+            // The columns to insert: the header of a CSV file, every column of the table for NDJSON
+            long dataStart = 0;
+            List<String> columns;
+            if (format == Format.CSV) {
+                long headerEnd = recordEnd(channel, 0, size, 1);
+                byte[] header = read(channel, 0, headerEnd);
+                columns = new ArrayList<>();
+                List<String> names = new ArrayList<>();
+                parseCsvRecord(header, 0, header.length, names);
+                for (String name : names) {
+                    columns.add(column(types, name == null ? "" : name.trim()));
+                }
+                dataStart = headerEnd;
+            } else {
+                columns = new ArrayList<>(types.keySet());
+            }
+            Converter[] converters = new Converter[columns.size()];
+            for (int i = 0; i < converters.length; i++) {
+                converters[i] = Converter.of(types.get(columns.get(i)));
+            }
+
+            Result result = new Result();
+            long offset = checkpoint(conn, source, size, modified);
+            if (offset < dataStart) {
+                offset = dataStart;
+            } else if (offset > dataStart) {
+                Log.info("Resuming import of " + file + " at byte " + offset);
+            }
+            result.resumedFrom = offset > dataStart ? offset : 0;
+
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+            StringBuilder placeholders = new StringBuilder(") VALUES (");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i > 0 ? ", " : "").append(columns.get(i));
+                placeholders.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(placeholders).append(")");
+
+            // Cut and parse ahead while the chunks before are written, keeping a few chunks in memory
+            Deque<Future<Chunk>> parsed = new ArrayDeque<>();
+            long next = offset;
+            long line = 1 + countLines(channel, 0, offset);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+                while (next < size || !parsed.isEmpty()) {
+                    while (next < size && parsed.size() < 2 * threads) {
+                        long end = recordEnd(channel, next, size, chunkBytes);
+                        byte[] data = read(channel, next, end);
+                        long firstLine = line;
+                        line += count(data, (byte) '\n');
+                        long chunkEnd = end;
+                        parsed.add(parsers.submit(() -> parse(data, chunkEnd, firstLine, columns, converters)));
+                        next = end;
+                    }
+                    Chunk chunk = take(parsed.removeFirst());
+                    write(conn, pstmt, chunk, source, size, modified);
+                    result.rowsImported += chunk.rows.size();
+                    result.rowsRejected += chunk.rejected;
+                    for (String error : chunk.errors) {
+                        if (result.errors.size() < MAX_ERRORS_KEPT) {
+                            result.errors.add(error);
+                        }
+                    }
+                    progress.accept(new Progress(chunk.end, size, result.rowsImported, result.rowsRejected,
+                            System.nanoTime() - startNanos));
+                }
+            } finally {
+                for (Future<Chunk> pending : parsed) {
+                    pending.cancel(true);
+                }
+            }
+            if (result.rowsImported > 0) {
+                SchemaDB.catalog.markFilled(tableName);
+                SchemaDB.rowCache.invalidate(tableName);
+            }
+            result.elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            Log.info("Imported " + file + " into " + tableName + ": " + result);
+            return result;
+        } catch (IOException | SQLException | RuntimeException e) {
+            IMPORT.failed();
+            throw e;
+        } finally {
+            parsers.shutdownNow();
+            IMPORT.stop(start);
+        }
+    }
+
+    /**
+     * Forgets the progress recorded for a file, so the next run imports it from the start again.
+     *
+     * @param conn Connection object representing the database connection.
+     * @param file File imported before.
+     * @throws SQLException If the progress cannot be deleted.
+     */
+    public void forget(Connection conn, Path file) throws SQLException {
+        createProgressTable(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "DELETE FROM " + PROGRESS_TABLE + " WHERE source = ? AND table_name = ?")) {
+            pstmt.setString(1, file.toAbsolutePath().normalize().toString());
+            pstmt.setString(2, tableName);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Inserts a parsed chunk and records the new offset, in one transaction.
+     */
+    private void write(Connection conn, PreparedStatement pstmt, Chunk chunk, String source, long size,
+                       long modified) throws SQLException {
+        try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE)) {
+            int batched = 0;
+            for (Object[] row : chunk.rows) {
+                for (int i = 0; i < row.length; i++) {
+                    pstmt.setObject(i + 1, row[i]);
+                }
+                pstmt.addBatch();
+                if (++batched == batchSize) {
+                    pstmt.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                pstmt.executeBatch();
+            }
+            try (PreparedStatement save = conn.prepareStatement("INSERT OR REPLACE INTO " + PROGRESS_TABLE
+                    + " (source, table_name, size, modified, offset) VALUES (?, ?, ?, ?, ?)")) {
+                save.setString(1, source);
+                save.setString(2, tableName);
+                save.setLong(3, size);
+                save.setLong(4, modified);
+                save.setLong(5, chunk.end);
+                save.executeUpdate();
+            }
+            tx.commit();
+            Metrics.ROWS_WRITTEN.add(chunk.rows.size());
+        }
+    }
+
+    /**
+     * Returns the offset an earlier run on the same file got to, or 0 if there was none or the file changed.
+     */
+    private long checkpoint(Connection conn, String source, long size, long modified) throws SQLException {
+        createProgressTable(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT size, modified, offset FROM "
+                + PROGRESS_TABLE + " WHERE source = ? AND table_name = ?")) {
+            pstmt.setString(1, source);
+            pstmt.setString(2, tableName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                if (rs.getLong(1) != size || rs.getLong(2) != modified) {
+                    Log.warn(source + " changed since it was last imported into " + tableName
+                            + "; importing it from the start");
+                    return 0;
+                }
+                return rs.getLong(3);
+            }
+        }
+    }
+
+    private static void createProgressTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE + " (source TEXT NOT NULL, "
+                    + "table_name TEXT NOT NULL, size INTEGER NOT NULL, modified INTEGER NOT NULL, "
+                    + "offset INTEGER NOT NULL, PRIMARY KEY (source, table_name))");
+        }
+    }
+
+    /**
+     * Returns the column types of the table from the schema catalog, reading them from the database if the
+     * catalog has no definition.
+     */
+    private Map<String, String> columnTypes(Connection conn) throws SQLException {
+        if (!SchemaDB.tableExists(conn, tableName)) {
+            throw new SQLException(tableName + " table does not exist");
+        }
+        if (!SchemaDB.catalog.isDefined(tableName)) {
+            SchemaDB.updateTableMetadata(conn, tableName);
+        }
+        Map<String, String> types = SchemaDB.catalog.columns(tableName);
+        if (types == null || types.isEmpty()) {
+            throw new SQLException("No column definitions for " + tableName);
+        }
+        // Column names compare without case, as in SQLite
+        Map<String, String> byName = new LinkedHashMap<>();
+        for (Map.Entry<String, String> column : types.entrySet()) {
+            byName.put(column.getKey().toLowerCase(Locale.ROOT), column.getValue());
+        }
+        return byName;
+    }
+
+    private String column(Map<String, String> types, String name) throws IOException {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (!types.containsKey(key)) {
+            throw new IOException("Column " + name + " of the header is not in the " + tableName + " table");
+        }
+        Condition.identifier(key);
+        return key;
+    }
+
+    /**
+     * Parses the records of a chunk and converts their values to the column types.
+     *
+     * @param firstLine Line number of the chunk's first record.
+     */
+    private Chunk parse(byte[] data, long end, long firstLine, List<String> columns, Converter[] converters) {
+        long start = PARSE.start();
+        Chunk chunk = new Chunk(end);
+        try {
+            List<String> fields = new ArrayList<>(columns.size());
+            Map<String, Integer> positions = new LinkedHashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                positions.put(columns.get(i), i);
+            }
+            long line = firstLine;
+            int pos = 0;
+            while (pos < data.length) {
+                int recordEnd = format == Format.CSV ? csvRecordEnd(data, pos) : indexOf(data, (byte) '\n', pos);
+                int lines = count(data, pos, recordEnd, (byte) '\n') + (recordEnd < data.length ? 1 : 0);
+                int contentEnd = recordEnd;
+                if (contentEnd > pos && data[contentEnd - 1] == '\r') {
+                    contentEnd--;
+                }
+                if (contentEnd > pos) {
+                    Object[] row = new Object[columns.size()];
+                    try {
+                        if (format == Format.CSV) {
+                            fields.clear();
+                            parseCsvRecord(data, pos, contentEnd, fields);
+                            if (fields.size() != columns.size()) {
+                                throw new IllegalArgumentException("expected " + columns.size() + " fields, found "
+                                        + fields.size());
+                            }
+                            for (int i = 0; i < row.length; i++) {
+                                row[i] = converters[i].convert(columns.get(i), fields.get(i));
+                            }
+                        } else {
+                            String json = new String(data, pos, contentEnd - pos, StandardCharsets.UTF_8);
+                            for (Map.Entry<String, Object> field : new JsonObject(json).parse().entrySet()) {
+                                Integer i = positions.get(field.getKey().toLowerCase(Locale.ROOT));
+                                if (i == null) {
+                                    throw new IllegalArgumentException("no column " + field.getKey());
+                                }
+                                row[i] = converters[i].convert(columns.get(i), field.getValue());
+                            }
+                        }
+                        chunk.rows.add(row);
+                    } catch (IllegalArgumentException e) {
+                        REJECTED.increment();
+                        chunk.reject(line, e.getMessage());
+                    }
+                }
+                line += lines;
+                pos = recordEnd + 1;
+            }
+            return chunk;
+        } finally {
+            PARSE.stop(start);
+        }
+    }
+
+    /**
+     * Splits one CSV record into fields. An empty unquoted field is null; a quoted one is an empty string.
+     */
+    static void parseCsvRecord(byte[] data, int from, int to, List<String> fields) {
+        int pos = from;
+        while (true) {
+            if (pos < to && data[pos] == '"') {
+                // Quoted field: up to the closing quote, with doubled quotes standing for one
+                StringBuilder value = null;
+                int start = ++pos;
+                while (true) {
+                    if (pos >= to) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    if (data[pos] == '"') {
+                        if (pos + 1 < to && data[pos + 1] == '"') {
+                            if (value == null) {
+                                value = new StringBuilder();
+                            }
+                            value.append(new String(data, start, pos + 1 - start, StandardCharsets.UTF_8));
+                            pos += 2;
+                            start = pos;
+                            continue;
+                        }
+                        break;
+                    }
+                    pos++;
+                }
+                String tail = new String(data, start, pos - start, StandardCharsets.UTF_8);
+                fields.add(value == null ? tail : value.append(tail).toString());
+                pos++; // Closing quote
+                if (pos < to && data[pos] != ',') {
+                    throw new IllegalArgumentException("unexpected character after quoted field");
+                }
+            } else {
+                int start = pos;
+                while (pos < to && data[pos] != ',') {
+                    pos++;
+                }
+                fields.add(pos == start ? null : new String(data, start, pos - start, StandardCharsets.UTF_8));
+            }
+            if (pos >= to) {
+                return;
+            }
+            pos++; // Comma
+            if (pos == to) {
+                fields.add(null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the newline ending the CSV record starting at a position, skipping newlines inside
+     * quotes, or the length of the data if the last record has no newline.
+     */
+    private static int csvRecordEnd(byte[] data, int from) {
+        boolean quoted = false;
+        for (int i = from; i < data.length; i++) {
+            byte b = data[i];
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                return i;
+            }
+        }
+        return data.length;
+    }
+
+    /**
+     * Returns the offset just past the record boundary that ends a chunk starting at {@code from}: the first
+     * newline outside quotes at least {@code minBytes} into it, or the end of the file. The file is mapped a
+     * window at a time, grown until the window holds the boundary.
+     */
+    private long recordEnd(FileChannel channel, long from, long size, int minBytes) throws IOException {
+        long window = Math.min(size - from, Math.max(2L * minBytes, 1 << 16));
+        while (true) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, window);
+            boolean quoted = false;
+            for (int i = 0; i < window; i++) {
+                byte b = buffer.get(i);
+                if (b == '"' && format == Format.CSV) {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted && i + 1 >= minBytes) {
+                    return from + i + 1;
+                }
+            }
+            if (from + window >= size) {
+                return size;
+            }
+            window = Math.min(size - from, Math.min(window * 2, Integer.MAX_VALUE));
+        }
+    }
+
+    private static long countLines(FileChannel channel, long from, long to) throws IOException {
+        long lines = 0;
+        for (long pos = from; pos < to; pos += 1 << 26) {
+            long length = Math.min(to - pos, 1 << 26);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) == '\n') {
+                    lines++;
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] read(FileChannel channel, long from, long to) throws IOException {
+        byte[] data = new byte[Math.toIntExact(to - from)];
+        channel.map(FileChannel.MapMode.READ_ONLY, from, data.length).get(data);
+        return data;
+    }
+
+    private static int count(byte[] data, byte b) {
+        return count(data, 0, data.length, b);
+    }
+
+    private static int count(byte[] data, int from, int to, byte b) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static int indexOf(byte[] data, byte b, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return data.length;
+    }
+
+    private static Chunk take(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Parsing failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "importer-parse-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Turns a parsed value into the value to bind for a column, following SQLite's type affinity rules on the
+     * declared type, and rejects values that do not fit.
+     */
+    private enum Converter {
+        INTEGER, REAL, NUMERIC, DATE, TEXT;
+
+        static Converter of(String declaredType) {
+            String type = declaredType == null ? "" : declaredType.toUpperCase(Locale.ROOT);
+            if (type.contains("INT")) {
+                return INTEGER;
+            }
+            if (type.contains("CHAR") || type.contains("CLOB") || type.contains("TEXT")) {
+                return TEXT;
+            }
+            if (type.contains("REAL") || type.contains("FLOA") || type.contains("DOUB")) {
+                return REAL;
+            }
+            if (type.equals("DATE")) {
+                return DATE;
+            }
+            return type.isEmpty() || type.contains("BLOB") ? TEXT : NUMERIC;
+        }
+
+        Object convert(String column, Object value) {
+            if (value == null) {
+                return null;
+            }
+            String text = value.toString().trim();
+            try {
+                switch (this) {
+                    case INTEGER:
+                        return value instanceof Long ? value : Long.valueOf(text);
+                    case REAL:
+                        return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(text);
+                    case NUMERIC:
+                        if (value instanceof Number) {
+                            return value;
+                        }
+                        try {
+                            return Long.valueOf(text);
+                        } catch (NumberFormatException e) {
+                            return Double.valueOf(text);
+                        }
+                    case DATE:
+                        LocalDate.parse(text);
+                        return text;
+                    default:
+                        return value instanceof String ? value : value.toString();
+                }
+            } catch (NumberFormatException | DateTimeParseException e) {
+                throw new IllegalArgumentException(column + ": '" + value + "' is not " + name().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * Parser of one flat JSON object: string, number, boolean and null values. Booleans become 1 and 0, as
+     * SQLite stores them.
+     */
+    private static final class JsonObject {
+        private final String json;
+        private int pos = 0;
+
+        JsonObject(String json) {
+            this.json = json;
+        }
+
+        Map<String, Object> parse() {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            skipSpace();
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipSpace();
+                    String name = string();
+                    skipSpace();
+                    expect(':');
+                    skipSpace();
+                    fields.put(name, value());
+                    skipSpace();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw new IllegalArgumentException("expected , or } at " + (pos - 1));
+                    }
+                }
+            }
+            skipSpace();
+            if (pos < json.length()) {
+                throw new IllegalArgumentException("unexpected text after the object at " + pos);
+            }
+            return fields;
+        }
+
+        private Object value() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (json.startsWith("true", pos)) {
+                pos += 4;
+                return 1L;
+            }
+            if (json.startsWith("false", pos)) {
+                pos += 5;
+                return 0L;
+            }
+            if (json.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("nested objects and arrays are not supported");
+            }
+            int start = pos;
+            boolean integral = true;
+            while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+                integral &= Character.isDigit(json.charAt(pos)) || json.charAt(pos) == '-';
+                pos++;
+            }
+            String number = json.substring(start, pos);
+            try {
+                return integral ? (Object) Long.valueOf(number) : (Object) Double.valueOf(number);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad value at " + start);
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char e = next();
+                switch (e) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw new IllegalArgumentException("bad escape at " + pos);
+                        }
+                        value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: value.append(e);
+                }
+            }
+        }
+
+        private void skipSpace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= json.length()) {
+                throw new IllegalArgumentException("unexpected end of line");
+            }
+            return json.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("expected " + c + " at " + (pos - 1));
+            }
+        }
+    }
+
+    /**
+     * Command line import into {@link SchemaDB#DB_URL}: {@code java Importer <table> <file>}. The format follows
+     * the file extension.
+     *
+     * @param args Table name and file.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: java Importer <table> <file.csv|file.ndjson>");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        Connection conn = SchemaDB.connect();
+        if (conn == null) {
+            return;
+        }
+        try {
+            System.out.println(Importer.of(args[0], Format.of(file)).run(conn, file, null));
+        } catch (IOException | SQLException e) {
+            Log.error(e.getMessage());
+        } finally {
+            SchemaDB.closeConnection(conn);
+        }
+    }
+}
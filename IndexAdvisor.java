@@ -0,0 +1,277 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches the conditions that filtered statements use at runtime and recommends indexes for the ones
+ * SQLite answers with a full table scan.
+ * <p>
+ * {@link SchemaDB} reports every statement built from a {@link Condition}. The first time a statement shape
+ * is seen, the advisor asks {@code EXPLAIN QUERY PLAN} how SQLite runs it; the answer is cached per shape
+ * until the table's indexes change. A shape that scans the whole table becomes a recommendation: an index on
+ * its equality columns followed by its first range column, the order in which SQLite can use them.
+ * <p>
+ * {@link #recommendations()} lists them by how often the statement ran, and {@link #apply(Connection)} creates
+ * them. With {@link #autoCreate} on, an index is created as soon as its statement has scanned
+ * {@link #minUses} times, provided the connection is not inside a transaction.
+ */
+public class IndexAdvisor {
+    // Record statements and check their plans; off makes record() a no-op
+    public volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty("indexAdvisor.enabled"));
+    // Create recommended indexes without being asked
+    public volatile boolean autoCreate = Boolean.getBoolean("indexAdvisor.autoCreate");
+    // Number of runs after which a scanning statement gets its index automatically
+    public volatile int minUses = Integer.getInteger("indexAdvisor.minUses", 10);
+
+    // Plans checked, and statements found to scan their table, see Metrics
+    private static final Metrics.Operation EXPLAIN = Metrics.operation("indexAdvisor.explain");
+    private static final Metrics.Counter SCANS = Metrics.counter("indexAdvisor.fullScans");
+
+    // Statement shapes seen, by SQL text
+    private final Map<String, Usage> usages = new ConcurrentHashMap<>();
+
+    /**
+     * An index that would let a recorded statement avoid a full table scan.
+     */
+    public static final class Recommendation {
+        private final String tableName;
+        private final List<String> columns;
+        private final long uses;
+        private final String sql;
+
+        Recommendation(String tableName, List<String> columns, long uses, String sql) {
+            this.tableName = tableName;
+            this.columns = columns;
+            this.uses = uses;
+            this.sql = sql;
+        }
+
+        /** @return Name of the table to index. */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /** @return Columns of the index, in order. */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /** @return Number of times statements that need the index ran. */
+        public long getUses() {
+            return uses;
+        }
+
+        /** @return One of the statements that need the index. */
+        public String getSql() {
+            return sql;
+        }
+
+        /** @return Statement creating the index. */
+        public String getCreateSql() {
+            return "CREATE INDEX " + SchemaDB.indexName(tableName, columns, false) + " ON " + tableName
+                    + " (" + String.join(", ", columns) + ")";
+        }
+
+        @Override
+        public String toString() {
+            return getCreateSql() + " -- " + uses + " scans, e.g. " + sql;
+        }
+    }
+
+    /**
+     * One statement shape: how often it ran and whether SQLite scans the table to run it.
+     */
+    private static final class Usage {
+        final String tableName;
+        final String sql;
+        final List<String> columns;
+        final LongAdder uses = new LongAdder();
+        // Null until the plan has been checked
+        volatile Boolean scans;
+
+        Usage(String tableName, String sql, List<String> columns) {
+            this.tableName = tableName;
+            this.sql = sql;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Records one run of a statement filtered by a condition, checking its plan on first sight.
+     *
+     * @param conn      Connection the statement runs on.
+     * @param tableName Name of the table the statement filters.
+     * @param sql       SQL text of the statement, with placeholders.
+     * @param where     Condition the statement filters by.
+     */
+    public void record(Connection conn, String tableName, String sql, Condition where) {
+        if (!enabled) {
+            return;
+        }
+        Usage usage = usages.get(sql);
+        if (usage == null) {
+            List<String> columns = indexColumns(where);
+            if (columns.isEmpty()) {
+                return; // Nothing an index could look up
+            }
+            usage = usages.computeIfAbsent(sql, s -> new Usage(tableName, s, columns));
+        }
+        usage.uses.increment();
+        if (usage.scans == null) {
+            explain(conn, usage);
+        }
+        if (autoCreate && Boolean.TRUE.equals(usage.scans) && usage.uses.sum() >= minUses) {
+            create(conn, usage);
+        }
+    }
+
+    /**
+     * Returns an index for each set of columns that recorded statements scanned their table for, most used first.
+     *
+     * @return Recommended indexes; empty if every recorded statement uses an index.
+     */
+    public List<Recommendation> recommendations() {
+        Map<String, Recommendation> byIndex = new LinkedHashMap<>();
+        for (Usage usage : usages.values()) {
+            if (!Boolean.TRUE.equals(usage.scans)) {
+                continue;
+            }
+            String key = usage.tableName.toLowerCase(Locale.ROOT) + usage.columns;
+            Recommendation previous = byIndex.get(key);
+            long uses = usage.uses.sum() + (previous != null ? previous.uses : 0);
+            byIndex.put(key, new Recommendation(usage.tableName, usage.columns, uses,
+                    previous != null ? previous.sql : usage.sql));
+        }
+        List<Recommendation> result = new ArrayList<>(byIndex.values());
+        result.sort(Comparator.comparingLong(Recommendation::getUses).reversed());
+        return result;
+    }
+
+    /**
+     * Creates every recommended index.
+     *
+     * @param conn Connection to create the indexes on, outside a transaction.
+     * @return     Number of indexes created.
+     */
+    public int apply(Connection conn) {
+        int created = 0;
+        for (Recommendation recommendation : recommendations()) {
+            if (SchemaDB.createIndex(conn, recommendation.tableName, recommendation.columns, false)) {
+                created++;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Forgets the plans of the statements on a table, so they are checked again. Called when its indexes change.
+     *
+     * @param tableName Name of the table.
+     */
+    public void forget(String tableName) {
+        for (Usage usage : usages.values()) {
+            if (usage.tableName.equalsIgnoreCase(tableName)) {
+                usage.scans = null;
+            }
+        }
+    }
+
+    /**
+     * Forgets every recorded statement.
+     */
+    public void reset() {
+        usages.clear();
+    }
+
+    /**
+     * Returns the columns an index should have to serve a condition: the equality columns, then the first
+     * range column, since SQLite can use index columns after a range only to filter, not to seek.
+     */
+    static List<String> indexColumns(Condition where) {
+        Set<String> columns = new LinkedHashSet<>();
+        for (String column : where.equalityColumns()) {
+            columns.add(column.toLowerCase(Locale.ROOT));
+        }
+        for (String column : where.rangeColumns()) {
+            if (columns.add(column.toLowerCase(Locale.ROOT))) {
+                break;
+            }
+        }
+        return List.copyOf(columns);
+    }
+
+    /**
+     * Tells whether a line of {@code EXPLAIN QUERY PLAN} output is a full scan of the table. SQLite 3.7.2
+     * writes {@code TABLE t} for a scan and {@code TABLE t WITH INDEX i} or {@code TABLE t USING PRIMARY KEY}
+     * for a lookup; later versions write {@code SCAN TABLE t} and {@code SEARCH TABLE t USING ...}.
+     */
+    static boolean isFullScan(String detail, String tableName) {
+        String d = detail.trim().toUpperCase(Locale.ROOT);
+        String table = "TABLE " + tableName.toUpperCase(Locale.ROOT);
+        if (d.startsWith("SEARCH ")) {
+            return false;
+        }
+        if (d.startsWith("SCAN ")) {
+            d = d.substring(5);
+        }
+        return d.startsWith(table) && !d.contains(" INDEX ") && !d.contains("PRIMARY KEY");
+    }
+
+    private void explain(Connection conn, Usage usage) {
+        synchronized (usage) {
+            if (usage.scans != null) {
+                return;
+            }
+            long start = EXPLAIN.start();
+            // Placeholders are left unbound: the plan depends on the indexes, not on the values
+            try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + usage.sql);
+                 ResultSet rs = pstmt.executeQuery()) {
+                boolean scans = false;
+                while (rs.next()) {
+                    scans |= isFullScan(rs.getString("detail"), usage.tableName);
+                }
+                usage.scans = scans;
+                if (scans) {
+                    SCANS.increment();
+                    Log.debug("Full scan of " + usage.tableName + ": " + usage.sql);
+                }
+            } catch (SQLException e) {
+                EXPLAIN.failed();
+                Log.warn("Could not explain " + usage.sql + ": " + e.getMessage());
+                usage.scans = false;
+            } finally {
+                EXPLAIN.stop(start);
+            }
+        }
+    }
+
+    private void create(Connection conn, Usage usage) {
+        try {
+            if (!conn.getAutoCommit()) {
+                return; // Leave the caller's transaction alone; the index is created on a later call
+            }
+        } catch (SQLException e) {
+            return;
+        }
+        synchronized (usage) {
+            if (!Boolean.TRUE.equals(usage.scans)) {
+                return;
+            }
+            Log.info("Creating index on " + usage.tableName + " " + usage.columns + " for " + usage.sql);
+            // Whether or not it worked, do not try again until the plan has been checked again
+            usage.scans = false;
+            SchemaDB.createIndex(conn, usage.tableName, usage.columns, false);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Leveled logging for the SchemaDB classes.
+ * <p>
+ * Messages at or above the current level go to a pluggable {@link Sink}; the default sink prints them to
+ * {@code System.out} as the code always has, with errors and warnings on {@code System.err}. The level
+ * starts from the {@code log.level} system property ({@code OFF}, {@code ERROR}, {@code WARN},
+ * {@code INFO} or {@code DEBUG}, default {@code INFO}) and can be changed at runtime. Check
+ * {@link #isEnabled(Level)} before building expensive messages on hot paths.
+ */
+public final class Log {
+    /**
+     * Severity of a message, from most to least severe. {@code OFF} as the current level silences everything.
+     */
+    public enum Level {
+        OFF, ERROR, WARN, INFO, DEBUG
+    }
+
+    /**
+     * Destination for log messages.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * @param level   Level of the message.
+         * @param message Message text.
+         * @param error   Exception to report with the message, or null.
+         */
+        void log(Level level, String message, Throwable error);
+    }
+
+    // Prints to the current System.out / System.err, so redirecting them still works
+    public static final Sink CONSOLE = (level, message, error) -> {
+        PrintStream out = level == Level.ERROR || level == Level.WARN ? System.err : System.out;
+        out.println(message);
+        if (error != null) {
+            error.printStackTrace(out);
+        }
+    };
+
+    private static volatile Level level = Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase(Locale.ROOT));
+    private static volatile Sink sink = CONSOLE;
+
+    private Log() {
+    }
+
+    /** @return Current level; messages less severe than it are dropped. */
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param newLevel Level below which messages are dropped, {@link Level#OFF} to silence logging.
+     */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * @param newSink Destination for messages from now on.
+     */
+    public static void setSink(Sink newSink) {
+        sink = newSink;
+    }
+
+    /**
+     * @param messageLevel Level of a message about to be logged.
+     * @return             True if a message at that level would be written.
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.ordinal() <= level.ordinal();
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    private static void log(Level messageLevel, String message, Throwable error) {
+        if (isEnabled(messageLevel)) {
+            sink.log(messageLevel, message, error);
+        }
+    }
+}
@@ -0,0 +1,609 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Customer measurements of every cloth in one table, {@code measurement}, keyed by {@code (cloth_id, customer_id)}.
+ * <p>
+ * Originally inserting a cloth created a table named after it for its measurements. Hundreds of cloths meant
+ * hundreds of tables: a large {@code sqlite_master} that every schema lookup reads, and no way to query across
+ * cloths without a UNION. In {@link Mode#SINGLE_TABLE} mode a cloth creates no table; its measurements go into
+ * {@code measurement} instead, and a customer's measurements for all cloths are one indexed lookup away.
+ * <p>
+ * Cloths measure different things, so the measurements of a row are stored in one BLOB column rather than as
+ * columns: a sequence of {@code (field id, type, value)} entries, with field ids from the {@code measurement_field}
+ * dictionary and integers and lengths as varints. NULL values take no space.
+ * <p>
+ * {@link #migrate} moves existing per-cloth tables into the single table in small transactions, so other
+ * connections keep working meanwhile, and records its progress so an interrupted migration resumes where it
+ * stopped. Run it from the command line with {@code java MeasurementStore [batchSize] [--drop]}.
+ */
+public class MeasurementStore {
+    /**
+     * Where the measurements of a new cloth go.
+     */
+    public enum Mode {
+        /** A table named after the cloth, as originally. */
+        TABLE_PER_CLOTH,
+        /** The shared {@code measurement} table. */
+        SINGLE_TABLE
+    }
+
+    public static final String TABLE = "measurement";
+    public static final String FIELD_TABLE = "measurement_field";
+    // Progress of the migration, one row per per-cloth table
+    static final String PROGRESS_TABLE = "measurement_migration";
+
+    // Type tags of the encoded values
+    private static final int INTEGER = 1;
+    private static final int REAL = 2;
+    private static final int TEXT = 3;
+    private static final int BLOB = 4;
+
+    // Measurement rows written and read, and migrations run, see Metrics
+    private static final Metrics.Operation PUT = Metrics.operation("measurements.put");
+    private static final Metrics.Operation GET = Metrics.operation("measurements.get");
+    private static final Metrics.Operation MIGRATE = Metrics.operation("measurements.migrate");
+
+    // Storage of new cloths; -Dmeasurements.mode=per-cloth keeps the original behaviour
+    public volatile Mode mode = "per-cloth".equalsIgnoreCase(System.getProperty("measurements.mode"))
+            ? Mode.TABLE_PER_CLOTH : Mode.SINGLE_TABLE;
+
+    // Committed field dictionary of each database, by URL
+    private final Map<String, Fields> dictionaries = new ConcurrentHashMap<>();
+
+    /**
+     * Outcome of a {@link #migrate} run.
+     */
+    public static final class MigrationResult {
+        private int tablesMigrated = 0;
+        private long rowsMigrated = 0;
+        private int batches = 0;
+        private final List<String> skipped = new ArrayList<>();
+
+        /** @return Number of per-cloth tables fully moved in this run. */
+        public int getTablesMigrated() {
+            return tablesMigrated;
+        }
+
+        /** @return Number of rows moved in this run. */
+        public long getRowsMigrated() {
+            return rowsMigrated;
+        }
+
+        /** @return Number of transactions committed. */
+        public int getBatches() {
+            return batches;
+        }
+
+        /** @return Cloth tables left alone, with the reason. */
+        public List<String> getSkipped() {
+            return Collections.unmodifiableList(skipped);
+        }
+
+        @Override
+        public String toString() {
+            return tablesMigrated + " tables, " + rowsMigrated + " rows in " + batches + " batches"
+                    + (skipped.isEmpty() ? "" : ", skipped " + skipped);
+        }
+    }
+
+    /**
+     * Creates the measurement and field dictionary tables if they do not exist yet.
+     *
+     * @param conn Connection object representing the database connection.
+     * @throws SQLException If the tables cannot be created.
+     */
+    public void createTables(Connection conn) throws SQLException {
+        if (SchemaDB.tableExists(conn, TABLE) && SchemaDB.tableExists(conn, FIELD_TABLE)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            // The key leads with cloth_id, so the rows of a cloth sit together in the primary key index
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (cloth_id INTEGER NOT NULL, "
+                    + "customer_id INTEGER NOT NULL, data BLOB NOT NULL, PRIMARY KEY (cloth_id, customer_id))");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + SchemaDB.indexName(TABLE, List.of("customer_id"), false)
+                    + " ON " + TABLE + " (customer_id)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + FIELD_TABLE
+                    + " (field_id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE)");
+        }
+        SchemaDB.catalog.tableCreated(conn, TABLE);
+        SchemaDB.catalog.tableCreated(conn, FIELD_TABLE);
+        Log.info(TABLE + " table created");
+    }
+
+    /**
+     * Stores the measurements of a customer for a cloth, replacing any stored before.
+     *
+     * @param conn         Connection object representing the database connection.
+     * @param clothId      Id of the cloth.
+     * @param customerId   Id of the customer.
+     * @param measurements Measurement names mapped to their values: numbers, text or bytes. Nulls are not stored.
+     * @throws SQLException If the measurements cannot be stored.
+     */
+    public void put(Connection conn, long clothId, long customerId, Map<String, ?> measurements) throws SQLException {
+        long start = PUT.start();
+        String sql = "INSERT OR REPLACE INTO " + TABLE + " (cloth_id, customer_id, data) VALUES (?, ?, ?)";
+        try {
+            createTables(conn);
+            byte[] data = encode(conn, measurements);
+            PreparedStatement pstmt = StatementCache.prepare(conn, sql);
+            try {
+                pstmt.setLong(1, clothId);
+                pstmt.setLong(2, customerId);
+                pstmt.setBytes(3, data);
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                StatementCache.discard(conn, sql);
+                throw e;
+            }
+            Metrics.ROWS_WRITTEN.increment();
+        } catch (SQLException e) {
+            PUT.failed();
+            throw e;
+        } finally {
+            PUT.stop(start);
+        }
+    }
+
+    /**
+     * Reads the measurements of a customer for a cloth.
+     *
+     * @param conn       Connection object representing the database connection.
+     * @param clothId    Id of the cloth.
+     * @param customerId Id of the customer.
+     * @return           Measurement names mapped to their values, in the order they were stored, or null if none are.
+     * @throws SQLException If the measurements cannot be read.
+     */
+    public Map<String, Object> get(Connection conn, long clothId, long customerId) throws SQLException {
+        Map<Long, Map<String, Object>> found = query(conn, "cloth_id = ? AND customer_id = ?", clothId, customerId);
+        return found.get(clothId);
+    }
+
+    /**
+     * Reads the measurements of a customer for every cloth, in one indexed lookup.
+     *
+     * @param conn       Connection object representing the database connection.
+     * @param customerId Id of the customer.
+     * @return           Cloth ids mapped to the customer's measurements for the cloth, by cloth id.
+     * @throws SQLException If the measurements cannot be read.
+     */
+    public Map<Long, Map<String, Object>> forCustomer(Connection conn, long customerId) throws SQLException {
+        return query(conn, "customer_id = ?", customerId);
+    }
+
+    /**
+     * Deletes the measurements of a customer for a cloth.
+     *
+     * @param conn       Connection object representing the database connection.
+     * @param clothId    Id of the cloth.
+     * @param customerId Id of the customer.
+     * @return           True if there were measurements to delete.
+     * @throws SQLException If the measurements cannot be deleted.
+     */
+    public boolean delete(Connection conn, long clothId, long customerId) throws SQLException {
+        if (!SchemaDB.tableExists(conn, TABLE)) {
+            return false;
+        }
+        Condition where = Condition.eq("cloth_id", clothId).and(Condition.eq("customer_id", customerId));
+        return SchemaDB.executeSql(conn, SchemaDB.deleteSql(TABLE, where), null, where) > 0;
+    }
+
+    /**
+     * Moves the per-cloth tables of the cloths listed in {@code cloths} into the measurement table, in
+     * transactions of {@code batchSize} rows. Each transaction copies a batch with {@code INSERT OR REPLACE} and
+     * records the last rowid copied, so a migration that stops part way resumes after that row when run again.
+     * The last batch of a table, and its drop if asked for, share one transaction, so rows inserted into the
+     * table while it was being copied are not lost. Every column of a per-cloth table except
+     * {@code customer_id} and {@code cloth_id} becomes a measurement; tables without a {@code customer_id}
+     * column are skipped.
+     * <p>
+     * Switch {@link #mode} to {@link Mode#SINGLE_TABLE} first, so no new per-cloth tables appear meanwhile.
+     *
+     * @param conn        Connection in auto-commit mode; the migration manages its own transactions.
+     * @param batchSize   Number of rows copied per transaction.
+     * @param dropSources True to drop each per-cloth table once it has been copied.
+     * @return            Tables and rows moved, and the tables skipped.
+     * @throws SQLException If the connection is inside a transaction, or copying fails; the failed batch is
+     *                      rolled back and the ones before it stay committed.
+     */
+    public MigrationResult migrate(Connection conn, int batchSize, boolean dropSources) throws SQLException {
+        long start = MIGRATE.start();
+        try {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+            }
+            if (!conn.getAutoCommit()) {
+                throw new SQLException("Measurement migration needs a connection in auto-commit mode");
+            }
+            MigrationResult result = new MigrationResult();
+            if (!SchemaDB.tableExists(conn, "cloths")) {
+                return result;
+            }
+            createTables(conn);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE + " (table_name TEXT PRIMARY KEY, "
+                        + "last_rowid INTEGER NOT NULL, done INTEGER NOT NULL DEFAULT 0)");
+            }
+
+            // Collect the cloths first; the copy below must not run under an open cursor on cloths
+            Map<Long, String> cloths = new LinkedHashMap<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT cloth_id, cloth_name FROM cloths ORDER BY cloth_id")) {
+                while (rs.next()) {
+                    cloths.put(rs.getLong(1), rs.getString(2));
+                }
+            }
+            for (Map.Entry<Long, String> cloth : cloths.entrySet()) {
+                migrateTable(conn, cloth.getKey(), cloth.getValue(), batchSize, dropSources, result);
+            }
+            Log.info("Measurement migration: " + result);
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            MIGRATE.failed();
+            throw e;
+        } finally {
+            MIGRATE.stop(start);
+        }
+    }
+
+    /**
+     * Copies one per-cloth table in batches, see {@link #migrate}.
+     */
+    private void migrateTable(Connection conn, long clothId, String tableName, int batchSize, boolean dropSources,
+                              MigrationResult result) throws SQLException {
+        if (tableName == null || !tableName.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            result.skipped.add(tableName + ": not a table name");
+            return;
+        }
+        Long lastRowid = progress(conn, tableName);
+        if (lastRowid == null) {
+            return; // Already done
+        }
+        if (!SchemaDB.tableExists(conn, tableName)) {
+            result.skipped.add(tableName + ": no such table");
+            return;
+        }
+
+        // Register the measurement names up front, so the batches find them committed in the dictionary
+        boolean hasCustomer = false;
+        try (Statement stmt = conn.createStatement()) {
+            // The driver returns no result set at all when the pragma has no rows
+            if (stmt.execute("PRAGMA table_info(" + tableName + ")")) {
+                try (ResultSet rs = stmt.getResultSet()) {
+                    while (rs.next()) {
+                        String name = rs.getString("name");
+                        if (name.equalsIgnoreCase("customer_id")) {
+                            hasCustomer = true;
+                        } else if (!name.equalsIgnoreCase("cloth_id")) {
+                            fieldId(conn, name);
+                        }
+                    }
+                }
+            }
+        }
+        if (!hasCustomer) {
+            result.skipped.add(tableName + ": no customer_id column");
+            return;
+        }
+
+        String select = "SELECT rowid, * FROM " + tableName + " WHERE rowid > ? ORDER BY rowid LIMIT ?";
+        boolean done = false;
+        while (!done) {
+            // Take the write lock before reading, so the last batch sees every row committed before the drop
+            try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE)) {
+                int copied = 0;
+                try (PreparedStatement pstmt = conn.prepareStatement(select)) {
+                    pstmt.setLong(1, lastRowid);
+                    pstmt.setInt(2, batchSize);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        ResultSetMetaData metaData = rs.getMetaData();
+                        int customerColumn = column(metaData, "customer_id");
+                        while (rs.next()) {
+                            lastRowid = rs.getLong(1);
+                            Map<String, Object> measurements = new LinkedHashMap<>();
+                            for (int i = 2; i <= metaData.getColumnCount(); i++) {
+                                String name = metaData.getColumnName(i);
+                                if (i != customerColumn && !name.equalsIgnoreCase("cloth_id")) {
+                                    measurements.put(name, rs.getObject(i));
+                                }
+                            }
+                            put(conn, clothId, rs.getLong(customerColumn), measurements);
+                            copied++;
+                        }
+                    }
+                }
+                done = copied < batchSize;
+                if (done && dropSources) {
+                    StatementCache.invalidateTable(tableName);
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("DROP TABLE " + tableName);
+                    }
+                }
+                saveProgress(conn, tableName, lastRowid, done);
+                tx.commit();
+                result.rowsMigrated += copied;
+                result.batches++;
+            }
+        }
+        if (dropSources) {
+            SchemaDB.catalog.tableDropped(conn, tableName);
+            SchemaDB.rowCache.invalidate(tableName);
+        }
+        result.tablesMigrated++;
+        Log.info("Measurements of " + tableName + " moved to the " + TABLE + " table");
+    }
+
+    /**
+     * @return Last rowid copied from a table, 0 if it was not started, or null if it was finished.
+     */
+    private static Long progress(Connection conn, String tableName) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT last_rowid, done FROM " + PROGRESS_TABLE + " WHERE table_name = ?")) {
+            pstmt.setString(1, tableName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return 0L;
+                }
+                return rs.getInt(2) != 0 ? null : rs.getLong(1);
+            }
+        }
+    }
+
+    private static void saveProgress(Connection conn, String tableName, long lastRowid, boolean done)
+            throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO " + PROGRESS_TABLE + " (table_name, last_rowid, done) VALUES (?, ?, ?)")) {
+            pstmt.setString(1, tableName);
+            pstmt.setLong(2, lastRowid);
+            pstmt.setInt(3, done ? 1 : 0);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static int column(ResultSetMetaData metaData, String name) throws SQLException {
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (metaData.getColumnName(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the rows matching a condition on the key columns, decoding their measurements.
+     */
+    private Map<Long, Map<String, Object>> query(Connection conn, String where, long... keys) throws SQLException {
+        long start = GET.start();
+        String sql = "SELECT cloth_id, data FROM " + TABLE + " WHERE " + where + " ORDER BY cloth_id";
+        try {
+            Map<Long, Map<String, Object>> found = new LinkedHashMap<>();
+            if (!SchemaDB.tableExists(conn, TABLE)) {
+                return found;
+            }
+            PreparedStatement pstmt = StatementCache.prepare(conn, sql);
+            try {
+                for (int i = 0; i < keys.length; i++) {
+                    pstmt.setLong(i + 1, keys[i]);
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        found.put(rs.getLong(1), decode(conn, rs.getBytes(2)));
+                    }
+                }
+            } catch (SQLException e) {
+                StatementCache.discard(conn, sql);
+                throw e;
+            }
+            Metrics.ROWS_READ.add(found.size());
+            return found;
+        } catch (SQLException e) {
+            GET.failed();
+            throw e;
+        } finally {
+            GET.stop(start);
+        }
+    }
+
+    /**
+     * Encodes measurements as {@code (varint field id, type tag, value)} entries, skipping nulls.
+     */
+    private byte[] encode(Connection conn, Map<String, ?> measurements) throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 * measurements.size() + 8);
+        for (Map.Entry<String, ?> measurement : measurements.entrySet()) {
+            Object value = measurement.getValue();
+            if (value == null) {
+                continue;
+            }
+            writeVarint(out, fieldId(conn, measurement.getKey()));
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                out.write(INTEGER);
+                long v = ((Number) value).longValue();
+                writeVarint(out, (v << 1) ^ (v >> 63)); // Zigzag, so small negatives stay short
+            } else if (value instanceof Number) {
+                out.write(REAL);
+                out.writeBytes(ByteBuffer.allocate(8).putDouble(((Number) value).doubleValue()).array());
+            } else if (value instanceof Boolean) {
+                out.write(INTEGER);
+                writeVarint(out, (Boolean) value ? 2 : 0);
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                out.write(BLOB);
+                writeVarint(out, bytes.length);
+                out.writeBytes(bytes);
+            } else {
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(TEXT);
+                writeVarint(out, bytes.length);
+                out.writeBytes(bytes);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private Map<String, Object> decode(Connection conn, byte[] data) throws SQLException {
+        Map<String, Object> measurements = new LinkedHashMap<>();
+        ByteBuffer in = ByteBuffer.wrap(data);
+        while (in.hasRemaining()) {
+            String name = fieldName(conn, (int) readVarint(in));
+            int type = in.get();
+            Object value;
+            switch (type) {
+                case INTEGER: {
+                    long v = readVarint(in);
+                    value = (v >>> 1) ^ -(v & 1);
+                    break;
+                }
+                case REAL:
+                    value = in.getDouble();
+                    break;
+                case TEXT:
+                case BLOB: {
+                    byte[] bytes = new byte[(int) readVarint(in)];
+                    in.get(bytes);
+                    value = type == TEXT ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+                    break;
+                }
+                default:
+                    throw new SQLException("Corrupt measurement data: unknown type " + type);
+            }
+            measurements.put(name, value);
+        }
+        return measurements;
+    }
+
+    /**
+     * Returns the id of a field name, adding it to the dictionary if it is new.
+     */
+    private int fieldId(Connection conn, String name) throws SQLException {
+        Fields fields = fields(conn);
+        Integer id = fields.ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        // Only committed ids are cached: one added in a transaction that rolls back is handed out again
+        boolean cache = conn.getAutoCommit();
+        String insert = "INSERT OR IGNORE INTO " + FIELD_TABLE + " (name) VALUES (?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(insert)) {
+            pstmt.setString(1, name);
+            pstmt.executeUpdate();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT field_id FROM " + FIELD_TABLE + " WHERE name = ?")) {
+            pstmt.setString(1, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                id = rs.getInt(1);
+            }
+        }
+        if (cache) {
+            fields.add(name, id);
+        }
+        return id;
+    }
+
+    private String fieldName(Connection conn, int id) throws SQLException {
+        Fields fields = fields(conn);
+        String name = fields.names.get(id);
+        if (name != null) {
+            return name;
+        }
+        boolean cache = conn.getAutoCommit();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT name FROM " + FIELD_TABLE + " WHERE field_id = ?")) {
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Corrupt measurement data: unknown field " + id);
+                }
+                name = rs.getString(1);
+            }
+        }
+        if (cache) {
+            fields.add(name, id);
+        }
+        return name;
+    }
+
+    /**
+     * Field dictionary of one database, both ways.
+     */
+    private static final class Fields {
+        final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        final Map<Integer, String> names = new ConcurrentHashMap<>();
+
+        void add(String name, int id) {
+            ids.put(name, id);
+            names.put(id, name);
+        }
+    }
+
+    private Fields fields(Connection conn) throws SQLException {
+        return dictionaries.computeIfAbsent(url(conn), u -> new Fields());
+    }
+
+    private static String url(Connection conn) throws SQLException {
+        return conn.getMetaData().getURL().toLowerCase(Locale.ROOT);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Migration tool: moves the per-cloth tables of {@link SchemaDB#DB_URL} into the measurement table.
+     *
+     * @param args Optional batch size (default 500), and {@code --drop} to drop the per-cloth tables afterwards.
+     */
+    public static void main(String[] args) {
+        int batchSize = 500;
+        boolean drop = false;
+        for (String arg : args) {
+            if (arg.equals("--drop")) {
+                drop = true;
+            } else {
+                batchSize = Integer.parseInt(arg);
+            }
+        }
+        Connection conn = SchemaDB.connect();
+        if (conn == null) {
+            return;
+        }
+        try {
+            SchemaDB.measurements.mode = Mode.SINGLE_TABLE;
+            System.out.println(SchemaDB.measurements.migrate(conn, batchSize, drop));
+        } catch (SQLException e) {
+            Log.error(e.getMessage());
+        } finally {
+            SchemaDB.closeConnection(conn);
+        }
+    }
+}
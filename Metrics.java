@@ -0,0 +1,322 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide registry of operation timings and counters for the SchemaDB classes.
+ * <p>
+ * Every {@link Operation} counts calls and errors and keeps a {@link LatencyHistogram}; every
+ * {@link Counter} sums a quantity such as rows written. Both are created once, held in static fields
+ * by the code they measure and updated without locks or allocation. Each one is registered as an
+ * MBean under the {@value #JMX_DOMAIN} domain, and {@link #startReporter} pushes snapshots to a
+ * {@link MetricsReporter} on a schedule.
+ * <p>
+ * Recording is on unless the {@code metrics.enabled} system property is {@code false}; it can also be
+ * switched at runtime with {@link #setEnabled(boolean)}.
+ */
+public final class Metrics {
+    public static final String JMX_DOMAIN = "jdbc.schemadb";
+
+    // Declared before the operations and counters below, which register themselves here
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty("metrics.enabled"));
+    private static final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService reporterExecutor;
+
+    // Operations timed across the code base
+    public static final Operation CONNECT = operation("connect");
+    public static final Operation POOL_BORROW = operation("pool.borrow");
+    public static final Operation CONNECTION_OPEN = operation("connection.open");
+    public static final Operation STATEMENT_PREPARE = operation("statement.prepare");
+    public static final Operation STATEMENT_EXECUTE = operation("statement.execute");
+
+    // Quantities summed across the code base
+    public static final Counter ROWS_READ = counter("rows.read");
+    public static final Counter ROWS_WRITTEN = counter("rows.written");
+
+    private Metrics() {
+    }
+
+    /**
+     * JMX view of an {@link Operation}; times are in microseconds.
+     */
+    public interface OperationMBean {
+        String getName();
+
+        long getCount();
+
+        long getErrors();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP95Micros();
+
+        double getP99Micros();
+
+        double getMaxMicros();
+
+        void reset();
+    }
+
+    /**
+     * A timed operation. Call {@link #start()} before it and {@link #stop(long)} after it, and
+     * {@link #failed()} when it fails.
+     */
+    public static final class Operation implements OperationMBean {
+        private final String name;
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private Operation(String name) {
+            this.name = name;
+        }
+
+        /** @return Start timestamp to pass to {@link #stop(long)}, or 0 if metrics are disabled. */
+        public long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Records one call that started at the given timestamp.
+         *
+         * @param start Timestamp returned by {@link #start()}.
+         */
+        public void stop(long start) {
+            if (start != 0) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Records one failed call. The call's latency is still recorded by {@link #stop(long)}.
+         */
+        public void failed() {
+            if (enabled) {
+                errors.increment();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /** @return Latencies recorded so far, in nanoseconds. */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latency.getMean() / 1000.0;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return latency.getPercentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getP95Micros() {
+            return latency.getPercentile(95) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return latency.getPercentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return latency.getMax() / 1000.0;
+        }
+
+        @Override
+        public void reset() {
+            errors.reset();
+            latency.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s count=%d errors=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", name,
+                    getCount(), getErrors(), getMeanMicros(), getP50Micros(), getP99Micros(), getMaxMicros());
+        }
+    }
+
+    /**
+     * JMX view of a {@link Counter}.
+     */
+    public interface CounterMBean {
+        String getName();
+
+        long getCount();
+
+        void reset();
+    }
+
+    /**
+     * A running total.
+     */
+    public static final class Counter implements CounterMBean {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param delta Amount to add to the total.
+         */
+        public void add(long delta) {
+            if (enabled) {
+                count.add(delta);
+            }
+        }
+
+        public void increment() {
+            add(1);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + getCount();
+        }
+    }
+
+    /**
+     * Returns the operation with the given name, creating and registering it on first use.
+     * Hold the result in a static field rather than looking it up per call.
+     *
+     * @param name Name of the operation, such as a SchemaDB method name.
+     * @return     Operation to record calls on.
+     */
+    public static Operation operation(String name) {
+        return operations.computeIfAbsent(name, n -> register(new Operation(n), "Operation", n));
+    }
+
+    /**
+     * Returns the counter with the given name, creating and registering it on first use.
+     * Hold the result in a static field rather than looking it up per call.
+     *
+     * @param name Name of the counter.
+     * @return     Counter to add to.
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> register(new Counter(n), "Counter", n));
+    }
+
+    /** @return Every operation by name, in name order. */
+    public static Map<String, Operation> operations() {
+        return Collections.unmodifiableMap(new TreeMap<>(operations));
+    }
+
+    /** @return Every counter by name, in name order. */
+    public static Map<String, Counter> counters() {
+        return Collections.unmodifiableMap(new TreeMap<>(counters));
+    }
+
+    /** @return True if calls and counts are being recorded. */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param on True to record calls and counts, false to make recording a no-op.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Clears every operation and counter.
+     */
+    public static void reset() {
+        operations.values().forEach(Operation::reset);
+        counters.values().forEach(Counter::reset);
+    }
+
+    /**
+     * Sends a snapshot of every operation and counter to a reporter at a fixed rate, on a shared daemon thread.
+     *
+     * @param reporter Destination for the snapshots.
+     * @param period   Time between reports.
+     * @param unit     Unit of {@code period}.
+     * @return         Handle to cancel the reports with.
+     */
+    public static ScheduledFuture<?> startReporter(MetricsReporter reporter, long period, TimeUnit unit) {
+        return reporterExecutor().scheduleAtFixedRate(() -> {
+            try {
+                reporter.report(operations(), counters());
+            } catch (RuntimeException e) {
+                Log.error("Metrics reporter failed: " + e.getMessage(), e);
+            }
+        }, period, period, unit);
+    }
+
+    private static ScheduledExecutorService reporterExecutor() {
+        if (reporterExecutor == null) {
+            synchronized (Metrics.class) {
+                if (reporterExecutor == null) {
+                    reporterExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "metrics-reporter");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return reporterExecutor;
+    }
+
+    private static <T> T register(T mbean, String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(mbean, new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name)));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another class loader registered the same name first; this instance is still usable
+        } catch (JMException | SecurityException e) {
+            Log.warn("Could not register metrics MBean for " + name + ": " + e.getMessage());
+        }
+        return mbean;
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.Map;
+
+/**
+ * Receives periodic snapshots of the metrics registry, see {@link Metrics#startReporter}.
+ * Implement it to push metrics to a monitoring system; {@link #log()} writes them to the log.
+ */
+@FunctionalInterface
+public interface MetricsReporter {
+    /**
+     * @param operations Every timed operation by name.
+     * @param counters   Every counter by name.
+     */
+    void report(Map<String, Metrics.Operation> operations, Map<String, Metrics.Counter> counters);
+
+    /**
+     * @return Reporter writing one line per operation that has been called, and one for the counters, at INFO level.
+     */
+    static MetricsReporter log() {
+        return (operations, counters) -> {
+            if (!Log.isEnabled(Log.Level.INFO)) {
+                return;
+            }
+            for (Metrics.Operation operation : operations.values()) {
+                if (operation.getCount() > 0) {
+                    Log.info(operation.toString());
+                }
+            }
+            Log.info(counters.values().toString());
+        };
+    }
+}
@@ -1,6 +1,12 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Operate {
+    // Number of rows shown per page in the listings
+    private static final int PAGE_SIZE = Integer.getInteger("operate.pageSize", 20);
+
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
         int choice;
@@ -41,7 +47,7 @@ public class Operate {
             choice = scanner.nextInt();
 
             switch (choice) {
-                case 1 -> showCustomerList();
+                case 1 -> showCustomerList(scanner);
                 case 2 -> updateCustomer(scanner);
                 case 3 -> deleteCustomer(scanner);
                 case 4 -> addNewCustomer(scanner);
@@ -51,8 +57,9 @@ public class Operate {
         } while (choice != 5);
     }
 
-    public static void showCustomerList() {
-        // Method to display list of customers
+    public static void showCustomerList(Scanner scanner) {
+        // Display the customers page by page, ordered by customer_id
+        showList(scanner, "customer", "customer_id");
     }
 
     public static void updateCustomer(Scanner scanner) {
@@ -81,7 +88,7 @@ public class Operate {
             choice = scanner.nextInt();
 
             switch (choice) {
-                case 1 -> showClothList();
+                case 1 -> showClothList(scanner);
                 case 2 -> updateCloth(scanner);
                 case 3 -> deleteCloth(scanner);
                 case 4 -> addNewCloth(scanner);
@@ -91,8 +98,9 @@ public class Operate {
         } while (choice != 5);
     }
 
-    public static void showClothList() {
-        // Method to display list of cloths
+    public static void showClothList(Scanner scanner) {
+        // Display the cloths page by page, ordered by cloth_id
+        showList(scanner, "cloths", "cloth_id");
     }
 
     public static void updateCloth(Scanner scanner) {
@@ -121,7 +129,7 @@ public class Operate {
             choice = scanner.nextInt();
 
             switch (choice) {
-                case 1 -> showWorkList();
+                case 1 -> showWorkList(scanner);
                 case 2 -> updateWork(scanner);
                 case 3 -> deleteWork(scanner);
                 case 4 -> addNewWork(scanner);
@@ -131,8 +139,9 @@ public class Operate {
         } while (choice != 5);
     }
 
-    public static void showWorkList() {
-        // Method to display list of work items
+    public static void showWorkList(Scanner scanner) {
+        // Display the work items page by page, ordered by work_id
+        showList(scanner, "work", "work_id");
     }
 
     public static void updateWork(Scanner scanner) {
@@ -146,4 +155,53 @@ public class Operate {
     public static void addNewWork(Scanner scanner) {
         // Method to add new work item
     }
+
+    /**
+     * Prints a table one page at a time, asking before each further page. Pages are fetched with keyset
+     * pagination, so a late page is as quick as the first.
+     *
+     * @param scanner    Scanner reading the user's answers.
+     * @param tableName  Name of the table to list.
+     * @param sortColumn Column to order the rows by.
+     */
+    private static void showList(Scanner scanner, String tableName, String sortColumn) {
+        Connection conn = SchemaDB.connect();
+        if (conn == null) {
+            return;
+        }
+        try {
+            String cursor = null;
+            int pageNumber = 1;
+            while (true) {
+                Page page = SchemaDB.selectPage(conn, tableName, null, sortColumn, PAGE_SIZE, cursor);
+                if (page.getRows().isEmpty()) {
+                    System.out.println("No entries in " + tableName + ".");
+                    return;
+                }
+                System.out.println("\n" + tableName + " (page " + pageNumber + ") :");
+                System.out.println(String.join("\t", page.getColumnNames()));
+                for (Map<String, Object> row : page.getRows()) {
+                    StringBuilder line = new StringBuilder();
+                    for (Object value : row.values()) {
+                        line.append(value).append("\t\t");
+                    }
+                    System.out.println(line);
+                }
+                if (!page.hasNext()) {
+                    System.out.println("End of list.");
+                    return;
+                }
+                System.out.print("Enter n for the next page, anything else to go back: ");
+                if (!scanner.next().equalsIgnoreCase("n")) {
+                    return;
+                }
+                cursor = page.getNextCursor();
+                pageNumber++;
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            SchemaDB.closeConnection(conn);
+        }
+    }
 }
@@ -0,0 +1,130 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of rows from {@link SchemaDB#selectPage}, with the cursor token that fetches the next one.
+ * <p>
+ * The token records the sort key and rowid of the page's last row. The next page seeks straight to the
+ * row after it through the index on the sort column, so every page costs the same however deep it is,
+ * unlike {@code OFFSET}, which reads and discards every row before the page. Rows inserted or deleted
+ * between pages shift nothing: no row is skipped or repeated.
+ */
+public class Page {
+    private final List<String> columnNames;
+    private final List<Map<String, Object>> rows;
+    private final String nextCursor;
+
+    Page(List<String> columnNames, List<Map<String, Object>> rows, String nextCursor) {
+        this.columnNames = Collections.unmodifiableList(columnNames);
+        this.rows = Collections.unmodifiableList(rows);
+        this.nextCursor = nextCursor;
+    }
+
+    /** @return Names of the selected columns, in select order. */
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /** @return Rows of the page, each mapping column names to values in select order. */
+    public List<Map<String, Object>> getRows() {
+        return rows;
+    }
+
+    /** @return Token to pass to {@link SchemaDB#selectPage} for the next page, or null if this is the last page. */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /** @return True if there is a page after this one. */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{rows=" + rows.size() + ", next=" + nextCursor + "}";
+    }
+
+    /**
+     * Position after the last row of a page: its sort key value and rowid.
+     */
+    static final class Position {
+        final String sortColumn;
+        final Object sortValue;
+        final long rowid;
+
+        Position(String sortColumn, Object sortValue, long rowid) {
+            this.sortColumn = sortColumn;
+            this.sortValue = sortValue;
+            this.rowid = rowid;
+        }
+
+        /**
+         * Encodes the position as an opaque, URL-safe token: {@code column:rowid:type:value} in Base64,
+         * where the type keeps integers, reals, text and NULL apart so they compare as they did in the table.
+         */
+        String encode() {
+            String type;
+            String value;
+            if (sortValue == null) {
+                type = "n";
+                value = "";
+            } else if (sortValue instanceof Long || sortValue instanceof Integer) {
+                type = "i";
+                value = sortValue.toString();
+            } else if (sortValue instanceof Double || sortValue instanceof Float) {
+                type = "r";
+                value = sortValue.toString();
+            } else {
+                type = "s";
+                value = sortValue.toString();
+            }
+            String raw = sortColumn + ":" + rowid + ":" + type + ":" + value;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Decodes a token made by {@link #encode()}.
+         *
+         * @param token      Cursor token from a previous page.
+         * @param sortColumn Sort column of the current request, which must be the one the token was made for.
+         * @throws IllegalArgumentException If the token is malformed or was made for another sort column.
+         */
+        static Position decode(String token, String sortColumn) {
+            String raw;
+            try {
+                raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Malformed page cursor: " + token, e);
+            }
+            String[] parts = raw.split(":", 4);
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Malformed page cursor: " + token);
+            }
+            if (!parts[0].equalsIgnoreCase(sortColumn)) {
+                throw new IllegalArgumentException("Page cursor was made for sort column " + parts[0]
+                        + ", not " + sortColumn);
+            }
+            try {
+                long rowid = Long.parseLong(parts[1]);
+                switch (parts[2]) {
+                    case "n":
+                        return new Position(sortColumn, null, rowid);
+                    case "i":
+                        return new Position(sortColumn, Long.parseLong(parts[3]), rowid);
+                    case "r":
+                        return new Position(sortColumn, Double.parseDouble(parts[3]), rowid);
+                    case "s":
+                        return new Position(sortColumn, parts[3], rowid);
+                    default:
+                        throw new IllegalArgumentException("Malformed page cursor: " + token);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed page cursor: " + token, e);
+            }
+        }
+    }
+}
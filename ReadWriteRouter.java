@@ -0,0 +1,297 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes {@link SchemaDB} operations by what they do: queries go to a pool of read-only connections,
+ * everything that changes data or schema goes to a single writer connection.
+ * <p>
+ * SQLite allows one writer at a time anyway, so a single writer connection costs nothing and keeps writes
+ * from queueing on the file lock. In WAL mode readers see the last committed state without waiting for the
+ * writer, so reports run in parallel with each other and with writes. In the other journal modes a writer
+ * still blocks readers while it commits, and a warning is logged when the router is created.
+ * <p>
+ * Only file databases can be routed: every connection to {@code :memory:} opens a separate database.
+ */
+public class ReadWriteRouter implements AutoCloseable {
+    // Default number of reader connections
+    public static final int DEFAULT_READERS = Integer.getInteger("router.readers",
+            Runtime.getRuntime().availableProcessors());
+
+    // One router per database URL
+    private static final Map<String, ReadWriteRouter> routers = new ConcurrentHashMap<>();
+
+    private final ConnectionPool writer;
+    private final ConnectionPool readers;
+    // Reserves its id blocks on the writer, like every other write
+    private final IdAllocator ids;
+
+    /**
+     * An operation run with a connection borrowed from one of the router's pools.
+     */
+    @FunctionalInterface
+    private interface Routed<T> {
+        T apply(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Creates a router with its own writer and reader pools.
+     *
+     * @param url                 JDBC URL of the SQLite database file.
+     * @param readerCount         Maximum number of reader connections.
+     * @param borrowTimeoutMillis How long an operation waits for a free connection.
+     * @param profile             SQLite settings of the writer; readers get {@link ConnectionProfile#asReadOnly()}.
+     * @throws SQLException If the writer connection cannot be opened.
+     */
+    public ReadWriteRouter(String url, int readerCount, long borrowTimeoutMillis, ConnectionProfile profile)
+            throws SQLException {
+        this.writer = new ConnectionPool(url, 1, 1, borrowTimeoutMillis, 60_000L, 300_000L, profile);
+        this.readers = new ConnectionPool(url, 0, readerCount, borrowTimeoutMillis, 60_000L, 300_000L,
+                profile.asReadOnly());
+        this.ids = new IdAllocator(writer, IdAllocator.DEFAULT_BLOCK_SIZE);
+
+        // Open the writer first: the journal mode is set on the file, and read-only connections cannot set it
+        try (Connection conn = writer.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            String mode = rs.next() ? rs.getString(1) : null;
+            if (!"wal".equalsIgnoreCase(mode)) {
+                Log.warn("Database " + url + " uses the " + mode + " journal; readers will wait for the writer's commits");
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the shared router for a database URL, creating it on first use. The number of readers comes
+     * from the {@code router.readers} system property, the number of processors by default.
+     *
+     * @param url JDBC URL of the SQLite database file.
+     * @return    Router for that database.
+     * @throws SQLException If the writer connection cannot be opened.
+     */
+    public static ReadWriteRouter forUrl(String url) throws SQLException {
+        ReadWriteRouter router = routers.get(url);
+        if (router != null) {
+            return router;
+        }
+        synchronized (routers) {
+            router = routers.get(url);
+            if (router == null) {
+                router = new ReadWriteRouter(url, DEFAULT_READERS, Long.getLong("pool.borrowTimeoutMillis", 30_000L),
+                        ConnectionProfile.fromSystemProperties());
+                routers.put(url, router);
+            }
+            return router;
+        }
+    }
+
+    /**
+     * Borrows a read-only connection, for queries the routed operations do not cover.
+     *
+     * @return Connection that returns to the reader pool when closed.
+     * @throws SQLException If no reader is free within the borrow timeout.
+     */
+    public Connection reader() throws SQLException {
+        return readers.getConnection();
+    }
+
+    /**
+     * Borrows the writer connection. Other writes wait until it is closed, so keep the borrow short.
+     *
+     * @return Connection that returns to the writer pool when closed.
+     * @throws SQLException If the writer is not free within the borrow timeout.
+     */
+    public Connection writer() throws SQLException {
+        return writer.getConnection();
+    }
+
+    /** @see SchemaDB#tableExists */
+    public boolean tableExists(String tableName) {
+        return read(conn -> SchemaDB.tableExists(conn, tableName), false);
+    }
+
+    /** @see SchemaDB#tableFilled */
+    public boolean tableFilled(String tableName) {
+        return read(conn -> SchemaDB.tableFilled(conn, tableName), false);
+    }
+
+    /** @see SchemaDB#selectColumns */
+    public void selectColumns(String tableName, List<String> columnNames) {
+        read(conn -> {
+            SchemaDB.selectColumns(conn, tableName, columnNames);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#getMaxId */
+    public int getMaxId(String tableName, String columnName) {
+        return read(conn -> SchemaDB.getMaxId(conn, tableName, columnName), 0);
+    }
+
+    /** @see SchemaDB#selectPage */
+    public Page selectPage(String tableName, List<String> columnNames, String sortColumn, int pageSize,
+                           String cursor) {
+        return read(conn -> SchemaDB.selectPage(conn, tableName, columnNames, sortColumn, pageSize, cursor), null);
+    }
+
+    /** @see SchemaDB#selectRow */
+    public Map<String, Object> selectRow(String tableName, String keyColumn, Object key) {
+        return read(conn -> SchemaDB.selectRow(conn, tableName, keyColumn, key), null);
+    }
+
+    /** @see SchemaDB#createTable */
+    public void createTable(String tableName, Map<String, String> columns) {
+        write(conn -> {
+            SchemaDB.createTable(conn, tableName, columns);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#deleteTable */
+    public void deleteTable(String tableName) {
+        write(conn -> {
+            SchemaDB.deleteTable(conn, tableName);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#insertValues */
+    public void insertValues(String tableName, Hashtable<String, Object> values) {
+        write(conn -> {
+            SchemaDB.insertValues(conn, tableName, values);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#insertValuesBatch(Connection, String, Iterable, int) */
+    public BatchInsertResult insertValuesBatch(String tableName, Iterable<? extends Map<String, Object>> rows,
+                                               int chunkSize) {
+        return write(conn -> SchemaDB.insertValuesBatch(conn, tableName, rows, chunkSize), new BatchInsertResult());
+    }
+
+    /** @see SchemaDB#addColumn */
+    public void addColumn(String tableName, String columnName, String columnType) {
+        write(conn -> {
+            SchemaDB.addColumn(conn, tableName, columnName, columnType);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#dropColumn */
+    public void dropColumn(String tableName, String columnName) {
+        write(conn -> {
+            SchemaDB.dropColumn(conn, tableName, columnName);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#updateTable */
+    public void updateTable(String tableName, String columnName, String setValue, String whereCondition) {
+        write(conn -> {
+            SchemaDB.updateTable(conn, tableName, columnName, setValue, whereCondition);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#updateTable(Connection, String, Assignments, Condition) */
+    public int updateTable(String tableName, Assignments assignments, Condition where) {
+        return write(conn -> SchemaDB.updateTable(conn, tableName, assignments, where), -1);
+    }
+
+    /** @see SchemaDB#deleteTuple */
+    public void deleteTuple(String tableName, String whereCondition) {
+        write(conn -> {
+            SchemaDB.deleteTuple(conn, tableName, whereCondition);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#deleteTuple(Connection, String, Condition) */
+    public int deleteTuple(String tableName, Condition where) {
+        return write(conn -> SchemaDB.deleteTuple(conn, tableName, where), -1);
+    }
+
+    /** @see SchemaDB#renameTable */
+    public void renameTable(String oldTableName, String newTableName) {
+        write(conn -> {
+            SchemaDB.renameTable(conn, oldTableName, newTableName);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#renameColumn */
+    public void renameColumn(String tableName, String oldColumnName, String newColumnName) {
+        write(conn -> {
+            SchemaDB.renameColumn(conn, tableName, oldColumnName, newColumnName);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#updateTableMetadata */
+    public void updateTableMetadata(String tableName) {
+        write(conn -> {
+            SchemaDB.updateTableMetadata(conn, tableName);
+            return null;
+        }, null);
+    }
+
+    /** @see SchemaDB#nextId */
+    public long nextId(String tableName, String columnName) {
+        // Most ids come from the current block; only reserving the next one borrows the writer
+        try {
+            return ids.nextId(tableName, columnName);
+        } catch (SQLException e) {
+            Log.error(e.getMessage());
+            return -1;
+        }
+    }
+
+    /** @return Pool of read-only connections. */
+    public ConnectionPool getReaders() {
+        return readers;
+    }
+
+    /** @return Pool holding the writer connection. */
+    public ConnectionPool getWriter() {
+        return writer;
+    }
+
+    /**
+     * Closes both pools.
+     */
+    @Override
+    public void close() {
+        readers.close();
+        writer.close();
+        routers.remove(writer.getUrl(), this);
+    }
+
+    private <T> T read(Routed<T> operation, T fallback) {
+        return run(readers, operation, fallback);
+    }
+
+    private <T> T write(Routed<T> operation, T fallback) {
+        return run(writer, operation, fallback);
+    }
+
+    /**
+     * Runs an operation on a connection from the given pool, logging and returning the fallback if
+     * no connection can be borrowed, like the SchemaDB methods do for their own failures.
+     */
+    private static <T> T run(ConnectionPool pool, Routed<T> operation, T fallback) {
+        try (Connection conn = pool.getConnection()) {
+            return operation.apply(conn);
+        } catch (SQLException e) {
+            Log.error(e.getMessage());
+            return fallback;
+        }
+    }
+}
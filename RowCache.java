@@ -0,0 +1,357 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of rows by key for small, hot lookup tables such as {@code cloths} and {@code customer}.
+ * <p>
+ * Each cached table gets its own region: a least-recently-used map bounded by a maximum number of rows, whose
+ * entries also expire a fixed time after they were loaded. {@link SchemaDB#selectRow} answers from the region
+ * and loads from SQLite on a miss. Every write {@link SchemaDB} and {@link WriteQueue} make to a cached table
+ * invalidates the rows it may change: the keyed rows when the condition names the keys, the whole table
+ * otherwise. A load that overlaps an invalidation is not stored, so a reader cannot put back a row that a
+ * writer just replaced.
+ * <p>
+ * Writes made outside SchemaDB, or in a transaction that another connection has not yet seen committed, are
+ * only picked up when the entry expires. Tables are configured with {@link #configure} or with
+ * {@code -DrowCache.tables=cloths:cloth_id,customer:customer_id}; {@code -DrowCache.maxEntries} and
+ * {@code -DrowCache.ttlMillis} set the defaults.
+ */
+public class RowCache {
+    // Default bounds of a region
+    private static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("rowCache.maxEntries", 1000);
+    private static final long DEFAULT_TTL_MILLIS = Long.getLong("rowCache.ttlMillis", 60_000L);
+
+    // Lookups answered and missed, rows evicted by size or age, and invalidations, see Metrics
+    private static final Metrics.Counter HITS = Metrics.counter("rowCache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("rowCache.misses");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("rowCache.evictions");
+    private static final Metrics.Counter INVALIDATIONS = Metrics.counter("rowCache.invalidations");
+
+    // Regions by lower-case table name
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a cache with the tables named by {@code -DrowCache.tables}, as {@code table:keyColumn} pairs.
+     */
+    public RowCache() {
+        String tables = System.getProperty("rowCache.tables", "cloths:cloth_id,customer:customer_id");
+        for (String table : tables.split(",")) {
+            String[] parts = table.trim().split(":");
+            if (parts.length == 2) {
+                configure(parts[0].trim(), parts[1].trim(), DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+            } else if (!table.isBlank()) {
+                Log.warn("Ignoring row cache entry " + table + ", expected table:keyColumn");
+            }
+        }
+    }
+
+    /**
+     * The cached rows of one table, with its own hit and miss counts.
+     */
+    public static final class Region {
+        private final String tableName;
+        private final String keyColumn;
+        private final int maxEntries;
+        private final long ttlNanos;
+        private final LinkedHashMap<Object, Entry> entries;
+        // Bumped by every invalidation; a load only stores its row if the generation did not move meanwhile
+        private long generation;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        Region(String tableName, String keyColumn, int maxEntries, long ttlMillis) {
+            this.tableName = tableName;
+            this.keyColumn = keyColumn;
+            this.maxEntries = maxEntries;
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+            // Access order makes the eldest entry the least recently used one
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                    if (size() > Region.this.maxEntries) {
+                        evictions.increment();
+                        EVICTIONS.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /** @return Name of the cached table. */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /** @return Column the rows are looked up by. */
+        public String getKeyColumn() {
+            return keyColumn;
+        }
+
+        /** @return Maximum number of rows kept. */
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        /** @return Time a row is kept after it was loaded, in milliseconds. */
+        public long getTtlMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+        }
+
+        /** @return Number of rows cached, including expired ones not yet removed. */
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        /** @return Number of lookups answered from the cache. */
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /** @return Number of lookups that went to the database. */
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /** @return Number of rows dropped to stay within the size, or because they expired. */
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        /** @return Share of lookups answered from the cache, between 0 and 1; 0 before the first lookup. */
+        public double getHitRate() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s by %s: %d rows, %d hits, %d misses (%.1f%%), %d evictions",
+                    tableName, keyColumn, size(), getHits(), getMisses(), 100 * getHitRate(), getEvictions());
+        }
+
+        synchronized Map<String, Object> get(Object key) {
+            key = normalize(key);
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.loadedAt > ttlNanos) {
+                entries.remove(key);
+                evictions.increment();
+                EVICTIONS.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                MISSES.increment();
+                return null;
+            }
+            hits.increment();
+            HITS.increment();
+            return entry.row;
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void put(Object key, Map<String, Object> row, long loadedGeneration) {
+            if (loadedGeneration == generation) {
+                entries.put(normalize(key), new Entry(row, System.nanoTime()));
+            }
+        }
+
+        synchronized void invalidate(List<?> keys) {
+            generation++;
+            for (Object key : keys) {
+                entries.remove(normalize(key));
+            }
+            INVALIDATIONS.increment();
+        }
+
+        synchronized void invalidateAll() {
+            generation++;
+            entries.clear();
+            INVALIDATIONS.increment();
+        }
+    }
+
+    /**
+     * A cached row and when it was loaded.
+     */
+    private static final class Entry {
+        final Map<String, Object> row;
+        final long loadedAt;
+
+        Entry(Map<String, Object> row, long loadedAt) {
+            this.row = row;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Caches a table, replacing any previous configuration and its rows.
+     *
+     * @param tableName  Name of the table.
+     * @param keyColumn  Column the rows are looked up by, normally the table's id.
+     * @param maxEntries Maximum number of rows kept; the least recently used row goes first.
+     * @param ttlMillis  Time a row is kept after it was loaded, in milliseconds.
+     */
+    public void configure(String tableName, String keyColumn, int maxEntries, long ttlMillis) {
+        if (maxEntries < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("maxEntries and ttlMillis must be positive");
+        }
+        regions.put(key(tableName), new Region(Condition.identifier(tableName), Condition.identifier(keyColumn),
+                maxEntries, ttlMillis));
+    }
+
+    /**
+     * Stops caching a table and drops its rows.
+     *
+     * @param tableName Name of the table.
+     */
+    public void remove(String tableName) {
+        regions.remove(key(tableName));
+    }
+
+    /**
+     * @param tableName Name of the table.
+     * @return          The table's region, or null if the table is not cached.
+     */
+    public Region region(String tableName) {
+        return regions.get(key(tableName));
+    }
+
+    /** @return Every region, in no particular order. */
+    public List<Region> regions() {
+        return Collections.unmodifiableList(new ArrayList<>(regions.values()));
+    }
+
+    /**
+     * Drops the cached rows of a table; the next lookups load them again.
+     *
+     * @param tableName Name of the table.
+     */
+    public void invalidate(String tableName) {
+        Region region = region(tableName);
+        if (region != null) {
+            region.invalidateAll();
+        }
+    }
+
+    /**
+     * Drops the cached rows that an UPDATE or DELETE filtered by a condition may change. A condition that is
+     * exactly an equality or {@code IN} on the key column drops those keys; any other condition, or an update
+     * that changes the key itself, drops the whole table.
+     *
+     * @param tableName   Name of the written table.
+     * @param assignments Columns the UPDATE sets, or null for a DELETE.
+     * @param where       Condition of the statement.
+     */
+    public void invalidate(String tableName, Assignments assignments, Condition where) {
+        Region region = region(tableName);
+        if (region == null) {
+            return;
+        }
+        List<Object> keys = keysOf(region.keyColumn, where);
+        boolean keyChanged = assignments != null && assignments.columns().stream()
+                .anyMatch(column -> column.equalsIgnoreCase(region.keyColumn));
+        if (keys != null && !keyChanged) {
+            region.invalidate(keys);
+        } else {
+            region.invalidateAll();
+        }
+    }
+
+    /**
+     * Drops the cached row with the key of an inserted row, if the row has a key. Missing keys are not cached,
+     * so a new key has nothing to drop otherwise.
+     *
+     * @param tableName Name of the written table.
+     * @param values    Column values of the inserted row.
+     */
+    public void invalidate(String tableName, Map<String, Object> values) {
+        Region region = region(tableName);
+        if (region == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            if (value.getKey().equalsIgnoreCase(region.keyColumn)) {
+                region.invalidate(Collections.singletonList(value.getValue()));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops every cached row of every table.
+     */
+    public void clear() {
+        for (Region region : regions.values()) {
+            region.invalidateAll();
+        }
+    }
+
+    /**
+     * Removes expired rows from every region; lookups remove them anyway, this only frees their memory sooner.
+     */
+    public void purgeExpired() {
+        long now = System.nanoTime();
+        for (Region region : regions.values()) {
+            synchronized (region) {
+                Iterator<Entry> it = region.entries.values().iterator();
+                while (it.hasNext()) {
+                    if (now - it.next().loadedAt > region.ttlNanos) {
+                        it.remove();
+                        region.evictions.increment();
+                        EVICTIONS.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes equal keys of different Java types equal: SQLite compares 7, 7L and 7.0 the same in a numeric column.
+     */
+    static Object normalize(Object key) {
+        if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+            return ((Number) key).longValue();
+        }
+        if (key instanceof Number) {
+            double d = ((Number) key).doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d)) {
+                return (long) d;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the keys a condition limits the rows to, or null if it can match other rows.
+     */
+    private static List<Object> keysOf(String keyColumn, Condition where) {
+        String sql = where.getSql();
+        List<Object> parameters = where.getParameters();
+        if (sql.equalsIgnoreCase(keyColumn + " = ?")) {
+            return parameters;
+        }
+        if (sql.regionMatches(true, 0, keyColumn + " IN (", 0, keyColumn.length() + 5) && sql.endsWith(")")
+                && sql.indexOf(')') == sql.length() - 1) {
+            return parameters;
+        }
+        return null;
+    }
+
+    private static String key(String tableName) {
+        return tableName.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,212 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Forward-only cursor over the rows of a query, reading one row at a time from the database.
+ * Column positions are resolved once when the cursor is opened, and the typed getters read
+ * INTEGER and REAL values as primitives. Closing the cursor closes its result set and statement.
+ */
+public class RowCursor implements AutoCloseable {
+    private final Statement stmt;
+    private final ResultSet rs;
+    private final ResultSetMetaData metaData;
+    private final List<String> columnNames;
+    private final Map<String, Integer> columnIndexes;
+    private boolean closed = false;
+
+    /**
+     * Maps the current row of a cursor to an object.
+     *
+     * @param <T> Type of the mapped row.
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(RowCursor row) throws SQLException;
+    }
+
+    /**
+     * Wraps an open result set, taking ownership of it and of the statement that produced it.
+     *
+     * @param stmt Statement that produced the result set, closed together with the cursor.
+     * @param rs   Result set to read rows from.
+     * @throws SQLException If the result set metadata cannot be read.
+     */
+    public RowCursor(Statement stmt, ResultSet rs) throws SQLException {
+        this.stmt = stmt;
+        this.rs = rs;
+
+        // Resolve column positions once instead of per cell
+        metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        List<String> names = new ArrayList<>(columnCount);
+        columnIndexes = new HashMap<>(columnCount * 2);
+        for (int i = 1; i <= columnCount; i++) {
+            String name = metaData.getColumnName(i);
+            names.add(name);
+            columnIndexes.putIfAbsent(name, i);
+        }
+        columnNames = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Moves to the next row, closing the cursor once the rows are exhausted.
+     *
+     * @return True if a row is available, false at the end of the rows.
+     * @throws SQLException If the next row cannot be read.
+     */
+    public boolean next() throws SQLException {
+        if (closed) {
+            return false;
+        }
+        if (rs.next()) {
+            Metrics.ROWS_READ.increment();
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    /** @return Column names in select order. */
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /** @return Number of columns in each row. */
+    public int getColumnCount() {
+        return columnNames.size();
+    }
+
+    /**
+     * Resolves a column name to its 1-based position. Resolve once and use the index-based getters in loops.
+     *
+     * @param columnName Name of the column.
+     * @return           1-based position of the column.
+     * @throws SQLException If the column is not part of the result.
+     */
+    public int columnIndex(String columnName) throws SQLException {
+        Integer index = columnIndexes.get(columnName);
+        if (index == null) {
+            throw new SQLException("No such column: " + columnName);
+        }
+        return index;
+    }
+
+    /** @return Value of the column as a primitive int, 0 for NULL. */
+    public int getInt(int columnIndex) throws SQLException {
+        return rs.getInt(columnIndex);
+    }
+
+    /** @return Value of the column as a primitive long, 0 for NULL. */
+    public long getLong(int columnIndex) throws SQLException {
+        return rs.getLong(columnIndex);
+    }
+
+    /** @return Value of the column as a primitive double, 0 for NULL. */
+    public double getDouble(int columnIndex) throws SQLException {
+        return rs.getDouble(columnIndex);
+    }
+
+    /** @return Value of the column as text, null for NULL. */
+    public String getString(int columnIndex) throws SQLException {
+        return rs.getString(columnIndex);
+    }
+
+    /** @return Value of the column as raw bytes, null for NULL. */
+    public byte[] getBytes(int columnIndex) throws SQLException {
+        return rs.getBytes(columnIndex);
+    }
+
+    /** @return Value of the column as the driver's natural Java type. */
+    public Object getObject(int columnIndex) throws SQLException {
+        return rs.getObject(columnIndex);
+    }
+
+    /** @return Value of the named column as a primitive long, 0 for NULL. */
+    public long getLong(String columnName) throws SQLException {
+        return rs.getLong(columnIndex(columnName));
+    }
+
+    /** @return Value of the named column as a primitive double, 0 for NULL. */
+    public double getDouble(String columnName) throws SQLException {
+        return rs.getDouble(columnIndex(columnName));
+    }
+
+    /** @return Value of the named column as text, null for NULL. */
+    public String getString(String columnName) throws SQLException {
+        return rs.getString(columnIndex(columnName));
+    }
+
+    /**
+     * Returns the type of the value in the current row. SQLite types values, not columns, so an INTEGER column
+     * may hold text; check the type before reading a value with a typed getter.
+     *
+     * @param columnIndex 1-based position of the column.
+     * @return            {@link java.sql.Types#INTEGER}, {@link java.sql.Types#FLOAT}, {@link java.sql.Types#VARCHAR},
+     *                    {@link java.sql.Types#BLOB} or {@link java.sql.Types#NULL}.
+     */
+    public int getValueType(int columnIndex) throws SQLException {
+        return metaData.getColumnType(columnIndex);
+    }
+
+    /** @return True if the last column read was NULL. */
+    public boolean wasNull() throws SQLException {
+        return rs.wasNull();
+    }
+
+    /**
+     * Returns the remaining rows as a lazy stream. The cursor is closed when the stream is exhausted
+     * or closed, so use it in a try-with-resources block if it may not be fully consumed.
+     *
+     * @param mapper Function mapping the current row to an element.
+     * @param <T>    Type of the stream elements.
+     * @return       Sequential stream of mapped rows.
+     */
+    public <T> Stream<T> stream(RowMapper<T> mapper) {
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!next()) {
+                        return false;
+                    }
+                    action.accept(mapper.map(RowCursor.this));
+                    return true;
+                } catch (SQLException e) {
+                    close();
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Closes the result set and statement. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            Log.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,531 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread-safe catalog of the tables in the database and of their column definitions.
+ * <p>
+ * The schema is held in immutable, versioned {@link Snapshot}s. Readers take the current snapshot without
+ * locking and can build SQL from it knowing it will not change underneath them; writers publish a new
+ * snapshot with a compare-and-set, so concurrent DDL never mutates a map another thread is iterating.
+ * Column definitions keep their declaration order.
+ * <p>
+ * Existence of tables is seeded from {@code sqlite_master} on first use and kept current by the SchemaDB
+ * DDL methods. When {@link #verifySchemaVersion} is on, every lookup compares {@code PRAGMA schema_version}
+ * with the seeded value and reseeds after schema changes made by other connections or processes.
+ * <p>
+ * The indexes of a table are read from the database on first request and cached until an index or the
+ * table changes.
+ */
+public class SchemaCatalog {
+    // Check PRAGMA schema_version on every lookup to notice DDL from other processes
+    public volatile boolean verifySchemaVersion = Boolean.getBoolean("schemaCatalog.verifySchemaVersion");
+
+    // Time spent reading the table list from the database, see Metrics
+    private static final Metrics.Operation SEED = Metrics.operation("catalog.seed");
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+    // Tables known to contain at least one row. Emptiness is never cached, since a stale "empty"
+    // answer would make SchemaDB skip an update or delete that should have run.
+    private final Set<String> filledTables = ConcurrentHashMap.newKeySet();
+    // Indexes by lower-cased table name, loaded on first request
+    private final Map<String, List<Index>> indexes = new ConcurrentHashMap<>();
+    private volatile boolean seeded = false;
+    private volatile int schemaVersion = -1;
+
+    /**
+     * Immutable view of the catalog at one version.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, Collections.emptyMap(), Collections.emptySet());
+
+        private final long version;
+        // Column definitions by lower-cased table name, each in declaration order
+        private final Map<String, Map<String, String>> definitions;
+        // Lower-cased names of the tables known to exist; SQLite table names are case-insensitive
+        private final Set<String> existing;
+
+        private Snapshot(long version, Map<String, Map<String, String>> definitions, Set<String> existing) {
+            this.version = version;
+            this.definitions = definitions;
+            this.existing = existing;
+        }
+
+        /** @return Version of this snapshot, increasing with every catalog change. */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @param tableName Name of the table.
+         * @return          Ordered, unmodifiable column definitions of the table, or null if it is not defined.
+         */
+        public Map<String, String> columns(String tableName) {
+            return definitions.get(key(tableName));
+        }
+
+        /**
+         * @param tableName Name of the table.
+         * @return          True if the table has column definitions.
+         */
+        public boolean isDefined(String tableName) {
+            return definitions.containsKey(key(tableName));
+        }
+
+        /**
+         * @param tableName Name of the table.
+         * @return          True if the table exists in the database.
+         */
+        public boolean exists(String tableName) {
+            return existing.contains(key(tableName));
+        }
+
+        /** @return Lower-cased names of every defined table. */
+        public Set<String> definedTables() {
+            return definitions.keySet();
+        }
+
+        @Override
+        public String toString() {
+            return "v" + version + " " + definitions;
+        }
+    }
+
+    /**
+     * An index of a table, as reported by {@code PRAGMA index_list} and {@code PRAGMA index_info}.
+     */
+    public static final class Index {
+        private final String name;
+        private final String tableName;
+        private final List<String> columns;
+        private final boolean unique;
+
+        Index(String name, String tableName, List<String> columns, boolean unique) {
+            this.name = name;
+            this.tableName = tableName;
+            this.columns = Collections.unmodifiableList(columns);
+            this.unique = unique;
+        }
+
+        /** @return Name of the index; SQLite names the indexes behind UNIQUE and PRIMARY KEY constraints sqlite_autoindex_*. */
+        public String getName() {
+            return name;
+        }
+
+        /** @return Name of the indexed table. */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /** @return Indexed columns, in index order. */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /** @return True if the index enforces uniqueness. */
+        public boolean isUnique() {
+            return unique;
+        }
+
+        /**
+         * @param prefix Columns a lookup filters on, in order.
+         * @return       True if the index starts with these columns, so it can serve the lookup.
+         */
+        public boolean startsWith(List<String> prefix) {
+            if (prefix.size() > columns.size()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.size(); i++) {
+                if (!columns.get(i).equalsIgnoreCase(prefix.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return name + (unique ? " UNIQUE" : "") + " ON " + tableName + " " + columns;
+        }
+    }
+
+    /** @return Current snapshot of the catalog. */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Returns the column definitions of a table from the current snapshot.
+     *
+     * @param tableName Name of the table.
+     * @return          Ordered, unmodifiable column definitions, or null if the table is not defined.
+     */
+    public Map<String, String> columns(String tableName) {
+        return current.get().columns(tableName);
+    }
+
+    /**
+     * @param tableName Name of the table.
+     * @return          True if the table has column definitions.
+     */
+    public boolean isDefined(String tableName) {
+        return current.get().isDefined(tableName);
+    }
+
+    /**
+     * Registers or replaces the column definitions of a table. The map is copied, keeping its iteration order.
+     *
+     * @param tableName Name of the table.
+     * @param columns   Column names mapped to their data types.
+     */
+    public void define(String tableName, Map<String, String> columns) {
+        Map<String, String> copy = Collections.unmodifiableMap(new LinkedHashMap<>(columns));
+        update(s -> with(s, s.definitions, defs -> defs.put(key(tableName), copy), s.existing, null));
+    }
+
+    /**
+     * Puts back column definitions read earlier with {@link #columns}, removing the table's definition if there
+     * was none.
+     *
+     * @param tableName Name of the table.
+     * @param columns   Column definitions to restore, or null.
+     */
+    public void restoreColumns(String tableName, Map<String, String> columns) {
+        if (columns != null) {
+            define(tableName, columns);
+        } else {
+            update(s -> with(s, s.definitions, defs -> defs.remove(key(tableName)), s.existing, null));
+        }
+    }
+
+    /**
+     * Adds a column at the end of a table's definition.
+     *
+     * @param tableName  Name of the table.
+     * @param columnName Name of the new column.
+     * @param columnType Data type of the new column.
+     */
+    public void addColumn(String tableName, String columnName, String columnType) {
+        alterColumns(tableName, columns -> {
+            columns.put(columnName, columnType);
+            return columns;
+        });
+    }
+
+    /**
+     * Removes a column from a table's definition.
+     *
+     * @param tableName  Name of the table.
+     * @param columnName Name of the column to remove.
+     */
+    public void dropColumn(String tableName, String columnName) {
+        alterColumns(tableName, columns -> {
+            columns.remove(columnName);
+            return columns;
+        });
+    }
+
+    /**
+     * Renames a column in a table's definition, keeping its position.
+     *
+     * @param tableName     Name of the table.
+     * @param oldColumnName Current name of the column.
+     * @param newColumnName New name of the column.
+     */
+    public void renameColumn(String tableName, String oldColumnName, String newColumnName) {
+        alterColumns(tableName, columns -> {
+            LinkedHashMap<String, String> renamed = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : columns.entrySet()) {
+                String name = entry.getKey().equals(oldColumnName) ? newColumnName : entry.getKey();
+                renamed.put(name, entry.getValue());
+            }
+            return renamed;
+        });
+    }
+
+    /**
+     * Checks if a table exists, seeding or revalidating the catalog first if needed.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table to check for existence.
+     * @return          True if the table exists.
+     * @throws SQLException If the catalog has to be read from the database and the query fails.
+     */
+    public boolean tableExists(Connection conn, String tableName) throws SQLException {
+        ensureCurrent(conn);
+        return current.get().exists(tableName);
+    }
+
+    /**
+     * Checks if a table is known to contain rows.
+     *
+     * @param tableName Name of the table.
+     * @return          True if the table is known to be filled, false if it is empty or unknown.
+     */
+    public boolean isKnownFilled(String tableName) {
+        return filledTables.contains(key(tableName));
+    }
+
+    /**
+     * Records that a table contains rows, after an insert or a successful emptiness check.
+     *
+     * @param tableName Name of the table.
+     */
+    public void markFilled(String tableName) {
+        filledTables.add(key(tableName));
+    }
+
+    /**
+     * Forgets whether a table contains rows, after rows were deleted from it.
+     *
+     * @param tableName Name of the table.
+     */
+    public void forgetFilled(String tableName) {
+        filledTables.remove(key(tableName));
+    }
+
+    /**
+     * Records a newly created table.
+     *
+     * @param conn      Connection the table was created on.
+     * @param tableName Name of the created table.
+     */
+    public void tableCreated(Connection conn, String tableName) {
+        update(s -> with(s, s.definitions, null, s.existing, names -> names.add(key(tableName))));
+        filledTables.remove(key(tableName));
+        schemaChanged(conn);
+    }
+
+    /**
+     * Records a dropped table and forgets its column definitions.
+     *
+     * @param conn      Connection the table was dropped on.
+     * @param tableName Name of the dropped table.
+     */
+    public void tableDropped(Connection conn, String tableName) {
+        update(s -> with(s, s.definitions, defs -> defs.remove(key(tableName)),
+                s.existing, names -> names.remove(key(tableName))));
+        filledTables.remove(key(tableName));
+        indexes.remove(key(tableName));
+        schemaChanged(conn);
+    }
+
+    /**
+     * Records a renamed table, moving its column definitions to the new name.
+     *
+     * @param conn         Connection the table was renamed on.
+     * @param oldTableName Previous name of the table.
+     * @param newTableName New name of the table.
+     */
+    public void tableRenamed(Connection conn, String oldTableName, String newTableName) {
+        update(s -> with(s, s.definitions, defs -> {
+            Map<String, String> columns = defs.remove(key(oldTableName));
+            if (columns != null) {
+                defs.put(key(newTableName), columns);
+            }
+        }, s.existing, names -> {
+            names.remove(key(oldTableName));
+            names.add(key(newTableName));
+        }));
+        if (filledTables.remove(key(oldTableName))) {
+            filledTables.add(key(newTableName));
+        }
+        indexes.remove(key(oldTableName));
+        schemaChanged(conn);
+    }
+
+    /**
+     * Records a change to the columns of a table. The set of tables is unchanged but the schema version moved on.
+     *
+     * @param conn      Connection the table was altered on.
+     * @param tableName Name of the altered table.
+     */
+    public void tableAltered(Connection conn, String tableName) {
+        // A rebuild recreates or drops the table's indexes
+        indexes.remove(key(tableName));
+        schemaChanged(conn);
+    }
+
+    /**
+     * Returns the indexes of a table, reading them from the database on first request.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table.
+     * @return          Unmodifiable list of the table's indexes, empty if it has none or does not exist.
+     * @throws SQLException If the index list cannot be read.
+     */
+    public List<Index> indexes(Connection conn, String tableName) throws SQLException {
+        List<Index> cached = indexes.get(key(tableName));
+        if (cached != null) {
+            return cached;
+        }
+        List<Index> loaded = Collections.unmodifiableList(readIndexes(conn, tableName));
+        indexes.put(key(tableName), loaded);
+        return loaded;
+    }
+
+    /**
+     * Records that an index was created on or dropped from a table, so its index list is read again.
+     *
+     * @param conn      Connection the index was changed on.
+     * @param tableName Name of the indexed table.
+     */
+    public void indexesChanged(Connection conn, String tableName) {
+        indexes.remove(key(tableName));
+        schemaChanged(conn);
+    }
+
+    /**
+     * Forgets which tables exist so the next lookup reseeds from the database. Column definitions are kept.
+     */
+    public void invalidate() {
+        seeded = false;
+    }
+
+    /**
+     * Reloads the names of existing tables from {@code sqlite_master}. Column definitions are kept;
+     * refresh them with {@link SchemaDB#updateTableMetadata(Connection, String)}.
+     *
+     * @param conn Connection object representing the database connection.
+     * @throws SQLException If the catalog query fails.
+     */
+    public synchronized void seed(Connection conn) throws SQLException {
+        long start = SEED.start();
+        Set<String> names = new HashSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'")) {
+            while (rs.next()) {
+                names.add(key(rs.getString(1)));
+            }
+            schemaVersion = readSchemaVersion(conn);
+        } catch (SQLException e) {
+            SEED.failed();
+            throw e;
+        } finally {
+            SEED.stop(start);
+        }
+        update(s -> with(s, s.definitions, null, names, null));
+        // Row counts and indexes may have changed while the catalog was stale
+        filledTables.clear();
+        indexes.clear();
+        seeded = true;
+    }
+
+    @Override
+    public String toString() {
+        return current.get().toString();
+    }
+
+    /**
+     * Publishes a new snapshot derived from the current one, retrying if another thread got there first.
+     */
+    private void update(UnaryOperator<Snapshot> change) {
+        current.updateAndGet(change);
+    }
+
+    /**
+     * Copies the parts of a snapshot that change, applies the edits and returns the next version.
+     */
+    private static Snapshot with(Snapshot s,
+                                 Map<String, Map<String, String>> definitions,
+                                 Consumer<Map<String, Map<String, String>>> editDefinitions,
+                                 Set<String> existing,
+                                 Consumer<Set<String>> editExisting) {
+        Map<String, Map<String, String>> defs = definitions;
+        if (editDefinitions != null) {
+            defs = new HashMap<>(definitions);
+            editDefinitions.accept(defs);
+            defs = Collections.unmodifiableMap(defs);
+        }
+        Set<String> names = existing;
+        if (editExisting != null) {
+            names = new HashSet<>(existing);
+            editExisting.accept(names);
+        }
+        if (names != s.existing) {
+            names = Collections.unmodifiableSet(names);
+        }
+        return new Snapshot(s.version + 1, defs, names);
+    }
+
+    private void alterColumns(String tableName, UnaryOperator<LinkedHashMap<String, String>> change) {
+        update(s -> with(s, s.definitions, defs -> {
+            Map<String, String> columns = defs.get(key(tableName));
+            if (columns != null) {
+                defs.put(key(tableName), Collections.unmodifiableMap(change.apply(new LinkedHashMap<>(columns))));
+            }
+        }, s.existing, null));
+    }
+
+    private void ensureCurrent(Connection conn) throws SQLException {
+        if (!seeded) {
+            seed(conn);
+        } else if (verifySchemaVersion && readSchemaVersion(conn) != schemaVersion) {
+            seed(conn);
+        }
+    }
+
+    private void schemaChanged(Connection conn) {
+        // Only track the version when it is being verified; otherwise skip the extra query
+        if (!verifySchemaVersion) {
+            return;
+        }
+        try {
+            schemaVersion = readSchemaVersion(conn);
+        } catch (SQLException e) {
+            // Force a reseed on the next lookup
+            seeded = false;
+        }
+    }
+
+    private static List<Index> readIndexes(Connection conn, String tableName) throws SQLException {
+        List<Index> result = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            // The driver returns no result set at all for a table without indexes
+            List<String[]> list = new ArrayList<>();
+            if (stmt.execute("PRAGMA index_list(" + tableName + ")")) {
+                try (ResultSet rs = stmt.getResultSet()) {
+                    while (rs.next()) {
+                        list.add(new String[]{rs.getString("name"), rs.getString("unique")});
+                    }
+                }
+            }
+            for (String[] entry : list) {
+                List<String> columns = new ArrayList<>();
+                if (stmt.execute("PRAGMA index_info(" + entry[0] + ")")) {
+                    try (ResultSet rs = stmt.getResultSet()) {
+                        while (rs.next()) {
+                            columns.add(rs.getString("name"));
+                        }
+                    }
+                }
+                result.add(new Index(entry[0], tableName, columns, "1".equals(entry[1])));
+            }
+        }
+        return result;
+    }
+
+    private static int readSchemaVersion(Connection conn) throws SQLException {
+        try (ResultSet rs = StatementCache.prepare(conn, "PRAGMA schema_version").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    private static String key(String tableName) {
+        return tableName.toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,77 +1,118 @@
 import java.sql.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Hashtable;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class SchemaDB {
-    // Defined Hashtable for table:{column: datatype}
-    public static Hashtable<String, Hashtable<String, String>> tables = new Hashtable<>();
+    // Schema catalog for table:{column: datatype}, plus cached table existence and emptiness
+    public static final SchemaCatalog catalog = new SchemaCatalog();
+
+    // Recommends indexes for the conditions that update and delete statements filter by
+    public static final IndexAdvisor indexAdvisor = new IndexAdvisor();
+
+    // Rows of hot lookup tables by key, kept up to date by the writes below
+    public static final RowCache rowCache = new RowCache();
+
+    // Storage of the customers' measurements for each cloth
+    public static final MeasurementStore measurements = new MeasurementStore();
+
+    // Totals of the work table per customer, cloth and due date, maintained by triggers
+    public static final WorkAggregates workAggregates = new WorkAggregates();
+
+    // Log of the row changes of captured tables, for replication to other stores
+    public static final ChangeFeed changeFeed = new ChangeFeed();
+
+    // Database URL shared by every SchemaDB connection
+    public static final String DB_URL = "jdbc:sqlite:Testing.db";
+
+    // Online backups and snapshots of the database, see Backup
+    public static final Backup backup = Backup.of(DB_URL);
+
+    // Timings and error counts of the operations below, see Metrics
+    private static final Metrics.Operation TABLE_EXISTS = Metrics.operation("tableExists");
+    private static final Metrics.Operation TABLE_FILLED = Metrics.operation("tableFilled");
+    private static final Metrics.Operation CREATE_TABLE = Metrics.operation("createTable");
+    private static final Metrics.Operation DELETE_TABLE = Metrics.operation("deleteTable");
+    private static final Metrics.Operation SELECT_COLUMNS = Metrics.operation("selectColumns");
+    private static final Metrics.Operation OPEN_CURSOR = Metrics.operation("openCursor");
+    private static final Metrics.Operation SELECT_PAGE = Metrics.operation("selectPage");
+    private static final Metrics.Operation SELECT_ROW = Metrics.operation("selectRow");
+    private static final Metrics.Operation INSERT_VALUES = Metrics.operation("insertValues");
+    private static final Metrics.Operation INSERT_VALUES_BATCH = Metrics.operation("insertValuesBatch");
+    private static final Metrics.Operation ADD_COLUMN = Metrics.operation("addColumn");
+    private static final Metrics.Operation DROP_COLUMN = Metrics.operation("dropColumn");
+    private static final Metrics.Operation UPDATE_TABLE = Metrics.operation("updateTable");
+    private static final Metrics.Operation DELETE_TUPLE = Metrics.operation("deleteTuple");
+    private static final Metrics.Operation RENAME_TABLE = Metrics.operation("renameTable");
+    private static final Metrics.Operation RENAME_COLUMN = Metrics.operation("renameColumn");
+    private static final Metrics.Operation UPDATE_TABLE_METADATA = Metrics.operation("updateTableMetadata");
+    private static final Metrics.Operation GET_MAX_ID = Metrics.operation("getMaxId");
+    private static final Metrics.Operation NEXT_ID = Metrics.operation("nextId");
+    private static final Metrics.Operation CREATE_INDEX = Metrics.operation("createIndex");
+    private static final Metrics.Operation DROP_INDEX = Metrics.operation("dropIndex");
+    private static final Metrics.Operation LIST_INDEXES = Metrics.operation("listIndexes");
 
     /**
-     * Establishes a connection to the SQLite database.
+     * Borrows a connection to the SQLite database from the shared connection pool.
+     * Closing the returned connection (see {@link #closeConnection(Connection)}) hands it back to the pool.
      *
      * @return Connection object representing the database connection.
      */
     public static Connection connect() {
-        Connection conn = null;
+        long start = Metrics.CONNECT.start();
         try {
-            // Load the JDBC driver for SQLite
-            Class.forName("org.sqlite.JDBC");
-
-            // Define the database URL
-            String url = "jdbc:sqlite:Testing.db";
-
-            // Establish connection to the database
-            conn = DriverManager.getConnection(url);
+            Connection conn = null;
+            try {
+                // Borrow a connection from the pool for the database URL
+                conn = ConnectionPool.forUrl(DB_URL).getConnection();
 
-            // Print connection establishment confirmation
-            System.out.println("Connection to SQLite Database has been established.\n");
-        } catch (SQLException e) {
-            // Handle SQL exceptions
-            System.out.println(e.getMessage());
-        } catch (Exception e) {
-            // Handle general exceptions
-            System.err.println(e.getClass().getName() + ": " + e.getMessage());
-            System.exit(0);
+                // Print connection establishment confirmation
+                Log.info("Connection to SQLite Database has been established.\n");
+            } catch (SQLException e) {
+                // Handle SQL exceptions
+                Metrics.CONNECT.failed();
+                Log.error(e.getMessage());
+            }
+            return conn;
+        } finally {
+            Metrics.CONNECT.stop(start);
         }
-        return conn;
     }
 
     /**
      * Checks if a table exists in the database.
+     * The answer comes from the schema catalog, which only queries the database when it is first seeded
+     * or, with schema version checks on, when another connection changed the schema.
      *
      * @param conn      Connection object representing the database connection.
      * @param tableName Name of the table to check for existence.
      * @return          True if the table exists, false otherwise.
      */
     public static boolean tableExists(Connection conn, String tableName) {
+        long start = TABLE_EXISTS.start();
         try {
-            // Get database metadata to retrieve table information
-            DatabaseMetaData meta = conn.getMetaData();
-
-            // Retrieve information about tables matching the specified name
-            ResultSet tables = meta.getTables(null, null, tableName, null);
-
-            // Check if the result set contains any rows (i.e., if the table exists)
-            boolean exists = tables.next();
-
-            // Close the result set to release resources
-            tables.close();
+            // Look the table up in the schema catalog
+            boolean exists = catalog.tableExists(conn, tableName);
 
             // Print a message if the table does not exist
             if (!exists) {
-                System.out.println(tableName + " table does not exist");
+                Log.info(tableName + " table does not exist");
             }
 
             // Return whether the table exists or not
             return exists;
         } catch (SQLException e) {
             // Handle SQL exceptions
-            System.err.println(e.getClass().getName() + ": " + e.getMessage());
+            TABLE_EXISTS.failed();
+            Log.error(e.getClass().getName() + ": " + e.getMessage());
             return false; // Return false in case of an exception
+        } finally {
+            TABLE_EXISTS.stop(start);
         }
     }
 
@@ -83,31 +124,42 @@ public class SchemaDB {
      * @return          True if the table has entries, false otherwise.
      */
     public static boolean tableFilled(Connection conn, String tableName) {
+        long start = TABLE_FILLED.start();
         try {
-            // Create a statement for executing SQL queries
-            Statement stmt = conn.createStatement();
+            // A table seen with rows stays filled until rows are deleted from it
+            if (catalog.isKnownFilled(tableName)) {
+                return true;
+            }
+            try {
+                // Reuse the cached statement for executing the query
+                PreparedStatement pstmt = StatementCache.prepare(conn, "SELECT * FROM " + tableName + " LIMIT 1");
 
-            // Execute a query to retrieve the first row from the table
-            ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName + " LIMIT 1");
+                // Execute a query to retrieve the first row from the table
+                ResultSet rs = executeQuery(pstmt);
 
-            // Check if the result set contains any rows (i.e., if the table is filled)
-            boolean exists = rs.next();
+                // Check if the result set contains any rows (i.e., if the table is filled)
+                boolean exists = rs.next();
 
-            // Close the statement and result set to release resources
-            stmt.close();
-            rs.close();
+                // Close the result set to release resources; the statement stays cached
+                rs.close();
 
-            // Print a message if the table does not have any entries
-            if (!exists) {
-                System.out.println(tableName + " does not have any entry");
-            }
+                // Print a message if the table does not have any entries
+                if (!exists) {
+                    Log.info(tableName + " does not have any entry");
+                } else {
+                    markFilled(conn, tableName);
+                }
 
-            // Return whether the table has entries or not
-            return exists;
-        } catch (SQLException e) {
-            // Handle SQL exceptions
-            System.err.println(e.getClass().getName() + ": " + e.getMessage());
-            return false; // Return false in case of an exception
+                // Return whether the table has entries or not
+                return exists;
+            } catch (SQLException e) {
+                // Handle SQL exceptions
+                TABLE_FILLED.failed();
+                Log.error(e.getClass().getName() + ": " + e.getMessage());
+                return false; // Return false in case of an exception
+            }
+        } finally {
+            TABLE_FILLED.stop(start);
         }
     }
 
@@ -116,67 +168,90 @@ public class SchemaDB {
      *
      * @param conn      Connection object representing the database connection.
      * @param tableName Name of the table to be created.
-     * @param columns   Hashtable containing column names and their corresponding data types.
+     * @param columns   Map containing column names and their corresponding data types, in column order.
      */
-    public static void createTable(Connection conn, String tableName, Hashtable<String, String> columns) {
-        if (!tableExists(conn, tableName)) {
-            // Construct SQL statement to create the table
-            StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS " + tableName + " ( ");
-            Enumeration<String> cols = columns.keys();
-            while (cols.hasMoreElements()) {
-                String col_name = cols.nextElement();
-                sql.append(col_name).append(" ").append(columns.get(col_name)).append(", ");
-            }
+    public static void createTable(Connection conn, String tableName, Map<String, String> columns) {
+        long start = CREATE_TABLE.start();
+        try {
+            if (!tableExists(conn, tableName)) {
+                // Construct SQL statement to create the table, keeping the declared column order
+                StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS " + tableName + " ( ");
+                for (Map.Entry<String, String> column : columns.entrySet()) {
+                    sql.append(column.getKey()).append(" ").append(column.getValue()).append(", ");
+                }
 
-            // Remove the trailing comma and space
-            sql.setLength(sql.length() - 2);
-            sql.append(")");
+                // Remove the trailing comma and space
+                sql.setLength(sql.length() - 2);
+                sql.append(")");
 
-            try {
-                // Create the table in the database
-                Statement stmt = conn.createStatement();
-                stmt.execute(sql.toString());
-                System.out.println(tableName + " table created");
-                stmt.close();
+                try {
+                    restoreCatalogOnRollback(conn, tableName);
 
-                // Add table metadata to the HashMap
-                tables.put(tableName, columns);
-                System.out.println("Table added to the HashMap");
+                    // Create the table in the database
+                    Statement stmt = conn.createStatement();
+                    stmt.execute(sql.toString());
+                    Log.info(tableName + " table created");
+                    stmt.close();
+                    catalog.tableCreated(conn, tableName);
 
-                // Update table metadata
-                updateTableMetadata(conn, tableName);
+                    // Add table metadata to the schema catalog
+                    catalog.define(tableName, columns);
+                    Log.info("Table added to the schema catalog");
 
-                System.out.println(tables.get(tableName)); // Print table metadata
-            } catch (SQLException e) {
-                System.out.println(e.getMessage());
+                    // Update table metadata
+                    updateTableMetadata(conn, tableName);
+
+                    Log.info(String.valueOf(catalog.columns(tableName))); // Print table metadata
+                } catch (SQLException e) {
+                    CREATE_TABLE.failed();
+                    Log.error(e.getMessage());
+                }
+            } else {
+                Log.info(tableName + " table already exists.");
             }
-        } else {
-            System.out.println(tableName + " table already exists.");
+        } finally {
+            CREATE_TABLE.stop(start);
         }
     }
 
     /**
-     * Deletes a table from the database and updates the Hashtable.
+     * Deletes a table from the database and updates the schema catalog.
      *
      * @param conn      Connection object representing the database connection.
      * @param tableName Name of the table to be deleted.
      */
     public static void deleteTable(Connection conn, String tableName) {
-        if (tableExists(conn, tableName)) {
-            String sql = "DROP TABLE IF EXISTS " + tableName;
-            try {
-                // Execute SQL to drop the table
-                Statement stmt = conn.createStatement();
-                stmt.executeUpdate(sql);
-                stmt.close();
-
-                // Remove the table entry from the Hashtable
-                tables.remove(tableName);
-                System.out.println(tableName + " table deleted from the database and Hashtable updated.");
-            } catch (SQLException e) {
-                // Handle SQL exceptions
-                System.out.println(e.getMessage());
+        long start = DELETE_TABLE.start();
+        try {
+            if (tableExists(conn, tableName)) {
+                String sql = "DROP TABLE IF EXISTS " + tableName;
+                try {
+                    // Drop cached statements on the table before it disappears
+                    StatementCache.invalidateTable(tableName);
+                    Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName));
+                    restoreCatalogOnRollback(conn, tableName);
+
+                    // Execute SQL to drop the table
+                    Statement stmt = conn.createStatement();
+                    stmt.executeUpdate(sql);
+                    stmt.close();
+                    // Remove the table entry from the schema catalog
+                    catalog.tableDropped(conn, tableName);
+                    Log.info(tableName + " table deleted from the database and schema catalog updated.");
+
+                    // The triggers went with the table; its totals would only go stale
+                    if (tableName.equalsIgnoreCase(WorkAggregates.WORK_TABLE)) {
+                        workAggregates.uninstall(conn);
+                    }
+                    changeFeed.release(conn, tableName);
+                } catch (SQLException e) {
+                    // Handle SQL exceptions
+                    DELETE_TABLE.failed();
+                    Log.error(e.getMessage());
+                }
             }
+        } finally {
+            DELETE_TABLE.stop(start);
         }
     }
 
@@ -189,127 +264,503 @@ public class SchemaDB {
      * @param columnNames  Optional: List of column names to select. If null or empty, selects all columns.
      */
     public static void selectColumns(Connection conn, String tableName, List<String> columnNames) {
-        if (tableExists(conn, tableName)) {
-            if (tableFilled(conn, tableName)) {
-                // Construct SQL query to select specified columns or all columns
-                StringBuilder sql = new StringBuilder("SELECT ");
-                if (columnNames == null || columnNames.isEmpty()) {
-                    sql.append("*"); // Select all columns
-                } else {
-                    // Select specified columns
-                    for (String columnName : columnNames) {
-                        sql.append(columnName).append(", ");
+        long start = SELECT_COLUMNS.start();
+        try {
+            if (tableExists(conn, tableName)) {
+                if (tableFilled(conn, tableName)) {
+                    // Construct SQL query to select specified columns or all columns
+                    StringBuilder sql = new StringBuilder("SELECT ");
+                    if (columnNames == null || columnNames.isEmpty()) {
+                        sql.append("*"); // Select all columns
+                    } else {
+                        // Select specified columns
+                        for (String columnName : columnNames) {
+                            sql.append(columnName).append(", ");
+                        }
+                        // Remove the trailing comma and space
+                        sql.setLength(sql.length() - 2);
                     }
-                    // Remove the trailing comma and space
-                    sql.setLength(sql.length() - 2);
-                }
-                sql.append(" FROM ").append(tableName);
+                    sql.append(" FROM ").append(tableName);
+
+                    try {
+                        PreparedStatement pstmt = StatementCache.prepare(conn, sql.toString());
+                        ResultSet rs = executeQuery(pstmt);
+
+                        // Retrieve column names if selecting all columns
+                        if (columnNames == null || columnNames.isEmpty()) {
+                            ResultSetMetaData metaData = rs.getMetaData();
+                            int columnCount = metaData.getColumnCount();
+                            columnNames = new ArrayList<>();
+                            for (int i = 1; i <= columnCount; i++) {
+                                columnNames.add(metaData.getColumnName(i));
+                            }
+                        }
 
-                try {
-                    Statement stmt = conn.createStatement();
-                    ResultSet rs = stmt.executeQuery(sql.toString());
+                        // Print column names
+                        boolean print = Log.isEnabled(Log.Level.INFO);
+                        StringBuilder line = new StringBuilder();
+                        if (print) {
+                            for (String columnName : columnNames) {
+                                line.append(columnName).append("\t");
+                            }
+                            Log.info("\n" + tableName + " :\n" + line);
+                        }
 
-                    // Retrieve column names if selecting all columns
-                    if (columnNames == null || columnNames.isEmpty()) {
-                        ResultSetMetaData metaData = rs.getMetaData();
-                        int columnCount = metaData.getColumnCount();
-                        columnNames = new ArrayList<>();
-                        for (int i = 1; i <= columnCount; i++) {
-                            columnNames.add(metaData.getColumnName(i));
+                        // Loop through the result set
+                        int columnCount = columnNames.size();
+                        long rowCount = 0;
+                        while (rs.next()) {
+                            rowCount++;
+                            if (!print) {
+                                continue; // Read the rows anyway, so the query costs the same with logging off
+                            }
+                            // Print each specified column value, by position since the select list follows columnNames
+                            line.setLength(0);
+                            for (int i = 1; i <= columnCount; i++) {
+                                String columnValue = rs.getString(i);
+                                line.append(columnValue).append("\t\t");
+                            }
+                            Log.info(line.toString());
                         }
+                        rs.close(); // Close the result set; the statement stays cached
+                        Metrics.ROWS_READ.add(rowCount);
+                        Log.info(""); // Empty line for better output readability
+                    } catch (SQLException e) {
+                        SELECT_COLUMNS.failed();
+                        Log.error(e.getMessage());
                     }
+                }
+            }
+        } finally {
+            SELECT_COLUMNS.stop(start);
+        }
+    }
 
-                    // Print column names
-                    System.out.println("\n" + tableName + " :");
-                    for (String columnName : columnNames) {
-                        System.out.print(columnName + "\t");
-                    }
-                    System.out.println(); // New line after printing column names
+    /**
+     * Opens a forward-only cursor over specified columns of a table, reading rows lazily from the database.
+     * If no column names are provided, selects all columns. The caller must close the cursor.
+     *
+     * @param conn        Connection object representing the database connection.
+     * @param tableName   Name of the table from which to select entries.
+     * @param columnNames Optional: List of column names to select. If null or empty, selects all columns.
+     * @param fetchSize   Number of rows the driver should fetch at a time, 0 for the driver default.
+     * @return            Cursor positioned before the first row.
+     * @throws SQLException If the table does not exist or the query fails.
+     */
+    public static RowCursor openCursor(Connection conn, String tableName, List<String> columnNames, int fetchSize)
+            throws SQLException {
+        long start = OPEN_CURSOR.start();
+        try {
+            if (!tableExists(conn, tableName)) {
+                throw new SQLException(tableName + " table does not exist");
+            }
+            // Construct SQL query to select specified columns or all columns
+            StringBuilder sql = new StringBuilder("SELECT ");
+            if (columnNames == null || columnNames.isEmpty()) {
+                sql.append("*");
+            } else {
+                sql.append(String.join(", ", columnNames));
+            }
+            sql.append(" FROM ").append(tableName);
 
-                    // Loop through the result set
+            // The cursor owns its statement, so it is not taken from the statement cache
+            PreparedStatement pstmt = conn.prepareStatement(sql.toString());
+            try {
+                pstmt.setFetchSize(fetchSize);
+                return new RowCursor(pstmt, executeQuery(pstmt));
+            } catch (SQLException e) {
+                pstmt.close();
+                throw e;
+            }
+        } finally {
+            OPEN_CURSOR.stop(start);
+        }
+    }
+
+    /**
+     * Streams specified columns of a table as mapped rows without holding the table in memory.
+     * The statement is closed when the stream is exhausted or closed.
+     *
+     * @param conn        Connection object representing the database connection.
+     * @param tableName   Name of the table from which to select entries.
+     * @param columnNames Optional: List of column names to select. If null or empty, selects all columns.
+     * @param fetchSize   Number of rows the driver should fetch at a time, 0 for the driver default.
+     * @param mapper      Function mapping each row to a stream element.
+     * @param <T>         Type of the stream elements.
+     * @return            Lazy stream of mapped rows.
+     * @throws SQLException If the table does not exist or the query fails.
+     */
+    public static <T> Stream<T> streamColumns(Connection conn, String tableName, List<String> columnNames, int fetchSize,
+                                              RowCursor.RowMapper<T> mapper) throws SQLException {
+        return openCursor(conn, tableName, columnNames, fetchSize).stream(mapper);
+    }
+
+    /**
+     * Selects one page of rows from a table in sort key order, using keyset pagination: the cursor token of
+     * the previous page says where its last row was, and this page seeks directly past it. With an index on
+     * the sort column every page costs the same, however deep it is; {@link #indexAdvisor} records pages
+     * that scan instead. Rows with the same sort key are ordered by rowid, so none is skipped or repeated.
+     *
+     * @param conn        Connection object representing the database connection.
+     * @param tableName   Name of the table from which to select rows.
+     * @param columnNames Optional: List of column names to select. If null or empty, selects all columns.
+     * @param sortColumn  Column to sort by, ascending; {@code rowid} for insertion order.
+     * @param pageSize    Maximum number of rows in the page.
+     * @param cursor      Token from {@link Page#getNextCursor()} of the previous page, or null for the first page.
+     * @return            The page, with the token for the next page if there are more rows.
+     * @throws SQLException If the table does not exist or the query fails.
+     * @throws IllegalArgumentException If the cursor was not made by this method for the same sort column.
+     */
+    public static Page selectPage(Connection conn, String tableName, List<String> columnNames, String sortColumn,
+                                  int pageSize, String cursor) throws SQLException {
+        long start = SELECT_PAGE.start();
+        try {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+            }
+            if (!tableExists(conn, tableName)) {
+                throw new SQLException(tableName + " table does not exist");
+            }
+            boolean byRowid = sortColumn.equalsIgnoreCase("rowid");
+            String sortKey = Condition.identifier(sortColumn);
+
+            // Seek past the last row of the previous page
+            Condition where = null;
+            if (cursor != null) {
+                Page.Position after = Page.Position.decode(cursor, sortColumn);
+                Condition nextRowid = Condition.gt("rowid", after.rowid);
+                if (byRowid) {
+                    where = nextRowid;
+                } else if (after.sortValue == null) {
+                    // NULLs sort first, so the rest are the remaining NULLs and then every non-NULL value
+                    where = Condition.anyOf(Condition.isNull(sortKey).and(nextRowid), Condition.isNotNull(sortKey));
+                } else {
+                    // The >= bound lets SQLite seek the index; the OR only filters rows with the same key
+                    where = Condition.ge(sortKey, after.sortValue)
+                            .and(Condition.anyOf(Condition.gt(sortKey, after.sortValue), nextRowid));
+                }
+            }
+
+            // The row's rowid and sort key come first, to build the next cursor from
+            StringBuilder sql = new StringBuilder("SELECT rowid, ").append(sortKey).append(", ");
+            if (columnNames == null || columnNames.isEmpty()) {
+                sql.append("*");
+            } else {
+                for (int i = 0; i < columnNames.size(); i++) {
+                    sql.append(i > 0 ? ", " : "").append(Condition.identifier(columnNames.get(i)));
+                }
+            }
+            sql.append(" FROM ").append(Condition.identifier(tableName));
+            if (where != null) {
+                sql.append(" WHERE ").append(where.getSql());
+            }
+            sql.append(" ORDER BY ").append(byRowid ? "rowid" : sortKey + ", rowid").append(" LIMIT ?");
+            if (where != null) {
+                indexAdvisor.record(conn, tableName, sql.toString(), where);
+            }
+
+            PreparedStatement pstmt = StatementCache.prepare(conn, sql.toString());
+            List<Map<String, Object>> rows = new ArrayList<>(pageSize);
+            List<String> names = new ArrayList<>();
+            Page.Position last = null;
+            boolean more = false;
+            try {
+                int index = where != null ? where.bind(pstmt, 1) : 1;
+                // One row more than the page tells whether there is a next page
+                pstmt.setInt(index, pageSize + 1);
+                try (ResultSet rs = executeQuery(pstmt)) {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    for (int i = 3; i <= metaData.getColumnCount(); i++) {
+                        names.add(metaData.getColumnName(i));
+                    }
                     while (rs.next()) {
-                        // Print each specified column value
-                        for (String columnName : columnNames) {
-                            String columnValue = rs.getString(columnName);
-                            System.out.print(columnValue + "\t\t");
+                        if (rows.size() == pageSize) {
+                            more = true;
+                            break;
                         }
-                        System.out.println(); // New line after printing all columns for a row
+                        Map<String, Object> row = new LinkedHashMap<>();
+                        for (int i = 0; i < names.size(); i++) {
+                            row.put(names.get(i), rs.getObject(i + 3));
+                        }
+                        rows.add(row);
+                        last = new Page.Position(sortColumn, rs.getObject(2), rs.getLong(1));
                     }
-                    stmt.close(); // Close the statement
-                    System.out.println(); // Empty line for better output readability
-                } catch (SQLException e) {
-                    System.out.println(e.getMessage());
                 }
+            } catch (SQLException e) {
+                StatementCache.discard(conn, sql.toString());
+                throw e;
             }
+            Metrics.ROWS_READ.add(rows.size());
+            return new Page(names, rows, more ? last.encode() : null);
+        } catch (SQLException | RuntimeException e) {
+            SELECT_PAGE.failed();
+            throw e;
+        } finally {
+            SELECT_PAGE.stop(start);
+        }
+    }
+
+    /**
+     * Selects the row of a table with the given key. For tables configured in {@link #rowCache} and looked up
+     * by their cache key column, the row comes from memory when it was read recently; otherwise it is read
+     * through a cached prepared statement and, for a cached table, kept for the next lookup. Inside a
+     * {@link Transaction} the row is always read from the database, so the transaction sees its own writes.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table to read.
+     * @param keyColumn Column holding the key, such as {@code cloth_id}.
+     * @param key       Key of the row.
+     * @return          Unmodifiable map of column names to values in column order, or null if no row has the key.
+     *                  If several rows share the key, the one inserted first.
+     * @throws SQLException If the table does not exist or the query fails.
+     */
+    public static Map<String, Object> selectRow(Connection conn, String tableName, String keyColumn, Object key)
+            throws SQLException {
+        long start = SELECT_ROW.start();
+        try {
+            RowCache.Region region = rowCache.region(tableName);
+            if (region != null && !region.getKeyColumn().equalsIgnoreCase(keyColumn)) {
+                region = null; // Cached by another column
+            } else if (region != null && Transaction.isActive(conn)) {
+                region = null; // The transaction's own writes are not committed, nor are they in the cache
+            }
+            long generation = 0;
+            if (region != null) {
+                Map<String, Object> cached = region.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+                // Taken before the read, so a write that lands meanwhile keeps the row out of the cache
+                generation = region.generation();
+            }
+            if (!tableExists(conn, tableName)) {
+                throw new SQLException(tableName + " table does not exist");
+            }
+
+            String sql = "SELECT * FROM " + Condition.identifier(tableName) + " WHERE "
+                    + Condition.identifier(keyColumn) + " = ? ORDER BY rowid LIMIT 1";
+            Map<String, Object> row = null;
+            PreparedStatement pstmt = StatementCache.prepare(conn, sql);
+            try {
+                pstmt.setObject(1, key);
+                try (ResultSet rs = executeQuery(pstmt)) {
+                    if (rs.next()) {
+                        ResultSetMetaData metaData = rs.getMetaData();
+                        row = new LinkedHashMap<>();
+                        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                            row.put(metaData.getColumnName(i), rs.getObject(i));
+                        }
+                        row = Collections.unmodifiableMap(row);
+                    }
+                }
+            } catch (SQLException e) {
+                StatementCache.discard(conn, sql);
+                throw e;
+            }
+            if (row != null) {
+                Metrics.ROWS_READ.increment();
+                if (region != null) {
+                    region.put(key, row, generation);
+                }
+            }
+            return row;
+        } catch (SQLException | RuntimeException e) {
+            SELECT_ROW.failed();
+            throw e;
+        } finally {
+            SELECT_ROW.stop(start);
         }
     }
 
     /**
      * Inserts values into the specified table in the database.
-     * if it is the "cloths" table, it will also create a new table with the name provided in the "cloth_name" value.
+     * If it is the "cloths" table, it also prepares the storage of the cloth's measurements, see {@link MeasurementStore}.
      *
      * @param conn      Connection object representing the database connection.
      * @param tableName Name of the table to insert values into.
      * @param values    Hashtable containing column names and their corresponding values to be inserted.
      */
     public static void insertValues(Connection conn, String tableName, Hashtable<String, Object> values) {
-        // Check if the table exists
-        if (tableExists(conn, tableName)) {
-            // Construct the SQL INSERT statement
-            StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " (");
-            StringBuilder placeholders = new StringBuilder("VALUES (");
-            Enumeration<String> keys = values.keys();
-
-            // Build the column names and placeholders for values dynamically
-            while (keys.hasMoreElements()) {
-                String key = keys.nextElement();
-                sql.append(key).append(",");
-                placeholders.append("?,");
-            }
-            // Remove the trailing comma
-            sql.setLength(sql.length() - 1);
-            placeholders.setLength(placeholders.length() - 1);
-
-            // Closing parentheses for the SQL statement
-            sql.append(") ");
-            placeholders.append(")");
-
-            // Combine SQL statement and placeholders
-            sql.append(placeholders);
+        long start = INSERT_VALUES.start();
+        try {
+            // Check if the table exists
+            if (tableExists(conn, tableName)) {
+                try {
+                    // Insert the row through the cached prepared statement for this column set
+                    insertRow(conn, tableName, values);
+                    Log.info("Values inserted into " + tableName + " table.");
 
-            try {
-                // Create a prepared statement
-                PreparedStatement pstmt = conn.prepareStatement(sql.toString());
-                int index = 1;
-                Enumeration<Object> elements = values.elements();
-                // Bind values to placeholders
-                while (elements.hasMoreElements()) {
-                    Object value = elements.nextElement();
-                    pstmt.setObject(index, value);
-                    index++;
+                    // Check if the table is "cloths" to create a new table with cloth_name
+                    createClothTable(conn, tableName, values);
+                } catch (SQLException e) {
+                    INSERT_VALUES.failed();
+                    Log.error(e.getMessage()); // Handle SQL exceptions
                 }
-                // Execute the SQL INSERT statement
-                pstmt.executeUpdate();
-                System.out.println("Values inserted into " + tableName + " table.");
-                pstmt.close(); // Close the prepared statement
+            } else {
+                Log.info(tableName + " table does not exist.");
+            }
+        } finally {
+            INSERT_VALUES.stop(start);
+        }
+    }
 
-                // Check if the table is "cloths" to create a new table with cloth_name
-                try {
-                    if (tableName.equals("cloths")) {
-                        // Get the value of "cloth_name"
-                        String clothName = values.get("cloth_name").toString();
-                        // Create a new table with the cloth_name as table name
-                        createTable(conn, clothName, tables.get(clothName));
+    /**
+     * Inserts many rows into the specified table using batched prepared statements.
+     * Rows are committed in chunks of {@code chunkSize}, each inside its own transaction. Within a chunk,
+     * rows are grouped by column set and every group is sent as one JDBC batch through a cached statement.
+     * A chunk that fails is rolled back and reported in the result; the remaining chunks are still loaded.
+     * Inside a {@link Transaction}, each chunk is a nested scope instead and commits with the enclosing one.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table to insert values into.
+     * @param rows      Rows to insert, each mapping column names to values.
+     * @param chunkSize Number of rows committed per transaction.
+     * @return          Number of rows inserted and the chunks that failed.
+     */
+    public static BatchInsertResult insertValuesBatch(Connection conn, String tableName,
+                                                      Iterator<? extends Map<String, Object>> rows, int chunkSize) {
+        long start = INSERT_VALUES_BATCH.start();
+        try {
+            BatchInsertResult result = new BatchInsertResult();
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+            }
+            // Check if the table exists
+            if (!tableExists(conn, tableName)) {
+                Log.info(tableName + " table does not exist.");
+                return result;
+            }
+
+            List<Map<String, Object>> chunk = new ArrayList<>(chunkSize);
+            int chunkIndex = 0;
+            long firstRow = 0;
+            while (rows.hasNext()) {
+                chunk.add(rows.next());
+                if (chunk.size() == chunkSize || !rows.hasNext()) {
+                    insertChunk(conn, tableName, chunk, chunkIndex, firstRow, result);
+                    firstRow += chunk.size();
+                    chunkIndex++;
+                    chunk.clear();
+                }
+            }
+            Log.info(result.getRowsInserted() + " values inserted into " + tableName + " table.");
+            return result;
+        } finally {
+            INSERT_VALUES_BATCH.stop(start);
+        }
+    }
+
+    /**
+     * Inserts many rows into the specified table using batched prepared statements.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table to insert values into.
+     * @param rows      Rows to insert, each mapping column names to values.
+     * @param chunkSize Number of rows committed per transaction.
+     * @return          Number of rows inserted and the chunks that failed.
+     * @see #insertValuesBatch(Connection, String, Iterator, int)
+     */
+    public static BatchInsertResult insertValuesBatch(Connection conn, String tableName,
+                                                      Iterable<? extends Map<String, Object>> rows, int chunkSize) {
+        return insertValuesBatch(conn, tableName, rows.iterator(), chunkSize);
+    }
+
+    /**
+     * Inserts many rows into the specified table using batched prepared statements.
+     * The stream is consumed lazily, so it may be larger than memory.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table to insert values into.
+     * @param rows      Rows to insert, each mapping column names to values.
+     * @param chunkSize Number of rows committed per transaction.
+     * @return          Number of rows inserted and the chunks that failed.
+     * @see #insertValuesBatch(Connection, String, Iterator, int)
+     */
+    public static BatchInsertResult insertValuesBatch(Connection conn, String tableName,
+                                                      Stream<? extends Map<String, Object>> rows, int chunkSize) {
+        return insertValuesBatch(conn, tableName, rows.iterator(), chunkSize);
+    }
+
+    /**
+     * Inserts one chunk of rows in its own transaction scope, recording the outcome in the result.
+     */
+    private static void insertChunk(Connection conn, String tableName, List<Map<String, Object>> chunk,
+                                    int chunkIndex, long firstRow, BatchInsertResult result) {
+        // Group rows sharing the same column set so each group reuses one statement
+        Map<List<String>, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> row : chunk) {
+            List<String> columns = new ArrayList<>(row.keySet());
+            Collections.sort(columns);
+            groups.computeIfAbsent(columns, k -> new ArrayList<>()).add(row);
+        }
+
+        try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE)) {
+            for (Map.Entry<List<String>, List<Map<String, Object>>> group : groups.entrySet()) {
+                List<String> columns = group.getKey();
+
+                // Construct the SQL INSERT statement for this column set
+                StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " (");
+                StringBuilder placeholders = new StringBuilder("VALUES (");
+                for (String column : columns) {
+                    sql.append(column).append(",");
+                    placeholders.append("?,");
+                }
+                sql.setLength(sql.length() - 1);
+                placeholders.setLength(placeholders.length() - 1);
+                sql.append(") ").append(placeholders).append(")");
+
+                // Bind every row of the group and send them as one batch
+                PreparedStatement pstmt = StatementCache.prepare(conn, sql.toString());
+                for (Map<String, Object> row : group.getValue()) {
+                    for (int i = 0; i < columns.size(); i++) {
+                        pstmt.setObject(i + 1, row.get(columns.get(i)));
                     }
-                } catch (Exception ex) {
-                    // Print any exceptions that occur during table creation
-                    System.out.println(ex.getMessage());
+                    pstmt.addBatch();
                 }
-            } catch (SQLException e) {
-                System.out.println(e.getMessage()); // Handle SQL exceptions
+                executeBatch(pstmt);
             }
-        } else {
-            System.out.println(tableName + " table does not exist.");
+            tx.commit();
+            result.chunkCommitted(chunk.size());
+            Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName));
+            Metrics.ROWS_WRITTEN.add(chunk.size());
+            markFilled(conn, tableName);
+        } catch (SQLException e) {
+            // The chunk alone was rolled back on leaving its scope; carry on with the next one
+            result.chunkFailed(chunkIndex, firstRow, chunk.size(), e.getMessage());
+            Log.warn("Chunk " + chunkIndex + " of " + tableName + " rolled back: " + e.getMessage());
+            return;
+        }
+
+        // New cloths get their measurement tables once their rows are committed
+        if (tableName.equals("cloths")) {
+            for (Map<String, Object> row : chunk) {
+                createClothTable(conn, tableName, row);
+            }
+        }
+    }
+
+    /**
+     * Prepares the storage of a cloth's measurements when a row is inserted into the "cloths" table: the shared
+     * measurement table, or in {@link MeasurementStore.Mode#TABLE_PER_CLOTH} mode a table named after the cloth.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table the row was inserted into.
+     * @param values    Column values of the inserted row.
+     */
+    static void createClothTable(Connection conn, String tableName, Map<String, Object> values) {
+        try {
+            if (tableName.equals("cloths") && measurements.mode == MeasurementStore.Mode.SINGLE_TABLE) {
+                // Every cloth shares the measurement table
+                measurements.createTables(conn);
+            } else if (tableName.equals("cloths")) {
+                // Get the value of "cloth_name"
+                String clothName = values.get("cloth_name").toString();
+                // Create a new table with the cloth_name as table name
+                createTable(conn, clothName, catalog.columns(clothName));
+            }
+        } catch (Exception ex) {
+            // Print any exceptions that occur during table creation
+            Log.error(ex.getMessage());
         }
     }
 
@@ -322,80 +773,80 @@ public class SchemaDB {
      * @param columnType  Data type of the new column.
      */
     public static void addColumn(Connection conn, String tableName, String columnName, String columnType) {
-        // Check if the table exists
-        if (tableExists(conn, tableName)) {
-            // Construct the SQL ALTER TABLE statement to add the column
-            String sql = "ALTER TABLE " + tableName + " ADD COLUMN " + columnName + " " + columnType;
-            try {
-                // Execute the SQL statement
-                Statement stmt = conn.createStatement();
-                stmt.execute(sql);
-                System.out.println("Added column " + columnName + " to " + tableName + " table");
-                stmt.close(); // Close the statement
-
-                // Update Hashtable with the new column
-                if (tables.containsKey(tableName)) {
-                    Hashtable<String, String> columns = tables.get(tableName);
-                    columns.put(columnName, columnType);
-                    tables.put(tableName, columns);
+        long start = ADD_COLUMN.start();
+        try {
+            // Check if the table exists
+            if (tableExists(conn, tableName)) {
+                // Construct the SQL ALTER TABLE statement to add the column
+                String sql = "ALTER TABLE " + tableName + " ADD COLUMN " + columnName + " " + columnType;
+                try {
+                    // Cached statements on the table must not outlive its old shape
+                    StatementCache.invalidateTable(tableName);
+                    Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName));
+                    restoreCatalogOnRollback(conn, tableName);
+
+                    // Execute the SQL statement
+                    Statement stmt = conn.createStatement();
+                    stmt.execute(sql);
+                    Log.info("Added column " + columnName + " to " + tableName + " table");
+                    stmt.close(); // Close the statement
+                    catalog.tableAltered(conn, tableName);
+
+                    // Update the schema catalog with the new column
+                    catalog.addColumn(tableName, columnName, columnType);
+
+                    // Log the new column's values too
+                    workAggregates.tableAltered(conn, tableName);
+                    changeFeed.tableAltered(conn, tableName);
+                } catch (SQLException e) {
+                    ADD_COLUMN.failed();
+                    Log.error(e.getMessage()); // Handle SQL exceptions
                 }
-            } catch (SQLException e) {
-                System.out.println(e.getMessage()); // Handle SQL exceptions
             }
+        } finally {
+            ADD_COLUMN.stop(start);
         }
     }
 
     /**
      * Drops a column from the specified table in the database.
+     * Uses SQLite's native DROP COLUMN when available, otherwise rebuilds the table in a single transactional copy
+     * that keeps the primary key, column order and the indexes not on the dropped column (see {@link AlterTable}).
      *
      * @param conn       Connection object representing the database connection.
      * @param tableName  Name of the table from which to drop the column.
      * @param columnName Name of the column to be dropped.
      */
     public static void dropColumn(Connection conn, String tableName, String columnName) {
-        try {
-            // Create a temporary table name
-            String tempTableName = tableName + "_temp";
-
-            // Create temporary table with desired columns
-            String createTempTableSQL = "CREATE TABLE " + tempTableName + " AS SELECT * FROM " + tableName;
-            Statement stmt = conn.createStatement();
-            stmt.execute(createTempTableSQL);
-
-            // Drop original table
-            String dropOriginalTableSQL = "DROP TABLE " + tableName;
-            stmt.execute(dropOriginalTableSQL);
-
-            // Recreate original table without the dropped column
-            // Assuming the rest of the columns are already defined in the Hashtable
-            StringBuilder recreateTableSQL = new StringBuilder("CREATE TABLE " + tableName + " AS SELECT ");
-            Hashtable<String, String> columns = tables.get(tableName);
-
-            Iterator<Map.Entry<String, String>> iterator = columns.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, String> entry = iterator.next();
-                String col = entry.getKey();
-                if (!col.equals(columnName)) {
-                    recreateTableSQL.append(col).append(", ");
-                } else {
-                    // Remove the column from the Hashtable
-                    iterator.remove();
-                }
+        long start = DROP_COLUMN.start();
+        // The table, its catalog entry and its capture triggers change together or not at all
+        try (Transaction tx = Transaction.begin(conn)) {
+            // Cached statements on the table must not outlive its old shape
+            StatementCache.invalidateTable(tableName);
+            Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName));
+            restoreCatalogOnRollback(conn, tableName);
+
+            // Drop the column in place, or rebuild the table without it
+            workAggregates.checkAlter(conn, tableName, columnName);
+            changeFeed.tableAltering(conn, tableName);
+            AlterTable.dropColumn(conn, tableName, columnName);
+            Log.info("Dropped column " + columnName + " from table " + tableName);
+
+            // Remove the column from the schema catalog
+            if (catalog.isDefined(tableName)) {
+                catalog.dropColumn(tableName, columnName);
+            } else {
+                updateTableMetadata(conn, tableName);
             }
-            // Remove the trailing comma and space
-            recreateTableSQL = new StringBuilder(recreateTableSQL.substring(0, recreateTableSQL.length() - 2));
-            recreateTableSQL.append(" FROM ").append(tempTableName);
-            stmt.execute(recreateTableSQL.toString());
-
-            // Drop the temporary table
-            String dropTempTableSQL = "DROP TABLE " + tempTableName;
-            stmt.execute(dropTempTableSQL);
-
-            System.out.println("Dropped column " + columnName + " from table " + tableName);
-
-            stmt.close();
+            catalog.tableAltered(conn, tableName);
+            workAggregates.tableAltered(conn, tableName);
+            changeFeed.tableAltered(conn, tableName);
+            tx.commit();
         } catch (SQLException e) {
-            System.out.println(e.getMessage()); // Handle SQL exceptions
+            DROP_COLUMN.failed();
+            Log.error(e.getMessage()); // Handle SQL exceptions
+        } finally {
+            DROP_COLUMN.stop(start);
         }
     }
 
@@ -407,26 +858,70 @@ public class SchemaDB {
      * @param columnName     Name of the column to update.
      * @param setValue       New value to set in the specified column.
      * @param whereCondition Condition to filter the rows to be updated.
+     * @see #updateTable(Connection, String, Assignments, Condition)
      */
     public static void updateTable(Connection conn, String tableName, String columnName, String setValue, String whereCondition) {
-        // Check if the table exists
-        if (tableExists(conn, tableName)) {
-            // Check if the table is filled with data
-            if (tableFilled(conn, tableName)) {
-                // Construct the SQL UPDATE statement
-                String sql = "UPDATE " + tableName + " SET " + columnName + " = " + setValue + " WHERE " + whereCondition;
-                System.out.println(sql); // Print the generated SQL statement for debugging
-
-                try {
-                    // Execute the SQL UPDATE statement
-                    Statement stmt = conn.createStatement();
-                    stmt.execute(sql);
-                    System.out.println(tableName + " table updated");
-                    stmt.close(); // Close the statement
-                } catch (SQLException e) {
-                    System.out.println(e.getMessage()); // Handle SQL exceptions
+        long start = UPDATE_TABLE.start();
+        try {
+            // Check if the table exists
+            if (tableExists(conn, tableName)) {
+                // Check if the table is filled with data
+                if (tableFilled(conn, tableName)) {
+                    // Construct the SQL UPDATE statement
+                    String sql = "UPDATE " + tableName + " SET " + columnName + " = " + setValue + " WHERE " + whereCondition;
+                    Log.debug(sql); // Print the generated SQL statement for debugging
+
+                    try {
+                        // Execute the SQL UPDATE statement
+                        executeSql(conn, sql);
+                        Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName));
+                        Log.info(tableName + " table updated");
+                    } catch (SQLException e) {
+                        UPDATE_TABLE.failed();
+                        Log.error(e.getMessage()); // Handle SQL exceptions
+                    }
                 }
             }
+        } finally {
+            UPDATE_TABLE.stop(start);
+        }
+    }
+
+    /**
+     * Updates the rows of the specified table matching a condition, through a cached prepared statement.
+     * Values are bound as parameters, so updates that differ only in their values share one statement.
+     *
+     * @param conn        Connection object representing the database connection.
+     * @param tableName   Name of the table to update.
+     * @param assignments Columns to set and their new values.
+     * @param where       Condition to filter the rows to be updated.
+     * @return            Number of rows updated, or -1 if an error occurs.
+     */
+    public static int updateTable(Connection conn, String tableName, Assignments assignments, Condition where) {
+        long start = UPDATE_TABLE.start();
+        try {
+            if (assignments.isEmpty()) {
+                throw new IllegalArgumentException("No column to update");
+            }
+            // Check if the table exists
+            if (!tableExists(conn, tableName)) {
+                Log.info(tableName + " table does not exist.");
+                return 0;
+            }
+            String sql = updateSql(tableName, assignments, where);
+            Log.debug(sql + " " + assignments.getParameters() + " " + where.getParameters());
+            indexAdvisor.record(conn, tableName, sql, where);
+
+            int updated = executeSql(conn, sql, assignments, where);
+            Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName, assignments, where));
+            Log.info(tableName + " table updated");
+            return updated;
+        } catch (SQLException e) {
+            UPDATE_TABLE.failed();
+            Log.error(e.getMessage()); // Handle SQL exceptions
+            return -1;
+        } finally {
+            UPDATE_TABLE.stop(start);
         }
     }
 
@@ -436,25 +931,69 @@ public class SchemaDB {
      * @param conn           Connection object representing the database connection.
      * @param tableName      Name of the table from which to delete tuple(s).
      * @param whereCondition Condition to filter the tuple(s) to be deleted.
+     * @see #deleteTuple(Connection, String, Condition)
      */
     public static void deleteTuple(Connection conn, String tableName, String whereCondition) {
-        // Check if the table exists
-        if (tableExists(conn, tableName)) {
-            // Check if the table is filled with data
-            if (tableFilled(conn, tableName)) {
-                // Construct the SQL DELETE statement
-                String sql = "DELETE FROM " + tableName + " WHERE " + whereCondition;
-
-                try {
-                    // Execute the SQL DELETE statement
-                    Statement stmt = conn.createStatement();
-                    stmt.execute(sql);
-                    System.out.println("Tuple(s) deleted from " + tableName + " table");
-                    stmt.close(); // Close the statement
-                } catch (SQLException e) {
-                    System.out.println(e.getMessage()); // Handle SQL exceptions
+        long start = DELETE_TUPLE.start();
+        try {
+            // Check if the table exists
+            if (tableExists(conn, tableName)) {
+                // Check if the table is filled with data
+                if (tableFilled(conn, tableName)) {
+                    // Construct the SQL DELETE statement
+                    String sql = "DELETE FROM " + tableName + " WHERE " + whereCondition;
+
+                    try {
+                        // Execute the SQL DELETE statement
+                        executeSql(conn, sql);
+                        Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName));
+                        Log.info("Tuple(s) deleted from " + tableName + " table");
+                        // The table may be empty now
+                        catalog.forgetFilled(tableName);
+                    } catch (SQLException e) {
+                        DELETE_TUPLE.failed();
+                        Log.error(e.getMessage()); // Handle SQL exceptions
+                    }
                 }
             }
+        } finally {
+            DELETE_TUPLE.stop(start);
+        }
+    }
+
+    /**
+     * Deletes the rows of the specified table matching a condition, through a cached prepared statement.
+     * Values are bound as parameters, so deletes that differ only in their values share one statement.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table from which to delete tuple(s).
+     * @param where     Condition to filter the tuple(s) to be deleted.
+     * @return          Number of rows deleted, or -1 if an error occurs.
+     */
+    public static int deleteTuple(Connection conn, String tableName, Condition where) {
+        long start = DELETE_TUPLE.start();
+        try {
+            // Check if the table exists
+            if (!tableExists(conn, tableName)) {
+                Log.info(tableName + " table does not exist.");
+                return 0;
+            }
+            String sql = deleteSql(tableName, where);
+            indexAdvisor.record(conn, tableName, sql, where);
+            int deleted = executeSql(conn, sql, null, where);
+            Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName, null, where));
+            Log.info("Tuple(s) deleted from " + tableName + " table");
+            if (deleted > 0) {
+                // The table may be empty now
+                catalog.forgetFilled(tableName);
+            }
+            return deleted;
+        } catch (SQLException e) {
+            DELETE_TUPLE.failed();
+            Log.error(e.getMessage()); // Handle SQL exceptions
+            return -1;
+        } finally {
+            DELETE_TUPLE.stop(start);
         }
     }
 
@@ -466,36 +1005,52 @@ public class SchemaDB {
      * @param newTableName New name for the table.
      */
     public static void renameTable(Connection conn, String oldTableName, String newTableName) {
-        // Check if the old table exists
-        if (tableExists(conn, oldTableName)) {
-            String sql = "ALTER TABLE " + oldTableName + " RENAME TO " + newTableName;
-            try {
-                Statement stmt = conn.createStatement();
-                stmt.execute(sql);
-                System.out.println(oldTableName + " table renamed to " + newTableName);
-                stmt.close();
-
-                // Update Hashtable entry
-                if (tables.containsKey(oldTableName)) {
-                    // Remove the old entry and add a new one with the updated table name
-                    Hashtable<String, String> columns = tables.remove(oldTableName);
-                    tables.put(newTableName, columns);
-                    System.out.println("Hashtable entry updated: " + oldTableName + " renamed to " + newTableName);
-                } else {
-                    // If there's no Hashtable entry for the old table, update metadata for the new table
-                    System.out.println("No Hashtable entry found for table " + oldTableName);
-                    updateTableMetadata(conn, newTableName);
+        long start = RENAME_TABLE.start();
+        try {
+            // Check if the old table exists
+            if (tableExists(conn, oldTableName)) {
+                String sql = "ALTER TABLE " + oldTableName + " RENAME TO " + newTableName;
+                try {
+                    // Cached statements still name the old table
+                    StatementCache.invalidateTable(oldTableName);
+                    Transaction.afterCompletion(conn, () -> rowCache.invalidate(oldTableName));
+                    restoreCatalogOnRollback(conn, oldTableName, newTableName);
+
+                    Statement stmt = conn.createStatement();
+                    stmt.execute(sql);
+                    Log.info(oldTableName + " table renamed to " + newTableName);
+                    stmt.close();
+
+                    // Update schema catalog entry
+                    if (catalog.isDefined(oldTableName)) {
+                        // Move the column definitions over to the new table name
+                        catalog.tableRenamed(conn, oldTableName, newTableName);
+                        Log.info("Schema catalog entry updated: " + oldTableName + " renamed to " + newTableName);
+                    } else {
+                        // If there's no catalog entry for the old table, update metadata for the new table
+                        catalog.tableRenamed(conn, oldTableName, newTableName);
+                        Log.info("No schema catalog entry found for table " + oldTableName);
+                        updateTableMetadata(conn, newTableName);
+                    }
+
+                    // Log the table's changes under its new name
+                    changeFeed.tableRenamed(conn, oldTableName, newTableName);
+                } catch (SQLException e) {
+                    RENAME_TABLE.failed();
+                    Log.error(e.getMessage()); // Handle SQL exceptions
                 }
-            } catch (SQLException e) {
-                System.out.println(e.getMessage()); // Handle SQL exceptions
+            } else {
+                Log.info(oldTableName + " table does not exist");
             }
-        } else {
-            System.out.println(oldTableName + " table does not exist");
+        } finally {
+            RENAME_TABLE.stop(start);
         }
     }
 
     /**
      * Renames a column in the specified table of the database.
+     * Uses SQLite's native RENAME COLUMN when available, otherwise rebuilds the table in a single transactional copy
+     * that keeps the primary key, column order and indexes (see {@link AlterTable}).
      *
      * @param conn          Connection object representing the database connection.
      * @param tableName     Name of the table containing the column to be renamed.
@@ -503,75 +1058,170 @@ public class SchemaDB {
      * @param newColumnName New name for the column.
      */
     public static void renameColumn(Connection conn, String tableName, String oldColumnName, String newColumnName) {
-        try {
-            // Create a temporary table name
-            String tempTableName = tableName + "_temp";
-
-            // Update table metadata to ensure the column information is up-to-date
-            updateTableMetadata(conn, tableName);
-
-            // Create temporary table with the new column name and copy data
-            StringBuilder createTempTableSQL = new StringBuilder("CREATE TABLE " + tempTableName + " AS SELECT ");
-            Hashtable<String, String> columns = tables.get(tableName);
-            for (String col : columns.keySet()) {
-                if (!col.equals(oldColumnName)) {
-                    createTempTableSQL.append(col).append(", ");
-                } else {
-                    // Rename the column as part of the SELECT statement
-                    createTempTableSQL.append(oldColumnName).append(" AS \"").append(newColumnName).append("\", ");
-                }
+        long start = RENAME_COLUMN.start();
+        // The table, its catalog entry and its capture triggers change together or not at all
+        try (Transaction tx = Transaction.begin(conn)) {
+            // Cached statements on the table must not outlive its old shape
+            StatementCache.invalidateTable(tableName);
+            Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName));
+            restoreCatalogOnRollback(conn, tableName);
+
+            // Rename the column in place, or rebuild the table with the new name
+            workAggregates.checkAlter(conn, tableName, oldColumnName);
+            changeFeed.tableAltering(conn, tableName);
+            AlterTable.renameColumn(conn, tableName, oldColumnName, newColumnName);
+            Log.info("Column " + oldColumnName + " renamed to " + newColumnName + " in table " + tableName);
+
+            // Rename the column in the schema catalog, keeping its position
+            if (catalog.isDefined(tableName)) {
+                catalog.renameColumn(tableName, oldColumnName, newColumnName);
+            } else {
+                updateTableMetadata(conn, tableName);
             }
-            // Remove the trailing comma and space
-            createTempTableSQL = new StringBuilder(createTempTableSQL.substring(0, createTempTableSQL.length() - 2));
-            createTempTableSQL.append(" FROM ").append(tableName);
-
-            Statement stmt = conn.createStatement();
-            stmt.execute(createTempTableSQL.toString());
-
-            // Drop the original table
-            String dropOriginalTableSQL = "DROP TABLE " + tableName;
-            stmt.execute(dropOriginalTableSQL);
-
-            // Rename the temporary table to the original table name
-            String renameTableSQL = "ALTER TABLE " + tempTableName + " RENAME TO " + tableName;
-            stmt.execute(renameTableSQL);
+            catalog.tableAltered(conn, tableName);
+            workAggregates.tableAltered(conn, tableName);
+            changeFeed.tableAltered(conn, tableName);
+            tx.commit();
+            Log.info(String.valueOf(catalog.columns(tableName))); // Print updated table metadata
+        } catch (SQLException e) {
+            RENAME_COLUMN.failed();
+            Log.error(e.getMessage()); // Handle SQL exceptions
+        } finally {
+            RENAME_COLUMN.stop(start);
+        }
+    }
 
-            System.out.println("Column " + oldColumnName + " renamed to " + newColumnName + " in table " + tableName);
+    /**
+     * Creates an index on the specified columns of a table, unless one with the same name exists.
+     * The index is named {@code <table>_<columns>_idx}, or {@code <table>_<columns>_unique} for a unique one.
+     *
+     * @param conn        Connection object representing the database connection.
+     * @param tableName   Name of the table to index.
+     * @param columnNames Columns to index, in order: equality lookups first, then at most one range column.
+     * @param unique      True to also enforce that no two rows have the same values in these columns.
+     * @return            True if the index exists afterwards.
+     */
+    public static boolean createIndex(Connection conn, String tableName, List<String> columnNames, boolean unique) {
+        long start = CREATE_INDEX.start();
+        try {
+            if (!tableExists(conn, tableName)) {
+                Log.info(tableName + " table does not exist.");
+                return false;
+            }
+            StringBuilder columns = new StringBuilder();
+            for (String columnName : columnNames) {
+                columns.append(columns.length() > 0 ? ", " : "").append(Condition.identifier(columnName));
+            }
+            String indexName = indexName(tableName, columnNames, unique);
+            String sql = "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + indexName
+                    + " ON " + Condition.identifier(tableName) + " (" + columns + ")";
+            restoreCatalogOnRollback(conn, tableName);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(sql);
+            }
+            Log.info("Index " + indexName + " created on " + tableName + " table.");
+            // Cached statements on the table re-prepare so their plans can use the index
+            StatementCache.invalidateTable(tableName);
+            catalog.indexesChanged(conn, tableName);
+            indexAdvisor.forget(tableName);
+            return true;
+        } catch (SQLException e) {
+            CREATE_INDEX.failed();
+            Log.error(e.getMessage());
+            return false;
+        } finally {
+            CREATE_INDEX.stop(start);
+        }
+    }
 
-            // Update table metadata after renaming
-            updateTableMetadata(conn, tableName);
-            System.out.println("Updated metadata for table: " + tableName);
-            System.out.println(tables.get(tableName)); // Print updated table metadata
+    /**
+     * Drops an index.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param indexName Name of the index to drop.
+     */
+    public static void dropIndex(Connection conn, String indexName) {
+        long start = DROP_INDEX.start();
+        try (PreparedStatement lookup = conn.prepareStatement(
+                "SELECT tbl_name FROM sqlite_master WHERE type = 'index' AND name = ?")) {
+            // Find the indexed table, whose statements and cached index list are affected
+            lookup.setString(1, indexName);
+            String tableName;
+            try (ResultSet rs = lookup.executeQuery()) {
+                tableName = rs.next() ? rs.getString(1) : null;
+            }
+            if (tableName == null) {
+                Log.info("Index " + indexName + " does not exist.");
+                return;
+            }
+            StatementCache.invalidateTable(tableName);
+            restoreCatalogOnRollback(conn, tableName);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP INDEX " + Condition.identifier(indexName));
+            }
+            catalog.indexesChanged(conn, tableName);
+            indexAdvisor.forget(tableName);
+            Log.info("Index " + indexName + " dropped from " + tableName + " table.");
+        } catch (SQLException e) {
+            DROP_INDEX.failed();
+            Log.error(e.getMessage());
+        } finally {
+            DROP_INDEX.stop(start);
+        }
+    }
 
-            stmt.close();
+    /**
+     * Lists the indexes of a table through the schema catalog.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table.
+     * @return          Indexes of the table, empty if it has none, does not exist or an error occurs.
+     */
+    public static List<SchemaCatalog.Index> listIndexes(Connection conn, String tableName) {
+        long start = LIST_INDEXES.start();
+        try {
+            return catalog.indexes(conn, tableName);
         } catch (SQLException e) {
-            System.out.println(e.getMessage()); // Handle SQL exceptions
+            LIST_INDEXES.failed();
+            Log.error(e.getMessage());
+            return Collections.emptyList();
+        } finally {
+            LIST_INDEXES.stop(start);
         }
     }
 
     /**
-     * Closes the database connection.
+     * @return Name given to an index by {@link #createIndex}.
+     */
+    static String indexName(String tableName, List<String> columnNames, boolean unique) {
+        return tableName + "_" + String.join("_", columnNames) + (unique ? "_unique" : "_idx");
+    }
+
+    /**
+     * Closes the database connection, returning pooled connections to their pool.
      *
      * @param conn Connection object representing the database connection to be closed.
      */
     public static void closeConnection(Connection conn) {
         try {
             if (conn != null) {
+                StatementCache.release(conn); // Unpooled connections drop their cached statements
                 conn.close(); // Close the connection
-                System.out.println("\nDatabase connection closed..."); // Print confirmation message
+                Log.info("\nDatabase connection closed..."); // Print confirmation message
             }
         } catch (SQLException ex) {
-            System.out.println(ex.getMessage()); // Handle SQL exceptions
+            Log.error(ex.getMessage()); // Handle SQL exceptions
         }
     }
 
     /**
-     * Updates the metadata of a table in the tables Hashtable based on the actual columns in the database table.
+     * Updates the metadata of a table in the schema catalog based on the actual columns in the database table.
      *
      * @param conn      Connection object representing the database connection.
      * @param tableName Name of the table whose metadata is to be updated.
      */
     public static void updateTableMetadata(Connection conn, String tableName) {
+        long start = UPDATE_TABLE_METADATA.start();
         try {
             // Retrieve database metadata
             DatabaseMetaData metaData = conn.getMetaData();
@@ -579,28 +1229,31 @@ public class SchemaDB {
             // Retrieve information about the columns in the specified table
             ResultSet rs = metaData.getColumns(null, null, tableName, null);
 
-            // Create a Hashtable to store column names and data types
-            Hashtable<String, String> columns = new Hashtable<>();
+            // Create an ordered map to store column names and data types
+            Map<String, String> columns = new LinkedHashMap<>();
             while (rs.next()) {
                 // Extract column name and data type from the ResultSet
                 String columnName = rs.getString("COLUMN_NAME");
                 String dataType = rs.getString("TYPE_NAME");
 
-                // Put column name and data type into the Hashtable
+                // Put column name and data type into the map, in table order
                 columns.put(columnName, dataType);
             }
 
-            // Update the tables Hashtable with the new column information
-            tables.put(tableName, columns);
+            // Publish the new column information in the schema catalog
+            catalog.define(tableName, columns);
 
             // Print confirmation message
-            System.out.println("Table metadata updated for table: " + tableName);
+            Log.info("Table metadata updated for table: " + tableName);
 
             // Close the ResultSet
             rs.close();
         } catch (SQLException e) {
             // Handle SQL exceptions
-            System.out.println(e.getMessage());
+            UPDATE_TABLE_METADATA.failed();
+            Log.error(e.getMessage());
+        } finally {
+            UPDATE_TABLE_METADATA.stop(start);
         }
     }
 
@@ -608,6 +1261,7 @@ public class SchemaDB {
      * Retrieves the maximum value from the specified column in the given table.
      * If the table is empty or an error occurs during execution,
      * returns 0 as the maximum value.
+     * This scans the whole table and is not safe for allocating ids concurrently; see {@link #nextId}.
      *
      * @param conn       The Connection object for the database.
      * @param tableName  The name of the table from which to retrieve the maximum value.
@@ -615,48 +1269,261 @@ public class SchemaDB {
      * @return The maximum value present in the specified column of the table, or 0 if the table is empty or an error occurs.
      */
     public static int getMaxId(Connection conn, String tableName, String columnName) {
-        // Initialize maxId to 0
-        int maxId = 0;
+        long start = GET_MAX_ID.start();
         try {
-            // Create a statement object
-            Statement stmt = conn.createStatement();
-            // Execute query to get the maximum ID from the table
-            ResultSet rs = stmt.executeQuery("SELECT MAX(cast("+columnName+" as integer)) as max_id FROM " + tableName);
-            // Check if the result set has data
-            if (rs.next()) {
-                // Retrieve the maximum value from the result set
-                maxId = rs.getInt("max_id");
-            }
-            // Close the result set and statement objects
-            rs.close();
-            stmt.close();
+            // Initialize maxId to 0
+            int maxId = 0;
+            try {
+                // Reuse the cached statement object
+                PreparedStatement pstmt = StatementCache.prepare(conn, "SELECT MAX(cast("+columnName+" as integer)) as max_id FROM " + tableName);
+                // Execute query to get the maximum ID from the table
+                ResultSet rs = executeQuery(pstmt);
+                // Check if the result set has data
+                if (rs.next()) {
+                    // Retrieve the maximum value from the result set
+                    maxId = rs.getInt("max_id");
+                }
+                // Close the result set; the statement stays cached
+                rs.close();
+            } catch (SQLException e) {
+                // Print any SQL exceptions that occur
+                GET_MAX_ID.failed();
+                Log.error(e.getMessage());
+            }
+            // Return the maximum ID
+            return maxId;
+        } finally {
+            GET_MAX_ID.stop(start);
+        }
+    }
+
+    /**
+     * Allocates the next id for the specified column of the given table without scanning the table.
+     * Ids are reserved in blocks through the {@code id_sequences} table, so they stay unique across
+     * threads and processes sharing the database file. Use this instead of {@code getMaxId(...) + 1}.
+     * Inside a {@link Transaction} scope, new blocks are reserved in the scope and roll back with it.
+     *
+     * @param conn       The Connection object for the database.
+     * @param tableName  The name of the table the id is for.
+     * @param columnName The name of the id column.
+     * @return The next unused id, or -1 if an error occurs.
+     */
+    public static long nextId(Connection conn, String tableName, String columnName) {
+        long start = NEXT_ID.start();
+        try {
+            // Allocate from the allocator of the database this connection points at
+            return IdAllocator.forUrl(conn.getMetaData().getURL()).nextId(conn, tableName, columnName);
         } catch (SQLException e) {
             // Print any SQL exceptions that occur
-            System.out.println(e.getMessage());
+            NEXT_ID.failed();
+            Log.error(e.getMessage());
+            return -1;
+        } finally {
+            NEXT_ID.stop(start);
+        }
+    }
+
+    /**
+     * Inserts one row through the cached prepared statement for its column set, without checks or messages.
+     * Errors are thrown rather than printed, so callers such as {@link WriteQueue} can roll the row back.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the table to insert the row into.
+     * @param values    Column names mapped to the values of the row.
+     * @throws SQLException If the row cannot be inserted.
+     */
+    static void insertRow(Connection conn, String tableName, Map<String, Object> values) throws SQLException {
+        // Build the column names and placeholders for values dynamically
+        StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " (");
+        StringBuilder placeholders = new StringBuilder("VALUES (");
+        List<Object> bound = new ArrayList<>(values.size());
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            sql.append(value.getKey()).append(",");
+            placeholders.append("?,");
+            bound.add(value.getValue());
+        }
+        // Remove the trailing commas and combine SQL statement and placeholders
+        sql.setLength(sql.length() - 1);
+        placeholders.setLength(placeholders.length() - 1);
+        sql.append(") ").append(placeholders).append(")");
+
+        // Reuse the cached prepared statement for this column set
+        PreparedStatement pstmt = StatementCache.prepare(conn, sql.toString());
+        try {
+            for (int i = 0; i < bound.size(); i++) {
+                pstmt.setObject(i + 1, bound.get(i));
+            }
+            executeUpdate(pstmt);
+        } catch (SQLException e) {
+            StatementCache.discard(conn, sql.toString());
+            throw e;
+        }
+        Metrics.ROWS_WRITTEN.increment();
+        markFilled(conn, tableName);
+        Transaction.afterCompletion(conn, () -> rowCache.invalidate(tableName, values));
+    }
+
+    /**
+     * Executes an UPDATE or DELETE with its values written into the SQL, without checks or messages. Such SQL is
+     * rarely run twice, so it goes through a plain statement rather than taking a place in the statement cache.
+     *
+     * @param conn Connection object representing the database connection.
+     * @param sql  SQL text of the statement.
+     * @return     Number of rows changed.
+     * @throws SQLException If the statement fails.
+     */
+    static int executeSql(Connection conn, String sql) throws SQLException {
+        int changed;
+        long start = Metrics.STATEMENT_EXECUTE.start();
+        try (Statement stmt = conn.createStatement()) {
+            changed = stmt.executeUpdate(sql);
+        } catch (SQLException e) {
+            Metrics.STATEMENT_EXECUTE.failed();
+            throw e;
+        } finally {
+            Metrics.STATEMENT_EXECUTE.stop(start);
+        }
+        Metrics.ROWS_WRITTEN.add(changed);
+        return changed;
+    }
+
+    /**
+     * Executes an UPDATE or DELETE with placeholders through the statement cache, without checks or messages.
+     *
+     * @param conn        Connection object representing the database connection.
+     * @param sql         SQL text of the statement, with the SET placeholders before the WHERE ones.
+     * @param assignments Values of the SET placeholders, or null if there are none.
+     * @param where       Values of the WHERE placeholders, or null if there are none.
+     * @return            Number of rows changed.
+     * @throws SQLException If the statement fails.
+     */
+    static int executeSql(Connection conn, String sql, Assignments assignments, Condition where) throws SQLException {
+        int changed;
+        try {
+            PreparedStatement pstmt = StatementCache.prepare(conn, sql);
+            int index = 1;
+            if (assignments != null) {
+                index = assignments.bind(pstmt, index);
+            }
+            if (where != null) {
+                where.bind(pstmt, index);
+            }
+            changed = executeUpdate(pstmt);
+        } catch (SQLException e) {
+            StatementCache.discard(conn, sql);
+            throw e;
+        }
+        Metrics.ROWS_WRITTEN.add(changed);
+        return changed;
+    }
+
+    /**
+     * @return SQL of an UPDATE with placeholders; the shape depends only on the columns and predicates.
+     */
+    static String updateSql(String tableName, Assignments assignments, Condition where) {
+        return "UPDATE " + Condition.identifier(tableName) + " SET " + assignments.getSql() + " WHERE " + where.getSql();
+    }
+
+    /**
+     * @return SQL of a DELETE with placeholders; the shape depends only on the predicates.
+     */
+    static String deleteSql(String tableName, Condition where) {
+        return "DELETE FROM " + Condition.identifier(tableName) + " WHERE " + where.getSql();
+    }
+
+    /**
+     * Executes a query, timing it as a statement execution.
+     */
+    private static ResultSet executeQuery(PreparedStatement pstmt) throws SQLException {
+        long start = Metrics.STATEMENT_EXECUTE.start();
+        try {
+            return pstmt.executeQuery();
+        } catch (SQLException e) {
+            Metrics.STATEMENT_EXECUTE.failed();
+            throw e;
+        } finally {
+            Metrics.STATEMENT_EXECUTE.stop(start);
         }
-        // Return the maximum ID
-        return maxId;
     }
 
     /**
-     * Creates a Hashtable representing the columns and their data types for the "cloths" table.
+     * Executes an insert, update or delete, timing it as a statement execution.
+     */
+    private static int executeUpdate(PreparedStatement pstmt) throws SQLException {
+        long start = Metrics.STATEMENT_EXECUTE.start();
+        try {
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            Metrics.STATEMENT_EXECUTE.failed();
+            throw e;
+        } finally {
+            Metrics.STATEMENT_EXECUTE.stop(start);
+        }
+    }
+
+    /**
+     * Executes a batch, timing it as one statement execution.
+     */
+    private static int[] executeBatch(PreparedStatement pstmt) throws SQLException {
+        long start = Metrics.STATEMENT_EXECUTE.start();
+        try {
+            return pstmt.executeBatch();
+        } catch (SQLException e) {
+            Metrics.STATEMENT_EXECUTE.failed();
+            throw e;
+        } finally {
+            Metrics.STATEMENT_EXECUTE.stop(start);
+        }
+    }
+
+    /**
+     * Records that a table has rows. The rows may have been written in a scope that still rolls back, and the
+     * catalog forgets them again if it does.
+     */
+    private static void markFilled(Connection conn, String tableName) {
+        if (!catalog.isKnownFilled(tableName)) {
+            catalog.markFilled(tableName);
+            Transaction.afterRollback(conn, () -> catalog.forgetFilled(tableName));
+        }
+    }
+
+    /**
+     * Sets the catalog entries of the tables back if the scope the coming DDL runs in rolls back: the column
+     * definitions as they are now, and which tables exist and their indexes as read again from the database.
+     */
+    private static void restoreCatalogOnRollback(Connection conn, String... tableNames) {
+        if (!Transaction.isActive(conn)) {
+            return;
+        }
+        Map<String, Map<String, String>> definitions = new LinkedHashMap<>();
+        for (String tableName : tableNames) {
+            definitions.put(tableName, catalog.columns(tableName));
+        }
+        Transaction.afterRollback(conn, () -> {
+            definitions.forEach(catalog::restoreColumns);
+            catalog.invalidate();
+        });
+    }
+
+    /**
+     * Creates an ordered map representing the columns and their data types for the "cloths" table.
      *
-     * @return Hashtable containing column names as keys and their corresponding data types as values.
+     * @return Map containing column names as keys and their corresponding data types as values, in column order.
      */
-    public static Hashtable<String, String> createClothsTable() {
-        Hashtable<String, String> columns = new Hashtable<>();
+    public static Map<String, String> createClothsTable() {
+        Map<String, String> columns = new LinkedHashMap<>();
         columns.put("cloth_id", "INTEGER");
         columns.put("cloth_name", "TEXT");
         return columns;
     }
 
     /**
-     * Creates a Hashtable representing the columns and their data types for the "customer" table.
+     * Creates an ordered map representing the columns and their data types for the "customer" table.
      *
-     * @return Hashtable containing column names as keys and their corresponding data types as values.
+     * @return Map containing column names as keys and their corresponding data types as values, in column order.
      */
-    public static Hashtable<String, String> createCustomerTable() {
-        Hashtable<String, String> columns = new Hashtable<>();
+    public static Map<String, String> createCustomerTable() {
+        Map<String, String> columns = new LinkedHashMap<>();
         columns.put("customer_id", "INTEGER");
         columns.put("customer_name", "TEXT");
         columns.put("phone_no", "INTEGER");
@@ -665,12 +1532,12 @@ public class SchemaDB {
     }
 
     /**
-     * Creates a Hashtable representing the columns and their data types for the "work" table.
+     * Creates an ordered map representing the columns and their data types for the "work" table.
      *
-     * @return Hashtable containing column names as keys and their corresponding data types as values.
+     * @return Map containing column names as keys and their corresponding data types as values, in column order.
      */
-    public static Hashtable<String, String> createWorkTable() {
-        Hashtable<String, String> columns = new Hashtable<>();
+    public static Map<String, String> createWorkTable() {
+        Map<String, String> columns = new LinkedHashMap<>();
         columns.put("work_id", "INTEGER");
         columns.put("customer_id", "INTEGER");
         columns.put("cloth_id", "INTEGER");
@@ -684,22 +1551,70 @@ public class SchemaDB {
         return columns;
     }
 
+    /**
+     * Creates a list of the indexes for the "work" table: one per foreign key, so the work of a customer
+     * or of a cloth is found without scanning every order.
+     *
+     * @return A list of the indexed columns of each index.
+     */
+    public static List<List<String>> createWorkIndexes() {
+        List<List<String>> indexes = new ArrayList<>();
+        indexes.add(List.of("customer_id"));
+        indexes.add(List.of("cloth_id"));
+        return indexes;
+    }
+
+    /**
+     * Adds what the application relies on besides the tables: the indexes of the "work" table, its totals
+     * (see {@link WorkAggregates}) and change capture of the three tables (see {@link ChangeFeed}).
+     * Running it again changes nothing. From the command line: {@code java SchemaDB setup}.
+     *
+     * @param conn Connection object representing the database connection.
+     */
+    public static void setup(Connection conn) {
+        for (List<String> indexColumns : createWorkIndexes()) {
+            createIndex(conn, "work", indexColumns, false);
+        }
+        try {
+            // Keep the per-customer, per-cloth and per-due-date totals of the work table
+            workAggregates.install(conn);
+
+            // Log every change of the three tables for the reporting and search copies
+            changeFeed.capture(conn, "cloths", "cloth_id");
+            changeFeed.capture(conn, "customer", "customer_id");
+            changeFeed.capture(conn, "work", "work_id");
+        } catch (SQLException e) {
+            Log.error(e.getMessage());
+        }
+    }
+
     public static void main(String[] args) {
-        // Populate tables Hashtable with predefined tables and columns
-        tables.put("cloths", createClothsTable());
-        tables.put("customer", createCustomerTable());
-        tables.put("work", createWorkTable());
+        // Populate the schema catalog with predefined tables and columns
+        catalog.define("cloths", createClothsTable());
+        catalog.define("customer", createCustomerTable());
+        catalog.define("work", createWorkTable());
 
-        // Print the contents of the 'tables' Hashtable
-        System.out.println(tables);
+        // Print the contents of the schema catalog
+        System.out.println(catalog);
 
         // Establish a connection to the SQLite database
         Connection conn = connect();
 
-        // Create the tables in the database using the columns defined in the Hashtable
-        createTable(conn, "cloths", tables.get("cloths"));
-        createTable(conn, "customer", tables.get("customer"));
-        createTable(conn, "work", tables.get("work"));
+        // Create the tables in the database using the columns defined in the schema catalog
+        createTable(conn, "cloths", catalog.columns("cloths"));
+        createTable(conn, "customer", catalog.columns("customer"));
+        createTable(conn, "work", catalog.columns("work"));
+
+        // Indexes, totals and change capture stay in the database, so only add them when asked to
+        if (args.length > 0) {
+            if (args[0].equals("setup")) {
+                setup(conn);
+            } else {
+                System.out.println("Usage: java SchemaDB [setup]");
+            }
+            closeConnection(conn);
+            return;
+        }
 
         // Retrieve and display all columns from the 'cloths' table
         selectColumns(conn, "cloths", null);
@@ -0,0 +1,336 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * LRU cache of prepared statements belonging to one physical connection, keyed by normalized SQL text.
+ * Statements handed out by the cache stay open and must not be closed by the caller; evicting an entry
+ * closes its statement. Invalidating an entry only marks it stale, since another thread may be using the
+ * statement on its connection; it is closed and prepared again when next requested.
+ */
+public class StatementCache {
+    // Default number of statements kept per connection
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("statementCache.capacity", 64);
+
+    // Hits and misses summed over every cache, see Metrics
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("statementCache.hits");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("statementCache.misses");
+
+    // Caches of connections that are not pooled. Their statements hold the connection, so entries are removed
+    // explicitly: by release, or by the next lookup after the connection was closed.
+    private static final Map<Connection, StatementCache> unpooled = new HashMap<>();
+    // Every live cache, so DDL can invalidate entries on all connections
+    private static final Set<StatementCache> allCaches = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final Connection conn;
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    // Keys of statements prepared before DDL on a table they reference
+    private final Set<String> stale = new HashSet<>();
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates an empty cache for a connection.
+     *
+     * @param conn     Physical connection the statements are prepared on.
+     * @param capacity Maximum number of statements kept open.
+     */
+    public StatementCache(Connection conn, int capacity) {
+        this.conn = conn;
+        this.capacity = capacity;
+        // Access order turns the map into an LRU list
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+        allCaches.add(this);
+    }
+
+    /**
+     * Returns the statement cache attached to a connection.
+     * Pooled connections share one cache per physical connection across borrows.
+     *
+     * @param conn Connection object representing the database connection.
+     * @return     Statement cache of that connection.
+     */
+    public static StatementCache of(Connection conn) {
+        StatementCache cache = ConnectionPool.statementCache(conn);
+        if (cache != null) {
+            return cache;
+        }
+        synchronized (unpooled) {
+            cache = unpooled.get(conn);
+            if (cache == null) {
+                releaseClosed();
+                cache = new StatementCache(conn, DEFAULT_CAPACITY);
+                unpooled.put(conn, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Closes the cached statements of a connection that is not pooled and forgets its cache. Call it before
+     * closing such a connection, as {@link SchemaDB#closeConnection} does; a cache left behind is only dropped
+     * once another unpooled connection gets one. Pooled connections keep their cache across borrows.
+     *
+     * @param conn Connection object representing the database connection.
+     */
+    public static void release(Connection conn) {
+        StatementCache cache;
+        synchronized (unpooled) {
+            cache = unpooled.remove(conn);
+        }
+        if (cache != null) {
+            cache.clear();
+            allCaches.remove(cache);
+        }
+    }
+
+    /**
+     * Drops the caches of unpooled connections closed without {@link #release}; caller holds the map's lock.
+     */
+    private static void releaseClosed() {
+        List<Connection> closed = new ArrayList<>();
+        for (Connection conn : unpooled.keySet()) {
+            try {
+                if (conn.isClosed()) {
+                    closed.add(conn);
+                }
+            } catch (SQLException e) {
+                closed.add(conn);
+            }
+        }
+        for (Connection conn : closed) {
+            StatementCache cache = unpooled.remove(conn);
+            cache.clear();
+            allCaches.remove(cache);
+        }
+    }
+
+    /**
+     * Returns a cached prepared statement for the SQL text on the given connection, preparing it on a miss.
+     *
+     * @param conn Connection object representing the database connection.
+     * @param sql  SQL text of the statement.
+     * @return     Open prepared statement; do not close it.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public static PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        return of(conn).prepare(sql);
+    }
+
+    /**
+     * Closes and drops the cached statement for the SQL text on the given connection.
+     * Call it when the statement failed to execute: the driver finalizes a statement on an
+     * execution error, and the cached one would fail on every later use.
+     *
+     * @param conn Connection object representing the database connection.
+     * @param sql  SQL text of the statement.
+     */
+    public static void discard(Connection conn, String sql) {
+        of(conn).discard(sql);
+    }
+
+    /**
+     * Marks every cached statement, on every connection, whose SQL references the given table as stale.
+     * Called before DDL so a changed table is never used through a stale statement; each connection prepares
+     * its statements again on their next use rather than having them closed under it by the DDL thread.
+     *
+     * @param tableName Name of the table whose statements are invalidated.
+     */
+    public static void invalidateTable(String tableName) {
+        StatementCache[] caches;
+        synchronized (allCaches) {
+            caches = allCaches.toArray(new StatementCache[0]);
+        }
+        for (StatementCache cache : caches) {
+            cache.invalidate(tableName);
+        }
+    }
+
+    /**
+     * Returns the cached statement for the SQL text, preparing and caching it on a miss.
+     *
+     * @param sql SQL text of the statement.
+     * @return    Open prepared statement; do not close it.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        String key = normalize(sql);
+        PreparedStatement pstmt = statements.get(key);
+        if (pstmt != null && stale.remove(key)) {
+            // Prepared before DDL on a table it references; the caller is the connection's only user now
+            statements.remove(key);
+            close(pstmt);
+            pstmt = null;
+        }
+        if (pstmt != null) {
+            hits++;
+            CACHE_HITS.increment();
+            return pstmt;
+        }
+        misses++;
+        CACHE_MISSES.increment();
+        long start = Metrics.STATEMENT_PREPARE.start();
+        try {
+            pstmt = conn.prepareStatement(sql);
+        } catch (SQLException e) {
+            Metrics.STATEMENT_PREPARE.failed();
+            throw e;
+        } finally {
+            Metrics.STATEMENT_PREPARE.stop(start);
+        }
+        statements.put(key, pstmt);
+
+        // Evict the least recently used statement once over capacity
+        if (statements.size() > capacity) {
+            Iterator<Map.Entry<String, PreparedStatement>> iterator = statements.entrySet().iterator();
+            Map.Entry<String, PreparedStatement> eldest = iterator.next();
+            close(eldest.getValue());
+            stale.remove(eldest.getKey());
+            iterator.remove();
+            evictions++;
+        }
+        return pstmt;
+    }
+
+    /**
+     * Closes and drops the cached statement for the SQL text, if there is one.
+     *
+     * @param sql SQL text of the statement.
+     */
+    public synchronized void discard(String sql) {
+        String key = normalize(sql);
+        PreparedStatement pstmt = statements.remove(key);
+        stale.remove(key);
+        if (pstmt != null) {
+            close(pstmt);
+        }
+    }
+
+    /**
+     * Marks every cached statement whose SQL references the given table as stale, so the next {@link #prepare}
+     * of it closes it and prepares it again.
+     *
+     * @param tableName Name of the table whose statements are invalidated.
+     */
+    public synchronized void invalidate(String tableName) {
+        for (String key : statements.keySet()) {
+            if (references(key, tableName)) {
+                stale.add(key);
+            }
+        }
+    }
+
+    /**
+     * Closes and drops every cached statement.
+     */
+    public synchronized void clear() {
+        for (PreparedStatement pstmt : statements.values()) {
+            close(pstmt);
+        }
+        statements.clear();
+        stale.clear();
+    }
+
+    /** @return Number of lookups served from the cache. */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return Number of lookups that had to prepare a new statement. */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return Number of statements closed because the cache was full. */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** @return Number of statements currently cached. */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StatementCache{size=" + statements.size() + ", capacity=" + capacity
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    /**
+     * Normalizes SQL text so statements differing only in whitespace share one cache entry.
+     */
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        boolean inQuote = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                inQuote = !inQuote;
+            }
+            if (!inQuote && Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Checks whether SQL text mentions a table name as a whole identifier.
+     */
+    private static boolean references(String sql, String tableName) {
+        int from = 0;
+        int index;
+        while ((index = indexOfIgnoreCase(sql, tableName, from)) >= 0) {
+            int end = index + tableName.length();
+            boolean startsWord = index == 0 || !isIdentifierPart(sql.charAt(index - 1));
+            boolean endsWord = end == sql.length() || !isIdentifierPart(sql.charAt(end));
+            if (startsWord && endsWord) {
+                return true;
+            }
+            from = index + 1;
+        }
+        return false;
+    }
+
+    private static int indexOfIgnoreCase(String text, String search, int from) {
+        for (int i = from; i <= text.length() - search.length(); i++) {
+            if (text.regionMatches(true, i, search, 0, search.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static void close(PreparedStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (SQLException e) {
+            Log.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,427 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A transaction scope on a connection that the {@link SchemaDB} operations run inside of, so several of them
+ * commit together, once.
+ * <p>
+ * The outermost {@link #begin} starts a real transaction. Its {@link Mode} decides when SQLite takes the write
+ * lock: {@link Mode#DEFERRED} on the first write, which fails with {@code SQLITE_BUSY} if another connection
+ * wrote meanwhile; {@link Mode#IMMEDIATE} at once, so the scope either waits for the lock up front or never
+ * starts; {@link Mode#EXCLUSIVE} also keeps readers out outside of WAL mode. A {@code begin} while a scope is
+ * open on the connection starts a nested scope instead: a savepoint, which rolls back on its own and commits
+ * with the outermost scope. Nested scopes share the outer scope's locks, whatever their mode.
+ * <p>
+ * While a scope is open the connection is out of auto-commit mode, which is how the SchemaDB operations,
+ * {@link AlterTable} and {@link WriteQueue} notice it and join it rather than committing themselves.
+ * {@link SchemaDB#insertValuesBatch} commits each chunk as a nested scope. Use it with try-with-resources, so
+ * a scope left without {@link #commit} is rolled back:
+ * <pre>
+ * try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE)) {
+ *     SchemaDB.insertValues(conn, "cloths", cloth);
+ *     SchemaDB.insertValues(conn, "work", order);
+ *     tx.commit();
+ * }
+ * </pre>
+ * {@link SchemaDB#nextId} works in a scope too. Its blocks of ids are normally reserved on another connection,
+ * which would wait for the write lock an {@link Mode#IMMEDIATE} scope already holds; inside a scope a new block
+ * is reserved on the scope's own connection instead, and rolls back with it. Ids taken from a block reserved
+ * earlier stay used if the scope rolls back.
+ */
+public final class Transaction implements AutoCloseable {
+    /**
+     * When the outermost scope takes SQLite's write lock.
+     */
+    public enum Mode {
+        DEFERRED,
+        IMMEDIATE,
+        EXCLUSIVE
+    }
+
+    /**
+     * Work run inside a scope by {@link #run}.
+     *
+     * @param <T> Type of the work's result.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        /**
+         * @param conn Connection the scope is open on; do not commit, roll back or close it.
+         * @return     Result handed back by {@link #run}.
+         * @throws SQLException To roll the scope back.
+         */
+        T apply(Connection conn) throws SQLException;
+    }
+
+    // Innermost open scope of each connection. A scope holds its connection, so entries are removed explicitly:
+    // when the scope ends, when a pool takes the connection back, or when a later scope finds it closed.
+    private static final Map<Connection, Transaction> open = Collections.synchronizedMap(new HashMap<>());
+
+    // Outermost scopes from begin to commit or rollback, and rolled back scopes of any depth, see Metrics
+    private static final Metrics.Operation TRANSACTION = Metrics.operation("transaction");
+    private static final Metrics.Counter ROLLBACKS = Metrics.counter("transaction.rollbacks");
+
+    private final Connection conn;
+    private final Mode mode;
+    private final Transaction parent;
+    private final int depth;
+    // Set for a savepoint in a transaction begun through JDBC directly, which is left to its owner
+    private final boolean joined;
+    private final long start;
+    // Actions run when the outermost scope ends; root scope only
+    private final List<Runnable> completions;
+    // Actions undoing what this scope and the nested scopes it committed did outside the database
+    private final List<Runnable> rollbacks = new ArrayList<>();
+    private boolean ended = false;
+
+    private Transaction(Connection conn, Mode mode, Transaction parent, boolean joined) {
+        this.conn = conn;
+        this.mode = mode;
+        this.parent = parent;
+        this.depth = parent == null ? 1 : parent.depth + 1;
+        this.joined = joined;
+        this.start = parent == null && !joined ? TRANSACTION.start() : 0;
+        this.completions = parent == null ? new ArrayList<>() : parent.completions;
+    }
+
+    /**
+     * Begins a deferred scope, see {@link #begin(Connection, Mode)}.
+     *
+     * @param conn Connection object representing the database connection.
+     * @return     The new scope.
+     * @throws SQLException If the transaction or savepoint cannot be started.
+     */
+    public static Transaction begin(Connection conn) throws SQLException {
+        return begin(conn, Mode.DEFERRED);
+    }
+
+    /**
+     * Begins a scope: a transaction, or a savepoint if a scope is already open on the connection. A connection
+     * in a transaction begun through JDBC directly gets a savepoint too, and that transaction is left to its owner.
+     *
+     * @param conn Connection object representing the database connection.
+     * @param mode When the outermost scope takes the write lock; ignored for a nested scope.
+     * @return     The new scope.
+     * @throws SQLException If the transaction or savepoint cannot be started, for instance when
+     *                      {@link Mode#IMMEDIATE} cannot get the write lock in time.
+     */
+    public static Transaction begin(Connection conn, Mode mode) throws SQLException {
+        // A connection is used by one thread at a time, so only the map needs guarding, not the statements
+        Transaction parent = open.get(conn);
+        if (parent == null) {
+            abandonClosed();
+        }
+        Transaction tx;
+        if (parent != null || !conn.getAutoCommit()) {
+            tx = new Transaction(conn, mode, parent, parent == null);
+            execute(conn, "SAVEPOINT " + tx.savepoint());
+        } else {
+            // The driver begins a deferred transaction when auto-commit goes off; replace it for the other modes
+            conn.setAutoCommit(false);
+            tx = new Transaction(conn, mode, null, false);
+            if (mode != Mode.DEFERRED) {
+                try {
+                    execute(conn, "COMMIT");
+                    execute(conn, "BEGIN " + mode);
+                } catch (SQLException e) {
+                    // Give the driver a transaction to end as it leaves manual commit mode
+                    try {
+                        execute(conn, "BEGIN");
+                        conn.setAutoCommit(true);
+                    } catch (SQLException ex) {
+                        e.addSuppressed(ex);
+                    }
+                    TRANSACTION.failed();
+                    TRANSACTION.stop(tx.start);
+                    throw e;
+                }
+            }
+        }
+        open.put(conn, tx);
+        return tx;
+    }
+
+    /**
+     * Runs work in a scope, committing it if the work returns and rolling it back if it throws.
+     *
+     * @param conn Connection object representing the database connection.
+     * @param mode When the outermost scope takes the write lock.
+     * @param work Work to run.
+     * @param <T>  Type of the work's result.
+     * @return     The work's result.
+     * @throws SQLException If the work or the commit fails; the scope is rolled back.
+     */
+    public static <T> T run(Connection conn, Mode mode, Work<T> work) throws SQLException {
+        try (Transaction tx = begin(conn, mode)) {
+            T result = work.apply(conn);
+            tx.commit();
+            return result;
+        }
+    }
+
+    /**
+     * @param conn Connection object representing the database connection.
+     * @return     The innermost scope open on the connection, or null if there is none.
+     */
+    public static Transaction current(Connection conn) {
+        return open.get(conn);
+    }
+
+    /**
+     * @param conn Connection object representing the database connection.
+     * @return     True if a scope is open on the connection.
+     */
+    public static boolean isActive(Connection conn) {
+        return open.containsKey(conn);
+    }
+
+    /**
+     * Runs an action once the connection's outermost scope has ended, committed or not, or right away if no scope
+     * is open. Caches of rows a write changed are dropped this way: dropped earlier, other connections could cache
+     * the old rows again before the commit.
+     *
+     * @param conn   Connection object representing the database connection.
+     * @param action Action to run.
+     */
+    public static void afterCompletion(Connection conn, Runnable action) {
+        Transaction tx = open.get(conn);
+        if (tx == null) {
+            action.run();
+        } else {
+            tx.completions.add(action);
+        }
+    }
+
+    /**
+     * Ends the scopes still open on a connection that is being closed or handed back to its pool, whose
+     * transaction is rolled back with it. Rollback actions and completions run as if the scopes had rolled back.
+     *
+     * @param conn Connection object representing the database connection.
+     */
+    static void abandon(Connection conn) {
+        Transaction tx = open.remove(conn);
+        if (tx == null) {
+            return;
+        }
+        List<Runnable> undo = new ArrayList<>();
+        Transaction root = tx;
+        for (Transaction scope = tx; scope != null; scope = scope.parent) {
+            scope.ended = true;
+            scope.takeRollbacks(undo);
+            root = scope;
+        }
+        ROLLBACKS.increment();
+        if (!root.joined) {
+            TRANSACTION.failed();
+            TRANSACTION.stop(root.start);
+        }
+        try {
+            for (Runnable action : undo) {
+                action.run();
+            }
+        } finally {
+            for (Runnable action : root.completions) {
+                action.run();
+            }
+            root.completions.clear();
+        }
+    }
+
+    /**
+     * Runs an action if the scope open on the connection is rolled back, whether on its own or with an enclosing
+     * scope; nothing happens if no scope is open. Actions run in reverse order of registration once the database
+     * has rolled back, and are dropped when the outermost scope commits. The schema catalog is set back this way,
+     * since it is updated as soon as a table is created or filled.
+     *
+     * @param conn   Connection object representing the database connection.
+     * @param action Action undoing a change made in the scope.
+     */
+    public static void afterRollback(Connection conn, Runnable action) {
+        Transaction tx = open.get(conn);
+        if (tx != null) {
+            tx.rollbacks.add(action);
+        }
+    }
+
+    /**
+     * Commits the scope: the transaction if it is the outermost one, otherwise its savepoint, whose changes then
+     * commit or roll back with the enclosing scope.
+     *
+     * @throws SQLException If the commit fails, for instance on a busy database; the scope stays open, to be
+     *                      committed again or rolled back.
+     */
+    public void commit() throws SQLException {
+        checkInnermost();
+        if (parent != null || joined) {
+            execute(conn, "RELEASE " + savepoint());
+        } else {
+            conn.commit();
+        }
+        // A nested scope's changes can still roll back with its parent
+        if (parent != null) {
+            parent.rollbacks.addAll(rollbacks);
+        }
+        rollbacks.clear();
+        end(false);
+    }
+
+    /**
+     * Rolls the scope back: the whole transaction if it is the outermost one, otherwise only what was done since
+     * the scope began. Nested scopes still open are rolled back with it.
+     *
+     * @throws SQLException If the rollback fails.
+     */
+    public void rollback() throws SQLException {
+        if (ended) {
+            throw new IllegalStateException("Transaction already ended");
+        }
+        // Rolling back to this scope discards the nested scopes left open too, innermost first
+        List<Runnable> undo = new ArrayList<>();
+        Transaction inner = open.get(conn);
+        while (inner != null && inner != this) {
+            inner.ended = true;
+            inner.takeRollbacks(undo);
+            inner = inner.parent;
+        }
+        if (inner == null) {
+            throw new IllegalStateException("Transaction is not open on its connection");
+        }
+        takeRollbacks(undo);
+        try {
+            if (parent != null || joined) {
+                execute(conn, "ROLLBACK TO " + savepoint());
+                execute(conn, "RELEASE " + savepoint());
+            } else {
+                conn.rollback();
+            }
+        } finally {
+            ROLLBACKS.increment();
+            try {
+                for (Runnable action : undo) {
+                    action.run();
+                }
+            } finally {
+                end(true);
+            }
+        }
+    }
+
+    /**
+     * Rolls the scope back unless it was committed or rolled back already.
+     *
+     * @throws SQLException If the rollback fails.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (!ended) {
+            rollback();
+        }
+    }
+
+    /** @return Locking mode the scope was begun with. */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** @return True if the scope is a savepoint inside another scope or inside a transaction begun through JDBC. */
+    public boolean isNested() {
+        return parent != null || joined;
+    }
+
+    /** @return Number of scopes open on the connection up to this one, 1 for the outermost. */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return True once the scope was committed or rolled back. */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    private String savepoint() {
+        return "tx_" + depth;
+    }
+
+    /**
+     * Abandons the scopes of connections closed without ending them, which were not handed back to a pool.
+     */
+    private static void abandonClosed() {
+        List<Connection> closed = new ArrayList<>();
+        synchronized (open) {
+            for (Connection conn : open.keySet()) {
+                try {
+                    if (conn.isClosed()) {
+                        closed.add(conn);
+                    }
+                } catch (SQLException e) {
+                    closed.add(conn);
+                }
+            }
+        }
+        for (Connection conn : closed) {
+            abandon(conn);
+        }
+    }
+
+    /**
+     * Moves the scope's rollback actions to the list, latest first.
+     */
+    private void takeRollbacks(List<Runnable> undo) {
+        for (int i = rollbacks.size() - 1; i >= 0; i--) {
+            undo.add(rollbacks.get(i));
+        }
+        rollbacks.clear();
+    }
+
+    private void checkInnermost() {
+        if (ended) {
+            throw new IllegalStateException("Transaction already ended");
+        }
+        if (open.get(conn) != this) {
+            throw new IllegalStateException("A nested transaction is still open");
+        }
+    }
+
+    /**
+     * Closes the scope, handing the connection back to the enclosing scope or to auto-commit mode.
+     */
+    private void end(boolean rolledBack) throws SQLException {
+        ended = true;
+        if (parent != null) {
+            open.put(conn, parent);
+        } else {
+            open.remove(conn);
+        }
+        if (parent != null) {
+            return;
+        }
+        try {
+            if (!joined) {
+                conn.setAutoCommit(true);
+            }
+        } finally {
+            if (!joined) {
+                if (rolledBack) {
+                    TRANSACTION.failed();
+                }
+                TRANSACTION.stop(start);
+            }
+            for (Runnable action : completions) {
+                action.run();
+            }
+            completions.clear();
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+}
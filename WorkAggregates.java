@@ -0,0 +1,405 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Totals of the {@code work} table kept up to date as it is written, so the dashboards read a row instead of
+ * scanning every order.
+ * <p>
+ * Three summary tables hold, per customer, per cloth and per due date ({@code exp_op_date}), the number of
+ * orders, the open ones ({@code work_done} not set), the unpaid ones ({@code paid} not set) and their unpaid
+ * {@code pay_amt}. Triggers on {@code work} add each inserted row, subtract each deleted row and move each
+ * updated one, in the same transaction as the write. Every write is covered, whichever class made it:
+ * {@link SchemaDB#insertValues}, {@link SchemaDB#updateTable}, {@link SchemaDB#deleteTuple}, {@link WriteQueue}
+ * or {@link Importer}. A key's row goes away with its last order.
+ * <p>
+ * {@link #install} creates the tables and triggers and fills the tables once. {@link #rebuild} recomputes them
+ * from {@code work}, for instance after rows were written while the triggers were missing, and {@link #verify}
+ * tells whether that is needed. From the command line: {@code java WorkAggregates rebuild|verify}.
+ * <p>
+ * While they are installed, {@link SchemaDB#renameColumn} and {@link SchemaDB#dropColumn} refuse to touch the
+ * columns the totals are computed from, see {@link #checkAlter}; other changes to {@code work} keep the triggers.
+ */
+public class WorkAggregates {
+    public static final String WORK_TABLE = "work";
+    public static final String CUSTOMER_TABLE = "work_customer_totals";
+    public static final String CLOTH_TABLE = "work_cloth_totals";
+    public static final String DUE_TABLE = "work_due_totals";
+
+    // Summary tables and the work column each is keyed by
+    private static final Map<String, String> SUMMARIES = new LinkedHashMap<>();
+    // Totals kept in every summary, as expressions of one work row; %1$s is the row (NEW, OLD or work)
+    private static final Map<String, String> MEASURES = new LinkedHashMap<>();
+    // Work columns the totals depend on; updates of other columns do not fire the update trigger
+    private static final String TRACKED_COLUMNS = "customer_id, cloth_id, exp_op_date, work_done, paid, pay_amt";
+
+    static {
+        SUMMARIES.put(CUSTOMER_TABLE, "customer_id");
+        SUMMARIES.put(CLOTH_TABLE, "cloth_id");
+        SUMMARIES.put(DUE_TABLE, "exp_op_date");
+        MEASURES.put("orders", "1");
+        MEASURES.put("open_orders", "(COALESCE(%1$s.work_done, 0) = 0)");
+        MEASURES.put("unpaid_orders", "(COALESCE(%1$s.paid, 0) = 0)");
+        MEASURES.put("unpaid_amount", "(CASE WHEN COALESCE(%1$s.paid, 0) = 0 THEN COALESCE(%1$s.pay_amt, 0) ELSE 0 END)");
+    }
+
+    // Lookups and rebuilds of the summaries, see Metrics
+    private static final Metrics.Operation QUERY = Metrics.operation("workAggregates.query");
+    private static final Metrics.Operation REBUILD = Metrics.operation("workAggregates.rebuild");
+
+    /**
+     * Totals of the orders sharing a customer, cloth or due date.
+     */
+    public static final class Totals {
+        private final long orders;
+        private final long openOrders;
+        private final long unpaidOrders;
+        private final long unpaidAmount;
+
+        Totals(long orders, long openOrders, long unpaidOrders, long unpaidAmount) {
+            this.orders = orders;
+            this.openOrders = openOrders;
+            this.unpaidOrders = unpaidOrders;
+            this.unpaidAmount = unpaidAmount;
+        }
+
+        /** @return Number of orders. */
+        public long getOrders() {
+            return orders;
+        }
+
+        /** @return Number of orders whose work is not done. */
+        public long getOpenOrders() {
+            return openOrders;
+        }
+
+        /** @return Number of orders not paid. */
+        public long getUnpaidOrders() {
+            return unpaidOrders;
+        }
+
+        /** @return Sum of {@code pay_amt} over the orders not paid. */
+        public long getUnpaidAmount() {
+            return unpaidAmount;
+        }
+
+        @Override
+        public String toString() {
+            return orders + " orders, " + openOrders + " open, " + unpaidOrders + " unpaid (" + unpaidAmount + ")";
+        }
+    }
+
+    /**
+     * Creates the summary tables and the triggers on {@code work}, and fills the tables from the existing orders.
+     * Does nothing if they are already installed.
+     *
+     * @param conn Connection object representing the database connection.
+     * @throws SQLException If the work table does not exist or the summaries cannot be created.
+     */
+    public void install(Connection conn) throws SQLException {
+        if (isInstalled(conn)) {
+            return;
+        }
+        // Take the write lock first, so no order is written between the fill and the triggers
+        try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE);
+             Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, String> summary : SUMMARIES.entrySet()) {
+                // The key column has no type, so it holds the very values work holds and compares equal
+                StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(summary.getKey())
+                        .append(" (").append(summary.getValue()).append(" NOT NULL PRIMARY KEY");
+                for (String measure : MEASURES.keySet()) {
+                    sql.append(", ").append(measure).append(" INTEGER NOT NULL DEFAULT 0");
+                }
+                stmt.execute(sql.append(")").toString());
+            }
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS work_totals_insert AFTER INSERT ON " + WORK_TABLE
+                    + " BEGIN " + apply("NEW", "+") + " END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS work_totals_delete AFTER DELETE ON " + WORK_TABLE
+                    + " BEGIN " + apply("OLD", "-") + " END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS work_totals_update AFTER UPDATE OF " + TRACKED_COLUMNS
+                    + " ON " + WORK_TABLE + " BEGIN " + apply("OLD", "-") + apply("NEW", "+") + " END");
+            // Tables left from an earlier install missed the writes made without the triggers
+            for (String table : SUMMARIES.keySet()) {
+                stmt.execute("DELETE FROM " + table);
+            }
+            fill(stmt);
+            tx.commit();
+        }
+        for (String table : SUMMARIES.keySet()) {
+            SchemaDB.catalog.tableCreated(conn, table);
+        }
+        Log.info("Work aggregates installed");
+    }
+
+    /**
+     * Drops the triggers and the summary tables.
+     *
+     * @param conn Connection object representing the database connection.
+     * @throws SQLException If they cannot be dropped.
+     */
+    public void uninstall(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String trigger : new String[]{"work_totals_insert", "work_totals_delete", "work_totals_update"}) {
+                stmt.execute("DROP TRIGGER IF EXISTS " + trigger);
+            }
+            for (String table : SUMMARIES.keySet()) {
+                StatementCache.invalidateTable(table);
+                stmt.execute("DROP TABLE IF EXISTS " + table);
+                SchemaDB.catalog.tableDropped(conn, table);
+            }
+        }
+        Log.info("Work aggregates removed");
+    }
+
+    /**
+     * Refuses a rename or drop of a {@code work} column the totals are computed from while they are installed.
+     * The table rebuild would drop the triggers, and the totals would silently go stale.
+     *
+     * @param conn       Connection object representing the database connection.
+     * @param tableName  Name of the table about to be altered.
+     * @param columnName Name of the column about to be renamed or dropped.
+     * @throws SQLException If the column is tracked while the aggregates are installed, or the schema cannot be read.
+     */
+    public void checkAlter(Connection conn, String tableName, String columnName) throws SQLException {
+        if (!tableName.equalsIgnoreCase(WORK_TABLE)) {
+            return;
+        }
+        for (String column : TRACKED_COLUMNS.split(", ")) {
+            if (column.equalsIgnoreCase(columnName) && isInstalled(conn)) {
+                throw new SQLException("Column " + columnName + " of " + WORK_TABLE
+                        + " feeds the work aggregates; uninstall them before altering it");
+            }
+        }
+    }
+
+    /**
+     * Puts back triggers that a change to the {@code work} table dropped while its summaries exist, and refills
+     * the summaries. Does nothing for other tables or when the aggregates are not installed.
+     *
+     * @param conn      Connection object representing the database connection.
+     * @param tableName Name of the altered table.
+     * @throws SQLException If the triggers cannot be recreated.
+     */
+    public void tableAltered(Connection conn, String tableName) throws SQLException {
+        if (tableName.equalsIgnoreCase(WORK_TABLE) && SchemaDB.tableExists(conn, CUSTOMER_TABLE)
+                && !isInstalled(conn)) {
+            install(conn);
+        }
+    }
+
+    /**
+     * @param conn Connection object representing the database connection.
+     * @return     True if the triggers maintaining the summaries exist.
+     * @throws SQLException If the schema cannot be read.
+     */
+    public boolean isInstalled(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(*) FROM sqlite_master WHERE type = 'trigger' "
+                     + "AND name IN ('work_totals_insert', 'work_totals_delete', 'work_totals_update')")) {
+            return rs.next() && rs.getInt(1) == 3;
+        }
+    }
+
+    /**
+     * Recomputes every summary from the {@code work} table in one transaction, installing the summaries first if
+     * needed. Writers wait meanwhile; readers see the old totals until it commits.
+     *
+     * @param conn Connection object representing the database connection.
+     * @throws SQLException If the summaries cannot be rebuilt; they are left unchanged.
+     */
+    public void rebuild(Connection conn) throws SQLException {
+        if (!isInstalled(conn)) {
+            install(conn);
+            return;
+        }
+        long start = REBUILD.start();
+        try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE);
+             Statement stmt = conn.createStatement()) {
+            for (String table : SUMMARIES.keySet()) {
+                stmt.execute("DELETE FROM " + table);
+            }
+            fill(stmt);
+            tx.commit();
+            Log.info("Work aggregates rebuilt");
+        } catch (SQLException e) {
+            REBUILD.failed();
+            throw e;
+        } finally {
+            REBUILD.stop(start);
+        }
+    }
+
+    /**
+     * Compares the summaries with totals computed from the {@code work} table.
+     *
+     * @param conn Connection object representing the database connection.
+     * @return     Number of summary rows that are missing, extra or wrong; 0 when the summaries are exact.
+     * @throws SQLException If the summaries are not installed or cannot be read.
+     */
+    public long verify(Connection conn) throws SQLException {
+        long differences = 0;
+        try (Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, String> summary : SUMMARIES.entrySet()) {
+                String actual = "SELECT " + summary.getValue() + ", " + String.join(", ", MEASURES.keySet())
+                        + " FROM " + summary.getKey();
+                String expected = aggregate(summary.getValue());
+                try (ResultSet rs = stmt.executeQuery("SELECT (SELECT count(*) FROM (" + expected + " EXCEPT "
+                        + actual + ")) + (SELECT count(*) FROM (" + actual + " EXCEPT " + expected + "))")) {
+                    rs.next();
+                    differences += rs.getLong(1);
+                }
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * @param conn       Connection object representing the database connection.
+     * @param customerId Id of the customer.
+     * @return           Totals of the customer's orders; all zero if there are none.
+     * @throws SQLException If the summaries are not installed or cannot be read.
+     */
+    public Totals forCustomer(Connection conn, long customerId) throws SQLException {
+        return lookup(conn, CUSTOMER_TABLE, "customer_id = ?", customerId);
+    }
+
+    /**
+     * @param conn    Connection object representing the database connection.
+     * @param clothId Id of the cloth.
+     * @return        Totals of the orders for the cloth; all zero if there are none.
+     * @throws SQLException If the summaries are not installed or cannot be read.
+     */
+    public Totals forCloth(Connection conn, long clothId) throws SQLException {
+        return lookup(conn, CLOTH_TABLE, "cloth_id = ?", clothId);
+    }
+
+    /**
+     * @param conn Connection object representing the database connection.
+     * @param date Due date, as stored in {@code exp_op_date} (yyyy-MM-dd).
+     * @return     Totals of the orders due that day; all zero if there are none.
+     * @throws SQLException If the summaries are not installed or cannot be read.
+     */
+    public Totals dueOn(Connection conn, String date) throws SQLException {
+        return lookup(conn, DUE_TABLE, "exp_op_date = ?", date);
+    }
+
+    /**
+     * Sums the totals of every due date up to a date. This reads one summary row per distinct due date, not the
+     * orders themselves.
+     *
+     * @param conn Connection object representing the database connection.
+     * @param date Last due date included, as stored in {@code exp_op_date} (yyyy-MM-dd).
+     * @return     Totals of the orders due on or before the date.
+     * @throws SQLException If the summaries are not installed or cannot be read.
+     */
+    public Totals dueBy(Connection conn, String date) throws SQLException {
+        return lookup(conn, DUE_TABLE, "exp_op_date <= ?", date);
+    }
+
+    private Totals lookup(Connection conn, String table, String where, Object key) throws SQLException {
+        long start = QUERY.start();
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (String measure : MEASURES.keySet()) {
+            sql.append("COALESCE(SUM(").append(measure).append("), 0), ");
+        }
+        sql.setLength(sql.length() - 2);
+        String query = sql.append(" FROM ").append(table).append(" WHERE ").append(where).toString();
+        try {
+            PreparedStatement pstmt = StatementCache.prepare(conn, query);
+            try {
+                pstmt.setObject(1, key);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    Metrics.ROWS_READ.increment();
+                    return new Totals(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4));
+                }
+            } catch (SQLException e) {
+                StatementCache.discard(conn, query);
+                throw e;
+            }
+        } catch (SQLException e) {
+            QUERY.failed();
+            throw e;
+        } finally {
+            QUERY.stop(start);
+        }
+    }
+
+    /**
+     * Fills the empty summary tables from the work table.
+     */
+    private static void fill(Statement stmt) throws SQLException {
+        for (Map.Entry<String, String> summary : SUMMARIES.entrySet()) {
+            stmt.execute("INSERT INTO " + summary.getKey() + " (" + summary.getValue() + ", "
+                    + String.join(", ", MEASURES.keySet()) + ") " + aggregate(summary.getValue()));
+        }
+    }
+
+    /**
+     * Builds the query computing a summary from the work table.
+     */
+    private static String aggregate(String keyColumn) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(keyColumn);
+        for (String expression : MEASURES.values()) {
+            sql.append(", SUM(").append(String.format(expression, WORK_TABLE)).append(")");
+        }
+        return sql.append(" FROM ").append(WORK_TABLE).append(" WHERE ").append(keyColumn)
+                .append(" IS NOT NULL GROUP BY ").append(keyColumn).toString();
+    }
+
+    /**
+     * Builds the trigger statements adding ({@code +}) or subtracting ({@code -}) one work row from every summary.
+     * Orders without a key are not summarized.
+     */
+    private static String apply(String row, String sign) {
+        StringBuilder sql = new StringBuilder();
+        for (Map.Entry<String, String> summary : SUMMARIES.entrySet()) {
+            String table = summary.getKey();
+            String key = summary.getValue();
+            if (sign.equals("+")) {
+                sql.append("INSERT OR IGNORE INTO ").append(table).append(" (").append(key).append(") SELECT ")
+                        .append(row).append('.').append(key).append(" WHERE ").append(row).append('.').append(key)
+                        .append(" IS NOT NULL; ");
+            }
+            sql.append("UPDATE ").append(table).append(" SET ");
+            for (Map.Entry<String, String> measure : MEASURES.entrySet()) {
+                sql.append(measure.getKey()).append(" = ").append(measure.getKey()).append(' ').append(sign)
+                        .append(' ').append(String.format(measure.getValue(), row)).append(", ");
+            }
+            sql.setLength(sql.length() - 2);
+            sql.append(" WHERE ").append(key).append(" = ").append(row).append('.').append(key).append("; ");
+            if (sign.equals("-")) {
+                sql.append("DELETE FROM ").append(table).append(" WHERE ").append(key).append(" = ").append(row)
+                        .append('.').append(key).append(" AND orders = 0; ");
+            }
+        }
+        return sql.toString();
+    }
+
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "rebuild";
+        Connection conn = SchemaDB.connect();
+        if (conn == null) {
+            return;
+        }
+        try {
+            if (command.equals("verify")) {
+                long differences = SchemaDB.workAggregates.verify(conn);
+                System.out.println(differences == 0 ? "Work aggregates are exact"
+                        : differences + " summary rows differ, run: java WorkAggregates rebuild");
+            } else if (command.equals("rebuild")) {
+                SchemaDB.workAggregates.rebuild(conn);
+            } else {
+                System.out.println("Usage: java WorkAggregates rebuild|verify");
+            }
+        } catch (SQLException e) {
+            Log.error(e.getMessage());
+        } finally {
+            SchemaDB.closeConnection(conn);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Serializes writes to a database through a single writer thread that commits them in groups.
+ * <p>
+ * SQLite lets one connection write at a time, so threads writing through their own connections wait on
+ * the file lock and each pays for its own commit. Mutations submitted here are queued instead. The
+ * writer takes up to {@code maxBatch} of them, waiting at most {@code maxDelayMillis} after the first
+ * for more to arrive, and runs them in one {@code BEGIN IMMEDIATE} transaction. Every mutation runs in
+ * its own savepoint, so a failing one is rolled back alone while the rest of the group commits. Each
+ * caller gets a {@link CompletableFuture} that completes once its group has committed.
+ * <p>
+ * When the queue is full, {@link #submit} blocks until there is room, pushing back on producers.
+ */
+public class WriteQueue implements AutoCloseable {
+    // Default largest number of mutations committed together
+    public static final int DEFAULT_MAX_BATCH = Integer.getInteger("writeQueue.maxBatch", 256);
+    // Default longest wait for more mutations after the first of a group
+    public static final long DEFAULT_MAX_DELAY_MILLIS = Long.getLong("writeQueue.maxDelayMillis", 5L);
+    // Default number of mutations that may wait in the queue
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("writeQueue.capacity", 10_000);
+
+    // One queue per database URL
+    private static final Map<String, WriteQueue> queues = new ConcurrentHashMap<>();
+
+    // Time from BEGIN to COMMIT of a group, and the mutations committed, see Metrics
+    private static final Metrics.Operation GROUP_COMMIT = Metrics.operation("writeQueue.groupCommit");
+    private static final Metrics.Counter MUTATIONS = Metrics.counter("writeQueue.mutations");
+
+    private final ConnectionPool pool;
+    private final int maxBatch;
+    private final long maxDelayMillis;
+    private final BlockingQueue<Pending<?>> queue;
+    private final Thread writer;
+    // Held shared by submit while it queues, and exclusively by close while it shuts the queue
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    /**
+     * A unit of work run by the writer thread inside the group's transaction.
+     *
+     * @param <T> Type of the mutation's result.
+     */
+    @FunctionalInterface
+    public interface Mutation<T> {
+        /**
+         * @param conn Writer connection, inside an open transaction; do not commit, roll back or close it.
+         *             Scopes begun with {@link Transaction#begin} nest inside it.
+         * @return     Result handed to the caller's future.
+         * @throws SQLException To roll this mutation back and fail its future.
+         */
+        T apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Pending<T> {
+        final Mutation<T> mutation;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        SQLException error;
+
+        Pending(Mutation<T> mutation) {
+            this.mutation = mutation;
+        }
+
+        void run(Connection conn) throws SQLException {
+            result = mutation.apply(conn);
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    /**
+     * Creates a queue and starts its writer thread.
+     *
+     * @param pool           Pool the writer borrows its connection from for each group.
+     * @param maxBatch       Largest number of mutations committed together.
+     * @param maxDelayMillis Longest wait for more mutations after the first of a group; 0 commits whatever is queued.
+     * @param capacity       Number of mutations that may wait in the queue before {@link #submit} blocks.
+     */
+    public WriteQueue(ConnectionPool pool, int maxBatch, long maxDelayMillis, int capacity) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+        }
+        this.pool = pool;
+        this.maxBatch = maxBatch;
+        this.maxDelayMillis = maxDelayMillis;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.writer = new Thread(this::drain, "write-queue-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Returns the shared queue for a database URL, creating it on first use. Batch size, delay and
+     * capacity come from the {@code writeQueue.maxBatch}, {@code writeQueue.maxDelayMillis} and
+     * {@code writeQueue.capacity} system properties.
+     *
+     * @param url JDBC URL of the SQLite database.
+     * @return    Write queue for that database.
+     */
+    public static WriteQueue forUrl(String url) {
+        return queues.computeIfAbsent(url, u ->
+                new WriteQueue(ConnectionPool.forUrl(u), DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Queues a mutation for the writer thread.
+     *
+     * @param mutation Work to run inside a group transaction.
+     * @param <T>      Type of the mutation's result.
+     * @return         Future completed with the mutation's result once its group commits, or with the
+     *                 {@link SQLException} that rolled it back.
+     */
+    public <T> CompletableFuture<T> submit(Mutation<T> mutation) {
+        Pending<T> pending = new Pending<>(mutation);
+        // A mutation is either queued before the queue closes, and then drained, or rejected
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                pending.future.completeExceptionally(new RejectedExecutionException("Write queue is closed"));
+                return pending.future;
+            }
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(e);
+        } finally {
+            closing.readLock().unlock();
+        }
+        return pending.future;
+    }
+
+    /**
+     * Queues an insert of one row, see {@link SchemaDB#insertValues}. A new cloth gets its measurement storage
+     * in the same savepoint as its row.
+     *
+     * @param tableName Name of the table to insert values into.
+     * @param values    Column names mapped to the values of the row.
+     * @return          Future completed once the row is committed.
+     */
+    public CompletableFuture<Void> insertValues(String tableName, Map<String, Object> values) {
+        return submit(conn -> {
+            SchemaDB.insertRow(conn, tableName, values);
+            SchemaDB.createClothTable(conn, tableName, values);
+            return null;
+        });
+    }
+
+    /**
+     * Queues an update, see {@link SchemaDB#updateTable}.
+     *
+     * @param tableName      Name of the table to update.
+     * @param columnName     Name of the column to update.
+     * @param setValue       New value to set in the specified column, as an SQL expression.
+     * @param whereCondition Condition to filter the rows to be updated.
+     * @return               Future completed with the number of updated rows once committed.
+     */
+    public CompletableFuture<Integer> updateTable(String tableName, String columnName, String setValue,
+                                                  String whereCondition) {
+        String sql = "UPDATE " + tableName + " SET " + columnName + " = " + setValue + " WHERE " + whereCondition;
+        return submit(conn -> {
+            int updated = SchemaDB.executeSql(conn, sql);
+            Transaction.afterCompletion(conn, () -> SchemaDB.rowCache.invalidate(tableName));
+            return updated;
+        });
+    }
+
+    /**
+     * Queues an update with bound parameters, see {@link SchemaDB#updateTable(Connection, String, Assignments, Condition)}.
+     *
+     * @param tableName   Name of the table to update.
+     * @param assignments Columns to set and their new values; do not change them after the call.
+     * @param where       Condition to filter the rows to be updated.
+     * @return            Future completed with the number of updated rows once committed.
+     */
+    public CompletableFuture<Integer> updateTable(String tableName, Assignments assignments, Condition where) {
+        String sql = SchemaDB.updateSql(tableName, assignments, where);
+        return submit(conn -> {
+            SchemaDB.indexAdvisor.record(conn, tableName, sql, where);
+            int updated = SchemaDB.executeSql(conn, sql, assignments, where);
+            Transaction.afterCompletion(conn, () -> SchemaDB.rowCache.invalidate(tableName, assignments, where));
+            return updated;
+        });
+    }
+
+    /**
+     * Queues a delete, see {@link SchemaDB#deleteTuple}.
+     *
+     * @param tableName      Name of the table from which to delete tuple(s).
+     * @param whereCondition Condition to filter the tuple(s) to be deleted.
+     * @return               Future completed with the number of deleted rows once committed.
+     */
+    public CompletableFuture<Integer> deleteTuple(String tableName, String whereCondition) {
+        String sql = "DELETE FROM " + tableName + " WHERE " + whereCondition;
+        return submit(conn -> {
+            int deleted = SchemaDB.executeSql(conn, sql);
+            SchemaDB.catalog.forgetFilled(tableName);
+            Transaction.afterCompletion(conn, () -> SchemaDB.rowCache.invalidate(tableName));
+            return deleted;
+        });
+    }
+
+    /**
+     * Queues a delete with bound parameters, see {@link SchemaDB#deleteTuple(Connection, String, Condition)}.
+     *
+     * @param tableName Name of the table from which to delete tuple(s).
+     * @param where     Condition to filter the tuple(s) to be deleted.
+     * @return          Future completed with the number of deleted rows once committed.
+     */
+    public CompletableFuture<Integer> deleteTuple(String tableName, Condition where) {
+        String sql = SchemaDB.deleteSql(tableName, where);
+        return submit(conn -> {
+            SchemaDB.indexAdvisor.record(conn, tableName, sql, where);
+            int deleted = SchemaDB.executeSql(conn, sql, null, where);
+            SchemaDB.catalog.forgetFilled(tableName);
+            Transaction.afterCompletion(conn, () -> SchemaDB.rowCache.invalidate(tableName, null, where));
+            return deleted;
+        });
+    }
+
+    /** @return Number of mutations waiting for the writer. */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting mutations, commits the ones already queued and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        // Wait for submits already queueing, so that the writer drains their mutations too
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queues.remove(pool.getUrl(), this);
+    }
+
+    /**
+     * Writer thread loop: take a group of mutations and commit it, until closed and drained.
+     */
+    private void drain() {
+        List<Pending<?>> group = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                // Gather more mutations until the group is full or the delay since the first one is up
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (group.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending<?> next = remaining > 0 && !closed
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts to stop waiting; the loop drains what is left
+                if (group.isEmpty()) {
+                    continue;
+                }
+            }
+            commit(group);
+            group.clear();
+        }
+    }
+
+    /**
+     * Runs a group of mutations in one transaction, each in its own savepoint, and completes their futures.
+     */
+    private void commit(List<Pending<?>> group) {
+        long start = GROUP_COMMIT.start();
+        try (Connection conn = pool.getConnection()) {
+            // Take the write lock up front rather than failing to upgrade a read lock mid-group
+            try (Transaction tx = Transaction.begin(conn, Transaction.Mode.IMMEDIATE)) {
+                for (Pending<?> pending : group) {
+                    // Scopes the mutation opens itself nest inside this one
+                    try (Transaction mutation = Transaction.begin(conn)) {
+                        pending.run(conn);
+                        mutation.commit();
+                    } catch (SQLException e) {
+                        pending.error = e;
+                    } catch (RuntimeException e) {
+                        pending.error = new SQLException(e.getMessage(), e);
+                    }
+                }
+                tx.commit();
+            }
+            for (Pending<?> pending : group) {
+                if (pending.error == null) {
+                    MUTATIONS.increment();
+                }
+                pending.complete();
+            }
+        } catch (SQLException e) {
+            // The group as a whole failed: none of its mutations were committed
+            GROUP_COMMIT.failed();
+            Log.error("Write group of " + group.size() + " mutations rolled back: " + e.getMessage());
+            for (Pending<?> pending : group) {
+                pending.future.completeExceptionally(e);
+            }
+        } finally {
+            GROUP_COMMIT.stop(start);
+        }
+    }
+}
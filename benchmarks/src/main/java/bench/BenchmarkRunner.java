@@ -0,0 +1,49 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks once per thread count with the GC profiler attached, writing one JSON result
+ * file per thread count so runs can be compared against the baselines checked in under
+ * {@code benchmarks/baselines}.
+ * <p>
+ * Thread counts come from the {@code bench.threads} system property (default {@code 1}) and the
+ * results directory from {@code bench.results} (default {@code results}). Any other JMH command line
+ * option, such as {@code -p rows=1000} or {@code -wi 1}, is passed through.
+ * <p>
+ * With the default rollback journal, concurrent writers on the file database starve each other on
+ * SQLite's file lock, so an iteration can take as long as the busy timeout; run the write benchmarks
+ * with more than one thread only to observe that.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        File resultsDir = new File(System.getProperty("bench.results", "results"));
+        if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+            throw new IllegalStateException("cannot create " + resultsDir);
+        }
+
+        for (String threads : System.getProperty("bench.threads", "1").split(",")) {
+            int threadCount = Integer.parseInt(threads.trim());
+            OptionsBuilder builder = new OptionsBuilder();
+            builder.parent(commandLine);
+            if (commandLine.getIncludes().isEmpty()) {
+                builder.include(CrudBenchmark.class.getSimpleName());
+            }
+            Options options = builder
+                    .threads(threadCount)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultsDir, "crud-t" + threadCount + ".json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
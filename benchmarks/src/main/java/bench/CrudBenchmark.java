@@ -0,0 +1,237 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency of the SchemaDB CRUD functions on a {@code customer} table preloaded with
+ * {@code rows} rows, stored either in a temporary file or in memory.
+ * <p>
+ * Each thread works on its own pooled connection to the file database. The driver cannot share an
+ * in-memory database between connections, so with {@code storage=memory} all threads share one
+ * connection and take turns on it, which is how the application would have to use it.
+ * <p>
+ * SchemaDB reports progress on {@code System.out}; that output is discarded while measuring so
+ * terminal I/O does not swamp the numbers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrudBenchmark {
+    private static final String TABLE = "customer";
+    private static final String ID = "customer_id";
+    private static final List<String> SELECTED = Arrays.asList("customer_id", "customer_name");
+    private static final int LOAD_CHUNK_SIZE = 10_000;
+    // How long a writer waits for another connection's write lock
+    private static final int BUSY_TIMEOUT_SECONDS = 30;
+
+    /**
+     * The database under test, shared by every benchmark thread.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"1000", "100000", "10000000"})
+        public int rows;
+
+        @Param({"file", "memory"})
+        public String storage;
+
+        Object pool;
+        File file;
+        // The single connection to the in-memory database, null for file storage
+        Connection shared;
+        // Ids above the preloaded rows, handed out to inserts
+        final AtomicLong nextInsertId = new AtomicLong();
+        private PrintStream stdout;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) throws Throwable {
+            stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            String url;
+            int poolSize;
+            if ("memory".equals(storage)) {
+                url = "jdbc:sqlite::memory:";
+                poolSize = 1;
+            } else {
+                file = File.createTempFile("schemadb-bench", ".db");
+                url = "jdbc:sqlite:" + file.getAbsolutePath();
+                // One connection per thread, plus one for the checks run around the trial
+                poolSize = params.getThreads() + 1;
+            }
+            // Leak reports disabled: benchmark threads hold their connection for the whole trial
+            pool = SchemaDBHandles.NEW_POOL.invoke(url, 0, poolSize, 30_000L, 0L, Long.MAX_VALUE / 2);
+
+            Connection conn = (Connection) SchemaDBHandles.GET_CONNECTION.invoke(pool);
+            SchemaDBHandles.INVALIDATE_CATALOG.invoke();
+            SchemaDBHandles.CREATE_TABLE.invoke(conn, TABLE, (Map<?, ?>) SchemaDBHandles.CUSTOMER_COLUMNS.invoke());
+            SchemaDBHandles.INSERT_VALUES_BATCH.invoke(conn, TABLE, rows(1, rows), LOAD_CHUNK_SIZE);
+            nextInsertId.set(rows + 1L);
+            if ("memory".equals(storage)) {
+                shared = conn;
+            } else {
+                conn.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Throwable {
+            // Sanity check: the preloaded rows are still there, so no operation failed silently
+            Connection conn = shared != null ? shared : (Connection) SchemaDBHandles.GET_CONNECTION.invoke(pool);
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + TABLE + " WHERE " + ID + " <= " + rows)) {
+                rs.next();
+                if (rs.getLong(1) != rows) {
+                    throw new IllegalStateException("expected " + rows + " preloaded rows, found " + rs.getLong(1));
+                }
+            } finally {
+                conn.close();
+                SchemaDBHandles.CLOSE_POOL.invoke(pool);
+                if (file != null && !file.delete()) {
+                    file.deleteOnExit();
+                }
+                System.setOut(stdout);
+            }
+        }
+
+        long randomId() {
+            return ThreadLocalRandom.current().nextLong(1, rows + 1L);
+        }
+    }
+
+    /**
+     * The connection one benchmark thread works on.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        Connection conn;
+        // Serializes threads sharing the in-memory connection; uncontended for file storage
+        Object lock;
+        private boolean owned;
+
+        @Setup(Level.Trial)
+        public void open(Database db) throws Throwable {
+            if (db.shared != null) {
+                conn = db.shared;
+                lock = db.shared;
+            } else {
+                conn = (Connection) SchemaDBHandles.GET_CONNECTION.invoke(db.pool);
+                lock = new Object();
+                owned = true;
+                // Wait for other writers instead of failing with "database is locked"
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.setQueryTimeout(BUSY_TIMEOUT_SECONDS);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            if (owned) {
+                conn.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public void insertValues(Database db, Session session) throws Throwable {
+        Hashtable<String, Object> row = row(db.nextInsertId.getAndIncrement());
+        synchronized (session.lock) {
+            SchemaDBHandles.INSERT_VALUES.invoke(session.conn, TABLE, row);
+        }
+    }
+
+    @Benchmark
+    public void selectColumns(Session session) throws Throwable {
+        synchronized (session.lock) {
+            SchemaDBHandles.SELECT_COLUMNS.invoke(session.conn, TABLE, SELECTED);
+        }
+    }
+
+    @Benchmark
+    public void updateTable(Database db, Session session) throws Throwable {
+        String where = ID + " = " + db.randomId();
+        synchronized (session.lock) {
+            SchemaDBHandles.UPDATE_TABLE.invoke(session.conn, TABLE, "customer_name", "'updated'", where);
+        }
+    }
+
+    /**
+     * Deletes a random row and puts it back, so the table keeps its size across iterations.
+     */
+    @Benchmark
+    public void deleteTuple(Database db, Session session) throws Throwable {
+        long id = db.randomId();
+        synchronized (session.lock) {
+            SchemaDBHandles.DELETE_TUPLE.invoke(session.conn, TABLE, ID + " = " + id);
+            SchemaDBHandles.INSERT_VALUES.invoke(session.conn, TABLE, row(id));
+        }
+    }
+
+    @Benchmark
+    public int getMaxId(Session session) throws Throwable {
+        synchronized (session.lock) {
+            return (int) SchemaDBHandles.GET_MAX_ID.invoke(session.conn, TABLE, ID);
+        }
+    }
+
+    static Hashtable<String, Object> row(long id) {
+        Hashtable<String, Object> row = new Hashtable<>();
+        row.put("customer_id", id);
+        row.put("customer_name", "customer " + id);
+        row.put("phone_no", 9_000_000_000L + id);
+        row.put("age", String.valueOf(18 + id % 60));
+        return row;
+    }
+
+    /**
+     * Generates rows lazily so loading millions of them does not need them all in memory.
+     */
+    static Iterator<Map<String, Object>> rows(long firstId, long count) {
+        return new Iterator<Map<String, Object>>() {
+            private long next = firstId;
+
+            @Override
+            public boolean hasNext() {
+                return next < firstId + count;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                return row(next++);
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.Connection;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Method handles onto the SchemaDB API.
+ * <p>
+ * The application classes live in the default package, which cannot be imported from a named package,
+ * and JMH refuses benchmarks in the default package. The handles are resolved once and held in static
+ * final fields, so the JIT inlines them and the benchmarks measure the same calls the application makes.
+ */
+final class SchemaDBHandles {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    // SchemaDB CRUD functions under test
+    static final MethodHandle INSERT_VALUES = staticMethod("SchemaDB", "insertValues",
+            void.class, Connection.class, String.class, Hashtable.class);
+    static final MethodHandle SELECT_COLUMNS = staticMethod("SchemaDB", "selectColumns",
+            void.class, Connection.class, String.class, List.class);
+    static final MethodHandle UPDATE_TABLE = staticMethod("SchemaDB", "updateTable",
+            void.class, Connection.class, String.class, String.class, String.class, String.class);
+    static final MethodHandle DELETE_TUPLE = staticMethod("SchemaDB", "deleteTuple",
+            void.class, Connection.class, String.class, String.class);
+    static final MethodHandle GET_MAX_ID = staticMethod("SchemaDB", "getMaxId",
+            int.class, Connection.class, String.class, String.class);
+
+    // Fixture setup
+    static final MethodHandle CREATE_TABLE = staticMethod("SchemaDB", "createTable",
+            void.class, Connection.class, String.class, Map.class);
+    static final MethodHandle CUSTOMER_COLUMNS = staticMethod("SchemaDB", "createCustomerTable", Map.class);
+    static final MethodHandle INSERT_VALUES_BATCH = staticMethod("SchemaDB", "insertValuesBatch",
+            type("BatchInsertResult"), Connection.class, String.class, Iterator.class, int.class)
+            .asType(MethodType.methodType(Object.class, Connection.class, String.class, Iterator.class, int.class));
+    static final MethodHandle INVALIDATE_CATALOG;
+
+    // Connection pool
+    static final MethodHandle NEW_POOL;
+    static final MethodHandle GET_CONNECTION;
+    static final MethodHandle CLOSE_POOL;
+
+    static {
+        try {
+            Class<?> poolClass = type("ConnectionPool");
+            NEW_POOL = LOOKUP.findConstructor(poolClass, MethodType.methodType(void.class,
+                            String.class, int.class, int.class, long.class, long.class, long.class))
+                    .asType(MethodType.methodType(Object.class,
+                            String.class, int.class, int.class, long.class, long.class, long.class));
+            GET_CONNECTION = LOOKUP.findVirtual(poolClass, "getConnection", MethodType.methodType(Connection.class))
+                    .asType(MethodType.methodType(Connection.class, Object.class));
+            CLOSE_POOL = LOOKUP.findVirtual(poolClass, "close", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+
+            Class<?> catalogClass = type("SchemaCatalog");
+            Object catalog = LOOKUP.findStaticGetter(type("SchemaDB"), "catalog", catalogClass).invoke();
+            INVALIDATE_CATALOG = LOOKUP.findVirtual(catalogClass, "invalidate", MethodType.methodType(void.class))
+                    .bindTo(catalog);
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private SchemaDBHandles() {
+    }
+
+    private static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return LOOKUP.findStatic(type(className), name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
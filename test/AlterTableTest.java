@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AlterTableTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("work");
+        for (int i = 1; i <= 20; i++) {
+            db.insertWork(i, i % 4, i % 3, 100 * i);
+        }
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    private List<String> columns() throws Exception {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = db.conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(work)")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+        return columns;
+    }
+
+    private List<List<String>> indexes() {
+        List<List<String>> indexes = new ArrayList<>();
+        for (SchemaCatalog.Index index : SchemaDB.listIndexes(db.conn, "work")) {
+            indexes.add(index.getColumns());
+        }
+        return indexes;
+    }
+
+    @Test
+    void renameKeepsRowsOrderAndIndexes() throws Exception {
+        SchemaDB.createIndex(db.conn, "work", List.of("customer_id", "pay_amt"), false);
+        SchemaDB.renameColumn(db.conn, "work", "pay_amt", "payable_amt");
+
+        assertEquals(List.of("work_id", "customer_id", "cloth_id", "input_date", "fashion", "exp_op_date",
+                "payable_amt", "work_done", "paid", "fin_date"), columns());
+        assertEquals(20, db.count("SELECT count(*) FROM work"));
+        assertEquals(21000, db.count("SELECT sum(payable_amt) FROM work"));
+        assertEquals(List.of(List.of("customer_id", "payable_amt")), indexes());
+        assertTrue(SchemaDB.catalog.columns("work").containsKey("payable_amt"));
+    }
+
+    @Test
+    void dropKeepsTheOtherColumnsAndTheIndexesNotOnIt() throws Exception {
+        SchemaDB.createIndex(db.conn, "work", List.of("customer_id"), false);
+        SchemaDB.createIndex(db.conn, "work", List.of("fashion"), false);
+        SchemaDB.dropColumn(db.conn, "work", "fashion");
+
+        assertEquals(List.of("work_id", "customer_id", "cloth_id", "input_date", "exp_op_date", "pay_amt",
+                "work_done", "paid", "fin_date"), columns());
+        assertEquals(20, db.count("SELECT count(*) FROM work"));
+        assertEquals(21000, db.count("SELECT sum(pay_amt) FROM work"));
+        assertEquals(List.of(List.of("customer_id")), indexes());
+    }
+
+    @Test
+    void renameAndDropWorkOnATableWithoutIndexes() throws Exception {
+        SchemaDB.renameColumn(db.conn, "work", "pay_amt", "payable_amt");
+        SchemaDB.dropColumn(db.conn, "work", "fashion");
+
+        assertEquals(List.of("work_id", "customer_id", "cloth_id", "input_date", "exp_op_date", "payable_amt",
+                "work_done", "paid", "fin_date"), columns());
+        assertEquals(21000, db.count("SELECT sum(payable_amt) FROM work"));
+        assertEquals(List.of(), indexes());
+    }
+
+    @Test
+    void rebuildInsideARolledBackScopeLeavesTheTable() throws Exception {
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            AlterTable.renameColumn(db.conn, "work", "pay_amt", "payable_amt");
+            assertTrue(columns().contains("payable_amt"));
+        }
+        assertTrue(columns().contains("pay_amt"));
+        assertEquals(20, db.count("SELECT count(*) FROM work"));
+    }
+
+    @Test
+    void rebuildKeepsTheRowids() throws Exception {
+        SchemaDB.deleteTuple(db.conn, "work", "work_id <= 5");
+        SchemaDB.renameColumn(db.conn, "work", "pay_amt", "payable_amt");
+
+        assertEquals(6, db.count("SELECT min(rowid) FROM work"));
+        assertEquals(0, db.count("SELECT count(*) FROM work WHERE rowid <> work_id"));
+    }
+
+    @Test
+    void tablesWithClausesTheRebuildWouldLoseAreRefused() throws Exception {
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("CREATE TABLE priced (id INTEGER, note TEXT, price INTEGER CHECK (price >= 0))");
+            stmt.execute("INSERT INTO priced VALUES (1, 'check', 5)");
+        }
+        assertThrows(SQLException.class, () -> AlterTable.renameColumn(db.conn, "priced", "note", "remark"));
+        assertEquals(1, db.count("SELECT count(note) FROM priced"));
+
+        // The same words inside quotes are no clause
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("CREATE TABLE labelled (id INTEGER, label TEXT DEFAULT 'check', \"collate\" TEXT)");
+        }
+        AlterTable.renameColumn(db.conn, "labelled", "label", "tag");
+        assertEquals(0, db.count("SELECT count(tag) FROM labelled"));
+    }
+
+    @Test
+    void aTriggerOnTheColumnStopsTheRebuild() throws Exception {
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("CREATE TRIGGER work_pay AFTER UPDATE OF pay_amt ON work BEGIN SELECT 1; END");
+        }
+        SchemaDB.renameColumn(db.conn, "work", "pay_amt", "payable_amt");
+
+        assertTrue(columns().contains("pay_amt"));
+        assertTrue(SchemaDB.catalog.columns("work").containsKey("pay_amt"));
+        assertEquals(1, db.count("SELECT count(*) FROM sqlite_master WHERE name = 'work_pay'"));
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncSchemaDBTest {
+    private TestDatabase db;
+    private AsyncSchemaDB async;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        async = new AsyncSchemaDB(db.pool, 1, 10_000);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        async.close();
+        db.close();
+    }
+
+    @Test
+    void callsCompleteWithTheirResultOrTheirError() throws Exception {
+        db.insertCustomer(1, "a");
+        assertTrue(async.tableExists("customer").get(5, TimeUnit.SECONDS));
+        assertTrue(async.tableFilled("customer").get(5, TimeUnit.SECONDS));
+        assertEquals("a", async.selectRow("customer", "customer_id", 1).get(5, TimeUnit.SECONDS).get("customer_name"));
+
+        CompletableFuture<Object> failing = async.call(conn -> {
+            throw new SQLException("refused");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, e.getCause());
+    }
+
+    @Test
+    void aCallWaitingForAPermitTimesOutWithoutRunning() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> holding = async.call(conn -> {
+            started.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new SQLException(e);
+            }
+        }, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The only permit is taken, so this call never gets to run
+        CountDownLatch ran = new CountDownLatch(1);
+        CompletableFuture<Void> waiting = async.call(conn -> {
+            ran.countDown();
+            return null;
+        }, 100);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+
+        release.countDown();
+        assertTrue(holding.get(5, TimeUnit.SECONDS));
+        assertTrue(async.tableExists("customer").get(5, TimeUnit.SECONDS));
+        assertFalse(ran.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void aClosedFacadeRejectsCalls() {
+        async.close();
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> async.tableExists("customer").get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackupTest {
+    private TestDatabase db;
+    private Backup backup;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        for (int i = 1; i <= 200; i++) {
+            db.insertCustomer(i, "customer " + i);
+        }
+        backup = new Backup(db.url, db.directory.resolve("backups"), 3, 1, 0);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    private static long customers(Path file) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(*) FROM customer")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    void differencesRestoreOnTopOfTheirFullCopy() throws Exception {
+        Backup.Snapshot full = backup.snapshot();
+        assertTrue(full.isFull());
+        assertNull(backup.snapshot());
+
+        db.insertCustomer(201, "new");
+        Backup.Snapshot difference = backup.snapshot();
+        assertFalse(difference.isFull());
+        assertEquals(full.getName(), difference.getBase());
+        assertTrue(difference.getChangedPages() < difference.getPages());
+
+        Path restored = db.directory.resolve("restored.db");
+        backup.restore(difference.getName(), restored);
+        assertEquals(201, customers(restored));
+        backup.restore(full.getName(), restored);
+        assertEquals(200, customers(restored));
+    }
+
+    @Test
+    void onlyTheNewestFullCopiesAreKept() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            db.insertCustomer(300 + i, "new");
+            backup.snapshot();
+        }
+        // Full, difference, difference, then a new full copy that replaces that chain
+        List<Backup.Snapshot> snapshots = backup.list();
+        assertEquals(1, snapshots.size());
+        assertTrue(snapshots.get(0).isFull());
+        Path restored = db.directory.resolve("restored.db");
+        backup.restore(snapshots.get(0).getName(), restored);
+        assertEquals(204, customers(restored));
+    }
+}
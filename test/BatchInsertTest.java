@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchInsertTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    private static List<Map<String, Object>> customers(int count, int broken) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("customer_id", i);
+            row.put(i == broken ? "no_such_column" : "customer_name", "c" + i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    void aFailingChunkIsRolledBackAloneAndReported() throws Exception {
+        BatchInsertResult result = SchemaDB.insertValuesBatch(db.conn, "customer", customers(35, 17), 10);
+
+        assertFalse(result.isSuccessful());
+        assertEquals(25, result.getRowsInserted());
+        assertEquals(10, result.getRowsFailed());
+        assertEquals(3, result.getChunksCommitted());
+        BatchInsertResult.Failure failure = result.getFailures().get(0);
+        assertEquals(1, failure.getChunkIndex());
+        assertEquals(10, failure.getFirstRow());
+        assertEquals(10, failure.getRowCount());
+        assertEquals(25, db.count("SELECT count(*) FROM customer"));
+        assertEquals(0, db.count("SELECT count(*) FROM customer WHERE customer_id BETWEEN 11 AND 20"));
+    }
+
+    @Test
+    void insideATransactionTheChunksCommitWithIt() throws Exception {
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            BatchInsertResult result = SchemaDB.insertValuesBatch(db.conn, "customer", customers(30, 0).stream(), 7);
+            assertTrue(result.isSuccessful());
+            assertEquals(30, result.getRowsInserted());
+        }
+        assertEquals(0, db.count("SELECT count(*) FROM customer"));
+
+        assertTrue(SchemaDB.insertValuesBatch(db.conn, "customer", customers(30, 0), 7).isSuccessful());
+        assertEquals(30, db.count("SELECT count(*) FROM customer"));
+    }
+}
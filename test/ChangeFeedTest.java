@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChangeFeedTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        SchemaDB.changeFeed.capture(db.conn, "customer", "customer_id");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    private static List<Long> keys(List<ChangeFeed.Change> changes) {
+        return changes.stream().map(change -> ((Number) change.getKey()).longValue()).toList();
+    }
+
+    @Test
+    void aCapturedTableKeepsBeingCapturedAfterAColumnRename() throws Exception {
+        db.insertCustomer(1, "a");
+        SchemaDB.renameColumn(db.conn, "customer", "customer_name", "full_name");
+        SchemaDB.updateTable(db.conn, "customer", "full_name", "'b'", "customer_id = 1");
+
+        List<ChangeFeed.Change> changes = SchemaDB.changeFeed.read(db.conn, 0, 10);
+        assertEquals(2, changes.size());
+        assertEquals("a", changes.get(0).getAfter().get("customer_name"));
+        assertEquals("a", changes.get(1).getBefore().get("full_name"));
+        assertEquals("b", changes.get(1).getAfter().get("full_name"));
+        assertNull(changes.get(1).getAfter().get("customer_name"));
+    }
+
+    @Test
+    void decodesEveryKindOfLiteral() {
+        Map<String, Object> values = ChangeFeed.decode("NULL,-12,'it''s, here',X'00FF',1.5,-Inf,"
+                + "0.410080811492202 -3.33066907387547e-17", List.of("a", "b", "c", "d", "e", "f", "g"));
+
+        assertNull(values.get("a"));
+        assertEquals(-12L, values.get("b"));
+        assertEquals("it's, here", values.get("c"));
+        assertArrayEquals(new byte[]{0, -1}, (byte[]) values.get("d"));
+        assertEquals(1.5, values.get("e"));
+        assertEquals(Double.NEGATIVE_INFINITY, values.get("f"));
+        assertEquals(0.410080811492202 - 3.33066907387547e-17, values.get("g"));
+        assertNull(ChangeFeed.decode(null, List.of("a")));
+    }
+
+    @Test
+    void realsComeBackToTheLastBit() throws Exception {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("id", "INTEGER");
+        columns.put("value", "REAL");
+        SchemaDB.createTable(db.conn, "reading", columns);
+        SchemaDB.changeFeed.capture(db.conn, "reading", "id");
+        double[] values = {0.1, 1.0 / 3, 0.41008081149220166, -1091227.882944709, 123456789.123456789, 2.5e-7, 1e17 / 3};
+        try (PreparedStatement pstmt = db.conn.prepareStatement("INSERT INTO reading (id, value) VALUES (?, ?)")) {
+            for (int i = 0; i < values.length; i++) {
+                pstmt.setInt(1, i);
+                pstmt.setDouble(2, values[i]);
+                pstmt.executeUpdate();
+            }
+        }
+
+        double[] logged = SchemaDB.changeFeed.read(db.conn, 0, 100).stream()
+                .mapToDouble(change -> (Double) change.getAfter().get("value")).toArray();
+        assertEquals(Arrays.toString(values), Arrays.toString(logged));
+    }
+
+    @Test
+    void aConsumerResumesAfterItsSavedOffset() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            db.insertCustomer(i, "c" + i);
+        }
+        List<ChangeFeed.Change> first = SchemaDB.changeFeed.read(db.conn, 0, 2);
+        assertEquals(List.of(1L, 2L), keys(first));
+        SchemaDB.changeFeed.saveOffset(db.conn, "billing", first.get(1).getOffset());
+
+        SchemaDB.deleteTuple(db.conn, "customer", "customer_id = 1");
+        long offset = SchemaDB.changeFeed.savedOffset(db.conn, "billing");
+        List<ChangeFeed.Change> rest = SchemaDB.changeFeed.read(db.conn, offset, 100);
+        assertEquals(List.of(3L, 4L, 5L, 1L), keys(rest));
+        assertEquals(ChangeFeed.Operation.DELETE, rest.get(3).getOperation());
+        assertEquals("c1", rest.get(3).getBefore().get("customer_name"));
+        assertEquals(rest.get(3).getOffset(), SchemaDB.changeFeed.lastOffset(db.conn));
+        assertEquals(0, SchemaDB.changeFeed.savedOffset(db.conn, "nobody"));
+
+        // Entries the consumers are done with can go without changing the offsets of the others
+        assertEquals(2, SchemaDB.changeFeed.truncate(db.conn, offset));
+        assertEquals(keys(rest), keys(SchemaDB.changeFeed.read(db.conn, 0, 100)));
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConditionTest {
+    @Test
+    void comparisonsBindTheirValues() {
+        Condition condition = Condition.eq("customer_id", 7);
+        assertEquals(List.of(7), condition.getParameters());
+        assertEquals(1, condition.getSql().chars().filter(c -> c == '?').count());
+        assertEquals(List.of(1, 5), Condition.between("pay_amt", 1, 5).getParameters());
+        assertEquals(List.of("a", "b", "c"), Condition.in("fashion", "a", "b", "c").getParameters());
+        assertEquals(List.of(), Condition.isNull("fin_date").getParameters());
+    }
+
+    @Test
+    void rendersEveryOperator() {
+        assertEquals("a >= ? AND a <= ? AND b <> ?",
+                Condition.allOf(Condition.ge("a", 1), Condition.le("a", 2), Condition.ne("b", 3)).getSql());
+        assertEquals("a > ? OR b IS NULL", Condition.anyOf(Condition.gt("a", 1), Condition.isNull("b")).getSql());
+        assertEquals("a BETWEEN ? AND ?", Condition.between("a", 1, 2).getSql());
+        assertEquals("a IN (?, ?)", Condition.in("a", List.of(1, 2)).getSql());
+        assertEquals("a IS NOT NULL", Condition.isNotNull("a").getSql());
+        assertEquals("1 = 1", Condition.all().getSql());
+    }
+
+    @Test
+    void groupsMixedAndOr() {
+        Condition condition = Condition.eq("a", 1).and(Condition.lt("b", 2)).or(Condition.not(Condition.like("c", "x%")));
+        assertEquals("(a = ? AND b < ?) OR NOT (c LIKE ?)", condition.getSql());
+        assertEquals(List.of(1, 2, "x%"), condition.getParameters());
+    }
+
+    @Test
+    void rendersAssignments() {
+        Assignments assignments = Assignments.of("a", 1).increment("b", 2).set("c", null);
+        assertEquals("a = ?, b = b + ?, c = ?", assignments.getSql());
+        assertEquals(Arrays.asList(1, 2, null), assignments.getParameters());
+    }
+
+    @Test
+    void valuesNeverBecomeSql() {
+        Condition condition = Condition.eq("customer_name", "x'; DROP TABLE customer; --");
+        assertEquals(List.of("x'; DROP TABLE customer; --"), condition.getParameters());
+        assertFalse(condition.getSql().contains("DROP"));
+    }
+
+    @Test
+    void rejectsColumnNamesThatAreNotIdentifiers() {
+        assertThrows(IllegalArgumentException.class, () -> Condition.eq("a = 1 OR 1", 1));
+        assertThrows(IllegalArgumentException.class, () -> Assignments.of("a; DROP", 1));
+    }
+}
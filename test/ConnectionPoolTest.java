@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionPoolTest {
+    private TestDatabase db;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        pool = new ConnectionPool(db.url, 0, 2, 200, 0, 60_000);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        pool.close();
+        db.close();
+    }
+
+    @Test
+    void returnedConnectionsAreReused() throws Exception {
+        Connection first = pool.getConnection();
+        assertEquals(1, pool.getActiveCount());
+        first.close();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        try (Connection second = pool.getConnection()) {
+            assertEquals(0, pool.getIdleCount());
+            assertFalse(second.isClosed());
+        }
+    }
+
+    @Test
+    void aReturnedConnectionCannotBeUsedThroughAnOldReference() throws Exception {
+        Connection conn = pool.getConnection();
+        conn.close();
+        conn.close();
+        assertTrue(conn.isClosed());
+        assertThrows(SQLException.class, conn::createStatement);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void aTransactionLeftOpenIsRolledBackOnReturn() throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("INSERT INTO customer (customer_id, customer_name) VALUES (1, 'a')");
+            }
+        }
+        try (Connection conn = pool.getConnection()) {
+            assertTrue(conn.getAutoCommit());
+        }
+        assertEquals(0, db.count("SELECT count(*) FROM customer"));
+    }
+
+    @Test
+    void borrowingFromAFullPoolTimesOut() throws Exception {
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            assertThrows(SQLException.class, pool::getConnection);
+        }
+        pool.getConnection().close();
+    }
+}
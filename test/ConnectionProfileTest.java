@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionProfileTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    private static String pragma(Connection conn, String pragma) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    @Test
+    void settingsAreReadBackAfterTheyAreApplied() throws Exception {
+        try (Connection conn = DriverManager.getConnection(db.url + "-throughput")) {
+            List<String> problems = ConnectionProfile.THROUGHPUT.apply(conn);
+
+            assertEquals("wal", pragma(conn, "journal_mode"));
+            assertEquals("1", pragma(conn, "synchronous"));
+            assertEquals("10000", pragma(conn, "cache_size"));
+            assertEquals("2", pragma(conn, "temp_store"));
+            // Only settings the library lacks are reported, such as memory-mapping before 3.7.17
+            for (String problem : problems) {
+                assertTrue(problem.contains("not supported"), problem);
+            }
+        }
+    }
+
+    @Test
+    void aPageSizeThatCannotChangeAnymoreIsReported() throws Exception {
+        db.createTable("customer");
+        ConnectionProfile profile = new ConnectionProfile("small-pages", null, null, 0, 0, null, 1024, 0);
+        try (Connection conn = DriverManager.getConnection(db.url)) {
+            List<String> problems = profile.apply(conn);
+            assertEquals(1, problems.size());
+            assertTrue(problems.get(0).startsWith("page_size is 4096 instead of 1024"), problems.get(0));
+        }
+    }
+
+    @Test
+    void readOnlyConnectionsRefuseWrites() throws Exception {
+        db.createTable("customer");
+        ConnectionProfile reader = ConnectionProfile.DURABLE.asReadOnly();
+        assertTrue(reader.isReadOnly());
+        assertSame(reader, reader.asReadOnly());
+        assertFalse(ConnectionProfile.DURABLE.isReadOnly());
+
+        try (Connection conn = DriverManager.getConnection(db.url, reader.connectionProperties());
+             Statement stmt = conn.createStatement()) {
+            reader.apply(conn);
+            assertEquals(0, db.count("SELECT count(*) FROM customer"));
+            assertThrows(SQLException.class, () -> stmt.executeUpdate("INSERT INTO customer (customer_id) VALUES (1)"));
+        }
+    }
+
+    @Test
+    void presetsAreFoundByName() {
+        assertSame(ConnectionProfile.BULK_LOAD, ConnectionProfile.named("Bulk-Load"));
+        assertThrows(IllegalArgumentException.class, () -> ConnectionProfile.named("fast"));
+    }
+}
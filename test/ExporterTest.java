@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ExporterTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("id", "INTEGER");
+        columns.put("name", "TEXT");
+        columns.put("price", "REAL");
+        columns.put("data", "BLOB");
+        SchemaDB.createTable(db.conn, "item", columns);
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("INSERT INTO item VALUES (1, 'a,b', 1.5, x'00ff')");
+            stmt.execute("INSERT INTO item VALUES (2, '', NULL, NULL)");
+            stmt.execute("INSERT INTO item VALUES (3, NULL, -2.25, x'')");
+            stmt.execute("INSERT INTO item VALUES (-40, 'say \"hi\"', 0.1, x'7f')");
+            stmt.execute("INSERT INTO item VALUES (5000000000, 'line\nbreak', 3.0, NULL)");
+        }
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void csvTellsEmptyTextFromNull() throws Exception {
+        Path file = db.directory.resolve("item.csv");
+        assertEquals(5, new Exporter(Exporter.Format.CSV, 64, 16, false).export(db.conn, "item", null, file));
+
+        assertEquals("id,name,price,data\n"
+                + "1,\"a,b\",1.5,00ff\n"
+                + "2,\"\",,\n"
+                + "3,,-2.25,\n"
+                + "-40,\"say \"\"hi\"\"\",0.1,7f\n"
+                + "5000000000,\"line\nbreak\",3.0,\n", Files.readString(file));
+        assertFalse(Files.exists(db.directory.resolve("item.csv.tmp")));
+    }
+
+    @Test
+    void columnarFilesReadBackValueForValue() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            Path file = db.directory.resolve("item.col");
+            assertEquals(5, new Exporter(Exporter.Format.COLUMNAR, 64, 2, compress).export(db.conn, "item", null, file));
+
+            List<Object[]> rows = new ArrayList<>();
+            assertEquals(5, Exporter.readColumnar(file, row -> rows.add(Arrays.copyOf(row, row.length))));
+            assertArrayEquals(new Object[]{"id", "name", "price", "data"}, rows.get(0));
+            assertArrayEquals(new Object[]{1L, "a,b", 1.5, new byte[]{0, -1}}, rows.get(1));
+            assertArrayEquals(new Object[]{2L, "", null, null}, rows.get(2));
+            assertArrayEquals(new Object[]{3L, null, -2.25, new byte[0]}, rows.get(3));
+            assertArrayEquals(new Object[]{-40L, "say \"hi\"", 0.1, new byte[]{0x7f}}, rows.get(4));
+            assertArrayEquals(new Object[]{5000000000L, "line\nbreak", 3.0, null}, rows.get(5));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdAllocatorTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        db.insertCustomer(41, "existing");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void startsAfterTheLargestIdAndIncreases() throws Exception {
+        IdAllocator allocator = new IdAllocator(db.pool, 10);
+        long previous = 41;
+        for (int i = 0; i < 35; i++) {
+            long id = allocator.nextId("customer", "customer_id");
+            assertTrue(id > previous, id + " after " + previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    void allocatorsSharingTheDatabaseNeverHandOutTheSameId() throws Exception {
+        // Two allocators stand for two processes: they only share the sequence table
+        IdAllocator first = new IdAllocator(db.pool, 7);
+        IdAllocator second = new IdAllocator(db.pool, 7);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Long>>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                IdAllocator allocator = t % 2 == 0 ? first : second;
+                results.add(threads.submit(() -> {
+                    List<Long> ids = new ArrayList<>();
+                    for (int i = 0; i < 100; i++) {
+                        ids.add(allocator.nextId("customer", "customer_id"));
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> unique = new HashSet<>();
+            for (Future<List<Long>> result : results) {
+                unique.addAll(result.get());
+            }
+            assertEquals(400, unique.size());
+            assertTrue(unique.stream().allMatch(id -> id > 41));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void schemaDbAllocatesPerColumn() throws Exception {
+        long customer = SchemaDB.nextId(db.conn, "customer", "customer_id");
+        db.createTable("cloths");
+        long cloth = SchemaDB.nextId(db.conn, "cloths", "cloth_id");
+        assertEquals(42, customer);
+        assertEquals(1, cloth);
+    }
+
+    @Test
+    void immediateScopeReservesOnItsOwnConnection() throws Exception {
+        IdAllocator allocator = new IdAllocator(db.pool, 10);
+        long committed = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            try (Transaction tx = Transaction.begin(db.conn, Transaction.Mode.IMMEDIATE)) {
+                long id = allocator.nextId(db.conn, "customer", "customer_id");
+                db.insertCustomer(id, "in scope");
+                tx.commit();
+                return id;
+            }
+        });
+        assertEquals(42, committed);
+
+        // The scope's block ended with it; the next block starts above it
+        long next = allocator.nextId(db.conn, "customer", "customer_id");
+        assertTrue(next > committed + 9, String.valueOf(next));
+    }
+
+    @Test
+    void blockReservedInARolledBackScopeIsReservedAgain() throws Exception {
+        IdAllocator allocator = new IdAllocator(db.pool, 10);
+        long rolledBack;
+        try (Transaction tx = Transaction.begin(db.conn, Transaction.Mode.IMMEDIATE)) {
+            rolledBack = allocator.nextId(db.conn, "customer", "customer_id");
+            assertNotEquals(rolledBack, allocator.nextId(db.conn, "customer", "customer_id"));
+        }
+        assertEquals(rolledBack, allocator.nextId(db.conn, "customer", "customer_id"));
+    }
+}
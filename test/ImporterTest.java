@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImporterTest {
+    private TestDatabase db;
+    private Path file;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        SchemaDB.createIndex(db.conn, "customer", List.of("customer_id"), true);
+
+        StringBuilder csv = new StringBuilder("customer_id,customer_name,phone_no\n");
+        for (int i = 1; i <= 40; i++) {
+            csv.append(i).append(",\"name ").append(i).append("\",").append(i == 5 ? "unknown" : 5550000 + i).append('\n');
+        }
+        file = db.directory.resolve("customers.csv");
+        Files.writeString(file, csv);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void aRunStoppedByARejectedChunkResumesAfterTheLastCommittedOne() throws Exception {
+        // Chunks of about four lines; customer 30 already exists, so its chunk breaks the unique index
+        Importer importer = new Importer("customer", Importer.Format.CSV, 100, 2, 3);
+        db.insertCustomer(30, "existing");
+        assertThrows(SQLException.class, () -> importer.run(db.conn, file, null));
+        long committed = db.count("SELECT count(*) FROM customer") - 1;
+        assertTrue(committed > 0 && committed < 29, committed + " rows committed");
+        assertEquals(0, db.count("SELECT count(*) FROM customer WHERE customer_id > 30"));
+
+        SchemaDB.deleteTuple(db.conn, "customer", "customer_id = 30");
+        Importer.Result result = importer.run(db.conn, file, null);
+        assertTrue(result.getResumedFrom() > 0);
+        assertEquals(39 - committed, result.getRowsImported());
+        assertEquals(39, db.count("SELECT count(*) FROM customer"));
+        assertEquals(0, db.count("SELECT count(*) FROM customer WHERE customer_id = 5"));
+
+        // A finished file is not imported again until it is forgotten
+        assertEquals(0, importer.run(db.conn, file, null).getRowsImported());
+        importer.forget(db.conn, file);
+        SchemaDB.deleteTuple(db.conn, "customer", "customer_id > 0");
+        assertEquals(39, importer.run(db.conn, file, null).getRowsImported());
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexAdvisorTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        SchemaDB.indexAdvisor.reset();
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        SchemaDB.indexAdvisor.reset();
+        db.close();
+    }
+
+    @Test
+    void anIndexLeadsWithTheEqualityColumnsThenOneRange() {
+        Condition where = Condition.allOf(Condition.gt("Phone_No", 1), Condition.eq("customer_name", "a"),
+                Condition.lt("customer_id", 9), Condition.eq("phone_no", 5));
+        assertEquals(List.of("customer_name", "phone_no", "customer_id"), IndexAdvisor.indexColumns(where));
+
+        assertTrue(IndexAdvisor.isFullScan("TABLE customer", "customer"));
+        assertTrue(IndexAdvisor.isFullScan("SCAN TABLE customer", "customer"));
+        assertFalse(IndexAdvisor.isFullScan("TABLE customer WITH INDEX customer_name_idx", "customer"));
+        assertFalse(IndexAdvisor.isFullScan("TABLE customer USING PRIMARY KEY", "customer"));
+        assertFalse(IndexAdvisor.isFullScan("SEARCH TABLE customer USING INDEX i (customer_name=?)", "customer"));
+    }
+
+    @Test
+    void scanningStatementsAreRecommendedUntilTheirIndexExists() {
+        for (int i = 0; i < 3; i++) {
+            SchemaDB.deleteTuple(db.conn, "customer", Condition.eq("customer_name", "c" + i));
+        }
+        SchemaDB.updateTable(db.conn, "customer", Assignments.of("phone_no", 0),
+                Condition.eq("customer_name", "c"));
+
+        List<IndexAdvisor.Recommendation> recommendations = SchemaDB.indexAdvisor.recommendations();
+        assertEquals(1, recommendations.size());
+        assertEquals("customer", recommendations.get(0).getTableName());
+        assertEquals(List.of("customer_name"), recommendations.get(0).getColumns());
+        assertEquals(4, recommendations.get(0).getUses());
+
+        assertEquals(1, SchemaDB.indexAdvisor.apply(db.conn));
+        // Creating the index makes the statements check their plans again, which now use it
+        SchemaDB.deleteTuple(db.conn, "customer", Condition.eq("customer_name", "c"));
+        assertTrue(SchemaDB.indexAdvisor.recommendations().isEmpty());
+    }
+
+    @Test
+    void autoCreateAddsTheIndexOnceAStatementScannedEnough() throws Exception {
+        IndexAdvisor advisor = new IndexAdvisor();
+        advisor.autoCreate = true;
+        advisor.minUses = 3;
+        Condition where = Condition.eq("phone_no", 1);
+        String sql = "SELECT * FROM customer WHERE " + where.getSql();
+
+        advisor.record(db.conn, "customer", sql, where);
+        advisor.record(db.conn, "customer", sql, where);
+        assertEquals(0, db.count("SELECT count(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = 'customer'"));
+        advisor.record(db.conn, "customer", sql, where);
+        assertEquals(1, db.count("SELECT count(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = 'customer'"));
+        assertTrue(advisor.recommendations().isEmpty());
+    }
+}
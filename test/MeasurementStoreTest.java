@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeasurementStoreTest {
+    private TestDatabase db;
+    private final MeasurementStore store = new MeasurementStore();
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void measurementsReadBackAsStored() throws Exception {
+        Map<String, Object> measurements = new LinkedHashMap<>();
+        measurements.put("chest", 102);
+        measurements.put("offset", -3_000_000_000L);
+        measurements.put("sleeve", 61.25);
+        measurements.put("note", "loose fit");
+        measurements.put("pattern", new byte[]{1, 2, -1});
+        measurements.put("lined", true);
+        measurements.put("collar", null);
+        store.put(db.conn, 7, 1, measurements);
+        store.put(db.conn, 8, 1, Map.of("waist", 80));
+
+        Map<String, Object> read = store.get(db.conn, 7, 1);
+        assertEquals(List.of("chest", "offset", "sleeve", "note", "pattern", "lined"), List.copyOf(read.keySet()));
+        assertEquals(102L, read.get("chest"));
+        assertEquals(-3_000_000_000L, read.get("offset"));
+        assertEquals(61.25, read.get("sleeve"));
+        assertEquals("loose fit", read.get("note"));
+        assertArrayEquals(new byte[]{1, 2, -1}, (byte[]) read.get("pattern"));
+        assertEquals(1L, read.get("lined"));
+
+        assertEquals(List.of(7L, 8L), List.copyOf(store.forCustomer(db.conn, 1).keySet()));
+        assertTrue(store.delete(db.conn, 7, 1));
+        assertNull(store.get(db.conn, 7, 1));
+    }
+
+    @Test
+    void anInterruptedMigrationResumesAfterItsLastBatch() throws Exception {
+        db.createTable("cloths");
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("customer_id", "INTEGER");
+        columns.put("chest", "INTEGER");
+        SchemaDB.createTable(db.conn, "shirt", columns);
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("INSERT INTO cloths (cloth_id, cloth_name) VALUES (1, 'shirt')");
+            for (int i = 1; i <= 10; i++) {
+                stmt.execute("INSERT INTO shirt (customer_id, chest) VALUES (" + i + ", " + (90 + i) + ")");
+            }
+            store.createTables(db.conn);
+            stmt.execute("CREATE TRIGGER stop_migration BEFORE INSERT ON " + MeasurementStore.TABLE
+                    + " WHEN NEW.customer_id = 7 BEGIN SELECT RAISE(ABORT, 'stopped'); END");
+        }
+
+        // Batches of three: the first two commit, the third fails on customer 7
+        assertThrows(SQLException.class, () -> store.migrate(db.conn, 3, true));
+        assertTrue(db.conn.getAutoCommit());
+        assertEquals(6, db.count("SELECT count(*) FROM " + MeasurementStore.TABLE));
+
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("DROP TRIGGER stop_migration");
+        }
+        MeasurementStore.MigrationResult result = store.migrate(db.conn, 3, true);
+        assertEquals(4, result.getRowsMigrated());
+        assertEquals(1, result.getTablesMigrated());
+        assertEquals(10, db.count("SELECT count(*) FROM " + MeasurementStore.TABLE));
+        assertEquals(97L, store.get(db.conn, 1, 7).get("chest"));
+        assertFalse(SchemaDB.tableExists(db.conn, "shirt"));
+
+        // A finished migration has nothing left to do
+        assertEquals(0, store.migrate(db.conn, 3, true).getRowsMigrated());
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+    @AfterEach
+    void enable() {
+        Metrics.setEnabled(true);
+    }
+
+    @Test
+    void percentilesAreWithinTheBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMax());
+        assertEquals(5_000_500, histogram.getMean(), 1e-6);
+        for (double percentile : new double[]{50, 95, 99}) {
+            double expected = percentile * 100_000;
+            long reported = histogram.getPercentile(percentile);
+            assertTrue(reported >= expected && reported <= expected * 1.04, percentile + ": " + reported);
+        }
+        assertEquals(10_000_000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    void operationsCountCallsAndErrorsUnlessDisabled() {
+        Metrics.Operation operation = Metrics.operation("test.operation");
+        assertSame(operation, Metrics.operation("test.operation"));
+        operation.reset();
+
+        operation.stop(operation.start());
+        long start = operation.start();
+        operation.failed();
+        operation.stop(start);
+        assertEquals(2, operation.getCount());
+        assertEquals(1, operation.getErrors());
+
+        Metrics.setEnabled(false);
+        operation.stop(operation.start());
+        operation.failed();
+        assertEquals(2, operation.getCount());
+        assertEquals(1, operation.getErrors());
+    }
+
+    @Test
+    void schemaDbCallsAreTimedAndCounted() throws Exception {
+        try (TestDatabase db = new TestDatabase()) {
+            db.createTable("customer");
+            Metrics.Operation insert = Metrics.operations().get("insertValues");
+            long calls = insert.getCount();
+            long written = Metrics.ROWS_WRITTEN.getCount();
+            db.insertCustomer(1, "a");
+            assertEquals(calls + 1, insert.getCount());
+            assertEquals(written + 1, Metrics.ROWS_WRITTEN.getCount());
+
+            Metrics.Operation delete = Metrics.operations().get("deleteTuple");
+            long errors = delete.getErrors();
+            SchemaDB.deleteTuple(db.conn, "customer", "no_such_column = 1");
+            assertEquals(errors + 1, delete.getErrors());
+        }
+    }
+}
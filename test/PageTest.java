@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        // Inserted out of order, with a duplicate sort key
+        for (long id : new long[]{5, 3, 9, 1, 7, 2, 8, 4, 6, 10}) {
+            db.insertCustomer(id, id == 4 ? "name3" : "name" + id);
+        }
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void cursorsWalkEveryRowOnce() throws Exception {
+        List<Object> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            Page page = SchemaDB.selectPage(db.conn, "customer", List.of("customer_id"), "customer_id", 3, cursor);
+            for (Map<String, Object> row : page.getRows()) {
+                ids.add(((Number) row.get("customer_id")).longValue());
+            }
+            cursor = page.getNextCursor();
+            assertEquals(cursor != null, page.hasNext());
+            pages++;
+        } while (cursor != null);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), ids);
+        assertEquals(4, pages);
+    }
+
+    @Test
+    void duplicateSortKeysAreNeitherSkippedNorRepeated() throws Exception {
+        List<Object> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page page = SchemaDB.selectPage(db.conn, "customer", null, "customer_name", 1, cursor);
+            ids.add(((Number) page.getRows().get(0).get("customer_id")).longValue());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(10, ids.size());
+        assertEquals(10, ids.stream().distinct().count());
+    }
+
+    @Test
+    void rowsInsertedBetweenPagesShiftNothing() throws Exception {
+        Page first = SchemaDB.selectPage(db.conn, "customer", null, "customer_id", 5, null);
+        db.insertCustomer(0, "before the cursor");
+        Page second = SchemaDB.selectPage(db.conn, "customer", null, "customer_id", 5, first.getNextCursor());
+        assertEquals(6L, ((Number) second.getRows().get(0).get("customer_id")).longValue());
+        assertFalse(second.hasNext());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    void rejectsCursorOfAnotherSortColumn() throws Exception {
+        Page first = SchemaDB.selectPage(db.conn, "customer", null, "customer_id", 5, null);
+        assertTrue(first.hasNext());
+        assertThrows(IllegalArgumentException.class, () ->
+                SchemaDB.selectPage(db.conn, "customer", null, "customer_name", 5, first.getNextCursor()));
+    }
+}
@@ -0,0 +1,47 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadWriteRouterTest {
+    private TestDatabase db;
+    private ReadWriteRouter router;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        db.insertCustomer(41, "existing");
+        router = new ReadWriteRouter(db.url, 2, 200, ConnectionProfile.fromSystemProperties());
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        router.close();
+        db.close();
+    }
+
+    @Test
+    void idsAreReservedOnTheWriter() throws Exception {
+        // With the writer taken, no block can be reserved
+        try (Connection writer = router.writer()) {
+            assertEquals(-1, router.nextId("customer", "customer_id"));
+        }
+        long first = router.nextId("customer", "customer_id");
+        assertEquals(42, first);
+
+        // Other allocators on the same file reserve blocks after the router's
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 150; i++) {
+            assertTrue(ids.add(router.nextId("customer", "customer_id")));
+            assertTrue(ids.add(IdAllocator.forUrl(db.url).nextId("customer", "customer_id")));
+        }
+        assertTrue(ids.stream().allMatch(id -> id > first));
+    }
+}
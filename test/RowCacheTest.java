@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RowCacheTest {
+    private TestDatabase db;
+    private RowCache.Region region;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        db.insertCustomer(1, "Asha");
+        db.insertCustomer(2, "Ravi");
+        SchemaDB.rowCache.configure("customer", "customer_id", 100, 60_000);
+        region = SchemaDB.rowCache.region("customer");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        SchemaDB.rowCache.remove("customer");
+        db.close();
+    }
+
+    @Test
+    void secondReadIsServedFromTheCache() throws Exception {
+        assertEquals("Asha", SchemaDB.selectRow(db.conn, "customer", "customer_id", 1).get("customer_name"));
+        assertEquals("Asha", SchemaDB.selectRow(db.conn, "customer", "customer_id", 1).get("customer_name"));
+        assertEquals(1, region.getMisses());
+        assertEquals(1, region.getHits());
+    }
+
+    @Test
+    void updateInvalidatesTheRowsItChanges() throws Exception {
+        SchemaDB.selectRow(db.conn, "customer", "customer_id", 1);
+        SchemaDB.selectRow(db.conn, "customer", "customer_id", 2);
+        SchemaDB.updateTable(db.conn, "customer", Assignments.of("customer_name", "Asha K"),
+                Condition.eq("customer_id", 1));
+        assertEquals("Asha K", SchemaDB.selectRow(db.conn, "customer", "customer_id", 1).get("customer_name"));
+        assertEquals("Ravi", SchemaDB.selectRow(db.conn, "customer", "customer_id", 2).get("customer_name"));
+    }
+
+    @Test
+    void deleteAndStringUpdateInvalidate() throws Exception {
+        SchemaDB.selectRow(db.conn, "customer", "customer_id", 2);
+        SchemaDB.deleteTuple(db.conn, "customer", Condition.eq("customer_id", 2));
+        assertNull(SchemaDB.selectRow(db.conn, "customer", "customer_id", 2));
+
+        SchemaDB.selectRow(db.conn, "customer", "customer_id", 1);
+        SchemaDB.updateTable(db.conn, "customer", "customer_name", "'Asha R'", "customer_id = 1");
+        assertEquals("Asha R", SchemaDB.selectRow(db.conn, "customer", "customer_id", 1).get("customer_name"));
+    }
+
+    @Test
+    void transactionReadsItsOwnWritesAndCachesNothingUntilItEnds() throws Exception {
+        SchemaDB.selectRow(db.conn, "customer", "customer_id", 1);
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            SchemaDB.updateTable(db.conn, "customer", Assignments.of("customer_name", "Uncommitted"),
+                    Condition.eq("customer_id", 1));
+            assertEquals("Uncommitted", SchemaDB.selectRow(db.conn, "customer", "customer_id", 1).get("customer_name"));
+            // Rolled back on close
+        }
+        assertEquals("Asha", SchemaDB.selectRow(db.conn, "customer", "customer_id", 1).get("customer_name"));
+    }
+}
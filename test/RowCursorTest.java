@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RowCursorTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        db.insertCustomer(1, "a");
+        db.insertCustomer(2, "b");
+        db.insertCustomer(3, "c");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void readsTypedValuesRowByRow() throws Exception {
+        try (RowCursor cursor = SchemaDB.openCursor(db.conn, "customer", List.of("customer_id", "customer_name", "age"), 2)) {
+            assertEquals(List.of("customer_id", "customer_name", "age"), cursor.getColumnNames());
+            assertEquals(2, cursor.columnIndex("customer_name"));
+
+            assertTrue(cursor.next());
+            assertEquals(Types.INTEGER, cursor.getValueType(1));
+            assertEquals(1L, cursor.getLong("customer_id"));
+            assertEquals("a", cursor.getString(2));
+            assertEquals(Types.NULL, cursor.getValueType(3));
+            cursor.getString(3);
+            assertTrue(cursor.wasNull());
+
+            assertTrue(cursor.next());
+            assertTrue(cursor.next());
+            assertFalse(cursor.next());
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    void streamsMappedRowsLazily() throws Exception {
+        try (Stream<String> names = SchemaDB.streamColumns(db.conn, "customer", null, 0,
+                row -> row.getString("customer_name"))) {
+            assertEquals("a,b,c", names.collect(Collectors.joining(",")));
+        }
+        try (Stream<Long> ids = SchemaDB.streamColumns(db.conn, "customer", List.of("customer_id"), 0,
+                row -> row.getLong(1))) {
+            assertEquals(List.of(1L), ids.limit(1).toList());
+        }
+    }
+
+    @Test
+    void aMissingTableIsAnError() {
+        assertThrows(SQLException.class, () -> SchemaDB.openCursor(db.conn, "no_such_table", null, 0));
+    }
+}
@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaCatalogTest {
+    private TestDatabase db;
+    private SchemaCatalog catalog;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        catalog = new SchemaCatalog();
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    private void createElsewhere(String tableName) throws Exception {
+        try (Connection other = DriverManager.getConnection(db.url);
+             Statement stmt = other.createStatement()) {
+            stmt.execute("CREATE TABLE " + tableName + " (id INTEGER)");
+        }
+    }
+
+    @Test
+    void tablesCreatedElsewhereAreSeenOnlyWhenTheSchemaVersionIsChecked() throws Exception {
+        assertTrue(catalog.tableExists(db.conn, "CUSTOMER"));
+        createElsewhere("other");
+        assertFalse(catalog.tableExists(db.conn, "other"));
+
+        catalog.verifySchemaVersion = true;
+        assertTrue(catalog.tableExists(db.conn, "other"));
+        createElsewhere("third");
+        assertTrue(catalog.tableExists(db.conn, "third"));
+    }
+
+    @Test
+    void ownDdlKeepsTheCatalogCurrent() throws Exception {
+        assertFalse(catalog.tableExists(db.conn, "made_here"));
+        catalog.tableCreated(db.conn, "made_here");
+        assertTrue(catalog.tableExists(db.conn, "made_here"));
+        catalog.tableRenamed(db.conn, "made_here", "renamed");
+        assertFalse(catalog.tableExists(db.conn, "made_here"));
+        assertTrue(catalog.tableExists(db.conn, "renamed"));
+        catalog.tableDropped(db.conn, "renamed");
+        assertFalse(catalog.tableExists(db.conn, "renamed"));
+    }
+
+    @Test
+    void onlyFilledTablesAreRemembered() throws Exception {
+        assertFalse(SchemaDB.catalog.isKnownFilled("customer"));
+        db.insertCustomer(1, "a");
+        assertTrue(SchemaDB.catalog.isKnownFilled("customer"));
+        SchemaDB.deleteTuple(db.conn, "customer", "customer_id = 1");
+        assertFalse(SchemaDB.catalog.isKnownFilled("customer"));
+
+        // A table is not taken for empty after a delete: the next one still runs
+        db.insertCustomer(2, "b");
+        SchemaDB.catalog.forgetFilled("customer");
+        SchemaDB.deleteTuple(db.conn, "customer", "customer_id = 2");
+        assertEquals(0, db.count("SELECT count(*) FROM customer"));
+    }
+
+    @Test
+    void snapshotsDoNotChangeUnderTheirReaders() {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("b_id", "INTEGER");
+        columns.put("a_name", "TEXT");
+        catalog.define("Item", columns);
+        SchemaCatalog.Snapshot before = catalog.snapshot();
+
+        catalog.renameColumn("item", "a_name", "z_name");
+        catalog.addColumn("item", "c_size", "REAL");
+        catalog.dropColumn("item", "b_id");
+        assertEquals(List.of("z_name", "c_size"), List.copyOf(catalog.columns("ITEM").keySet()));
+        assertEquals(List.of("b_id", "a_name"), List.copyOf(before.columns("item").keySet()));
+        assertTrue(catalog.snapshot().getVersion() > before.getVersion());
+        assertThrows(UnsupportedOperationException.class, () -> before.columns("item").put("x", "TEXT"));
+
+        catalog.restoreColumns("item", null);
+        assertNull(catalog.columns("item"));
+        catalog.restoreColumns("item", before.columns("item"));
+        assertEquals(List.of("b_id", "a_name"), List.copyOf(catalog.columns("item").keySet()));
+    }
+
+    @Test
+    void concurrentChangesAreAllKept() throws Exception {
+        catalog.define("item", Map.of("id", "INTEGER"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String column = "c" + i;
+                futures.add(executor.submit(() -> catalog.addColumn("item", column, "TEXT")));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(201, catalog.columns("item").size());
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementCacheTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        db.insertCustomer(1, "a");
+        db.insertCustomer(2, "b");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void normalizesWhitespaceOutsideQuotes() {
+        assertEquals("SELECT * FROM t WHERE a = ' x  y'",
+                StatementCache.normalize("  SELECT *\n  FROM t\tWHERE a =  ' x  y'  "));
+    }
+
+    @Test
+    void invalidationLeavesStatementsInUseOpenAndPreparesThemAgain() throws Exception {
+        try (Connection other = db.pool.getConnection()) {
+            String sql = "SELECT customer_id FROM customer ORDER BY customer_id";
+            PreparedStatement inUse = StatementCache.prepare(other, sql);
+            assertSame(inUse, StatementCache.prepare(other, sql));
+            try (ResultSet rs = inUse.executeQuery()) {
+                assertTrue(rs.next());
+
+                // DDL on another connection while the result is being read
+                StatementCache.invalidateTable("customer");
+                assertTrue(rs.next());
+                assertEquals(2, rs.getInt(1));
+            }
+
+            PreparedStatement prepared = StatementCache.prepare(other, sql);
+            assertNotSame(inUse, prepared);
+            assertSame(prepared, StatementCache.prepare(other, sql));
+        }
+    }
+
+    @Test
+    void unpooledCachesGoWithTheirConnection() throws Exception {
+        Connection released = DriverManager.getConnection(db.url);
+        StatementCache first = StatementCache.of(released);
+        StatementCache.prepare(released, "SELECT 1");
+        assertSame(first, StatementCache.of(released));
+        SchemaDB.closeConnection(released);
+        assertNotSame(first, StatementCache.of(released));
+        StatementCache.release(released);
+
+        // A connection closed directly is forgotten once another one gets a cache
+        Connection closed = DriverManager.getConnection(db.url);
+        StatementCache dropped = StatementCache.of(closed);
+        StatementCache.prepare(closed, "SELECT 1");
+        closed.close();
+        try (Connection other = DriverManager.getConnection(db.url)) {
+            StatementCache.prepare(other, "SELECT 1");
+            assertNotSame(dropped, StatementCache.of(closed));
+            StatementCache.release(closed);
+            StatementCache.release(other);
+        }
+    }
+
+    @Test
+    void updatesWithInlinedValuesTakeNoCacheEntry() throws Exception {
+        // The emptiness check a delete makes necessary is cached once, whatever the condition
+        SchemaDB.deleteTuple(db.conn, "customer", "customer_id = 99");
+        SchemaDB.deleteTuple(db.conn, "customer", "customer_id = 98");
+        StatementCache cache = StatementCache.of(db.conn);
+        int size = cache.size();
+        for (int i = 0; i < 5; i++) {
+            SchemaDB.updateTable(db.conn, "customer", "customer_name", "'n" + i + "'", "customer_id = " + i);
+            SchemaDB.deleteTuple(db.conn, "customer", "customer_id = " + (100 + i));
+        }
+        assertEquals(size, cache.size());
+        assertEquals(1, db.count("SELECT count(*) FROM customer WHERE customer_name = 'n1'"));
+    }
+}
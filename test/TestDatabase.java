@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.stream.Stream;
+
+/**
+ * A database file of its own for one test, in a temporary directory deleted on close.
+ * <p>
+ * The schema catalog and the row cache are shared by every SchemaDB connection, so they are reset to the new
+ * database when it is opened.
+ */
+final class TestDatabase implements AutoCloseable {
+    final Path directory;
+    final String url;
+    final ConnectionPool pool;
+    final Connection conn;
+
+    TestDatabase() throws IOException, SQLException {
+        Log.setLevel(Log.Level.ERROR);
+        directory = Files.createTempDirectory("schemadb-test");
+        url = "jdbc:sqlite:" + directory.resolve("test.db");
+        pool = ConnectionPool.forUrl(url);
+        conn = pool.getConnection();
+        SchemaDB.catalog.seed(conn);
+        SchemaDB.rowCache.clear();
+    }
+
+    /**
+     * Creates one of the tables of {@link SchemaDB#main}.
+     */
+    void createTable(String tableName) {
+        switch (tableName) {
+            case "cloths":
+                SchemaDB.createTable(conn, tableName, SchemaDB.createClothsTable());
+                break;
+            case "customer":
+                SchemaDB.createTable(conn, tableName, SchemaDB.createCustomerTable());
+                break;
+            default:
+                SchemaDB.createTable(conn, tableName, SchemaDB.createWorkTable());
+                break;
+        }
+    }
+
+    void insertCustomer(long id, String name) {
+        Hashtable<String, Object> values = new Hashtable<>();
+        values.put("customer_id", id);
+        values.put("customer_name", name);
+        values.put("phone_no", 5550000 + id);
+        SchemaDB.insertValues(conn, "customer", values);
+    }
+
+    void insertWork(long id, long customerId, long clothId, long payAmount) {
+        Hashtable<String, Object> values = new Hashtable<>();
+        values.put("work_id", id);
+        values.put("customer_id", customerId);
+        values.put("cloth_id", clothId);
+        values.put("exp_op_date", "2026-11-0" + (1 + id % 3));
+        values.put("pay_amt", payAmount);
+        values.put("work_done", 0);
+        values.put("paid", 0);
+        SchemaDB.insertValues(conn, "work", values);
+    }
+
+    long count(String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Override
+    public void close() throws IOException, SQLException {
+        conn.close();
+        pool.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
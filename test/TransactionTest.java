@@ -0,0 +1,225 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    private long customers() throws SQLException {
+        return db.count("SELECT count(*) FROM customer");
+    }
+
+    @Test
+    void commitKeepsEveryStep() throws Exception {
+        try (Transaction tx = Transaction.begin(db.conn, Transaction.Mode.IMMEDIATE)) {
+            db.insertCustomer(1, "a");
+            db.insertCustomer(2, "b");
+            tx.commit();
+        }
+        assertEquals(2, customers());
+        assertTrue(db.conn.getAutoCommit());
+        assertFalse(Transaction.isActive(db.conn));
+    }
+
+    @Test
+    void closingWithoutCommitRollsBack() throws Exception {
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            db.insertCustomer(1, "a");
+            assertEquals(1, customers());
+        }
+        assertEquals(0, customers());
+        assertTrue(db.conn.getAutoCommit());
+    }
+
+    @Test
+    void nestedScopeRollsBackOnItsOwn() throws Exception {
+        try (Transaction outer = Transaction.begin(db.conn)) {
+            db.insertCustomer(1, "kept");
+            try (Transaction inner = Transaction.begin(db.conn)) {
+                assertTrue(inner.isNested());
+                assertEquals(2, inner.getDepth());
+                db.insertCustomer(2, "discarded");
+                inner.rollback();
+            }
+            try (Transaction inner = Transaction.begin(db.conn)) {
+                db.insertCustomer(3, "kept too");
+                inner.commit();
+            }
+            outer.commit();
+        }
+        assertEquals(2, customers());
+        assertEquals(0, db.count("SELECT count(*) FROM customer WHERE customer_id = 2"));
+    }
+
+    @Test
+    void outerRollbackDiscardsCommittedNestedScopes() throws Exception {
+        try (Transaction outer = Transaction.begin(db.conn)) {
+            try (Transaction inner = Transaction.begin(db.conn)) {
+                db.insertCustomer(1, "a");
+                inner.commit();
+            }
+            outer.rollback();
+        }
+        assertEquals(0, customers());
+    }
+
+    @Test
+    void outerScopeCannotCommitOverAnOpenNestedScope() throws Exception {
+        try (Transaction outer = Transaction.begin(db.conn)) {
+            Transaction inner = Transaction.begin(db.conn);
+            assertThrows(IllegalStateException.class, outer::commit);
+            inner.commit();
+            outer.commit();
+        }
+    }
+
+    @Test
+    void runCommitsOrRollsBack() throws Exception {
+        assertThrows(SQLException.class, () -> Transaction.run(db.conn, Transaction.Mode.DEFERRED, conn -> {
+            db.insertCustomer(1, "a");
+            throw new SQLException("failed");
+        }));
+        assertEquals(0, customers());
+        long inserted = Transaction.run(db.conn, Transaction.Mode.IMMEDIATE, conn -> {
+            db.insertCustomer(1, "a");
+            return customers();
+        });
+        assertEquals(1, inserted);
+        assertEquals(1, customers());
+    }
+
+    @Test
+    void completionsRunOnceTheOutermostScopeEnds() throws Exception {
+        List<String> ran = new ArrayList<>();
+        try (Transaction outer = Transaction.begin(db.conn)) {
+            try (Transaction inner = Transaction.begin(db.conn)) {
+                Transaction.afterCompletion(db.conn, () -> ran.add("inner"));
+                inner.commit();
+            }
+            assertEquals(List.of(), ran);
+            outer.commit();
+        }
+        assertEquals(List.of("inner"), ran);
+        Transaction.afterCompletion(db.conn, () -> ran.add("no scope"));
+        assertEquals(List.of("inner", "no scope"), ran);
+    }
+
+    @Test
+    void batchInsideAScopeCommitsWithIt() throws Exception {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 1; i <= 25; i++) {
+            rows.add(Map.of("customer_id", i, "customer_name", "c" + i));
+        }
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            BatchInsertResult result = SchemaDB.insertValuesBatch(db.conn, "customer", rows, 10);
+            assertEquals(25, result.getRowsInserted());
+        }
+        assertEquals(0, customers());
+    }
+
+    @Test
+    void rollbackActionsRunForTheScopeAndTheScopesItCommitted() throws Exception {
+        List<String> ran = new ArrayList<>();
+        try (Transaction outer = Transaction.begin(db.conn)) {
+            Transaction.afterRollback(db.conn, () -> ran.add("outer"));
+            try (Transaction inner = Transaction.begin(db.conn)) {
+                Transaction.afterRollback(db.conn, () -> ran.add("committed"));
+                inner.commit();
+            }
+            try (Transaction inner = Transaction.begin(db.conn)) {
+                Transaction.afterRollback(db.conn, () -> ran.add("rolled back"));
+            }
+            assertEquals(List.of("rolled back"), ran);
+        }
+        assertEquals(List.of("rolled back", "committed", "outer"), ran);
+
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            Transaction.afterRollback(db.conn, () -> ran.add("discarded"));
+            tx.commit();
+        }
+        Transaction.afterRollback(db.conn, () -> ran.add("no scope"));
+        assertEquals(3, ran.size());
+    }
+
+    @Test
+    void rolledBackCreateLeavesNoTableInTheCatalog() throws Exception {
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            SchemaDB.createTable(db.conn, "ghost", SchemaDB.createCustomerTable());
+            assertTrue(SchemaDB.tableExists(db.conn, "ghost"));
+        }
+        assertFalse(SchemaDB.tableExists(db.conn, "ghost"));
+        assertFalse(SchemaDB.catalog.isDefined("ghost"));
+
+        SchemaDB.createTable(db.conn, "ghost", SchemaDB.createCustomerTable());
+        assertTrue(SchemaDB.tableExists(db.conn, "ghost"));
+        assertEquals(0, db.count("SELECT count(*) FROM ghost"));
+    }
+
+    @Test
+    void rolledBackInsertLeavesTheTableEmpty() throws Exception {
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            db.insertCustomer(1, "a");
+            assertTrue(SchemaDB.tableFilled(db.conn, "customer"));
+        }
+        assertFalse(SchemaDB.tableFilled(db.conn, "customer"));
+    }
+
+    @Test
+    void rolledBackRenameRestoresTheColumns() throws Exception {
+        try (Transaction tx = Transaction.begin(db.conn)) {
+            SchemaDB.renameColumn(db.conn, "customer", "customer_name", "name");
+            assertTrue(SchemaDB.catalog.columns("customer").containsKey("name"));
+        }
+        assertTrue(SchemaDB.catalog.columns("customer").containsKey("customer_name"));
+        assertFalse(SchemaDB.catalog.columns("customer").containsKey("name"));
+    }
+
+    @Test
+    void returningAConnectionToItsPoolEndsItsScopes() throws Exception {
+        List<String> ran = new ArrayList<>();
+        Connection borrowed = db.pool.getConnection();
+        Transaction.begin(borrowed);
+        Transaction.afterRollback(borrowed, () -> ran.add("rolled back"));
+        Transaction.afterCompletion(borrowed, () -> ran.add("completed"));
+        SchemaDB.insertRow(borrowed, "customer", Map.of("customer_id", 1, "customer_name", "a"));
+        borrowed.close();
+
+        assertFalse(Transaction.isActive(borrowed));
+        assertEquals(List.of("rolled back", "completed"), ran);
+        assertEquals(0, customers());
+    }
+
+    @Test
+    void scopesOfClosedConnectionsAreDroppedByTheNextScope() throws Exception {
+        Connection direct = DriverManager.getConnection(db.url);
+        Transaction.begin(direct);
+        direct.close();
+        assertTrue(Transaction.isActive(direct));
+
+        Transaction.run(db.conn, Transaction.Mode.DEFERRED, conn -> null);
+        assertFalse(Transaction.isActive(direct));
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkAggregatesTest {
+    private final WorkAggregates aggregates = SchemaDB.workAggregates;
+    private TestDatabase db;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("work");
+        // Orders written before the install are counted by its fill
+        db.insertWork(1, 1, 1, 100);
+        db.insertWork(2, 1, 2, 200);
+        aggregates.install(db.conn);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void totalsFollowInsertsUpdatesAndDeletes() throws Exception {
+        db.insertWork(3, 2, 1, 50);
+        assertEquals(2, aggregates.forCustomer(db.conn, 1).getOrders());
+        assertEquals(300, aggregates.forCustomer(db.conn, 1).getUnpaidAmount());
+        assertEquals(150, aggregates.forCloth(db.conn, 1).getUnpaidAmount());
+
+        SchemaDB.updateTable(db.conn, "work", Assignments.of("paid", 1).set("work_done", 1), Condition.eq("work_id", 2));
+        WorkAggregates.Totals customer = aggregates.forCustomer(db.conn, 1);
+        assertEquals(2, customer.getOrders());
+        assertEquals(1, customer.getOpenOrders());
+        assertEquals(1, customer.getUnpaidOrders());
+        assertEquals(100, customer.getUnpaidAmount());
+
+        // Moving an order to another customer moves its totals
+        SchemaDB.updateTable(db.conn, "work", Assignments.of("customer_id", 2), Condition.eq("work_id", 1));
+        assertEquals(0, aggregates.forCustomer(db.conn, 1).getUnpaidAmount());
+        assertEquals(150, aggregates.forCustomer(db.conn, 2).getUnpaidAmount());
+
+        SchemaDB.deleteTuple(db.conn, "work", Condition.eq("customer_id", 2));
+        assertEquals(0, aggregates.forCustomer(db.conn, 2).getOrders());
+        assertEquals(0, db.count("SELECT count(*) FROM " + WorkAggregates.CUSTOMER_TABLE + " WHERE customer_id = 2"));
+        assertEquals(0, aggregates.verify(db.conn));
+    }
+
+    @Test
+    void dueDatesSumUpToADay() throws Exception {
+        db.insertWork(3, 2, 1, 50);
+        // Orders 1, 2 and 3 are due on the 2nd, 3rd and 1st
+        assertEquals(50, aggregates.dueOn(db.conn, "2026-11-01").getUnpaidAmount());
+        assertEquals(150, aggregates.dueBy(db.conn, "2026-11-02").getUnpaidAmount());
+        assertEquals(3, aggregates.dueBy(db.conn, "2026-12-31").getOrders());
+    }
+
+    @Test
+    void verifyFindsWritesMadeWithoutTheTriggersAndRebuildFixesThem() throws Exception {
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("DROP TRIGGER work_totals_insert");
+        }
+        assertFalse(aggregates.isInstalled(db.conn));
+        db.insertWork(3, 1, 1, 50);
+        assertTrue(aggregates.verify(db.conn) > 0);
+
+        aggregates.rebuild(db.conn);
+        assertTrue(aggregates.isInstalled(db.conn));
+        assertEquals(0, aggregates.verify(db.conn));
+        assertEquals(350, aggregates.forCustomer(db.conn, 1).getUnpaidAmount());
+    }
+
+    @Test
+    void trackedColumnsCannotBeAlteredWhileInstalled() throws Exception {
+        SchemaDB.renameColumn(db.conn, "work", "pay_amt", "payable_amt");
+        SchemaDB.dropColumn(db.conn, "work", "paid");
+        assertTrue(SchemaDB.catalog.columns("work").containsKey("pay_amt"));
+        assertTrue(SchemaDB.catalog.columns("work").containsKey("paid"));
+        assertTrue(aggregates.isInstalled(db.conn));
+
+        // Other columns change freely and the totals keep following the orders
+        SchemaDB.renameColumn(db.conn, "work", "fashion", "style");
+        SchemaDB.dropColumn(db.conn, "work", "fin_date");
+        assertFalse(SchemaDB.catalog.columns("work").containsKey("fin_date"));
+        assertTrue(aggregates.isInstalled(db.conn));
+        db.insertWork(3, 1, 1, 50);
+        assertEquals(3, aggregates.forCustomer(db.conn, 1).getOrders());
+        assertEquals(0, aggregates.verify(db.conn));
+    }
+
+    @Test
+    void alteringWorkPutsBackDroppedTriggers() throws Exception {
+        try (Statement stmt = db.conn.createStatement()) {
+            stmt.execute("DROP TRIGGER work_totals_update");
+        }
+        SchemaDB.addColumn(db.conn, "work", "notes", "TEXT");
+        assertTrue(aggregates.isInstalled(db.conn));
+        assertEquals(0, aggregates.verify(db.conn));
+    }
+}
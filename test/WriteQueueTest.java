@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteQueueTest {
+    private TestDatabase db;
+    private WriteQueue queue;
+
+    @BeforeEach
+    void open() throws Exception {
+        db = new TestDatabase();
+        db.createTable("customer");
+        // A long delay puts every mutation submitted below into one group
+        queue = new WriteQueue(db.pool, 16, 200, 100);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        queue.close();
+        db.close();
+    }
+
+    private CompletableFuture<Integer> insertCustomer(long id) {
+        return queue.submit(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                return stmt.executeUpdate("INSERT INTO customer (customer_id, customer_name) VALUES (" + id + ", 'c')");
+            }
+        });
+    }
+
+    @Test
+    void aFailingMutationRollsBackAloneAndTheGroupCommits() throws Exception {
+        CompletableFuture<Integer> first = insertCustomer(1);
+        CompletableFuture<Integer> failing = queue.submit(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("INSERT INTO customer (customer_id, customer_name) VALUES (2, 'c')");
+                return stmt.executeUpdate("INSERT INTO no_such_table VALUES (1)");
+            }
+        });
+        CompletableFuture<Integer> last = insertCustomer(3);
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, last.get(5, TimeUnit.SECONDS));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, e.getCause());
+        assertEquals(2, db.count("SELECT count(*) FROM customer"));
+        assertEquals(0, db.count("SELECT count(*) FROM customer WHERE customer_id = 2"));
+    }
+
+    @Test
+    void insertedClothsGetTheirMeasurementStorage() throws Exception {
+        db.createTable("cloths");
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("cloth_id", 1);
+        values.put("cloth_name", "shirt");
+        queue.insertValues("cloths", values).get(5, TimeUnit.SECONDS);
+
+        assertTrue(SchemaDB.tableExists(db.conn, SchemaDB.measurements.mode == MeasurementStore.Mode.SINGLE_TABLE
+                ? MeasurementStore.TABLE : "shirt"));
+    }
+
+    @Test
+    void everyMutationSubmittedWhileClosingCompletes() throws Exception {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= 200; i++) {
+                futures.add(insertCustomer(i));
+            }
+        });
+        producer.start();
+        queue.close();
+        producer.join();
+
+        int committed = 0;
+        for (CompletableFuture<Integer> future : futures) {
+            try {
+                committed += future.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertInstanceOf(RejectedExecutionException.class, e.getCause());
+            }
+        }
+        assertEquals(committed, db.count("SELECT count(*) FROM customer"));
+    }
+}